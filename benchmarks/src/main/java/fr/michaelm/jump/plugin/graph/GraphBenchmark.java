@@ -0,0 +1,87 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
+import fr.michaelm.jump.feature.jgrapht.GraphFactory;
+import fr.michaelm.jump.feature.jgrapht.INode;
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.jgrapht.graph.Pseudograph;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of graph construction and of the linear network plugins, on
+ * synthetic networks of several sizes.
+ * <p>Plugin benchmarks run the headless plugins with their default
+ * parameters, result features included.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// stream order passes are recursive and need a large stack on long rivers
+@Fork(value = 1, jvmArgsAppend = "-Xss256m")
+public class GraphBenchmark {
+
+    @Param({"grid", "tree", "dendritic", "delta", "chain"})
+    public String network;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private FeatureCollection dataset;
+    private List<Feature> features;
+
+    @Setup
+    public void setup() {
+        dataset = NetworkGenerator.create(network, size, 42L);
+        features = dataset.getFeatures();
+    }
+
+    @Benchmark
+    public Pseudograph<INode,FeatureAsEdge> undirectedGraph() {
+        return GraphFactory.createUndirectedGraph(features, false);
+    }
+
+    @Benchmark
+    public DirectedWeightedPseudograph<INode,FeatureAsEdge> directedGraph() {
+        return GraphFactory.createDirectedGraph(features, false);
+    }
+
+    @Benchmark
+    public Map<String,FeatureCollection> graphComponents() {
+        return new GraphComponentsPlugIn().run(new DummyTaskMonitor(), dataset);
+    }
+
+    @Benchmark
+    public Map<String,FeatureCollection> graphNodes() throws Exception {
+        return new GraphNodesPlugIn().run(new DummyTaskMonitor(), dataset);
+    }
+
+    @Benchmark
+    public Map<String,FeatureCollection> cycles() {
+        CycleFinderPlugIn plugin = new CycleFinderPlugIn();
+        plugin.addParameter(CycleFinderPlugIn.P_DATASET_NAME, network);
+        plugin.addParameter(CycleFinderPlugIn.P_DATASET, dataset);
+        plugin.addParameter(CycleFinderPlugIn.P_MAX_FEATURE, 12);
+        plugin.addParameter(CycleFinderPlugIn.P_MAX_LENGTH, 20.0);
+        return plugin.run(new DummyTaskMonitor());
+    }
+
+    @Benchmark
+    public FeatureCollection streamOrders() {
+        StreamOrderPlugIn plugin = new StreamOrderPlugIn();
+        plugin.shreve = true;
+        plugin.metrics = true;
+        plugin.horton = true;
+        plugin.hack = true;
+        plugin.lengthAttributeIsGeometry = true;
+        return plugin.computeStreamOrders(new DummyTaskMonitor(), dataset);
+    }
+}
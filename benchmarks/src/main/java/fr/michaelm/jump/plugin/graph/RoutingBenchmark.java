@@ -0,0 +1,81 @@
+package fr.michaelm.jump.plugin.graph;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of point to point queries between random nodes : Dijkstra
+ * search stopped at the destination, A* search, and ContractionHierarchy
+ * query (with and without path unpacking), plus the hierarchy
+ * preprocessing. Lattice-like grids are the worst case of the hierarchy
+ * (its preprocessing takes minutes from one million edges), so the default
+ * sizes stop at 100000; larger tree-like networks can be run with
+ * -p network=delta -p size=1000000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+    @Param({"grid", "dendritic", "delta"})
+    public String network;
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean directed;
+
+    private NetworkRouter router;
+    private NetworkRouter.Search search;
+    private ContractionHierarchy hierarchy;
+    private ContractionHierarchy.Query query;
+    private int nodeCount;
+    private final Random random = new Random(42L);
+
+    @Setup
+    public void setup() {
+        CompactGraph graph = CompactGraph.create(
+                NetworkGenerator.create(network, size, 42L).getFeatures(), null, false, false);
+        router = new NetworkRouter(graph, null, directed);
+        search = router.newSearch();
+        hierarchy = new ContractionHierarchy(router, null);
+        query = hierarchy.newQuery();
+        nodeCount = graph.getNodeCount();
+    }
+
+    @Benchmark
+    public void dijkstra() {
+        search.expand(random.nextInt(nodeCount), new int[]{random.nextInt(nodeCount)}, Double.POSITIVE_INFINITY);
+    }
+
+    @Benchmark
+    public double aStar() {
+        return search.route(random.nextInt(nodeCount), random.nextInt(nodeCount));
+    }
+
+    @Benchmark
+    public double hierarchyQuery() {
+        return query.route(random.nextInt(nodeCount), random.nextInt(nodeCount));
+    }
+
+    @Benchmark
+    public int[] hierarchyPath() {
+        query.route(random.nextInt(nodeCount), random.nextInt(nodeCount));
+        return query.getPath();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public int preprocessing() {
+        return new ContractionHierarchy(router, null).getShortcutCount();
+    }
+}
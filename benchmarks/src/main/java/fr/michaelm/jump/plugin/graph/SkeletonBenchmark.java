@@ -0,0 +1,45 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.locationtech.jts.geom.Geometry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of SkeletonPlugIn on a random polygon, with the Voronoi and
+ * the Delaunay engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SkeletonBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int vertices;
+
+    @Param({"false", "true"})
+    public boolean delaunay;
+
+    private FeatureCollection dataset;
+
+    @Setup
+    public void setup() {
+        dataset = NetworkGenerator.asDataset(NetworkGenerator.starPolygon(vertices, 42L));
+    }
+
+    @Benchmark
+    public FeatureCollection skeleton() throws Exception {
+        SkeletonPlugIn plugin = new SkeletonPlugIn();
+        plugin.addParameter(SkeletonPlugIn.P_THREADS, 1);
+        plugin.addParameter(SkeletonPlugIn.P_DELAUNAY, delaunay);
+        return plugin.skeletonize(new DummyTaskMonitor(), dataset,
+                Collections.synchronizedList(new ArrayList<Geometry>()), message -> {});
+    }
+}
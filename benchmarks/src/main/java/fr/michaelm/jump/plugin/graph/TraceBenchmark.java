@@ -0,0 +1,78 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of upstream / downstream traces answered by ReachabilityIndex,
+ * compared to a breadth first search on the CompactGraph (what a trace
+ * without index costs), from random edges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraceBenchmark {
+
+    @Param({"grid", "dendritic", "delta"})
+    public String network;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    private List<Feature> features;
+    private CompactGraph graph;
+    private ReachabilityIndex index;
+    private final Random random = new Random(42L);
+
+    @Setup
+    public void setup() {
+        features = NetworkGenerator.create(network, size, 42L).getFeatures();
+        graph = CompactGraph.create(features, null, false, false);
+        index = new ReachabilityIndex(graph, features);
+    }
+
+    @Benchmark
+    public int buildIndex() {
+        return new ReachabilityIndex(graph, features).getComponentCount();
+    }
+
+    @Benchmark
+    public int traceUpstream() {
+        return index.trace(new int[]{random.nextInt(graph.getEdgeCount())}, false).length;
+    }
+
+    @Benchmark
+    public int traceDownstream() {
+        return index.trace(new int[]{random.nextInt(graph.getEdgeCount())}, true).length;
+    }
+
+    @Benchmark
+    public int searchUpstream() {
+        int edge = random.nextInt(graph.getEdgeCount());
+        boolean[] visited = new boolean[graph.getNodeCount()];
+        int[] queue = new int[graph.getNodeCount()];
+        int head = 0, tail = 0, count = 1;
+        queue[tail++] = graph.getSource(edge);
+        visited[graph.getSource(edge)] = true;
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = graph.getInEdgeStart(node) ; i < graph.getInEdgeStart(node + 1) ; i++) {
+                int e = graph.getInEdge(i);
+                count++;
+                int source = graph.getSource(e);
+                if (!visited[source]) {
+                    visited[source] = true;
+                    queue[tail++] = source;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,126 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes numeric attributes of a dataset to a columnar binary file, through
+ * memory mapped buffers. Record i is the feature i of the dataset, and each
+ * attribute is a contiguous column of fixed width values, so that a column
+ * can be memory mapped by the reader (e.g. numpy.memmap).
+ * The first column, FID, holds the id of the source feature of each record,
+ * so that records can be joined back to the source dataset.
+ * <p>File layout (little-endian) :</p>
+ * <pre>
+ * 0   magic        8 bytes "OJGRAPHC"
+ * 8   version      int32 (1)
+ * 12  columns      int32
+ * 16  records      int64
+ * 24  descriptors  32 bytes per column :
+ *                    name   16 bytes, ASCII, NUL padded
+ *                    type   1 byte, 'i' (int32) or 'd' (float64)
+ *                    (7 bytes padding)
+ *                    offset int64, position of the column in the file
+ * ...  columns     aligned on 8 bytes
+ * </pre>
+ * Null values are written as -1 in int32 columns and NaN in float64 columns.
+ */
+class ColumnarExport {
+
+    private static final byte[] MAGIC = "OJGRAPHC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int DESCRIPTOR_SIZE = 32;
+    private static final int NAME_SIZE = 16;
+    static final String ID_COLUMN = "FID";
+
+    private ColumnarExport() {}
+
+    /**
+     * Writes ids (an int32 FID column, ids[i] being the id of the source
+     * feature of feature i) and attributes of the features of fc to file.
+     * Integer attributes are written as int32 columns, other ones as float64
+     * columns.
+     * @throws IllegalArgumentException if an attribute does not exist or
+     * is not numeric, or if there is not one id per feature
+     */
+    static void write(File file, FeatureCollection fc, int[] ids, List<String> attributes) throws IOException {
+        if (ids.length != fc.size()) {
+            throw new IllegalArgumentException(ids.length + " ids for " + fc.size() + " features");
+        }
+        FeatureSchema schema = fc.getFeatureSchema();
+        int[] indices = new int[attributes.size()];
+        boolean[] isInteger = new boolean[attributes.size()];
+        for (int c = 0 ; c < indices.length ; c++) {
+            String name = attributes.get(c);
+            if (!schema.hasAttribute(name)) {
+                throw new IllegalArgumentException("Dataset has no attribute named " + name);
+            }
+            if (name.getBytes(StandardCharsets.US_ASCII).length > NAME_SIZE) {
+                throw new IllegalArgumentException("Column name " + name + " is longer than " + NAME_SIZE);
+            }
+            indices[c] = schema.getAttributeIndex(name);
+            AttributeType type = schema.getAttributeType(indices[c]);
+            isInteger[c] = type == AttributeType.INTEGER;
+            if (!isInteger[c] && type != AttributeType.DOUBLE) {
+                throw new IllegalArgumentException("Attribute " + name + " is not numeric");
+            }
+        }
+        List<Feature> features = fc.getFeatures();
+        int records = features.size();
+        // the id column comes first
+        long idOffset = 24 + (long)DESCRIPTOR_SIZE * (indices.length + 1);
+        long size = (idOffset + 4L * records + 7) & ~7L;
+        long[] offsets = new long[indices.length];
+        for (int c = 0 ; c < indices.length ; c++) {
+            offsets[c] = size;
+            size += (isInteger[c] ? 4L : 8L) * records;
+            size = (size + 7) & ~7L;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, idOffset)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putInt(indices.length + 1).putLong(records);
+            putDescriptor(header, ID_COLUMN, true, idOffset);
+            for (int c = 0 ; c < indices.length ; c++) {
+                putDescriptor(header, attributes.get(c), isInteger[c], offsets[c]);
+            }
+            MappedByteBuffer idColumn = channel.map(FileChannel.MapMode.READ_WRITE, idOffset, 4L * records);
+            idColumn.order(ByteOrder.LITTLE_ENDIAN);
+            for (int id : ids) idColumn.putInt(id);
+            idColumn.force();
+            for (int c = 0 ; c < indices.length ; c++) {
+                int width = isInteger[c] ? 4 : 8;
+                MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_WRITE,
+                        offsets[c], (long)width * records);
+                column.order(ByteOrder.LITTLE_ENDIAN);
+                int index = indices[c];
+                for (Feature feature : features) {
+                    Object value = feature.getAttribute(index);
+                    if (isInteger[c]) column.putInt(value == null ? -1 : ((Number)value).intValue());
+                    else column.putDouble(value == null ? Double.NaN : ((Number)value).doubleValue());
+                }
+                column.force();
+            }
+        }
+    }
+
+    private static void putDescriptor(ByteBuffer header, String column, boolean isInteger, long offset) {
+        byte[] name = column.getBytes(StandardCharsets.US_ASCII);
+        header.put(name).put(new byte[NAME_SIZE - name.length]);
+        header.put((byte)(isInteger ? 'i' : 'd')).put(new byte[7]);
+        header.putLong(offset);
+    }
+}
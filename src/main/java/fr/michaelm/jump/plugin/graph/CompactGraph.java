@@ -0,0 +1,520 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directed graph of a linear network stored in primitive arrays. Each edge
+ * only keeps its end nodes, its length, the index of its feature in the
+ * source (feature list or shapefile record) and its group (the value of the
+ * grouping attribute). Feature geometries are not referenced and must be
+ * fetched from the source when needed.
+ * <p>Nodes are deduplicated on their exact 2D (or 3D) coordinates within a
+ * group, as GraphFactory does for each graph of a group. Nodes and edges are
+ * numbered in the order they are added.</p>
+ * <p>Adjacency lists are built in compressed arrays the first time they are
+ * queried : edges must not be added afterwards.</p>
+ * <p>The graph can be written to a binary file and read back through memory
+ * mapped buffers (see GraphCache). A graph read from a file is complete :
+ * its adjacency is built and no edge can be added.</p>
+ */
+class CompactGraph {
+
+    private static final int MAGIC = 0x47524150;   // "GRAP"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 21;
+    private static final int MAX_MAPPING = 1 << 30;
+
+    // group value types which can be written to a file
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte BOOLEAN = 5;
+    private static final byte DATE = 6;
+    private static final byte DECIMAL = 7;
+
+    private final boolean dim3;
+
+    // groups (values of the grouping attribute)
+    private final List<Object> groups = new ArrayList<>();
+    private final Map<Object,Integer> groupIndex = new HashMap<>();
+
+    // nodes
+    private double[] xyz = new double[3*1024];
+    private int[] nodeGroup = new int[1024];
+    private int[] inDegree = new int[1024];
+    private int[] outDegree = new int[1024];
+    private int nodeCount;
+    private int[] nodeTable = new int[2048];   // open addressing, -1 = empty
+
+    // edges
+    private int[] source = new int[1024];
+    private int[] target = new int[1024];
+    private double[] length = new double[1024];
+    private int[] featureIndex = new int[1024];
+    private int edgeCount;
+
+    // compressed adjacency : outgoing edges of node n are
+    // outEdges[outOffset[n]] to outEdges[outOffset[n+1]-1] (same for incoming)
+    // outOffset is published last, so that the graph can be shared by threads
+    private volatile int[] outOffset;
+    private int[] outEdges, inOffset, inEdges;
+
+    CompactGraph(boolean dim3) {
+        this.dim3 = dim3;
+        Arrays.fill(nodeTable, -1);
+    }
+
+    /**
+     * Creates the graph of features. If attribute is not null, features are
+     * grouped by attribute value and features with a null or blank value are
+     * ignored if ignoreEmpty is true. Features with an empty geometry are
+     * ignored. Edge feature indices are the indices of features in the list.
+     */
+    static CompactGraph create(List<Feature> features, String attribute, boolean ignoreEmpty, boolean dim3) {
+        CompactGraph graph = new CompactGraph(dim3);
+        for (int i = 0 ; i < features.size() ; i++) {
+            Feature feature = features.get(i);
+            Object group = attribute == null ? null : feature.getAttribute(attribute);
+            if (attribute != null && ignoreEmpty && (group == null || group.toString().trim().isEmpty())) continue;
+            Geometry geometry = feature.getGeometry();
+            if (geometry.isEmpty()) continue;
+            Coordinate[] cc = geometry.getCoordinates();
+            Coordinate c0 = cc[0];
+            Coordinate c1 = cc[cc.length-1];
+            graph.addEdge(c0.x, c0.y, c0.z, c1.x, c1.y, c1.z, geometry.getLength(), i, group);
+        }
+        return graph;
+    }
+
+    boolean isDim3() {
+        return dim3;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    int getGroupCount() {
+        return groups.size();
+    }
+
+    Object getGroup(int group) {
+        return groups.get(group);
+    }
+
+    double getX(int node) {
+        return xyz[3*node];
+    }
+
+    double getY(int node) {
+        return xyz[3*node+1];
+    }
+
+    double getZ(int node) {
+        return xyz[3*node+2];
+    }
+
+    Coordinate getCoordinate(int node) {
+        return new Coordinate(xyz[3*node], xyz[3*node+1], xyz[3*node+2]);
+    }
+
+    int getNodeGroup(int node) {
+        return nodeGroup[node];
+    }
+
+    int getInDegree(int node) {
+        return inDegree[node];
+    }
+
+    int getOutDegree(int node) {
+        return outDegree[node];
+    }
+
+    int getSource(int edge) {
+        return source[edge];
+    }
+
+    int getTarget(int edge) {
+        return target[edge];
+    }
+
+    double getLength(int edge) {
+        return length[edge];
+    }
+
+    int getFeatureIndex(int edge) {
+        return featureIndex[edge];
+    }
+
+    int getEdgeGroup(int edge) {
+        return nodeGroup[source[edge]];
+    }
+
+    /**
+     * Outgoing edges of node are getOutEdge(i) for i in
+     * [getOutEdgeStart(node), getOutEdgeStart(node+1)).
+     */
+    int getOutEdgeStart(int node) {
+        buildAdjacency();
+        return outOffset[node];
+    }
+
+    int getOutEdge(int i) {
+        return outEdges[i];
+    }
+
+    /**
+     * Incoming edges of node are getInEdge(i) for i in
+     * [getInEdgeStart(node), getInEdgeStart(node+1)).
+     */
+    int getInEdgeStart(int node) {
+        buildAdjacency();
+        return inOffset[node];
+    }
+
+    int getInEdge(int i) {
+        return inEdges[i];
+    }
+
+    /**
+     * Adds an edge from (x0,y0,z0) to (x1,y1,z1) and returns its index.
+     * Z are only used to identify nodes in a 3D graph.
+     */
+    int addEdge(double x0, double y0, double z0, double x1, double y1, double z1,
+                double edgeLength, int feature, Object group) {
+        if (outOffset != null) throw new IllegalStateException("Graph adjacency has already been built");
+        Integer g = groupIndex.get(group);
+        if (g == null) {
+            g = groups.size();
+            groups.add(group);
+            groupIndex.put(group, g);
+        }
+        int n0 = addNode(x0, y0, z0, g);
+        int n1 = addNode(x1, y1, z1, g);
+        if (edgeCount == source.length) {
+            int capacity = 2*edgeCount;
+            source = Arrays.copyOf(source, capacity);
+            target = Arrays.copyOf(target, capacity);
+            length = Arrays.copyOf(length, capacity);
+            featureIndex = Arrays.copyOf(featureIndex, capacity);
+        }
+        source[edgeCount] = n0;
+        target[edgeCount] = n1;
+        length[edgeCount] = edgeLength;
+        featureIndex[edgeCount] = feature;
+        outDegree[n0]++;
+        inDegree[n1]++;
+        return edgeCount++;
+    }
+
+    private int addNode(double x, double y, double z, int group) {
+        // -0.0 and 0.0 must be considered as the same coordinate
+        if (x == 0.0) x = 0.0;
+        if (y == 0.0) y = 0.0;
+        if (z == 0.0) z = 0.0;
+        int mask = nodeTable.length - 1;
+        int slot = hash(x, y, z, group) & mask;
+        while (nodeTable[slot] >= 0) {
+            int n = nodeTable[slot];
+            if (xyz[3*n] == x && xyz[3*n+1] == y && nodeGroup[n] == group &&
+                    (!dim3 || sameZ(xyz[3*n+2], z))) return n;
+            slot = (slot + 1) & mask;
+        }
+        if (nodeCount == nodeGroup.length) {
+            int capacity = 2*nodeCount;
+            xyz = Arrays.copyOf(xyz, 3*capacity);
+            nodeGroup = Arrays.copyOf(nodeGroup, capacity);
+            inDegree = Arrays.copyOf(inDegree, capacity);
+            outDegree = Arrays.copyOf(outDegree, capacity);
+        }
+        xyz[3*nodeCount] = x;
+        xyz[3*nodeCount+1] = y;
+        xyz[3*nodeCount+2] = z;
+        nodeGroup[nodeCount] = group;
+        nodeTable[slot] = nodeCount;
+        if (++nodeCount * 2 > nodeTable.length) rehashNodes();
+        return nodeCount - 1;
+    }
+
+    private static boolean sameZ(double z0, double z1) {
+        return z0 == z1 || Double.isNaN(z0) && Double.isNaN(z1);
+    }
+
+    private void rehashNodes() {
+        nodeTable = new int[nodeTable.length * 2];
+        Arrays.fill(nodeTable, -1);
+        int mask = nodeTable.length - 1;
+        for (int n = 0 ; n < nodeCount ; n++) {
+            int slot = hash(xyz[3*n], xyz[3*n+1], xyz[3*n+2], nodeGroup[n]) & mask;
+            while (nodeTable[slot] >= 0) slot = (slot + 1) & mask;
+            nodeTable[slot] = n;
+        }
+    }
+
+    private int hash(double x, double y, double z, int group) {
+        long h = Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y);
+        if (dim3) h = h * 31 + Double.doubleToLongBits(z);
+        return mix(h * 31 + group);
+    }
+
+    private static int mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (int)h;
+    }
+
+    /**
+     * Returns an estimate of the memory used by the graph arrays, adjacency
+     * arrays included even if they are not built yet.
+     */
+    long getMemorySize() {
+        long size = 8L*xyz.length + 4L*(nodeGroup.length + inDegree.length + outDegree.length);
+        size += 4L*(source.length + target.length + featureIndex.length) + 8L*length.length;
+        if (nodeTable != null) size += 4L*nodeTable.length;
+        size += 8L*(nodeCount + 1) + 8L*edgeCount;
+        return size + 64L*groups.size();
+    }
+
+    /**
+     * Returns true if the graph can be written, i.e. if all its group values
+     * are null, strings, numbers, booleans or dates.
+     */
+    boolean isWritable() {
+        for (Object group : groups) {
+            if (typeOf(group) < 0) return false;
+        }
+        return true;
+    }
+
+    private static byte typeOf(Object value) {
+        if (value == null) return NULL;
+        if (value.getClass() == String.class) return STRING;
+        if (value.getClass() == Integer.class) return INTEGER;
+        if (value.getClass() == Long.class) return LONG;
+        if (value.getClass() == Double.class) return DOUBLE;
+        if (value.getClass() == Boolean.class) return BOOLEAN;
+        if (value.getClass() == Date.class) return DATE;
+        if (value.getClass() == BigDecimal.class) return DECIMAL;
+        return -1;
+    }
+
+    /**
+     * Writes the graph to channel, from its current position. Degrees and
+     * adjacency are not written, they are computed again when the graph is
+     * read.
+     * @throws IllegalStateException if the graph is not writable
+     */
+    void write(FileChannel channel) throws IOException {
+        if (!isWritable()) throw new IllegalStateException("Graph groups cannot be written");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).put((byte)(dim3 ? 1 : 0))
+                .putInt(nodeCount).putInt(edgeCount).putInt(groups.size());
+        writeDoubles(channel, buffer, xyz, 3*nodeCount);
+        writeInts(channel, buffer, nodeGroup, nodeCount);
+        writeInts(channel, buffer, source, edgeCount);
+        writeInts(channel, buffer, target, edgeCount);
+        writeDoubles(channel, buffer, length, edgeCount);
+        writeInts(channel, buffer, featureIndex, edgeCount);
+        for (Object group : groups) {
+            byte type = typeOf(group);
+            if (buffer.remaining() < 9) flush(channel, buffer);
+            buffer.put(type);
+            switch (type) {
+                case INTEGER : buffer.putInt((Integer)group); break;
+                case LONG    : buffer.putLong((Long)group); break;
+                case DOUBLE  : buffer.putDouble((Double)group); break;
+                case BOOLEAN : buffer.put((byte)((Boolean)group ? 1 : 0)); break;
+                case DATE    : buffer.putLong(((Date)group).getTime()); break;
+                case STRING  :
+                case DECIMAL :
+                    byte[] bytes = group.toString().getBytes(StandardCharsets.UTF_8);
+                    buffer.putInt(bytes.length);
+                    for (int offset = 0 ; offset < bytes.length ; ) {
+                        if (!buffer.hasRemaining()) flush(channel, buffer);
+                        int count = Math.min(buffer.remaining(), bytes.length - offset);
+                        buffer.put(bytes, offset, count);
+                        offset += count;
+                    }
+                    break;
+                default :
+            }
+        }
+        flush(channel, buffer);
+    }
+
+    static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] array, int size)
+            throws IOException {
+        for (int offset = 0 ; offset < size ; ) {
+            if (buffer.remaining() < 8) flush(channel, buffer);
+            int count = Math.min(buffer.remaining() / 8, size - offset);
+            buffer.asDoubleBuffer().put(array, offset, count);
+            buffer.position(buffer.position() + 8*count);
+            offset += count;
+        }
+    }
+
+    static void writeInts(FileChannel channel, ByteBuffer buffer, int[] array, int size)
+            throws IOException {
+        for (int offset = 0 ; offset < size ; ) {
+            if (buffer.remaining() < 4) flush(channel, buffer);
+            int count = Math.min(buffer.remaining() / 4, size - offset);
+            buffer.asIntBuffer().put(array, offset, count);
+            buffer.position(buffer.position() + 4*count);
+            offset += count;
+        }
+    }
+
+    static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Reads a graph written by write. Arrays are copied from memory mapped
+     * buffers (mapped by chunks of 1 GB at most).
+     * @throws IOException if the file is not a graph file, has been written
+     * by another format version or is truncated
+     */
+    static CompactGraph read(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) throw new IOException("Truncated graph file");
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) throw new IOException("Not a graph file");
+        if (header.getInt() != FORMAT_VERSION) throw new IOException("Unsupported graph file version");
+        CompactGraph graph = new CompactGraph(header.get() == 1);
+        int nodeCount = header.getInt();
+        int edgeCount = header.getInt();
+        int groupCount = header.getInt();
+        if (nodeCount < 0 || edgeCount < 0 || groupCount < 0 ||
+                channel.size() < HEADER_SIZE + 28L*nodeCount + 20L*edgeCount + groupCount) {
+            throw new IOException("Truncated graph file");
+        }
+        graph.xyz = new double[3*nodeCount];
+        graph.nodeGroup = new int[nodeCount];
+        graph.source = new int[edgeCount];
+        graph.target = new int[edgeCount];
+        graph.length = new double[edgeCount];
+        graph.featureIndex = new int[edgeCount];
+        long position = HEADER_SIZE;
+        position = readDoubles(channel, position, graph.xyz);
+        position = readInts(channel, position, graph.nodeGroup);
+        position = readInts(channel, position, graph.source);
+        position = readInts(channel, position, graph.target);
+        position = readDoubles(channel, position, graph.length);
+        position = readInts(channel, position, graph.featureIndex);
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position);
+        try {
+            for (int g = 0 ; g < groupCount ; g++) {
+                Object group;
+                byte type = buffer.get();
+                switch (type) {
+                    case NULL    : group = null; break;
+                    case INTEGER : group = buffer.getInt(); break;
+                    case LONG    : group = buffer.getLong(); break;
+                    case DOUBLE  : group = buffer.getDouble(); break;
+                    case BOOLEAN : group = buffer.get() == 1; break;
+                    case DATE    : group = new Date(buffer.getLong()); break;
+                    case STRING  :
+                    case DECIMAL :
+                        byte[] bytes = new byte[buffer.getInt()];
+                        buffer.get(bytes);
+                        String string = new String(bytes, StandardCharsets.UTF_8);
+                        group = type == STRING ? string : new BigDecimal(string);
+                        break;
+                    default : throw new IOException("Invalid group type in graph file");
+                }
+                graph.groupIndex.put(group, graph.groups.size());
+                graph.groups.add(group);
+            }
+        } catch(RuntimeException e) {
+            throw new IOException("Invalid groups in graph file", e);
+        }
+        graph.nodeCount = nodeCount;
+        graph.edgeCount = edgeCount;
+        graph.inDegree = new int[nodeCount];
+        graph.outDegree = new int[nodeCount];
+        for (int e = 0 ; e < edgeCount ; e++) {
+            int s = graph.source[e];
+            int t = graph.target[e];
+            if (s < 0 || s >= nodeCount || t < 0 || t >= nodeCount) {
+                throw new IOException("Invalid edge in graph file");
+            }
+            graph.outDegree[s]++;
+            graph.inDegree[t]++;
+        }
+        graph.nodeTable = null;
+        graph.buildAdjacencyArrays();
+        return graph;
+    }
+
+    // Reads array from channel at position and returns the position after it
+    static long readDoubles(FileChannel channel, long position, double[] array) throws IOException {
+        for (int offset = 0 ; offset < array.length ; ) {
+            int count = Math.min(MAX_MAPPING / 8, array.length - offset);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 8L*count).asDoubleBuffer().get(array, offset, count);
+            position += 8L*count;
+            offset += count;
+        }
+        return position;
+    }
+
+    // Reads array from channel at position and returns the position after it
+    static long readInts(FileChannel channel, long position, int[] array) throws IOException {
+        for (int offset = 0 ; offset < array.length ; ) {
+            int count = Math.min(MAX_MAPPING / 4, array.length - offset);
+            channel.map(FileChannel.MapMode.READ_ONLY, position, 4L*count).asIntBuffer().get(array, offset, count);
+            position += 4L*count;
+            offset += count;
+        }
+        return position;
+    }
+
+    private void buildAdjacency() {
+        if (outOffset != null) return;
+        synchronized (this) {
+            if (outOffset == null) buildAdjacencyArrays();
+        }
+    }
+
+    private void buildAdjacencyArrays() {
+        int[] outOffset = new int[nodeCount + 1];
+        int[] inOffset = new int[nodeCount + 1];
+        for (int n = 0 ; n < nodeCount ; n++) {
+            outOffset[n+1] = outOffset[n] + outDegree[n];
+            inOffset[n+1] = inOffset[n] + inDegree[n];
+        }
+        int[] outFill = Arrays.copyOf(outOffset, nodeCount);
+        int[] inFill = Arrays.copyOf(inOffset, nodeCount);
+        int[] outEdges = new int[edgeCount];
+        int[] inEdges = new int[edgeCount];
+        for (int e = 0 ; e < edgeCount ; e++) {
+            outEdges[outFill[source[e]]++] = e;
+            inEdges[inFill[target[e]]++] = e;
+        }
+        this.outEdges = outEdges;
+        this.inEdges = inEdges;
+        this.inOffset = inOffset;
+        this.outOffset = outOffset;
+    }
+}
@@ -0,0 +1,586 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Contraction hierarchy of a NetworkRouter, answering point to point queries
+ * much faster than Dijkstra or A* on large networks.
+ * <p>Preprocessing contracts the nodes one by one, from the least important
+ * one (the one whose contraction adds the fewest shortcuts) : each shortest
+ * path going through the contracted node is replaced by a shortcut arc,
+ * unless a witness search finds a path as short avoiding the node. A query
+ * is then a bidirectional Dijkstra search following only arcs towards more
+ * important nodes (with stall-on-demand), which settles a few dozen nodes
+ * on tree-like networks whatever their size. Shortcuts are unpacked into the
+ * edges of the graph to return paths. Dense lattice-like networks are the
+ * worst case : they get many more shortcuts and a much longer
+ * preprocessing.</p>
+ * <p>Arcs of an undirected network can be followed in both directions and
+ * are stored once. The hierarchy can be written to a file and read back
+ * (see GraphCache). It is immutable and can be shared by threads, each
+ * thread using its own Query.</p>
+ */
+class ContractionHierarchy {
+
+    private static final int MAGIC = 0x43484945;   // "CHIE"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 21;
+
+    // witness searches are stopped after settling this number of nodes (a
+    // stopped search adds unnecessary shortcuts, which does not change the
+    // query results)
+    private static final int SIMULATION_LIMIT = 20;
+    private static final int CONTRACTION_LIMIT = 500;
+
+    private final NetworkRouter router;
+    private final int nodeCount;
+    private final boolean directed;
+    private int[] rank;
+
+    // arcs : edges of the graph (first = ~edge, second = -1) and shortcuts
+    // (first arc from tail to the contracted node, second arc from the
+    // contracted node to head)
+    private int arcCount;
+    private int[] arcTail;
+    private int[] arcHead;
+    private int[] arcFirst;
+    private int[] arcSecond;
+    private double[] arcCost;
+
+    // arcs from each node to more important nodes, and arcs to each node
+    // from more important nodes (the same arrays for undirected networks)
+    private int[] upOffset;
+    private int[] upArcs;
+    private int[] downOffset;
+    private int[] downArcs;
+
+    /**
+     * Builds the hierarchy of router. Progress is reported to monitor,
+     * which may be null. Throws a CancellationException if monitor is
+     * cancelled.
+     */
+    ContractionHierarchy(NetworkRouter router, TaskMonitor monitor) {
+        this(router);
+        CompactGraph graph = router.getGraph();
+        int edgeCount = graph.getEdgeCount();
+        arcTail = new int[edgeCount];
+        arcHead = new int[edgeCount];
+        arcFirst = new int[edgeCount];
+        arcSecond = new int[edgeCount];
+        arcCost = new double[edgeCount];
+        for (int e = 0 ; e < edgeCount ; e++) {
+            // loops are never part of a shortest path
+            if (graph.getSource(e) != graph.getTarget(e)) {
+                addArc(graph.getSource(e), graph.getTarget(e), router.getCost(e), ~e, -1);
+            }
+        }
+        new Contraction().run(monitor);
+        buildQueryArcs();
+    }
+
+    private ContractionHierarchy(NetworkRouter router) {
+        this.router = router;
+        this.nodeCount = router.getGraph().getNodeCount();
+        this.directed = router.isDirected();
+    }
+
+    NetworkRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Returns the number of shortcuts added by the preprocessing.
+     */
+    int getShortcutCount() {
+        int count = 0;
+        for (int a = 0 ; a < arcCount ; a++) {
+            if (arcFirst[a] >= 0) count++;
+        }
+        return count;
+    }
+
+    long getMemorySize() {
+        return 4L*rank.length + 24L*arcCount + 4L*(upOffset.length + upArcs.length) +
+                (directed ? 4L*(downOffset.length + downArcs.length) : 0);
+    }
+
+    private int addArc(int tail, int head, double cost, int first, int second) {
+        if (arcCount == arcTail.length) {
+            int capacity = Math.max(16, arcCount + (arcCount >> 1));
+            arcTail = Arrays.copyOf(arcTail, capacity);
+            arcHead = Arrays.copyOf(arcHead, capacity);
+            arcFirst = Arrays.copyOf(arcFirst, capacity);
+            arcSecond = Arrays.copyOf(arcSecond, capacity);
+            arcCost = Arrays.copyOf(arcCost, capacity);
+        }
+        arcTail[arcCount] = tail;
+        arcHead[arcCount] = head;
+        arcCost[arcCount] = cost;
+        arcFirst[arcCount] = first;
+        arcSecond[arcCount] = second;
+        return arcCount++;
+    }
+
+    private int otherNode(int arc, int node) {
+        return arcTail[arc] == node ? arcHead[arc] : arcTail[arc];
+    }
+
+    // Builds the upward and downward arcs of each node from the ranks
+    private void buildQueryArcs() {
+        upOffset = new int[nodeCount + 1];
+        downOffset = directed ? new int[nodeCount + 1] : upOffset;
+        for (int a = 0 ; a < arcCount ; a++) {
+            if (rank[arcTail[a]] < rank[arcHead[a]]) upOffset[arcTail[a] + 1]++;
+            else if (directed) downOffset[arcHead[a] + 1]++;
+            else upOffset[arcHead[a] + 1]++;
+        }
+        for (int n = 0 ; n < nodeCount ; n++) {
+            upOffset[n + 1] += upOffset[n];
+            if (directed) downOffset[n + 1] += downOffset[n];
+        }
+        upArcs = new int[upOffset[nodeCount]];
+        downArcs = directed ? new int[downOffset[nodeCount]] : upArcs;
+        int[] upFill = Arrays.copyOf(upOffset, nodeCount);
+        int[] downFill = directed ? Arrays.copyOf(downOffset, nodeCount) : upFill;
+        for (int a = 0 ; a < arcCount ; a++) {
+            if (rank[arcTail[a]] < rank[arcHead[a]]) upArcs[upFill[arcTail[a]]++] = a;
+            else if (directed) downArcs[downFill[arcHead[a]]++] = a;
+            else upArcs[upFill[arcHead[a]]++] = a;
+        }
+    }
+
+    /**
+     * Creates the state of a query, to be used by a single thread.
+     */
+    Query newQuery() {
+        return new Query();
+    }
+
+    /**
+     * Writes the hierarchy to channel, from its current position. Query
+     * arcs are not written, they are computed again when the hierarchy is
+     * read.
+     */
+    void write(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        buffer.putInt(MAGIC).putInt(FORMAT_VERSION).put((byte)(directed ? 1 : 0))
+                .putInt(nodeCount).putInt(router.getGraph().getEdgeCount()).putInt(arcCount);
+        CompactGraph.writeInts(channel, buffer, rank, nodeCount);
+        CompactGraph.writeInts(channel, buffer, arcTail, arcCount);
+        CompactGraph.writeInts(channel, buffer, arcHead, arcCount);
+        CompactGraph.writeInts(channel, buffer, arcFirst, arcCount);
+        CompactGraph.writeInts(channel, buffer, arcSecond, arcCount);
+        CompactGraph.writeDoubles(channel, buffer, arcCost, arcCount);
+        CompactGraph.flush(channel, buffer);
+    }
+
+    /**
+     * Reads the hierarchy of router written by write.
+     * @throws IOException if the file is not a hierarchy file, has been
+     * written by another format version or for another graph, or is
+     * truncated
+     */
+    static ContractionHierarchy read(FileChannel channel, NetworkRouter router) throws IOException {
+        if (channel.size() < HEADER_SIZE) throw new IOException("Truncated hierarchy file");
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) throw new IOException("Not a hierarchy file");
+        if (header.getInt() != FORMAT_VERSION) throw new IOException("Unsupported hierarchy file version");
+        ContractionHierarchy hierarchy = new ContractionHierarchy(router);
+        if ((header.get() == 1) != hierarchy.directed || header.getInt() != hierarchy.nodeCount ||
+                header.getInt() != router.getGraph().getEdgeCount()) {
+            throw new IOException("Hierarchy file of another graph");
+        }
+        int arcCount = header.getInt();
+        if (arcCount < 0 || channel.size() < HEADER_SIZE + 4L*hierarchy.nodeCount + 24L*arcCount) {
+            throw new IOException("Truncated hierarchy file");
+        }
+        hierarchy.rank = new int[hierarchy.nodeCount];
+        hierarchy.arcTail = new int[arcCount];
+        hierarchy.arcHead = new int[arcCount];
+        hierarchy.arcFirst = new int[arcCount];
+        hierarchy.arcSecond = new int[arcCount];
+        hierarchy.arcCost = new double[arcCount];
+        long position = HEADER_SIZE;
+        position = CompactGraph.readInts(channel, position, hierarchy.rank);
+        position = CompactGraph.readInts(channel, position, hierarchy.arcTail);
+        position = CompactGraph.readInts(channel, position, hierarchy.arcHead);
+        position = CompactGraph.readInts(channel, position, hierarchy.arcFirst);
+        position = CompactGraph.readInts(channel, position, hierarchy.arcSecond);
+        CompactGraph.readDoubles(channel, position, hierarchy.arcCost);
+        hierarchy.arcCount = arcCount;
+        int edgeCount = router.getGraph().getEdgeCount();
+        for (int a = 0 ; a < arcCount ; a++) {
+            int tail = hierarchy.arcTail[a];
+            int head = hierarchy.arcHead[a];
+            int first = hierarchy.arcFirst[a];
+            int second = hierarchy.arcSecond[a];
+            if (tail < 0 || tail >= hierarchy.nodeCount || head < 0 || head >= hierarchy.nodeCount ||
+                    (first < 0 ? ~first >= edgeCount : first >= a || second < 0 || second >= a)) {
+                throw new IOException("Invalid arc in hierarchy file");
+            }
+        }
+        for (int r : hierarchy.rank) {
+            if (r < 0 || r >= hierarchy.nodeCount) throw new IOException("Invalid rank in hierarchy file");
+        }
+        hierarchy.buildQueryArcs();
+        return hierarchy;
+    }
+
+    /**
+     * Temporary state of the preprocessing : the arcs of each node to the
+     * nodes which have not been contracted yet, and the witness search.
+     */
+    private final class Contraction {
+
+        // out and in are the same lists for undirected networks
+        private final int[][] out = new int[nodeCount][];
+        private final int[] outCount = new int[nodeCount];
+        private final int[][] in;
+        private final int[] inCount;
+        private final boolean[] contracted = new boolean[nodeCount];
+        private final int[] deletedNeighbours = new int[nodeCount];
+
+        private final double[] witnessDistance = new double[nodeCount];
+        private final int[] witnessReached = new int[nodeCount];
+        private final int[] witnessSettled = new int[nodeCount];
+        private final int[] witnessTarget = new int[nodeCount];
+        private final NodeHeap witnessHeap = new NodeHeap(nodeCount);
+        private int witnessSearch;
+
+        private Contraction() {
+            in = directed ? new int[nodeCount][] : out;
+            inCount = directed ? new int[nodeCount] : outCount;
+            for (int a = 0 ; a < arcCount ; a++) {
+                add(out, outCount, arcTail[a], a);
+                add(in, inCount, arcHead[a], a);
+            }
+        }
+
+        private void add(int[][] lists, int[] counts, int node, int arc) {
+            int[] list = lists[node];
+            if (list == null) list = lists[node] = new int[4];
+            else if (counts[node] == list.length) list = lists[node] = Arrays.copyOf(list, 2 * list.length);
+            list[counts[node]++] = arc;
+        }
+
+        // Removes the arcs of node leading to removed
+        private void remove(int[][] lists, int[] counts, int node, int removed) {
+            int[] list = lists[node];
+            int count = 0;
+            for (int i = 0 ; i < counts[node] ; i++) {
+                if (otherNode(list[i], node) != removed) list[count++] = list[i];
+            }
+            counts[node] = count;
+        }
+
+        void run(TaskMonitor monitor) {
+            rank = new int[nodeCount];
+            NodeHeap queue = new NodeHeap(nodeCount);
+            for (int n = 0 ; n < nodeCount ; n++) queue.push(n, priority(n));
+            int[] neighbourStamp = new int[nodeCount];
+            int order = 0;
+            ProgressReporter progress = new ProgressReporter(monitor, nodeCount, "contracted nodes");
+            while (!queue.isEmpty()) {
+                int node = queue.pop();
+                // priorities change as neighbours are contracted : they are
+                // only updated lazily, when a node reaches the top of the queue
+                double priority = priority(node);
+                if (!queue.isEmpty() && priority > queue.peekKey()) {
+                    queue.push(node, priority);
+                    continue;
+                }
+                contract(node, false);
+                contracted[node] = true;
+                rank[node] = order++;
+                for (int pass = 0 ; pass < (directed ? 2 : 1) ; pass++) {
+                    int[] list = pass == 0 ? out[node] : in[node];
+                    int count = pass == 0 ? outCount[node] : inCount[node];
+                    for (int i = 0 ; i < count ; i++) {
+                        int neighbour = otherNode(list[i], node);
+                        if (contracted[neighbour] || neighbourStamp[neighbour] == order) continue;
+                        neighbourStamp[neighbour] = order;
+                        deletedNeighbours[neighbour]++;
+                        remove(out, outCount, neighbour, node);
+                        if (directed) remove(in, inCount, neighbour, node);
+                    }
+                }
+                out[node] = null;
+                in[node] = null;
+                progress.report(order);
+                if (monitor != null && (order & 0xFF) == 0 && monitor.isCancelRequested()) {
+                    throw new CancellationException("Contraction cancelled");
+                }
+            }
+        }
+
+        // Edge difference (shortcuts added - arcs removed) and number of
+        // contracted neighbours, to spread the contraction over the network
+        private double priority(int node) {
+            int degree = directed ? outCount[node] + inCount[node] : outCount[node];
+            return 2 * (contract(node, true) - degree) + deletedNeighbours[node];
+        }
+
+        // Adds the shortcuts needed to contract node (or only counts them if
+        // simulate is true) and returns their number
+        private int contract(int node, boolean simulate) {
+            int shortcuts = 0;
+            int[] ins = in[node];
+            int[] outs = out[node];
+            for (int i = 0 ; i < inCount[node] ; i++) {
+                int arcIn = ins[i];
+                int source = otherNode(arcIn, node);
+                newWitnessSearch();
+                double maxCost = 0;
+                int targets = 0;
+                // pairs of undirected arcs are considered once
+                int first = directed ? 0 : i + 1;
+                for (int j = first ; j < outCount[node] ; j++) {
+                    int target = otherNode(outs[j], node);
+                    if (target == source) continue;
+                    maxCost = Math.max(maxCost, arcCost[arcIn] + arcCost[outs[j]]);
+                    if (witnessTarget[target] != witnessSearch) {
+                        witnessTarget[target] = witnessSearch;
+                        targets++;
+                    }
+                }
+                if (targets == 0) continue;
+                witnessSearch(source, node, maxCost, targets, simulate ? SIMULATION_LIMIT : CONTRACTION_LIMIT);
+                for (int j = first ; j < outCount[node] ; j++) {
+                    int arcOut = outs[j];
+                    int target = otherNode(arcOut, node);
+                    if (target == source) continue;
+                    double cost = arcCost[arcIn] + arcCost[arcOut];
+                    if (witnessReached[target] == witnessSearch && witnessDistance[target] <= cost) continue;
+                    shortcuts++;
+                    if (!simulate) {
+                        int arc = addArc(source, target, cost, arcIn, arcOut);
+                        add(out, outCount, source, arc);
+                        add(in, inCount, target, arc);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        private void newWitnessSearch() {
+            if (++witnessSearch == Integer.MAX_VALUE) {
+                Arrays.fill(witnessReached, 0);
+                Arrays.fill(witnessSettled, 0);
+                Arrays.fill(witnessTarget, 0);
+                witnessSearch = 1;
+            }
+        }
+
+        // Dijkstra search from source avoiding node, stopped when the targets
+        // marked for this search are settled, at maxCost or after limit
+        // settled nodes
+        private void witnessSearch(int source, int node, double maxCost, int targets, int limit) {
+            witnessHeap.clear();
+            witnessReached[source] = witnessSearch;
+            witnessDistance[source] = 0;
+            witnessHeap.push(source, 0);
+            int settled = 0;
+            while (!witnessHeap.isEmpty()) {
+                int n = witnessHeap.pop();
+                double d = witnessDistance[n];
+                if (d > maxCost || ++settled > limit) break;
+                witnessSettled[n] = witnessSearch;
+                if (witnessTarget[n] == witnessSearch && --targets == 0) break;
+                int[] list = out[n];
+                for (int i = 0 ; i < outCount[n] ; i++) {
+                    int next = otherNode(list[i], n);
+                    if (next == node || witnessSettled[next] == witnessSearch) continue;
+                    double nd = d + arcCost[list[i]];
+                    if (nd > maxCost) continue;
+                    if (witnessReached[next] != witnessSearch) {
+                        witnessReached[next] = witnessSearch;
+                        witnessDistance[next] = nd;
+                        witnessHeap.push(next, nd);
+                    } else if (nd < witnessDistance[next]) {
+                        witnessDistance[next] = nd;
+                        witnessHeap.update(next, nd);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * State of the queries of a thread : a forward search from the origin
+     * and a backward search from the destination, both going up the
+     * hierarchy. Values of the previous query are invalidated by
+     * incrementing a query number rather than by clearing the arrays.
+     */
+    final class Query {
+
+        private final double[] forwardDistance = new double[nodeCount];
+        private final double[] backwardDistance = new double[nodeCount];
+        private final int[] forwardPredecessor = new int[nodeCount];   // arc, -1 for the origin
+        private final int[] backwardPredecessor = new int[nodeCount];  // arc, -1 for the destination
+        private final int[] forwardReached = new int[nodeCount];       // query in which the node is reached
+        private final int[] backwardReached = new int[nodeCount];
+        private final NodeHeap forwardHeap = new NodeHeap(nodeCount);
+        private final NodeHeap backwardHeap = new NodeHeap(nodeCount);
+        private int current;
+
+        private int origin;
+        private double best;
+        private int meeting;   // node of the shortest path where both searches meet
+        private int settledCount;
+
+        // buffers of getPath
+        private int[] path = new int[64];
+        private int pathSize;
+        private int[] stack = new int[64];
+
+        private Query() {}
+
+        /**
+         * Returns the cost of the shortest path from origin to destination,
+         * or an infinite cost if destination cannot be reached.
+         */
+        double route(int origin, int destination) {
+            if (++current == Integer.MAX_VALUE) {
+                Arrays.fill(forwardReached, 0);
+                Arrays.fill(backwardReached, 0);
+                current = 1;
+            }
+            forwardHeap.clear();
+            backwardHeap.clear();
+            settledCount = 0;
+            this.origin = origin;
+            best = Double.POSITIVE_INFINITY;
+            meeting = -1;
+            reach(origin, -1, 0, forwardDistance, forwardPredecessor, forwardReached, forwardHeap);
+            reach(destination, -1, 0, backwardDistance, backwardPredecessor, backwardReached, backwardHeap);
+            while (true) {
+                double forwardKey = forwardHeap.isEmpty() ? Double.POSITIVE_INFINITY : forwardHeap.peekKey();
+                double backwardKey = backwardHeap.isEmpty() ? Double.POSITIVE_INFINITY : backwardHeap.peekKey();
+                if (forwardKey >= best && backwardKey >= best) break;
+                if (forwardKey <= backwardKey) {
+                    settle(forwardHeap.pop(), upOffset, upArcs, downOffset, downArcs,
+                            forwardDistance, forwardPredecessor, forwardReached, forwardHeap,
+                            backwardDistance, backwardReached);
+                } else {
+                    settle(backwardHeap.pop(), downOffset, downArcs, upOffset, upArcs,
+                            backwardDistance, backwardPredecessor, backwardReached, backwardHeap,
+                            forwardDistance, forwardReached);
+                }
+            }
+            return best;
+        }
+
+        private void reach(int node, int arc, double d, double[] distance, int[] predecessor,
+                           int[] reached, NodeHeap heap) {
+            if (reached[node] != current) {
+                reached[node] = current;
+                distance[node] = d;
+                predecessor[node] = arc;
+                heap.push(node, d);
+            } else if (d < distance[node]) {
+                distance[node] = d;
+                predecessor[node] = arc;
+                heap.update(node, d);
+            }
+        }
+
+        // Settles node in one direction : checks whether both searches meet
+        // at node, then relaxes its arcs going up unless node can be reached
+        // at a lower cost from a more important node (stall-on-demand)
+        private void settle(int node, int[] offset, int[] arcs, int[] oppositeOffset, int[] oppositeArcs,
+                            double[] distance, int[] predecessor, int[] reached, NodeHeap heap,
+                            double[] otherDistance, int[] otherReached) {
+            settledCount++;
+            double d = distance[node];
+            if (otherReached[node] == current && d + otherDistance[node] < best) {
+                best = d + otherDistance[node];
+                meeting = node;
+            }
+            for (int i = oppositeOffset[node] ; i < oppositeOffset[node + 1] ; i++) {
+                int arc = oppositeArcs[i];
+                int previous = otherNode(arc, node);
+                if (reached[previous] == current && distance[previous] + arcCost[arc] < d) return;
+            }
+            for (int i = offset[node] ; i < offset[node + 1] ; i++) {
+                int arc = arcs[i];
+                reach(otherNode(arc, node), arc, d + arcCost[arc], distance, predecessor, reached, heap);
+            }
+        }
+
+        /**
+         * Returns the cost of the last query.
+         */
+        double getDistance() {
+            return best;
+        }
+
+        /**
+         * Returns the number of nodes settled by the last query (in both
+         * directions).
+         */
+        int getSettledCount() {
+            return settledCount;
+        }
+
+        /**
+         * Returns the edges of the shortest path found by the last query,
+         * from the origin, or null if the destination has not been reached.
+         */
+        int[] getPath() {
+            if (meeting < 0) return null;
+            pathSize = 0;
+            int count = 0;
+            for (int n = meeting ; forwardPredecessor[n] >= 0 ; n = otherNode(forwardPredecessor[n], n)) count++;
+            // arcs of the forward search, from the origin
+            int[] arcs = new int[count];
+            for (int n = meeting ; forwardPredecessor[n] >= 0 ; n = otherNode(forwardPredecessor[n], n)) {
+                arcs[--count] = forwardPredecessor[n];
+            }
+            int node = origin;
+            for (int arc : arcs) {
+                unpack(arc, node);
+                node = otherNode(arc, node);
+            }
+            for (int n = meeting ; backwardPredecessor[n] >= 0 ; n = otherNode(backwardPredecessor[n], n)) {
+                unpack(backwardPredecessor[n], n);
+            }
+            return Arrays.copyOf(path, pathSize);
+        }
+
+        // Appends the edges of arc, followed from node, to path
+        private void unpack(int arc, int node) {
+            int top = 0;
+            stack[top++] = arc;
+            stack[top++] = node;
+            while (top > 0) {
+                int from = stack[--top];
+                int a = stack[--top];
+                if (arcFirst[a] < 0) {
+                    if (pathSize == path.length) path = Arrays.copyOf(path, 2 * pathSize);
+                    path[pathSize++] = ~arcFirst[a];
+                    continue;
+                }
+                if (top + 4 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+                int middle = otherNode(arcFirst[a], arcTail[a]);
+                // the arc followed first is pushed last
+                if (from == arcTail[a]) {
+                    stack[top++] = arcSecond[a];
+                    stack[top++] = middle;
+                    stack[top++] = arcFirst[a];
+                    stack[top++] = from;
+                } else {
+                    stack[top++] = arcFirst[a];
+                    stack[top++] = middle;
+                    stack[top++] = arcSecond[a];
+                    stack[top++] = from;
+                }
+            }
+        }
+    }
+}
@@ -40,14 +40,20 @@ import org.jgrapht.Graph;
 import org.jgrapht.graph.AsSubgraph;
 import org.jgrapht.graph.Pseudograph;
 import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.index.strtree.STRtree;
 import org.locationtech.jts.operation.polygonize.Polygonizer;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JTextField;
 
 
 /**
@@ -55,13 +61,18 @@ import javax.swing.JComboBox;
  * Result is not defined if the Line network is not a Planar Graph
  * This Class uses both JTS Polygonizer to find the faces of the Planar Linework
  * and JGraphT to analyze the graph around theses faces
+ * <p>In tiled mode, the extent of the dataset is split into tiles which are
+ * polygonized independently (and in parallel). As a cycle cannot be longer
+ * than max_length, each tile is extended by max_length, and cycles found in
+ * several tiles are deduplicated on their normalized geometry.</p>
  * @author Micha&euml;l Michaud
- * @version 0.1.2 (2011-07-16)
+ * @version 0.2.0 (2026-10-19)
  */
+//version 0.2.0 (2026-10-19) add tiled mode for very large networks
 //version 0.1.2 (2011-07-16) typo and comments
 //version 0.1.1 (2010-04-22) first svn version
 //version 0.1 (2008-02-02)
-public class CycleFinderPlugIn extends ThreadedBasePlugIn {
+public class CycleFinderPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
 
     private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
 
@@ -88,6 +99,10 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
     static final String P_FIND_ALL_HETEROGENEOUS = "FindAllHeterogeneous";
     static final String P_FIND_AAB_ABB  = "FindAAB_ABB";
 
+    // Tiled mode : tile size <= 0 means tile size = 10 * max_length
+    static final String P_TILED         = "Tiled";
+    static final String P_TILE_SIZE     = "TileSize";
+
     {
         addParameter(P_DATASET_NAME,null);
         addParameter(P_DATASET,null);
@@ -100,6 +115,8 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
         addParameter(P_IGNORE_EMPTY,false);
         addParameter(P_FIND_ALL_HETEROGENEOUS,false);
         addParameter(P_FIND_AAB_ABB,false);
+        addParameter(P_TILED,false);
+        addParameter(P_TILE_SIZE,0.0);
     }
 
 
@@ -137,6 +154,10 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
         final String MAX_FEATURES_TOOLTIP             = i18n.get("CycleFinderPlugIn.max-features-tooltip");
         final String MAX_LENGTH                       = i18n.get("CycleFinderPlugIn.max-length");
         final String MAX_LENGTH_TOOLTIP               = i18n.get("CycleFinderPlugIn.max-length-tooltip");
+        final String TILED                            = i18n.get("CycleFinderPlugIn.tiled");
+        final String TILED_TOOLTIP                    = i18n.get("CycleFinderPlugIn.tiled-tooltip");
+        final String TILE_SIZE                        = i18n.get("CycleFinderPlugIn.tile-size");
+        final String TILE_SIZE_TOOLTIP                = i18n.get("CycleFinderPlugIn.tile-size-tooltip");
         
         final String ALL_HOMOGENEOUS_CYCLES           = i18n.get("CycleFinderPlugIn.all-homogeneous-cycles");
         final String ALL_HOMOGENEOUS_CYCLES_TOOLTIP   = i18n.get("CycleFinderPlugIn.all-homogeneous-cycles-tooltip");
@@ -182,6 +203,11 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
         dialog.addIntegerField(MAX_FEATURES, 10, 6, MAX_FEATURES_TOOLTIP);
         dialog.addDoubleField(MAX_LENGTH, 500, 6, MAX_LENGTH_TOOLTIP);
 
+        final JCheckBox jcb_tiled = dialog.addCheckBox(TILED, getBooleanParam(P_TILED), TILED_TOOLTIP);
+        final JTextField jtf_tile_size = dialog.addDoubleField(TILE_SIZE, getDoubleParam(P_TILE_SIZE), 6, TILE_SIZE_TOOLTIP);
+        jtf_tile_size.setEnabled(getBooleanParam(P_TILED));
+        jcb_tiled.addActionListener(e -> jtf_tile_size.setEnabled(jcb_tiled.isSelected()));
+
         dialog.addSeparator();
         
         final JCheckBox jcb_all_homogeneous_cycles = dialog.addCheckBox(ALL_HOMOGENEOUS_CYCLES, all_homogeneous_cycles, ALL_HOMOGENEOUS_CYCLES_TOOLTIP);
@@ -254,6 +280,8 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
             int min_features    = dialog.getInteger(MIN_FEATURES);
             int max_features    = dialog.getInteger(MAX_FEATURES);
             double max_length   = dialog.getDouble(MAX_LENGTH);
+            boolean tiled       = dialog.getBoolean(TILED);
+            double tile_size    = dialog.getDouble(TILE_SIZE);
             use_attribute = dialog.getBoolean(USE_ATTRIBUTE);
             String attribute = use_attribute? dialog.getText(ATTRIBUTE) : null;
             ignore_empty    = dialog.getBoolean(IGNORE_EMPTY);
@@ -283,6 +311,8 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
             addParameter(P_IGNORE_EMPTY,    ignore_empty);
             addParameter(P_FIND_ALL_HETEROGENEOUS, all_heterogeneous_cycles);
             addParameter(P_FIND_AAB_ABB,    aab_abb_cycles_only);
+            addParameter(P_TILED,           tiled);
+            addParameter(P_TILE_SIZE,       tile_size);
 
             return true;
         }
@@ -294,6 +324,7 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
     public void run(TaskMonitor monitor, PlugInContext context) {
 
         Map<String,FeatureCollection> map = run(monitor);
+        if (map.isEmpty()) return;
 
         String HOMOGENEOUS_CYCLES    = i18n.get("CycleFinderPlugIn.homogeneous-cycles");
         String HETEROGENEOUS_CYCLES  = i18n.get("CycleFinderPlugIn.heterogeneous-cycles");
@@ -314,6 +345,16 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
         }
     }
 
+    /**
+     * Finds the cycles of dataset. The result map contains the homogeneous
+     * cycles and the heterogeneous cycles datasets, or nothing if monitor
+     * has been cancelled.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) {
+        addParameter(P_DATASET, dataset);
+        return run(monitor);
+    }
+
     @SuppressWarnings("unchecked")
     Map<String, FeatureCollection> run(TaskMonitor monitor) {
 
@@ -360,6 +401,8 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
         boolean ignore_empty = getBooleanParam(P_IGNORE_EMPTY);
         boolean all_heterogeneous_cycles = getBooleanParam(P_FIND_ALL_HETEROGENEOUS);
         boolean aab_abb_cycles_only = getBooleanParam(P_FIND_AAB_ABB);
+        boolean tiled = getBooleanParam(P_TILED) && max_length < Double.MAX_VALUE;
+        double tile_size = getDoubleParam(P_TILE_SIZE) > 0 ? getDoubleParam(P_TILE_SIZE) : 10*max_length;
 
         monitor.allowCancellationRequests();
         monitor.report(INDEXATION_OF + getStringParam(P_DATASET_NAME + "..."));
@@ -392,38 +435,24 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
             }
         }
 
-        IndexedFeatureCollection ifc =
-            new IndexedFeatureCollection(filteredFC, new STRtree());
-
-        // Eliminate features with length < max before polygonization
-        // WARNING : a long feature can cut a short cycle into 2 long cycles
-        // ==> eliminating long features can produce small non-simple cycles
-        Collection<Geometry> geoms = new ArrayList<>();
-        // [2013-01-15] Eliminate line duplicates
-        Collection<Geometry> lines = new HashSet<>();
-        for (Feature f : filteredFC.getFeatures()) {
-            Geometry geom = f.getGeometry();
-            if (geom.getLength()<=max_length) {
-                if (geom.getDimension() == 1) lines.add(geom.norm());
-                else geoms.add(geom);
-            }
-        }
-        geoms.addAll(lines);
+        STRtree index = new STRtree();
+        IndexedFeatureCollection ifc = new IndexedFeatureCollection(filteredFC, index);
+        // Build the index before it is queried concurrently by tiles
+        index.build();
 
         monitor.report(POLYGONIZATION_OF + getStringParam(P_DATASET_NAME) + "...");
-        // Polygonisation + selection of polygons with length < threshold
-        Polygonizer polygonizer = new Polygonizer();
-        polygonizer.add(geoms);
-        Collection<Geometry> pols = polygonizer.getPolygons();
-        geoms.clear();
-        for (Geometry p : pols) {
-            if ((p).getLength() <= max_length) geoms.add(p);
-        }
+        Collection<Geometry> geoms = tiled ?
+                findCyclesByTile(monitor, ifc, filteredFC.getEnvelope(), tile_size, max_length) :
+                findCycles(filteredFC.getFeatures(), max_length);
+        if (monitor.isCancelRequested()) return new LinkedHashMap<>();
 
         monitor.report(ANALYSIS_OF + getStringParam(P_DATASET_NAME) + "...");
         int count = 0;
+        ProgressReporter progress = new ProgressReporter(monitor, geoms.size(), PROCESSED_CYCLES);
         // Loop over polygons representing cycles
         for (Geometry g : geoms) {
+            if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+            progress.report(count++);
             // Select edges of the cycle and edges incident to the cycle
             List<Feature> list = ifc.query(g.getEnvelopeInternal());
             for (int i = list.size()-1 ; i>=0 ; i--) {
@@ -553,11 +582,80 @@ public class CycleFinderPlugIn extends ThreadedBasePlugIn {
                     }
                 }
             }
-            count++;
-            monitor.report(count, geoms.size(), PROCESSED_CYCLES);
         }
         return map;
     }
+
+    // Polygonize features and return polygons with length <= max_length
+    private Collection<Geometry> findCycles(Collection<Feature> features, double max_length) {
+        // Eliminate features with length < max before polygonization
+        // WARNING : a long feature can cut a short cycle into 2 long cycles
+        // ==> eliminating long features can produce small non-simple cycles
+        Collection<Geometry> geoms = new ArrayList<>();
+        // [2013-01-15] Eliminate line duplicates
+        Collection<Geometry> lines = new HashSet<>();
+        for (Feature f : features) {
+            Geometry geom = f.getGeometry();
+            if (geom.getLength()<=max_length) {
+                if (geom.getDimension() == 1) lines.add(geom.norm());
+                else geoms.add(geom);
+            }
+        }
+        geoms.addAll(lines);
+
+        // Polygonisation + selection of polygons with length < threshold
+        Polygonizer polygonizer = new Polygonizer();
+        polygonizer.add(geoms);
+        Collection<Geometry> pols = polygonizer.getPolygons();
+        geoms.clear();
+        for (Geometry p : pols) {
+            if ((p).getLength() <= max_length) geoms.add(p);
+        }
+        return geoms;
+    }
+
+    // Split extent into tiles and polygonize each tile in a separate thread.
+    // Each tile is extended by max_length so that any cycle starting in the
+    // tile is entirely found in the extended tile. Faces which are not
+    // entirely included in the extended tile may be incomplete and are
+    // ignored (they are found by a neighbour tile). Tiles are skipped once
+    // monitor is cancelled.
+    private Collection<Geometry> findCyclesByTile(TaskMonitor monitor, final IndexedFeatureCollection ifc,
+                Envelope extent, double tile_size, final double max_length) {
+        int cols = Math.max(1, (int)Math.ceil(extent.getWidth()/tile_size));
+        int rows = Math.max(1, (int)Math.ceil(extent.getHeight()/tile_size));
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(cols*rows, Runtime.getRuntime().availableProcessors()));
+        List<Future<Collection<Geometry>>> futures = new ArrayList<>();
+        for (int i = 0 ; i < cols ; i++) {
+            for (int j = 0 ; j < rows ; j++) {
+                final Envelope tile = new Envelope(
+                        extent.getMinX() + i*tile_size, extent.getMinX() + (i+1)*tile_size,
+                        extent.getMinY() + j*tile_size, extent.getMinY() + (j+1)*tile_size);
+                tile.expandBy(max_length);
+                futures.add(executor.submit(() -> {
+                    Collection<Geometry> cycles = new ArrayList<>();
+                    if (monitor.isCancelRequested()) return cycles;
+                    for (Geometry p : findCycles(ifc.query(tile), max_length)) {
+                        if (tile.contains(p.getEnvelopeInternal())) cycles.add(p.norm());
+                    }
+                    return cycles;
+                }));
+            }
+        }
+        // Cycles found in several tiles are deduplicated on their normalized geometry
+        Set<Geometry> cycles = new LinkedHashSet<>();
+        try {
+            for (Future<Collection<Geometry>> future : futures) {
+                cycles.addAll(future.get());
+            }
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Tiled cycle finding failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return cycles;
+    }
     
     private List<String> getFieldsFromLayerWithoutGeometry(Layer l) {
         List<String> fields = new ArrayList<>();
@@ -0,0 +1,300 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.StandardCategoryNames;
+import com.vividsolutions.jump.workbench.plugin.MultiEnableCheck;
+import com.vividsolutions.jump.workbench.plugin.PlugInContext;
+import com.vividsolutions.jump.workbench.plugin.ThreadedBasePlugIn;
+import com.vividsolutions.jump.workbench.ui.AttributeTypeFilter;
+import com.vividsolutions.jump.workbench.ui.GUIUtil;
+import com.vividsolutions.jump.workbench.ui.MenuNames;
+import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Computes a weighted flow accumulation on a directed linear network (see
+ * FlowAccumulator) : each edge has a runoff (its length or an attribute),
+ * point features of another layer add their inflow to the nearest node, and
+ * the flow is distributed among the edges of a bifurcation equally or
+ * according to an attribute.
+ */
+public class FlowAccumulationPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
+
+    private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
+
+    static final String P_LAYER            = "Layer";
+    static final String P_GRAPH_3D         = "Graph3D";
+    static final String P_RUNOFF_ATTRIBUTE = "RunoffAttribute";  // null for edge length
+    static final String P_RATIO_ATTRIBUTE  = "RatioAttribute";   // null for equal distribution
+    static final String P_INFLOW_LAYER     = "InflowLayer";      // workbench only
+    static final String P_INFLOW_DATASET   = "InflowDataset";    // headless only
+    static final String P_INFLOW_ATTRIBUTE = "InflowAttribute";
+    static final String P_SNAP_TOLERANCE   = "SnapTolerance";
+
+    private static final String FLOW_ACC = "FlowAcc";
+
+    private static String LAYER;
+    private static String GRAPH;
+    private static String GRAPH_COMPUTATION;
+    private static String FLOW_ACCUMULATION;
+    private static String DIM3;
+    private static String DIM3_TOOLTIP;
+    private static String RUNOFF_ATTRIBUTE;
+    private static String RUNOFF_ATTRIBUTE_TT;
+    private static String USE_RATIO;
+    private static String RATIO_ATTRIBUTE;
+    private static String USE_INFLOW;
+    private static String INFLOW_LAYER;
+    private static String INFLOW_ATTRIBUTE;
+    private static String SNAP_TOLERANCE;
+    private static String UNMATCHED_INFLOW;
+
+    {
+        addParameter(P_LAYER,            null);
+        addParameter(P_GRAPH_3D,         false);
+        addParameter(P_RUNOFF_ATTRIBUTE, null);
+        addParameter(P_RATIO_ATTRIBUTE,  null);
+        addParameter(P_INFLOW_LAYER,     null);
+        addParameter(P_INFLOW_DATASET,   null);
+        addParameter(P_INFLOW_ATTRIBUTE, null);
+        addParameter(P_SNAP_TOLERANCE,   0.0);
+
+        LAYER               = i18n.get("Layer");
+        GRAPH               = i18n.get("Graph");
+        GRAPH_COMPUTATION   = i18n.get("Graph-computation");
+        FLOW_ACCUMULATION   = i18n.get("FlowAccumulationPlugIn");
+        DIM3                = i18n.get("dim3");
+        DIM3_TOOLTIP        = i18n.get("dim3-tooltip");
+        RUNOFF_ATTRIBUTE    = i18n.get("FlowAccumulationPlugIn.runoff-attribute");
+        RUNOFF_ATTRIBUTE_TT = i18n.get("FlowAccumulationPlugIn.runoff-attribute-tooltip");
+        USE_RATIO           = i18n.get("FlowAccumulationPlugIn.use-ratio");
+        RATIO_ATTRIBUTE     = i18n.get("FlowAccumulationPlugIn.ratio-attribute");
+        USE_INFLOW          = i18n.get("FlowAccumulationPlugIn.use-inflow");
+        INFLOW_LAYER        = i18n.get("FlowAccumulationPlugIn.inflow-layer");
+        INFLOW_ATTRIBUTE    = i18n.get("FlowAccumulationPlugIn.inflow-attribute");
+        SNAP_TOLERANCE      = i18n.get("FlowAccumulationPlugIn.snap-tolerance");
+        UNMATCHED_INFLOW    = i18n.get("FlowAccumulationPlugIn.unmatched-inflow");
+    }
+
+    @Override
+    public void initialize(final PlugInContext context) {
+        context.getFeatureInstaller().addMainMenuPlugin(
+                this, new String[]{MenuNames.PLUGINS, GRAPH},
+                FLOW_ACCUMULATION + "...",
+                false, null, new MultiEnableCheck()
+                        .add(context.getCheckFactory().createTaskWindowMustBeActiveCheck())
+                        .add(context.getCheckFactory().createAtLeastNLayersMustExistCheck(1)));
+    }
+
+    @Override
+    public boolean execute(PlugInContext context) {
+        final MultiInputDialog dialog = new MultiInputDialog(
+                context.getWorkbenchFrame(), FLOW_ACCUMULATION, true);
+        dialog.setSideBarDescription(i18n.get("FlowAccumulationPlugIn.description"));
+        dialog.addLayerComboBox(LAYER, context.getCandidateLayer(0), null, context.getLayerManager());
+        dialog.addCheckBox(DIM3, getBooleanParam(P_GRAPH_3D), DIM3_TOOLTIP);
+        dialog.addAttributeComboBox(RUNOFF_ATTRIBUTE, LAYER,
+                new AttributeTypeFilter(AttributeTypeFilter.GEOMETRY + AttributeTypeFilter.DOUBLE +
+                        AttributeTypeFilter.INTEGER), RUNOFF_ATTRIBUTE_TT);
+
+        dialog.addSeparator();
+        final JCheckBox jcb_use_ratio = dialog.addCheckBox(USE_RATIO, false);
+        final JComboBox<String> jcb_ratio = dialog.addAttributeComboBox(RATIO_ATTRIBUTE, LAYER,
+                new AttributeTypeFilter(AttributeTypeFilter.DOUBLE + AttributeTypeFilter.INTEGER), null);
+        jcb_ratio.setEnabled(false);
+        jcb_use_ratio.addActionListener(e -> jcb_ratio.setEnabled(jcb_use_ratio.isSelected()));
+
+        dialog.addSeparator();
+        final JCheckBox jcb_use_inflow = dialog.addCheckBox(USE_INFLOW, false);
+        final JComboBox<Layer> jcb_inflow_layer = dialog.addLayerComboBox(INFLOW_LAYER,
+                context.getCandidateLayer(0), null, context.getLayerManager());
+        final JComboBox<String> jcb_inflow = dialog.addAttributeComboBox(INFLOW_ATTRIBUTE, INFLOW_LAYER,
+                new AttributeTypeFilter(AttributeTypeFilter.DOUBLE + AttributeTypeFilter.INTEGER), null);
+        final JTextField jtf_tolerance = dialog.addDoubleField(SNAP_TOLERANCE,
+                getDoubleParam(P_SNAP_TOLERANCE), 12);
+        for (JComponent component : new JComponent[]{jcb_inflow_layer, jcb_inflow, jtf_tolerance}) {
+            component.setEnabled(false);
+            jcb_use_inflow.addActionListener(e -> component.setEnabled(jcb_use_inflow.isSelected()));
+        }
+
+        GUIUtil.centreOnWindow(dialog);
+        dialog.setVisible(true);
+        if (dialog.wasOKPressed()) {
+            Layer layer = dialog.getLayer(LAYER);
+            String runoff = dialog.getText(RUNOFF_ATTRIBUTE);
+            boolean runoffIsGeometry = layer.getFeatureCollectionWrapper().getFeatureSchema()
+                    .getAttributeType(runoff) == AttributeType.GEOMETRY;
+            boolean useInflow = dialog.getBoolean(USE_INFLOW);
+            addParameter(P_LAYER,            layer.getName());
+            addParameter(P_GRAPH_3D,         dialog.getBoolean(DIM3));
+            addParameter(P_RUNOFF_ATTRIBUTE, runoffIsGeometry ? null : runoff);
+            addParameter(P_RATIO_ATTRIBUTE,  dialog.getBoolean(USE_RATIO) ? dialog.getText(RATIO_ATTRIBUTE) : null);
+            addParameter(P_INFLOW_LAYER,     useInflow ? dialog.getLayer(INFLOW_LAYER).getName() : null);
+            addParameter(P_INFLOW_ATTRIBUTE, useInflow ? dialog.getText(INFLOW_ATTRIBUTE) : null);
+            addParameter(P_SNAP_TOLERANCE,   dialog.getDouble(SNAP_TOLERANCE));
+            return true;
+        }
+        else return false;
+    }
+
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        Layer layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
+        if (layer == null) throw new Exception("Layer " + getStringParam(P_LAYER) + " has not been found");
+        FeatureCollection inflowFC = null;
+        if (getStringParam(P_INFLOW_LAYER) != null) {
+            Layer inflowLayer = context.getLayerManager().getLayer(getStringParam(P_INFLOW_LAYER));
+            if (inflowLayer == null) {
+                throw new Exception("Layer " + getStringParam(P_INFLOW_LAYER) + " has not been found");
+            }
+            inflowFC = inflowLayer.getFeatureCollectionWrapper();
+        }
+        Map<String,FeatureCollection> result = run(monitor, layer.getFeatureCollectionWrapper(),
+                GraphExtension.getGraphRegistry().getCompactGraph(layer, null, false, getBooleanParam(P_GRAPH_3D)),
+                inflowFC, context.getWorkbenchFrame()::warnUser);
+        for (Map.Entry<String,FeatureCollection> entry : result.entrySet()) {
+            context.getLayerManager().addLayer(StandardCategoryNames.RESULT,
+                    layer.getName() + "-" + entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Computes the flow accumulation of dataset edges. The result map
+     * contains a copy of dataset with a FlowAcc attribute ("flow-accumulation")
+     * and the inflow features which could not be snapped to a node, if any
+     * ("unmatched-inflow").
+     * Inflow features are read from the P_INFLOW_DATASET FeatureCollection.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) {
+        monitor.report(GRAPH_COMPUTATION + "...");
+        CompactGraph graph = GraphCache.getGraph(dataset.getFeatures(), null, false, getBooleanParam(P_GRAPH_3D));
+        return run(monitor, dataset, graph, (FeatureCollection)getParameter(P_INFLOW_DATASET), Logger::warn);
+    }
+
+    private Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset,
+                                              CompactGraph graph, FeatureCollection inflowFC,
+                                              Consumer<String> warning) {
+        monitor.allowCancellationRequests();
+        monitor.report(FLOW_ACCUMULATION + "...");
+        List<Feature> features = dataset.getFeatures();
+        FlowAccumulator accumulator = new FlowAccumulator(graph);
+        String runoffAttribute = getStringParam(P_RUNOFF_ATTRIBUTE);
+        if (runoffAttribute != null) {
+            accumulator.setRunoff(getEdgeValues(graph, features, dataset.getFeatureSchema(), runoffAttribute));
+        }
+        String ratioAttribute = getStringParam(P_RATIO_ATTRIBUTE);
+        if (ratioAttribute != null) {
+            accumulator.setRatio(getEdgeValues(graph, features, dataset.getFeatureSchema(), ratioAttribute));
+        }
+        FeatureCollection unmatched = null;
+        if (inflowFC != null) {
+            unmatched = new FeatureDataset(inflowFC.getFeatureSchema());
+            accumulator.setInflow(getNodeInflows(graph, inflowFC, unmatched));
+            if (unmatched.size() > 0) warning.accept(UNMATCHED_INFLOW + " : " + unmatched.size());
+        }
+        double[] flow = accumulator.accumulate(monitor);
+        if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+        if (accumulator.getUnresolvedEdges() > 0) {
+            warning.accept(i18n.get("FlowAccumulationPlugIn.unresolved-edges", accumulator.getUnresolvedEdges()));
+        }
+
+        FeatureSchema schema = dataset.getFeatureSchema().clone();
+        schema.addAttribute(FLOW_ACC, AttributeType.DOUBLE);
+        int flowAccIndex = schema.getAttributeIndex(FLOW_ACC);
+        Feature[] resultFeatures = new Feature[features.size()];
+        for (int i = 0 ; i < resultFeatures.length ; i++) {
+            Feature f = features.get(i);
+            Feature bf = new BasicFeature(schema);
+            for (int a = 0 ; a < f.getSchema().getAttributeCount() ; a++) {
+                bf.setAttribute(a, f.getAttribute(a));
+            }
+            bf.setGeometry(f.getGeometry().copy());
+            resultFeatures[i] = bf;
+        }
+        for (int e = 0 ; e < graph.getEdgeCount() ; e++) {
+            if (!Double.isNaN(flow[e])) resultFeatures[graph.getFeatureIndex(e)].setAttribute(flowAccIndex, flow[e]);
+        }
+        FeatureCollection resultFC = new FeatureDataset(schema);
+        resultFC.addAll(Arrays.asList(resultFeatures));
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        result.put("flow-accumulation", resultFC);
+        if (unmatched != null && unmatched.size() > 0) result.put("unmatched-inflow", unmatched);
+        return result;
+    }
+
+    // Returns the numeric attribute value of the feature of each edge (0 if null)
+    static double[] getEdgeValues(CompactGraph graph, List<Feature> features,
+                                  FeatureSchema schema, String attribute) {
+        if (!schema.hasAttribute(attribute)) {
+            throw new IllegalArgumentException("Dataset has no attribute named " + attribute);
+        }
+        int index = schema.getAttributeIndex(attribute);
+        double[] values = new double[graph.getEdgeCount()];
+        for (int e = 0 ; e < values.length ; e++) {
+            Object value = features.get(graph.getFeatureIndex(e)).getAttribute(index);
+            values[e] = value instanceof Number ? ((Number)value).doubleValue() : 0.0;
+        }
+        return values;
+    }
+
+    // Snaps each inflow feature (its first coordinate) to the nearest node
+    // within the snap tolerance and returns the inflow of each node. Inflow
+    // features without node are added to unmatched.
+    private double[] getNodeInflows(CompactGraph graph, FeatureCollection inflowFC, FeatureCollection unmatched) {
+        String attribute = getStringParam(P_INFLOW_ATTRIBUTE);
+        if (attribute == null || !inflowFC.getFeatureSchema().hasAttribute(attribute)) {
+            throw new IllegalArgumentException("Inflow dataset has no attribute named " + attribute);
+        }
+        double tolerance = getDoubleParam(P_SNAP_TOLERANCE);
+        List<Feature> inflows = inflowFC.getFeatures();
+        Coordinate[] points = new Coordinate[inflows.size()];
+        STRtree index = new STRtree();
+        for (int p = 0 ; p < points.length ; p++) {
+            Geometry geometry = inflows.get(p).getGeometry();
+            if (geometry.isEmpty()) continue;
+            points[p] = geometry.getCoordinate();
+            index.insert(new Envelope(points[p]), p);
+        }
+        int[] nearestNode = new int[points.length];
+        double[] nearestDistance = new double[points.length];
+        Arrays.fill(nearestNode, -1);
+        Arrays.fill(nearestDistance, Double.POSITIVE_INFINITY);
+        Envelope env = new Envelope();
+        for (int node = 0 ; node < graph.getNodeCount() ; node++) {
+            double x = graph.getX(node);
+            double y = graph.getY(node);
+            env.init(x - tolerance, x + tolerance, y - tolerance, y + tolerance);
+            for (Object item : index.query(env)) {
+                int p = (Integer)item;
+                double d = Math.hypot(points[p].x - x, points[p].y - y);
+                if (d <= tolerance && d < nearestDistance[p]) {
+                    nearestDistance[p] = d;
+                    nearestNode[p] = node;
+                }
+            }
+        }
+        double[] inflow = new double[graph.getNodeCount()];
+        for (int p = 0 ; p < points.length ; p++) {
+            if (nearestNode[p] < 0) {
+                unmatched.add(inflows.get(p).clone(true));
+                continue;
+            }
+            Object value = inflows.get(p).getAttribute(attribute);
+            if (value instanceof Number) inflow[nearestNode[p]] += ((Number)value).doubleValue();
+        }
+        return inflow;
+    }
+}
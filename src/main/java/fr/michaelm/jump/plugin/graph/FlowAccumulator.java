@@ -0,0 +1,131 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import java.util.Arrays;
+
+/**
+ * Weighted flow accumulation on the edges of a directed CompactGraph.
+ * <p>The flow of an edge is its own runoff plus its share of the flow
+ * arriving at its source node (flow of the incoming edges plus the inflow of
+ * the node) :</p>
+ * <pre>
+ * flow(e) = runoff(e) + share(e) * (inflow(source) + sum of flow(incoming edges))
+ * </pre>
+ * The share of an edge is its ratio divided by the sum of the ratios of the
+ * edges leaving the same node, or 1/outdegree when no ratio is set (or when
+ * the ratios of the node sum to 0), as in StreamOrderPlugIn.
+ * <p>Default runoff is the edge length. Flows are computed in a single
+ * topological sweep (each node being processed once all its incoming edges
+ * are) using primitive arrays only. Edges belonging to a cycle, or
+ * downstream of a cycle, have a NaN flow.</p>
+ */
+class FlowAccumulator {
+
+    // cancellation is checked every CHECK_INTERVAL nodes (a power of 2)
+    private static final int CHECK_INTERVAL = 1 << 12;
+
+    private final CompactGraph graph;
+    private double[] runoff;
+    private double[] inflow;
+    private double[] ratio;
+    private int unresolvedEdges;
+
+    FlowAccumulator(CompactGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Sets the runoff of each edge (null to use edge lengths).
+     */
+    FlowAccumulator setRunoff(double[] runoff) {
+        checkLength(runoff, graph.getEdgeCount(), "runoff");
+        this.runoff = runoff;
+        return this;
+    }
+
+    /**
+     * Sets the inflow of each node (null for no inflow).
+     */
+    FlowAccumulator setInflow(double[] inflow) {
+        checkLength(inflow, graph.getNodeCount(), "inflow");
+        this.inflow = inflow;
+        return this;
+    }
+
+    /**
+     * Sets the distribution ratio of each edge at bifurcations (null for an
+     * equal distribution). Negative or NaN ratios are considered as 0.
+     */
+    FlowAccumulator setRatio(double[] ratio) {
+        checkLength(ratio, graph.getEdgeCount(), "ratio");
+        this.ratio = ratio;
+        return this;
+    }
+
+    private static void checkLength(double[] array, int length, String name) {
+        if (array != null && array.length < length) {
+            throw new IllegalArgumentException("Array " + name + " has " + array.length +
+                    " values instead of " + length);
+        }
+    }
+
+    /**
+     * Returns the number of edges left without flow by the last computation
+     * (cycles, or cancellation).
+     */
+    int getUnresolvedEdges() {
+        return unresolvedEdges;
+    }
+
+    /**
+     * Computes the flow of each edge. If monitor (which may be null) is
+     * cancelled, the computation stops and remaining edges have a NaN flow.
+     */
+    double[] accumulate(TaskMonitor monitor) {
+        int nodeCount = graph.getNodeCount();
+        int edgeCount = graph.getEdgeCount();
+        double[] flow = new double[edgeCount];
+        Arrays.fill(flow, Double.NaN);
+        double[] nodeFlow = inflow == null ? new double[nodeCount] : Arrays.copyOf(inflow, nodeCount);
+        // number of incoming edges not processed yet
+        int[] pending = new int[nodeCount];
+        int[] queue = new int[nodeCount];
+        int head = 0, tail = 0;
+        for (int node = 0 ; node < nodeCount ; node++) {
+            pending[node] = graph.getInDegree(node);
+            if (pending[node] == 0) queue[tail++] = node;
+        }
+        int resolved = 0;
+        ProgressReporter progress = new ProgressReporter(monitor, edgeCount, "edges");
+        while (head < tail) {
+            if (monitor != null && (head & (CHECK_INTERVAL-1)) == 0) {
+                if (monitor.isCancelRequested()) break;
+                progress.report(resolved);
+            }
+            int node = queue[head++];
+            int start = graph.getOutEdgeStart(node);
+            int end = graph.getOutEdgeStart(node + 1);
+            double ratioSum = 0;
+            if (ratio != null) {
+                for (int i = start ; i < end ; i++) ratioSum += validRatio(graph.getOutEdge(i));
+            }
+            for (int i = start ; i < end ; i++) {
+                int edge = graph.getOutEdge(i);
+                double share = ratioSum > 0 ? validRatio(edge) / ratioSum : 1.0 / (end - start);
+                flow[edge] = (runoff == null ? graph.getLength(edge) : runoff[edge]) + share * nodeFlow[node];
+                resolved++;
+                int target = graph.getTarget(edge);
+                nodeFlow[target] += flow[edge];
+                if (--pending[target] == 0) queue[tail++] = target;
+            }
+        }
+        unresolvedEdges = edgeCount - resolved;
+        return flow;
+    }
+
+    private double validRatio(int edge) {
+        double r = ratio[edge];
+        return r > 0 ? r : 0;
+    }
+}
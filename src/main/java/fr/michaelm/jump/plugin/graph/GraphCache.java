@@ -0,0 +1,283 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateFilter;
+import org.locationtech.jts.geom.Geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Persistent cache of CompactGraphs. Each graph is written in its own file,
+ * named after a SHA-256 hash of everything the graph depends on : the
+ * geometries and grouping attribute values of the features (or the path,
+ * size and date of a shapefile) and the graph settings (grouping attribute,
+ * empty values and 3D). A graph computed once is then read back from its
+ * memory mapped file by the next plugins, or the next sessions, working on
+ * the same data.
+ * <p>The cache is disabled unless the system property
+ * fr.michaelm.jump.plugin.graph.cache names the cache directory, e.g.
+ * -Dfr.michaelm.jump.plugin.graph.cache=/tmp/graphs. Files are never
+ * removed by the cache : the directory can be cleared at any time.</p>
+ * <p>Contraction hierarchies (see ContractionHierarchy) are cached in the
+ * same directory, named after a hash of the graph topology, the edge costs
+ * and the direction setting of their router.</p>
+ * <p>Cache failures (unreadable directory, corrupted file...) are logged and
+ * the graph is built from the data.</p>
+ */
+class GraphCache {
+
+    static final String CACHE_DIRECTORY_PROPERTY = "fr.michaelm.jump.plugin.graph.cache";
+
+    private static final String EXTENSION = ".graph";
+    private static final String HIERARCHY_EXTENSION = ".ch";
+
+    /**
+     * Builds a graph on a cache miss.
+     */
+    interface GraphBuilder {
+        CompactGraph build() throws IOException;
+    }
+
+    // Writes a cached object
+    private interface Writer {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    private final File directory;
+
+    GraphCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache of the directory named by the cache system property,
+     * or null if the property is not set.
+     */
+    static GraphCache getDefault() {
+        String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+        return directory == null || directory.trim().isEmpty() ? null : new GraphCache(new File(directory));
+    }
+
+    /**
+     * Returns the graph of features (see CompactGraph.create), from the
+     * default cache if it is enabled.
+     */
+    static CompactGraph getGraph(List<Feature> features, String attribute, boolean ignoreEmpty, boolean dim3) {
+        GraphCache cache = getDefault();
+        if (cache == null) return CompactGraph.create(features, attribute, ignoreEmpty, dim3);
+        try {
+            return cache.get(key(features, attribute, ignoreEmpty, dim3),
+                    () -> CompactGraph.create(features, attribute, ignoreEmpty, dim3));
+        } catch(IOException e) {
+            // CompactGraph.create does not throw IOException
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the graph cached under key, or builds it with builder and
+     * writes it in the cache. Only exceptions thrown by builder are thrown.
+     */
+    CompactGraph get(String key, GraphBuilder builder) throws IOException {
+        File file = new File(directory, key + EXTENSION);
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return CompactGraph.read(channel);
+            } catch(IOException e) {
+                Logger.warn("Cannot read cached graph " + file + " : " + e.getMessage());
+            }
+        }
+        CompactGraph graph = builder.build();
+        if (graph.isWritable()) put(file, graph::write);
+        return graph;
+    }
+
+    /**
+     * Returns the contraction hierarchy of router, from the default cache if
+     * it is enabled. Progress of the preprocessing is reported to monitor,
+     * which may be null.
+     */
+    static ContractionHierarchy getContractionHierarchy(NetworkRouter router, TaskMonitor monitor) {
+        GraphCache cache = getDefault();
+        if (cache == null) return new ContractionHierarchy(router, monitor);
+        return cache.getContractionHierarchy(key(router), router, monitor);
+    }
+
+    /**
+     * Returns the contraction hierarchy cached under key, or builds it and
+     * writes it in the cache.
+     */
+    ContractionHierarchy getContractionHierarchy(String key, NetworkRouter router, TaskMonitor monitor) {
+        File file = new File(directory, key + HIERARCHY_EXTENSION);
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return ContractionHierarchy.read(channel, router);
+            } catch(IOException e) {
+                Logger.warn("Cannot read cached hierarchy " + file + " : " + e.getMessage());
+            }
+        }
+        ContractionHierarchy hierarchy = new ContractionHierarchy(router, monitor);
+        put(file, hierarchy::write);
+        return hierarchy;
+    }
+
+    // Writes a file in a temporary file moved to file once complete, so that
+    // a partial file is never read by another thread or process
+    private void put(File file, Writer writer) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(directory.toPath());
+            tmp = Files.createTempFile(directory.toPath(), "graph", ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                writer.write(channel);
+            }
+            try {
+                Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException e) {
+            Logger.warn("Cannot write cached file " + file + " : " + e.getMessage());
+            if (tmp != null) tmp.toFile().delete();
+        }
+    }
+
+    /**
+     * Returns the key of the graph of features. Every coordinate is hashed,
+     * as moving a vertex changes the edge lengths.
+     */
+    static String key(List<Feature> features, String attribute, boolean ignoreEmpty, boolean dim3) {
+        Digest digest = new Digest();
+        digest.putString("features").putSettings(attribute, ignoreEmpty, dim3).putInt(features.size());
+        for (Feature feature : features) {
+            if (attribute != null) {
+                Object value = feature.getAttribute(attribute);
+                digest.putString(value == null ? null : value.getClass().getName() + ":" + value);
+            }
+            Geometry geometry = feature.getGeometry();
+            digest.putInt(geometry.getNumGeometries()).putInt(geometry.getNumPoints());
+            geometry.apply(digest);
+        }
+        return digest.toHex();
+    }
+
+    /**
+     * Returns the key of the graph of a shapefile. Only the path, size and
+     * modification date of the shp file (and of the dbf file if attribute
+     * is not null) are hashed.
+     */
+    static String key(File shapefile, String attribute, boolean ignoreEmpty, boolean dim3) throws IOException {
+        Digest digest = new Digest();
+        digest.putString("shapefile").putSettings(attribute, ignoreEmpty, dim3);
+        digest.putString(shapefile.getCanonicalPath())
+                .putLong(shapefile.length()).putLong(shapefile.lastModified());
+        if (attribute != null) {
+            File dbf = ShapefileGraphReader.sibling(shapefile, "dbf");
+            digest.putLong(dbf.length()).putLong(dbf.lastModified());
+        }
+        return digest.toHex();
+    }
+
+    /**
+     * Returns the key of the contraction hierarchy of router : its graph
+     * topology, its edge costs and whether it is directed.
+     */
+    static String key(NetworkRouter router) {
+        CompactGraph graph = router.getGraph();
+        Digest digest = new Digest();
+        digest.putString("hierarchy").putInt(ContractionHierarchy.FORMAT_VERSION)
+                .putInt(router.isDirected() ? 1 : 0)
+                .putInt(graph.getNodeCount()).putInt(graph.getEdgeCount());
+        for (int e = 0 ; e < graph.getEdgeCount() ; e++) {
+            digest.putInt(graph.getSource(e)).putInt(graph.getTarget(e)).putDouble(router.getCost(e));
+        }
+        return digest.toHex();
+    }
+
+    // SHA-256 of values buffered in a ByteBuffer
+    private static class Digest implements CoordinateFilter {
+
+        private final MessageDigest messageDigest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        Digest() {
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-256");
+            } catch(NoSuchAlgorithmException e) {
+                // SHA-256 is supported by every java platform
+                throw new IllegalStateException(e);
+            }
+        }
+
+        Digest putSettings(String attribute, boolean ignoreEmpty, boolean dim3) {
+            return putInt(CompactGraph.FORMAT_VERSION).putString(attribute)
+                    .putInt(ignoreEmpty ? 1 : 0).putInt(dim3 ? 1 : 0);
+        }
+
+        Digest putInt(int value) {
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(value);
+            return this;
+        }
+
+        Digest putLong(long value) {
+            if (buffer.remaining() < 8) flush();
+            buffer.putLong(value);
+            return this;
+        }
+
+        Digest putDouble(double value) {
+            if (buffer.remaining() < 8) flush();
+            buffer.putDouble(value);
+            return this;
+        }
+
+        Digest putString(String value) {
+            if (value == null) return putInt(-1);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            flush();
+            messageDigest.update(bytes);
+            return this;
+        }
+
+        @Override
+        public void filter(Coordinate c) {
+            putDouble(c.x).putDouble(c.y).putDouble(c.getZ());
+        }
+
+        private void flush() {
+            messageDigest.update(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+
+        String toHex() {
+            flush();
+            StringBuilder sb = new StringBuilder();
+            for (byte b : messageDigest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -32,20 +32,15 @@ import com.vividsolutions.jump.workbench.plugin.*;
 import com.vividsolutions.jump.workbench.ui.GUIUtil;
 import com.vividsolutions.jump.workbench.ui.MenuNames;
 import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
-import fr.michaelm.jump.feature.jgrapht.*;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.AsSubgraph;
-import org.jgrapht.graph.Pseudograph;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -54,23 +49,28 @@ import javax.swing.JComboBox;
 /**
  * Find main components of each graph or subgraph (number of connected
  * subgraphs, length, number of order 1 nodes...).
+ * <p>Components are computed on a CompactGraph (shared through GraphRegistry
+ * in the workbench and read from GraphCache when the cache is enabled). Graphs are returned in the order of the first
+ * feature of each attribute value and subgraphs in the order of their first
+ * feature.</p>
  * @author Micha&euml;l Michaud
- * @version 2.0.4 (2022-11-16)
+ * @version 2.1.0 (2026-10-19)
  */
+//version 2.1.0 (2026-10-19) use CompactGraph and GraphCache
 //version 2.0.4 (2022-11-16) fix key attribute value when an attribute is used
 //version 0.1.2 (2011-07-16) typos and comments
 //version 0.1.1 (2010-04-22) first svn version
 //version 0.1 (2010-04-22)
-public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
+public class GraphComponentsPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
 
     private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
 
-    private static final String P_LAYER                 = "Layer";
-    private static final String P_ATTRIBUTE             = "Attribute";
-    private static final String P_ATTRIBUTE_TYPE        = "AttributeType";
-    private static final String P_GRAPH_3D              = "Graph3D";
-    private static final String P_IGNORE_EMPTY          = "IgnoreEmpty";
-    private static final String P_RETURNED_GEOM_TYPE    = "ReturnedGeometryType";
+    static final String P_LAYER                 = "Layer";
+    static final String P_ATTRIBUTE             = "Attribute";
+    static final String P_ATTRIBUTE_TYPE        = "AttributeType";
+    static final String P_GRAPH_3D              = "Graph3D";
+    static final String P_IGNORE_EMPTY          = "IgnoreEmpty";
+    static final String P_RETURNED_GEOM_TYPE    = "ReturnedGeometryType";
 
     {
         addParameter(P_LAYER,       null);
@@ -80,6 +80,32 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
         addParameter(P_IGNORE_EMPTY, false);
         addParameter(P_RETURNED_GEOM_TYPE, "POINT"); // POINT, MULTILINESTRING,
                                                           // OR SIMPLIFIED_MULTILINESTRING
+
+        GRAPH                      = i18n.get("Graph");
+        CONNECTED_COMPONENTS       = i18n.get("GraphComponentsPlugIn.connected-components");
+        LAYER                      = i18n.get("Layer");
+        USE_ATTRIBUTE              = i18n.get("use-attribute");
+        USE_ATTRIBUTE_TOOLTIP      = i18n.get("use-attribute-tooltip");
+        ATTRIBUTE                  = i18n.get("Attribute");
+        IGNORE_EMPTY               = i18n.get("ignore-empty");
+        IGNORE_EMPTY_TOOLTIP       = i18n.get("ignore-empty-tooltip");
+        DIM3                       = i18n.get("dim3");
+        DIM3_TOOLTIP               = i18n.get("dim3-tooltip");
+        RETURN_GRAPHS_AS           = i18n.get("GraphComponentsPlugIn.return-graphs-as");
+        RETURN_GRAPHS_AS_TOOLTIP   = i18n.get("GraphComponentsPlugIn.return-graphs-as-tooltip");
+        POINT                      = i18n.get("GraphComponentsPlugIn.point");
+        MULTILINESTRING            = i18n.get("GraphComponentsPlugIn.multilinestring");
+        SIMPLIFIED_MULTILINESTRING = i18n.get("GraphComponentsPlugIn.simplified-multilinestring");
+        GRAPH_ANALYSIS             = i18n.get("GraphComponentsPlugIn.graph-analysis");
+        CONNECTED_SUBGRAPH         = i18n.get("GraphComponentsPlugIn.connected-subgraph");
+        CONNECTED_SUBGRAPHS        = i18n.get("GraphComponentsPlugIn.connected-subgraphs");
+        FEATURES                   = i18n.get("Features");
+        PENDANT_VERTICES           = i18n.get("GraphComponentsPlugIn.pendant-vertices");
+        LENGTH                     = i18n.get("GraphComponentsPlugIn.longueur");
+        PROCESSED_GRAPHS           = i18n.get("GraphComponentsPlugIn.processed-graphs");
+        GRAPHS                     = i18n.get("GraphComponentsPlugIn.graphs");
+        SUBGRAPHS                  = i18n.get("GraphComponentsPlugIn.subgraphs");
+        NO_GRAPH                   = i18n.get("GraphComponentsPlugIn.no-graph");
     }
 
 
@@ -113,33 +139,6 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
 
     @Override
     public void initialize(final PlugInContext context) {
-        
-        GRAPH                      = i18n.get("Graph");
-        CONNECTED_COMPONENTS       = i18n.get("GraphComponentsPlugIn.connected-components");
-        LAYER                      = i18n.get("Layer");
-        USE_ATTRIBUTE              = i18n.get("use-attribute");
-        USE_ATTRIBUTE_TOOLTIP      = i18n.get("use-attribute-tooltip");
-        ATTRIBUTE                  = i18n.get("Attribute");
-        IGNORE_EMPTY               = i18n.get("ignore-empty");
-        IGNORE_EMPTY_TOOLTIP       = i18n.get("ignore-empty-tooltip");
-        DIM3                       = i18n.get("dim3");
-        DIM3_TOOLTIP               = i18n.get("dim3-tooltip");
-        RETURN_GRAPHS_AS           = i18n.get("GraphComponentsPlugIn.return-graphs-as");
-        RETURN_GRAPHS_AS_TOOLTIP   = i18n.get("GraphComponentsPlugIn.return-graphs-as-tooltip");
-        POINT                      = i18n.get("GraphComponentsPlugIn.point");
-        MULTILINESTRING            = i18n.get("GraphComponentsPlugIn.multilinestring");
-        SIMPLIFIED_MULTILINESTRING = i18n.get("GraphComponentsPlugIn.simplified-multilinestring");
-        GRAPH_ANALYSIS             = i18n.get("GraphComponentsPlugIn.graph-analysis");
-        CONNECTED_SUBGRAPH         = i18n.get("GraphComponentsPlugIn.connected-subgraph");
-        CONNECTED_SUBGRAPHS        = i18n.get("GraphComponentsPlugIn.connected-subgraphs");
-        FEATURES                   = i18n.get("Features");
-        PENDANT_VERTICES           = i18n.get("GraphComponentsPlugIn.pendant-vertices");
-        LENGTH                     = i18n.get("GraphComponentsPlugIn.longueur");
-        PROCESSED_GRAPHS           = i18n.get("GraphComponentsPlugIn.processed-graphs");
-        GRAPHS                     = i18n.get("GraphComponentsPlugIn.graphs");
-        SUBGRAPHS                  = i18n.get("GraphComponentsPlugIn.subgraphs");
-        NO_GRAPH                   = i18n.get("GraphComponentsPlugIn.no-graph");
-        
         context.getFeatureInstaller().addMainMenuPlugin(
           this, new String[]{MenuNames.PLUGINS, GRAPH}, CONNECTED_COMPONENTS + "...",
           false, null, new MultiEnableCheck()
@@ -179,7 +178,7 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
         dialog.addComboBox(
             RETURN_GRAPHS_AS,
             //return_graphs_as,
-            getStringParam(P_RETURNED_GEOM_TYPE),
+            getReturnedType(),
             Arrays.asList(POINT, MULTILINESTRING, SIMPLIFIED_MULTILINESTRING), RETURN_GRAPHS_AS_TOOLTIP);
         
         dialog.addSeparator();
@@ -233,19 +232,50 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
 
     @Override
     public void run(TaskMonitor monitor, PlugInContext context) {
+        Layer layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
+        Map<String,FeatureCollection> result = run(monitor, layer.getFeatureCollectionWrapper(), layer);
+        if (result.isEmpty()) return;
+        FeatureCollection graphsFC = result.get(GRAPHS);
+        FeatureCollection subgraphsFC = result.get(SUBGRAPHS);
+
+        context.getLayerManager().addCategory(StandardCategoryNames.RESULT);
+        if (graphsFC.size()>0) {
+            context.addLayer(StandardCategoryNames.RESULT, layer.getName()+"-"+GRAPHS, graphsFC);
+            context.addLayer(StandardCategoryNames.RESULT, layer.getName()+"-"+SUBGRAPHS, subgraphsFC);
+        }
+        else {
+            context.getWorkbenchFrame().warnUser(NO_GRAPH);
+        }
+    }
+
+    /**
+     * Analyzes the connected components of fc. The result map contains the
+     * graphs dataset and the subgraphs dataset, keyed by their layer suffix,
+     * or nothing if monitor has been cancelled.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection fc) {
+        return run(monitor, fc, null);
+    }
+
+    // layer is the layer of fc, or null : its graph is shared through the
+    // registry of GraphExtension
+    private Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection fc, Layer layer) {
         monitor.allowCancellationRequests();
         monitor.report(GRAPH_ANALYSIS + "...");
         
         FeatureSchema schema_graphs = new FeatureSchema();
         schema_graphs.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
 
-        Layer layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
         boolean use_attribute = (getStringParam(P_ATTRIBUTE) != null);
         String attribute = getStringParam(P_ATTRIBUTE);
-        AttributeType attType = AttributeType.toAttributeType(getStringParam(P_ATTRIBUTE_TYPE));
+        // the attribute type of the dataset wins over the parameter, which is
+        // only a fallback for scripts written before headless mode
+        AttributeType attType = use_attribute && fc.getFeatureSchema().hasAttribute(attribute) ?
+                fc.getFeatureSchema().getAttributeType(attribute) :
+                AttributeType.toAttributeType(getStringParam(P_ATTRIBUTE_TYPE));
         boolean ignore_empty = getBooleanParam(P_IGNORE_EMPTY);
         boolean dim3 = getBooleanParam(P_GRAPH_3D);
-        String returnedType = getStringParam(P_RETURNED_GEOM_TYPE);
+        String returnedType = getReturnedType();
 
         if (use_attribute) schema_graphs.addAttribute(attribute, attType);
         schema_graphs.addAttribute(CONNECTED_SUBGRAPHS, AttributeType.INTEGER);
@@ -263,47 +293,68 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
         schema_subgraphs.addAttribute(LENGTH, AttributeType.DOUBLE);
         FeatureCollection subgraphsFC = new FeatureDataset(schema_subgraphs);
         
-        // Order features by attribute value in a map
-        Map<Object,List<Feature>> map = new HashMap<>();
-        Object key = "NO_ATTRIBUTE_USED";
-        for (Feature f : layer.getFeatureCollectionWrapper().getFeatures()) {
-            if (use_attribute) key = f.getAttribute(attribute);
-            if (use_attribute && ignore_empty &&
-                (key == null || key.toString().trim().length() == 0)) {continue;}
-            else if (!map.containsKey(key)) {
-                map.put(key, new ArrayList<>());
+        // Graph of all the features, nodes of different groups being distinct
+        List<Feature> features = fc.getFeatures();
+        CompactGraph graph = layer == null ?
+                GraphCache.getGraph(features, attribute, ignore_empty, dim3) :
+                GraphExtension.getGraphRegistry().getCompactGraph(layer, attribute, ignore_empty, dim3);
+        int nodeCount = graph.getNodeCount();
+        int edgeCount = graph.getEdgeCount();
+
+        // Connected components (union-find on nodes)
+        int[] parent = new int[nodeCount];
+        for (int n = 0 ; n < nodeCount ; n++) parent[n] = n;
+        for (int e = 0 ; e < edgeCount ; e++) {
+            int r0 = find(parent, graph.getSource(e));
+            int r1 = find(parent, graph.getTarget(e));
+            if (r0 != r1) parent[r1] = r0;
+        }
+        // Components are numbered in the order of their first edge
+        int[] rootComponent = new int[nodeCount];
+        Arrays.fill(rootComponent, -1);
+        int[] edgeComponent = new int[edgeCount];
+        int[] componentGroup = new int[edgeCount];
+        int componentCount = 0;
+        for (int e = 0 ; e < edgeCount ; e++) {
+            int root = find(parent, graph.getSource(e));
+            if (rootComponent[root] < 0) {
+                componentGroup[componentCount] = graph.getEdgeGroup(e);
+                rootComponent[root] = componentCount++;
             }
-            map.get(key).add(f);
+            edgeComponent[e] = rootComponent[root];
         }
-        
-        int count = 1;
-        // Loop through all graphs to analyze
-        for (Object current_key : map.keySet()) {
-            // Creates a undirected graph from the feature list
-            Pseudograph<INode,FeatureAsEdge> graph =
-                GraphFactory.createUndirectedGraph(map.get(current_key), dim3);
-
-            //List of connected components
-            List<Set<INode>> list = GraphUtil.createConnectedNodeSets(map.get(current_key), false, dim3);
+        componentGroup = Arrays.copyOf(componentGroup, componentCount);
+        int[] pendantVertices = new int[componentCount];
+        for (int n = 0 ; n < nodeCount ; n++) {
+            if (graph.getInDegree(n) + graph.getOutDegree(n) == 1) {
+                pendantVertices[rootComponent[find(parent, n)]]++;
+            }
+        }
+        int[] edgeOffsets = new int[componentCount + 1];
+        int[] edges = sortByKey(edgeComponent, edgeOffsets);
+        int[] componentOffsets = new int[graph.getGroupCount() + 1];
+        int[] components = sortByKey(componentGroup, componentOffsets);
 
+        // Loop through all graphs to analyze
+        ProgressReporter progress = new ProgressReporter(monitor, graph.getGroupCount(), PROCESSED_GRAPHS);
+        for (int group = 0 ; group < graph.getGroupCount() ; group++) {
+            Object current_key = graph.getGroup(group);
+            int subgraphCount = componentOffsets[group+1] - componentOffsets[group];
             double graph_length = 0.0;
-            //int connected_component_number = list.size();
             int total_feature_number = 0;
-            //int graph_node1_number = 0;
+            int graph_node1_number = 0;
             List<Geometry> graph_geometries = new ArrayList<>();
 
-            for (int j = 0 ; j < list.size() ; j++) {
-                Graph<INode,FeatureAsEdge> sg = new AsSubgraph<>(graph, list.get(j));
-                Set<FeatureAsEdge> edges = sg.edgeSet();
-                
+            for (int j = 0 ; j < subgraphCount ; j++) {
+                if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+                int component = components[componentOffsets[group] + j];
                 double subgraph_length = 0.0;
-                int feature_number = edges.size();
-                //int subgraph_node1_number = countOrder1Nodes(graph, list.get(j));
+                int feature_number = edgeOffsets[component+1] - edgeOffsets[component];
                 List<Geometry> subgraph_geometries = new ArrayList<>();
-                for (Feature feature : edges) {
-                    Geometry g = feature.getGeometry();
-                    double length = g.getLength();
-                    subgraph_length += length;
+                for (int i = edgeOffsets[component] ; i < edgeOffsets[component+1] ; i++) {
+                    int edge = edges[i];
+                    Geometry g = features.get(graph.getFeatureIndex(edge)).getGeometry();
+                    subgraph_length += graph.getLength(edge);
                     if (returnedType.equals(POINT)) {
                         subgraph_geometries.add(g);
                     }
@@ -320,6 +371,7 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
                 graph_length += subgraph_length;
                 graph_geometries.addAll(subgraph_geometries);
                 total_feature_number += feature_number;
+                graph_node1_number += pendantVertices[component];
                 
                 Feature newf = new BasicFeature(schema_subgraphs);
                 if (returnedType.equals(POINT)) {
@@ -331,9 +383,9 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
                             .buildGeometry(subgraph_geometries));
                 }
                 if (use_attribute) newf.setAttribute(attribute, current_key);
-                newf.setAttribute(CONNECTED_SUBGRAPH, ""+(j+1)+"/"+list.size());
-                newf.setAttribute(FEATURES, edges.size());
-                newf.setAttribute(PENDANT_VERTICES, countOrder1Nodes(graph, list.get(j)));
+                newf.setAttribute(CONNECTED_SUBGRAPH, ""+(j+1)+"/"+subgraphCount);
+                newf.setAttribute(FEATURES, feature_number);
+                newf.setAttribute(PENDANT_VERTICES, pendantVertices[component]);
                 newf.setAttribute(LENGTH, subgraph_length);
                 subgraphsFC.add(newf);
             }
@@ -348,32 +400,50 @@ public class GraphComponentsPlugIn extends ThreadedBasePlugIn {
                         .buildGeometry(graph_geometries));
             }
             if (use_attribute) newf.setAttribute(attribute, current_key);
-            newf.setAttribute(CONNECTED_SUBGRAPHS, list.size());
+            newf.setAttribute(CONNECTED_SUBGRAPHS, subgraphCount);
             newf.setAttribute(FEATURES, total_feature_number);
-            newf.setAttribute(PENDANT_VERTICES, countOrder1Nodes(graph, graph.vertexSet()));
+            newf.setAttribute(PENDANT_VERTICES, graph_node1_number);
             newf.setAttribute(LENGTH, graph_length);
             graphsFC.add(newf);
             
-            count++;
-            monitor.report(count, map.size(), PROCESSED_GRAPHS);
+            progress.report(group + 1);
         }
         
-        context.getLayerManager().addCategory(StandardCategoryNames.RESULT);
-        if (graphsFC.size()>0) {
-            context.addLayer(StandardCategoryNames.RESULT, layer.getName()+"-"+GRAPHS, graphsFC);
-            context.addLayer(StandardCategoryNames.RESULT, layer.getName()+"-"+SUBGRAPHS, subgraphsFC);
-        }
-        else {
-            context.getWorkbenchFrame().warnUser(NO_GRAPH);
-        }
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        result.put(GRAPHS, graphsFC);
+        result.put(SUBGRAPHS, subgraphsFC);
+        return result;
+    }
+
+    /**
+     * Returns the returned geometry type label, accepting the constant names
+     * documented for P_RETURNED_GEOM_TYPE as well as the dialog labels.
+     */
+    private String getReturnedType() {
+        String returnedType = getStringParam(P_RETURNED_GEOM_TYPE);
+        if ("POINT".equals(returnedType)) return POINT;
+        if ("MULTILINESTRING".equals(returnedType)) return MULTILINESTRING;
+        if ("SIMPLIFIED_MULTILINESTRING".equals(returnedType)) return SIMPLIFIED_MULTILINESTRING;
+        return returnedType;
     }
     
-    private int countOrder1Nodes(Pseudograph<INode,FeatureAsEdge> graph, Set<INode> nodes) {
-        int nb = 0;
-        for (INode node : nodes) {
-            if (graph.degreeOf(node) == 1) nb++;
+    private static int find(int[] parent, int node) {
+        while (parent[node] != node) {
+            parent[node] = parent[parent[node]];
+            node = parent[node];
         }
-        return nb;
+        return node;
+    }
+
+    // Returns indices 0 to keys.length-1 sorted by key (stable sort), indices
+    // of key k being in [offsets[k], offsets[k+1])
+    private static int[] sortByKey(int[] keys, int[] offsets) {
+        for (int key : keys) offsets[key+1]++;
+        for (int k = 1 ; k < offsets.length ; k++) offsets[k] += offsets[k-1];
+        int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] sorted = new int[keys.length];
+        for (int i = 0 ; i < keys.length ; i++) sorted[fill[keys[i]]++] = i;
+        return sorted;
     }
     
     private List<String> getFieldsFromLayerWithoutGeometry(Layer l) {
@@ -69,6 +69,19 @@ import com.vividsolutions.jump.workbench.plugin.PlugInContext;
 //version 0.1.0 (2010-04-22)
 public class GraphExtension extends Extension {
 
+    // graphs shared by the plugins during the session
+    private static final GraphRegistry GRAPH_REGISTRY =
+            new GraphRegistry(Runtime.getRuntime().maxMemory() / 4);
+
+    /**
+     * Returns the registry of the graphs built by the plugins from the
+     * layers of the session. It keeps at most a quarter of the maximum heap
+     * size.
+     */
+    static GraphRegistry getGraphRegistry() {
+        return GRAPH_REGISTRY;
+    }
+
     public String getName() {
         return "Graph Extension (Micha\u00EBl Michaud)";
     }
@@ -102,6 +115,10 @@ public class GraphExtension extends Extension {
         new StreamOrderPlugIn().initialize(context);
         new SkeletonPlugIn().initialize(context);
         new HydrographicNetworkAnalysisPlugIn().initialize(context);
+        new FlowAccumulationPlugIn().initialize(context);
+        new TracePlugIn().initialize(context);
+        new ShortestPathPlugIn().initialize(context);
+        new ODMatrixPlugIn().initialize(context);
     }
 
 }
\ No newline at end of file
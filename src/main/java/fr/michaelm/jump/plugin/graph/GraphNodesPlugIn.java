@@ -23,10 +23,13 @@
 
 package fr.michaelm.jump.plugin.graph;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -42,38 +45,43 @@ import com.vividsolutions.jump.workbench.ui.GUIUtil;
 import com.vividsolutions.jump.workbench.ui.MenuNames;
 import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
 
-import fr.michaelm.jump.feature.jgrapht.*;
-import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.locationtech.jts.geom.GeometryFactory;
 
 /**
- * Creates a graph from a linear layer with JGraphT and returns degree 1 nodes
+ * Creates a graph from a linear layer and returns degree 1 nodes
  * (network dead-end), degree 2 nodes, degree 3+ nodes (intersection) or all
  * the nodes with their degree as attribute.
+ * <p>The graph is a CompactGraph, which only keeps the end points of the
+ * edges. A linear shapefile can be processed without loading it in memory.
+ * In the workbench, the graph of a layer is shared with the other plugins
+ * through GraphRegistry. It is read from GraphCache when the cache is
+ * enabled.</p>
  * @author Micha&euml;l Michaud
- * @version 0.5.0 (2018-06-17)
+ * @version 0.6.0 (2026-10-19)
  */
+//version 0.6.0 (2026-10-19) use CompactGraph and stream shapefiles
 //version 0.5.0 (2018-06-17) use parameters to ease usage in beanshell
 //version 0.4.0 (2017-01-17) directedGraph support
 //version 0.1.2 (2011-07-16) typos and comments
 //version 0.1.1 (2010-04-22) first svn version
 //version 0.1 (2010-04-22)
-public class GraphNodesPlugIn extends ThreadedBasePlugIn {
+public class GraphNodesPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
 
     private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
 
-    private static final String P_LAYER       = "Layer";
+    static final String P_LAYER       = "Layer";
 
-    private static final String P_ATTRIBUTE   = "Attribute";
-    private static final String P_IGNORE_NULL = "IgnoreNull";
+    static final String P_ATTRIBUTE   = "Attribute";
+    static final String P_IGNORE_NULL = "IgnoreNull";
 
-    private static final String P_GRAPH_3D    = "Graph3D";
+    static final String P_GRAPH_3D    = "Graph3D";
 
-    private static final String P_DEGREE_0     = "Degree0";
-    private static final String P_DEGREE_1     = "Degree1";
-    private static final String P_DEGREE_2     = "Degree2";
-    private static final String P_DEGREE_3P    = "Degree3P";
-    private static final String P_IN_DEGREE_0  = "InDegree0";
-    private static final String P_OUT_DEGREE_0 = "OutDegree0";
+    static final String P_DEGREE_0     = "Degree0";
+    static final String P_DEGREE_1     = "Degree1";
+    static final String P_DEGREE_2     = "Degree2";
+    static final String P_DEGREE_3P    = "Degree3P";
+    static final String P_IN_DEGREE_0  = "InDegree0";
+    static final String P_OUT_DEGREE_0 = "OutDegree0";
 
     private static String LAYER;
 
@@ -109,6 +117,8 @@ public class GraphNodesPlugIn extends ThreadedBasePlugIn {
     private static String OUT_DEGREE0;
 
     private static String NO_NODE_FOUND;
+
+    private static final GeometryFactory DEFAULT_GEOMETRY_FACTORY = new GeometryFactory();
     
     private Layer layer;
     private String attribute;
@@ -133,12 +143,6 @@ public class GraphNodesPlugIn extends ThreadedBasePlugIn {
         addParameter(P_DEGREE_3P,   false);
         addParameter(P_IN_DEGREE_0, false);
         addParameter(P_OUT_DEGREE_0,false);
-    }
-
-    public String getName() {return "Graph nodes PlugIn";}
-
-    @Override
-    public void initialize(final PlugInContext context) {
 
         LAYER                 = i18n.get("Layer");
         GRAPH                 = i18n.get("Graph");
@@ -167,7 +171,12 @@ public class GraphNodesPlugIn extends ThreadedBasePlugIn {
         IN_DEGREE0            = i18n.get("GraphNodesPlugIn.in-degree0");
         OUT_DEGREE0           = i18n.get("GraphNodesPlugIn.out-degree0");
         NO_NODE_FOUND         = i18n.get("GraphNodesPlugIn.no-node-found");
-        
+    }
+
+    public String getName() {return "Graph nodes PlugIn";}
+
+    @Override
+    public void initialize(final PlugInContext context) {
         context.getFeatureInstaller().addMainMenuPlugin(
           this, new String[]{MenuNames.PLUGINS, GRAPH},
           GRAPH_NODES + "...",
@@ -264,83 +273,123 @@ public class GraphNodesPlugIn extends ThreadedBasePlugIn {
     }
     
     public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
-        monitor.allowCancellationRequests();
-        monitor.report(GRAPH_COMPUTATION + "...");
-
         if (getStringParam(P_LAYER) == null) throw new Exception("Layer parameter is undefined");
         Layer layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
         if (layer == null) throw new Exception("Layer " + getStringParam(P_LAYER) + " has not been found");
-        FeatureCollection fc = layer.getFeatureCollectionWrapper();
-        
-        // Creates the schema for the output dataset (nodes)
-        FeatureSchema schemaNodes = new FeatureSchema();
-        schemaNodes.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+
+        FeatureCollection resultNodes = run(monitor, layer.getFeatureCollectionWrapper(), layer).get(NODES);
+        context.getLayerManager().addCategory(StandardCategoryNames.RESULT);
+        if (resultNodes.size()>0) {
+            context.addLayer(StandardCategoryNames.RESULT, layer.getName()+"-" + NODES, resultNodes);
+        } else {
+            context.getWorkbenchFrame().warnUser(NO_NODE_FOUND);
+        }
+    }
+
+    /**
+     * Computes the nodes of fc matching the degree parameters. The result map
+     * contains a single dataset, keyed by the nodes layer suffix.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection fc) throws Exception {
+        return run(monitor, fc, null);
+    }
+
+    // layer is the layer of fc, or null : its graph is shared through the
+    // registry of GraphExtension
+    private Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection fc, Layer layer)
+            throws Exception {
+        monitor.allowCancellationRequests();
+        monitor.report(GRAPH_COMPUTATION + "...");
+
         String attribute = getStringParam(P_ATTRIBUTE);
         if (attribute != null && !fc.getFeatureSchema().hasAttribute(attribute)) {
-            throw new Exception("Layer " + layer.getName() + " has no attribute named " + attribute);
+            throw new Exception("Dataset has no attribute named " + attribute);
         }
+        boolean ignoreEmpty = getBooleanParam(P_IGNORE_NULL);
+        boolean dim3 = getBooleanParam(P_GRAPH_3D);
+        CompactGraph graph = layer == null ?
+                GraphCache.getGraph(fc.getFeatures(), attribute, ignoreEmpty, dim3) :
+                GraphExtension.getGraphRegistry().getCompactGraph(layer, attribute, ignoreEmpty, dim3);
+        return computeNodes(graph, attribute,
+                attribute == null ? null : fc.getFeatureSchema().getAttributeType(attribute));
+    }
+
+    /**
+     * Computes the nodes of a linear shapefile matching the degree parameters.
+     * Records are streamed from the file : only their end points (and the
+     * attribute value if an attribute is used) are kept in memory.
+     * The result map is empty if monitor has been cancelled.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, File shapefile) throws IOException {
+        monitor.allowCancellationRequests();
+        monitor.report(GRAPH_COMPUTATION + "...");
+
+        String attribute = getStringParam(P_ATTRIBUTE);
+        try (ShapefileGraphReader reader = new ShapefileGraphReader(shapefile)) {
+            FeatureSchema schema = reader.getFeatureSchema();
+            if (attribute != null && !schema.hasAttribute(attribute)) {
+                throw new IllegalArgumentException("Shapefile has no attribute named " + attribute);
+            }
+            boolean ignoreEmpty = getBooleanParam(P_IGNORE_NULL);
+            boolean dim3 = getBooleanParam(P_GRAPH_3D);
+            GraphCache cache = GraphCache.getDefault();
+            CompactGraph graph = cache == null ?
+                    reader.readGraph(monitor, attribute, ignoreEmpty, dim3) :
+                    cache.get(GraphCache.key(shapefile, attribute, ignoreEmpty, dim3),
+                            () -> reader.readGraph(monitor, attribute, ignoreEmpty, dim3));
+            return computeNodes(graph, attribute,
+                    attribute == null ? null : schema.getAttributeType(attribute));
+        } catch(CancellationException e) {
+            // the truncated graph has not been cached
+            return new LinkedHashMap<>();
+        }
+    }
+
+    private Map<String,FeatureCollection> computeNodes(CompactGraph graph,
+                                                       String attribute, AttributeType attributeType) {
+        // Creates the schema for the output dataset (nodes)
+        FeatureSchema schemaNodes = new FeatureSchema();
+        schemaNodes.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
         if (attribute != null) {
-            schemaNodes.addAttribute(attribute, fc.getFeatureSchema().getAttributeType(attribute));
+            schemaNodes.addAttribute(attribute, attributeType);
         }
         schemaNodes.addAttribute(IN_DEGREE, AttributeType.INTEGER);
         schemaNodes.addAttribute(OUT_DEGREE, AttributeType.INTEGER);
         schemaNodes.addAttribute(DEGREE, AttributeType.INTEGER);
 
         FeatureCollection resultNodes = new FeatureDataset(schemaNodes);        
-        
-        // Order features by attribute value in a map
-        Map<Object,List<Feature>> map = new HashMap<>();
-        Object key = "NO_ATTRIBUTE_USED";
-        for (Feature f : fc.getFeatures()) {
-            if (attribute != null) key = f.getAttribute(attribute);
-            if (attribute != null && getBooleanParam(P_IGNORE_NULL) &&
-                (key == null || key.toString().trim().length() == 0)) {continue;}
-            else if (!map.containsKey(key)) {map.put(key, new ArrayList<>());}
-            map.get(key).add(f);
-        }
-        
-        //int count = 1;
+
         degree0    = getBooleanParam(P_DEGREE_0);
         degree1    = getBooleanParam(P_DEGREE_1);
         degree2    = getBooleanParam(P_DEGREE_2);
         degree3p   = getBooleanParam(P_DEGREE_3P);
         indegree0  = getBooleanParam(P_IN_DEGREE_0);
         outdegree0 = getBooleanParam(P_OUT_DEGREE_0);
-        for (Object k : map.keySet()) {
-            monitor.report(GRAPH_COMPUTATION + " (" + k + ")");
-            DirectedWeightedPseudograph<INode,FeatureAsEdge> graph =
-                    GraphFactory.createDirectedGraph(map.get(k), dim3);
-
-            for (INode node : graph.vertexSet()) {
-                int indegree =  graph.inDegreeOf(node);
-                int outdegree = graph.outDegreeOf(node);
-                int degree = indegree + outdegree;
-                if (degree0 && degree == 0 ||
-                        degree1 && degree == 1 ||
-                        degree2 && degree == 2 ||
-                        degree3p && degree > 2) {
-                    if (indegree0 && indegree != 0 && !outdegree0) continue;
-                    if (outdegree0 && outdegree != 0 && !indegree0) continue;
-                    // indegree0 && outdegree0 checked means one OR the other
-                    // -> continue if neither indegree nor outdegree are 0
-                    if (indegree0 && outdegree0 && indegree != 0 && outdegree !=0) continue;
-                    //if (outdegree0 && outdegree != 0) continue;
-                    Feature bf = new BasicFeature(schemaNodes);
-                    bf.setGeometry(node.getGeometry());
-                    if (use_attribute) bf.setAttribute(attribute, k);
-                    bf.setAttribute(IN_DEGREE, indegree);
-                    bf.setAttribute(OUT_DEGREE, outdegree);
-                    bf.setAttribute(DEGREE, degree);
-                    resultNodes.add(bf);
-                }
+        for (int node = 0 ; node < graph.getNodeCount() ; node++) {
+            int indegree =  graph.getInDegree(node);
+            int outdegree = graph.getOutDegree(node);
+            int degree = indegree + outdegree;
+            if (degree0 && degree == 0 ||
+                    degree1 && degree == 1 ||
+                    degree2 && degree == 2 ||
+                    degree3p && degree > 2) {
+                if (indegree0 && indegree != 0 && !outdegree0) continue;
+                if (outdegree0 && outdegree != 0 && !indegree0) continue;
+                // indegree0 && outdegree0 checked means one OR the other
+                // -> continue if neither indegree nor outdegree are 0
+                if (indegree0 && outdegree0 && indegree != 0 && outdegree !=0) continue;
+                Feature bf = new BasicFeature(schemaNodes);
+                bf.setGeometry(DEFAULT_GEOMETRY_FACTORY.createPoint(graph.getCoordinate(node)));
+                if (attribute != null) bf.setAttribute(attribute, graph.getGroup(graph.getNodeGroup(node)));
+                bf.setAttribute(IN_DEGREE, indegree);
+                bf.setAttribute(OUT_DEGREE, outdegree);
+                bf.setAttribute(DEGREE, degree);
+                resultNodes.add(bf);
             }
         }
-        context.getLayerManager().addCategory(StandardCategoryNames.RESULT);
-        if (resultNodes.size()>0) {
-            context.addLayer(StandardCategoryNames.RESULT, layer.getName()+"-" + NODES, resultNodes);
-        } else {
-            context.getWorkbenchFrame().warnUser(NO_NODE_FOUND);
-        }
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        result.put(NODES, resultNodes);
+        return result;
     }
     
     private List<String> getFieldsFromLayerWithoutGeometry(Layer l) {
@@ -0,0 +1,260 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.model.CategoryEvent;
+import com.vividsolutions.jump.workbench.model.FeatureEvent;
+import com.vividsolutions.jump.workbench.model.FeatureEventType;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.LayerEvent;
+import com.vividsolutions.jump.workbench.model.LayerEventType;
+import com.vividsolutions.jump.workbench.model.LayerListener;
+import com.vividsolutions.jump.workbench.model.LayerManager;
+import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
+import fr.michaelm.jump.feature.jgrapht.GraphFactory;
+import fr.michaelm.jump.feature.jgrapht.INode;
+import org.jgrapht.graph.DirectedPseudograph;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Graphs of the layers of the session, shared by the plugins (see
+ * GraphExtension.getGraphRegistry). A graph is cached per layer and per
+ * configuration (graph kind, grouping attribute, 2D/3D) until the layer
+ * features change : the registry listens to the layer managers of the layers
+ * it has seen and drops the graphs of a layer when its features are added,
+ * removed or modified, when the layer is changed or removed. Attribute
+ * modifications only drop the graphs grouped by an attribute.
+ * <p>Graphs are not patched : edges refer to features by their position in
+ * the layer, which changes as soon as a feature is added or removed.</p>
+ * <p>The estimated memory of the cached graphs is bounded, least recently
+ * used graphs being evicted first. Cached graphs are shared and must be
+ * used read-only.</p>
+ */
+class GraphRegistry implements LayerListener {
+
+    // rough footprint of a jgrapht pseudograph (INode, FeatureAsEdge and
+    // their entries in the vertex/edge maps and adjacency sets)
+    private static final long JGRAPHT_NODE_SIZE = 200;
+    private static final long JGRAPHT_EDGE_SIZE = 150;
+
+    private static final String COMPACT = "compact";
+    private static final String DIRECTED = "directed";
+    private static final String REACHABILITY = "reachability";
+    private static final String HIERARCHY = "hierarchy";
+    private static final String DIRECTED_HIERARCHY = "directed-hierarchy";
+
+    private final long maxMemory;
+    private long memory;
+    private final LinkedHashMap<Key,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // incremented on each invalidation, to avoid caching a graph built from
+    // features modified during the build
+    private final Map<Layer,Integer> versions = new WeakHashMap<>();
+    private final Set<LayerManager> layerManagers = Collections.newSetFromMap(new WeakHashMap<>());
+
+    /**
+     * Creates a registry keeping at most maxMemory bytes (estimated) of
+     * graphs.
+     */
+    GraphRegistry(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    /**
+     * Returns the CompactGraph of layer (see CompactGraph.create), read from
+     * GraphCache if it is not in the registry.
+     */
+    CompactGraph getCompactGraph(Layer layer, String attribute, boolean ignoreEmpty, boolean dim3) {
+        return get(layer, new Key(layer, COMPACT, attribute, ignoreEmpty, dim3),
+                () -> GraphCache.getGraph(layer.getFeatureCollectionWrapper().getFeatures(),
+                        attribute, ignoreEmpty, dim3),
+                CompactGraph::getMemorySize);
+    }
+
+    /**
+     * Returns the ReachabilityIndex of the CompactGraph of layer (without
+     * grouping attribute).
+     */
+    ReachabilityIndex getReachabilityIndex(Layer layer, boolean dim3) {
+        return get(layer, new Key(layer, REACHABILITY, null, false, dim3),
+                () -> new ReachabilityIndex(getCompactGraph(layer, null, false, dim3),
+                        layer.getFeatureCollectionWrapper().getFeatures()),
+                ReachabilityIndex::getMemorySize);
+    }
+
+    /**
+     * Returns the ContractionHierarchy of router, whose graph must be the
+     * CompactGraph of layer (without grouping attribute) and whose costs
+     * are the values of costAttribute (null for edge lengths). The
+     * hierarchy is read from GraphCache if it is not in the registry.
+     */
+    ContractionHierarchy getContractionHierarchy(Layer layer, NetworkRouter router, String costAttribute,
+                                                 boolean dim3, TaskMonitor monitor) {
+        return get(layer, new Key(layer, router.isDirected() ? DIRECTED_HIERARCHY : HIERARCHY,
+                        costAttribute, false, dim3),
+                () -> GraphCache.getContractionHierarchy(router, monitor),
+                ContractionHierarchy::getMemorySize);
+    }
+
+    /**
+     * Returns the jgrapht directed graph of layer built by GraphFactory. The
+     * graph must not be modified.
+     */
+    DirectedPseudograph<INode,FeatureAsEdge> getDirectedGraph(Layer layer, boolean dim3) {
+        return get(layer, new Key(layer, DIRECTED, null, false, dim3),
+                () -> GraphFactory.createDirectedGraph(layer.getFeatureCollectionWrapper().getFeatures(), dim3),
+                graph -> JGRAPHT_NODE_SIZE * graph.vertexSet().size() + JGRAPHT_EDGE_SIZE * graph.edgeSet().size());
+    }
+
+    /**
+     * Returns the graph cached for key or builds it. The registry is not
+     * locked during the build : the same graph may be built twice by
+     * concurrent calls.
+     */
+    @SuppressWarnings("unchecked")
+    <G> G get(Layer layer, Key key, Supplier<G> builder, ToLongFunction<G> weigher) {
+        int version;
+        synchronized (this) {
+            purge();
+            Entry entry = entries.get(key);
+            if (entry != null) return (G)entry.graph;
+            LayerManager layerManager = layer.getLayerManager();
+            if (layerManager != null && layerManagers.add(layerManager)) {
+                layerManager.addLayerListener(this);
+            }
+            version = versions.getOrDefault(layer, 0);
+        }
+        G graph = builder.get();
+        long size = weigher.applyAsLong(graph);
+        synchronized (this) {
+            if (size <= maxMemory && versions.getOrDefault(layer, 0) == version) {
+                Entry previous = entries.put(key, new Entry(graph, size));
+                if (previous != null) memory -= previous.size;
+                memory += size;
+                Iterator<Entry> it = entries.values().iterator();
+                while (memory > maxMemory && it.hasNext()) {
+                    memory -= it.next().size;
+                    it.remove();
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Drops the graphs of layer, or only its graphs grouped by an attribute
+     * if attributesOnly is true.
+     */
+    synchronized void invalidate(Layer layer, boolean attributesOnly) {
+        versions.merge(layer, 1, Integer::sum);
+        Iterator<Map.Entry<Key,Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key,Entry> entry = it.next();
+            if (entry.getKey().layer.get() == layer && (!attributesOnly || entry.getKey().attribute != null)) {
+                memory -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        memory = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getMemory() {
+        return memory;
+    }
+
+    // Removes the graphs of garbage collected layers
+    private void purge() {
+        Iterator<Map.Entry<Key,Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key,Entry> entry = it.next();
+            if (entry.getKey().layer.get() == null) {
+                memory -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void featuresChanged(FeatureEvent e) {
+        if (e.getLayer() != null) {
+            invalidate(e.getLayer(), e.getType() == FeatureEventType.ATTRIBUTES_MODIFIED);
+        }
+    }
+
+    @Override
+    public void layerChanged(LayerEvent e) {
+        if (e.getLayerable() instanceof Layer &&
+                (e.getType() == LayerEventType.CHANGED || e.getType() == LayerEventType.REMOVED)) {
+            invalidate((Layer)e.getLayerable(), false);
+        }
+    }
+
+    @Override
+    public void categoryChanged(CategoryEvent e) {
+    }
+
+    /**
+     * Identifies a graph : the layer (weakly referenced) and the graph
+     * configuration.
+     */
+    static final class Key {
+
+        private final WeakReference<Layer> layer;
+        private final int layerHash;
+        private final String kind;
+        private final String attribute;
+        private final boolean ignoreEmpty;
+        private final boolean dim3;
+
+        Key(Layer layer, String kind, String attribute, boolean ignoreEmpty, boolean dim3) {
+            this.layer = new WeakReference<>(layer);
+            this.layerHash = System.identityHashCode(layer);
+            this.kind = kind;
+            this.attribute = attribute;
+            this.ignoreEmpty = attribute != null && ignoreEmpty;
+            this.dim3 = dim3;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return layer.get() != null && layer.get() == other.layer.get() &&
+                    kind.equals(other.kind) && Objects.equals(attribute, other.attribute) &&
+                    ignoreEmpty == other.ignoreEmpty && dim3 == other.dim3;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(layerHash, kind, attribute, ignoreEmpty, dim3);
+        }
+    }
+
+    private static final class Entry {
+
+        private final Object graph;
+        private final long size;
+
+        Entry(Object graph, long size) {
+            this.graph = graph;
+            this.size = size;
+        }
+    }
+}
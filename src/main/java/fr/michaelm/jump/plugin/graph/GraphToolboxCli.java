@@ -0,0 +1,260 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.io.DriverProperties;
+import com.vividsolutions.jump.io.JMLReader;
+import com.vividsolutions.jump.io.JMLWriter;
+import com.vividsolutions.jump.io.JUMPReader;
+import com.vividsolutions.jump.io.JUMPWriter;
+import com.vividsolutions.jump.io.ShapefileReader;
+import com.vividsolutions.jump.io.ShapefileWriter;
+import com.vividsolutions.jump.io.WKTReader;
+import com.vividsolutions.jump.io.WKTWriter;
+import com.vividsolutions.jump.io.datasource.DataSource;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.workbench.plugin.AbstractPlugIn;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Command line runner for the graph plugins. Each input file is processed by
+ * a new plugin instance, files being processed in parallel, and each result
+ * dataset is written next to the input file (or in the output directory) as
+ * &lt;input&gt;-&lt;result&gt;.&lt;format&gt;.
+ * <pre>
+ * java -cp ... fr.michaelm.jump.plugin.graph.GraphToolboxCli &lt;plugin&gt;
+ *      [-P&lt;name&gt;=&lt;value&gt;]... [-threads n] [-output dir] [-format shp|jml|wkt]
+ *      [-cache dir] file...
+ * </pre>
+ * Supported file formats are shapefile, jml and wkt (the formats read by
+ * OpenJUMP core without workbench). Graph nodes and traces are computed from
+ * shapefiles without loading them (see ShapefileGraphReader). -cache enables GraphCache
+ * in dir, so that a graph computed for a file is reused by the next runs.
+ */
+public class GraphToolboxCli {
+
+    private static final Map<String,Supplier<AbstractPlugIn>> PLUGINS = new LinkedHashMap<>();
+    static {
+        PLUGINS.put("nodes",        GraphNodesPlugIn::new);
+        PLUGINS.put("components",   GraphComponentsPlugIn::new);
+        PLUGINS.put("cycles",       CycleFinderPlugIn::new);
+        PLUGINS.put("stream-order", StreamOrderPlugIn::new);
+        PLUGINS.put("hydrography",  HydrographicNetworkAnalysisPlugIn::new);
+        PLUGINS.put("flow-accumulation", FlowAccumulationPlugIn::new);
+        PLUGINS.put("trace",        TracePlugIn::new);
+        PLUGINS.put("skeleton",     SkeletonPlugIn::new);
+    }
+
+    // Parameters used to find the input layers in the workbench, or holding
+    // in-memory datasets
+    private static final List<String> WORKBENCH_PARAMETERS =
+            Arrays.asList("Layer", "LayerName", "Dataset", "DatasetName", "InflowLayer", "InflowDataset");
+
+    private final Supplier<AbstractPlugIn> factory;
+    private final Map<String,String> parameters = new LinkedHashMap<>();
+    private final List<File> files = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File outputDir;
+    private String format;
+
+    public static void main(String[] args) {
+        if (args.length == 0 || !PLUGINS.containsKey(args[0])) {
+            printUsage();
+            System.exit(args.length == 0 ? 0 : 1);
+        }
+        try {
+            GraphToolboxCli cli = new GraphToolboxCli(args);
+            System.exit(cli.run() ? 0 : 1);
+        } catch(IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+        }
+    }
+
+    GraphToolboxCli(String[] args) {
+        factory = PLUGINS.get(args[0]);
+        for (int i = 1 ; i < args.length ; i++) {
+            String arg = args[i];
+            if (arg.startsWith("-P") && arg.indexOf('=') > 2) {
+                parameters.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else if (arg.equals("-threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-output") && i + 1 < args.length) {
+                outputDir = new File(args[++i]);
+            } else if (arg.equals("-format") && i + 1 < args.length) {
+                format = args[++i].toLowerCase(Locale.ROOT);
+            } else if (arg.equals("-cache") && i + 1 < args.length) {
+                System.setProperty(GraphCache.CACHE_DIRECTORY_PROPERTY, args[++i]);
+            } else if (arg.startsWith("-")) {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) throw new IllegalArgumentException("No input file");
+        if (format != null && !isSupported(format)) {
+            throw new IllegalArgumentException("Unsupported format " + format);
+        }
+        // Check parameters once, before any processing
+        createPlugIn();
+    }
+
+    /**
+     * Processes all the files and returns true if all of them have been
+     * processed successfully.
+     */
+    boolean run() {
+        if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Cannot create output directory " + outputDir);
+            return false;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            Map<File,Future<Integer>> futures = new LinkedHashMap<>();
+            for (File file : files) {
+                futures.put(file, executor.submit(() -> process(file)));
+            }
+            boolean success = true;
+            for (Map.Entry<File,Future<Integer>> entry : futures.entrySet()) {
+                try {
+                    System.out.println(entry.getKey() + " : " + entry.getValue().get() + " dataset(s) written");
+                } catch(ExecutionException e) {
+                    success = false;
+                    System.err.println(entry.getKey() + " : " + e.getCause());
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return success;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Runs a new plugin instance on file and writes its results
+    // Returns the number of datasets written
+    private int process(File file) throws Exception {
+        AbstractPlugIn plugin = createPlugIn();
+        if (plugin instanceof CycleFinderPlugIn) {
+            plugin.addParameter(CycleFinderPlugIn.P_DATASET_NAME, baseName(file));
+        }
+        Map<String,FeatureCollection> result;
+        if (plugin instanceof GraphNodesPlugIn && extension(file).equals("shp")) {
+            // nodes only need edge end points : the shapefile is streamed
+            result = ((GraphNodesPlugIn)plugin).run(new DummyTaskMonitor(), file);
+        } else if (plugin instanceof TracePlugIn && extension(file).equals("shp")) {
+            // only traced features are read from the shapefile
+            result = ((TracePlugIn)plugin).run(new DummyTaskMonitor(), file);
+        } else {
+            FeatureCollection dataset = getReader(extension(file)).read(getDriverProperties(file));
+            result = ((HeadlessPlugIn)plugin).run(new DummyTaskMonitor(), dataset);
+        }
+        String outputFormat = format == null ? extension(file) : format;
+        File dir = outputDir == null ? file.getAbsoluteFile().getParentFile() : outputDir;
+        int count = 0;
+        for (Map.Entry<String,FeatureCollection> entry : result.entrySet()) {
+            if (entry.getValue().isEmpty()) continue;
+            File output = new File(dir, baseName(file) + "-" +
+                    entry.getKey().replaceAll("[^\\w\\-]+", "_") + "." + outputFormat);
+            getWriter(outputFormat).write(entry.getValue(), getDriverProperties(output));
+            count++;
+        }
+        return count;
+    }
+
+    // Creates a plugin with the command line parameters, converted to the
+    // type of the plugin default values (parameters without default value are
+    // strings)
+    private AbstractPlugIn createPlugIn() {
+        AbstractPlugIn plugin = factory.get();
+        for (Map.Entry<String,String> entry : parameters.entrySet()) {
+            String name = entry.getKey();
+            if (!plugin.getParameters().containsKey(name) || WORKBENCH_PARAMETERS.contains(name)) {
+                throw new IllegalArgumentException("Unknown parameter " + name);
+            }
+            Object defaultValue = plugin.getParameter(name);
+            String value = entry.getValue();
+            try {
+                if (value.equals("null")) plugin.addParameter(name, null);
+                else if (defaultValue instanceof Boolean) plugin.addParameter(name, Boolean.valueOf(value));
+                else if (defaultValue instanceof Integer) plugin.addParameter(name, Integer.valueOf(value));
+                else if (defaultValue instanceof Double) plugin.addParameter(name, Double.valueOf(value));
+                else if (defaultValue == null || defaultValue instanceof String) plugin.addParameter(name, value);
+                else throw new IllegalArgumentException("Parameter " + name + " cannot be set from command line");
+            } catch(NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for parameter " + name + " : " + value);
+            }
+        }
+        return plugin;
+    }
+
+    private static boolean isSupported(String extension) {
+        return extension.equals("shp") || extension.equals("jml") || extension.equals("wkt");
+    }
+
+    private static JUMPReader getReader(String extension) {
+        switch (extension) {
+            case "shp" : return new ShapefileReader();
+            case "jml" : return new JMLReader();
+            case "wkt" : return new WKTReader();
+            default : throw new IllegalArgumentException("Unsupported format " + extension);
+        }
+    }
+
+    private static JUMPWriter getWriter(String extension) {
+        switch (extension) {
+            case "shp" : return new ShapefileWriter();
+            case "jml" : return new JMLWriter();
+            case "wkt" : return new WKTWriter();
+            default : throw new IllegalArgumentException("Unsupported format " + extension);
+        }
+    }
+
+    private static DriverProperties getDriverProperties(File file) {
+        DriverProperties properties = new DriverProperties();
+        properties.set(DataSource.FILE_KEY, file.getPath());
+        return properties;
+    }
+
+    private static String extension(File file) {
+        String name = file.getName();
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        return name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage : GraphToolboxCli <plugin> [-P<name>=<value>]... " +
+                "[-threads n] [-output dir] [-format shp|jml|wkt] [-cache dir] file...");
+        System.out.println("  -threads : number of files processed in parallel " +
+                "(default : number of processors)");
+        System.out.println("  -output  : output directory (default : directory of each input file)");
+        System.out.println("  -format  : output format (default : input format)");
+        System.out.println("  -cache   : graph cache directory (default : no cache)");
+        System.out.println("Plugins and parameters (default value) :");
+        for (Map.Entry<String,Supplier<AbstractPlugIn>> entry : PLUGINS.entrySet()) {
+            System.out.println("  " + entry.getKey());
+            for (Map.Entry<String,Object> param : new TreeMap<>(entry.getValue().get().getParameters()).entrySet()) {
+                if (WORKBENCH_PARAMETERS.contains(param.getKey())) continue;
+                System.out.println("    -P" + param.getKey() + "=" + param.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import java.util.Map;
+
+/**
+ * A plugin of the graph extension which can run without workbench (from a
+ * script, a batch or GraphToolboxCli). Parameters are set with
+ * addParameter, using the P_* names of the plugin, and the input layer is
+ * replaced by a FeatureCollection.
+ */
+public interface HeadlessPlugIn {
+
+    /**
+     * Runs the plugin on dataset with its current parameters and returns the
+     * result datasets by name (the suffix of the layers created by the
+     * plugin in the workbench).
+     * <p>dataset is never modified.</p>
+     */
+    Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) throws Exception;
+}
@@ -16,6 +16,7 @@ import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
 import fr.michaelm.jump.feature.jgrapht.GraphFactory;
 import fr.michaelm.jump.feature.jgrapht.INode;
 import org.jgrapht.Graph;
+import org.jgrapht.alg.connectivity.KosarajuStrongConnectivityInspector;
 import org.jgrapht.alg.cycle.CycleDetector;
 import org.jgrapht.alg.cycle.HawickJamesSimpleCycles;
 import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
@@ -36,10 +37,19 @@ import java.util.List;
 /**
  * PlugIn to detect or repair anomalies in a hydrographic network
  */
-public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
+public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
 
     private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
 
+    static final String P_LAYER        = "Layer";
+    static final String P_DETECT       = "Detect";
+    static final String P_REPAIR       = "Repair";
+    static final String P_FIND_CYCLES  = "FindCycles";
+    static final String P_FIND_SOURCES = "FindSources";
+    static final String P_FIND_SINKS   = "FindSinks";
+    static final String P_USE_Z        = "UseZ";
+    static final String P_TOL_Z        = "ToleranceZ";
+
     private static String LAYER;
     private static String GRAPH;
     private static String HYDROGRAPHIC_NETWORK_ANALYSIS;
@@ -77,10 +87,15 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
     private boolean useZ        = true; // use z to find inverted edges
     private double tolZ         = 0;
 
-    //public String getName() {return "Hydrographic network anomaly detection";}
-
-    @Override
-    public void initialize(final PlugInContext context) {
+    {
+        addParameter(P_LAYER,        null);
+        addParameter(P_DETECT,       detect);
+        addParameter(P_REPAIR,       repair);
+        addParameter(P_FIND_CYCLES,  findCycles);
+        addParameter(P_FIND_SOURCES, findSources);
+        addParameter(P_FIND_SINKS,   findSinks);
+        addParameter(P_USE_Z,        useZ);
+        addParameter(P_TOL_Z,        tolZ);
 
         LAYER                         = i18n.get("Layer");
         GRAPH                         = i18n.get("Graph");
@@ -109,7 +124,12 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
         CYCLE_ANOMALY    = i18n.get("HydrographicNetworkAnalysisPlugIn.cycle-anomaly");
         NODE_ANOMALY     = i18n.get("HydrographicNetworkAnalysisPlugIn.node-anomaly");
         REVERSED_EDGES   = i18n.get("HydrographicNetworkAnalysisPlugIn.reversed-edge");
+    }
 
+    //public String getName() {return "Hydrographic network anomaly detection";}
+
+    @Override
+    public void initialize(final PlugInContext context) {
         context.getFeatureInstaller().addMainMenuPlugin(
                 this, new String[]{MenuNames.PLUGINS, GRAPH},
                 HYDROGRAPHIC_NETWORK_ANALYSIS + "...",
@@ -150,6 +170,15 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
             findSinks   = dialog.getBoolean(FIND_SINKS);
             useZ        = dialog.getBoolean(USE_Z);
             tolZ        = dialog.getDouble(TOL_Z);
+
+            addParameter(P_LAYER,        layer.getName());
+            addParameter(P_DETECT,       detect);
+            addParameter(P_REPAIR,       repair);
+            addParameter(P_FIND_CYCLES,  findCycles);
+            addParameter(P_FIND_SOURCES, findSources);
+            addParameter(P_FIND_SINKS,   findSinks);
+            addParameter(P_USE_Z,        useZ);
+            addParameter(P_TOL_Z,        tolZ);
             return true;
         }
         else return false;
@@ -160,43 +189,39 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
     public void run(TaskMonitor monitor, PlugInContext context) {
         monitor.allowCancellationRequests();
         monitor.report(GRAPH_COMPUTATION + "...");
+        readParameters();
+        layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
         FeatureCollection fc = layer.getFeatureCollectionWrapper();
 
-        DirectedPseudograph<INode,FeatureAsEdge> graph =
-                GraphFactory.createDirectedGraph(fc.getFeatures(), false);
+        // repair modifies the graph : the shared graph is only used for detection
+        DirectedPseudograph<INode,FeatureAsEdge> graph = repair ?
+                GraphFactory.createDirectedGraph(fc.getFeatures(), false) :
+                GraphExtension.getGraphRegistry().getDirectedGraph(layer, false);
 
         if (detect) {
-            if (useZ) {
+            Map<String,FeatureCollection> anomalies = detect(monitor, fc, graph);
+            if (monitor.isCancelRequested()) return;
+            if (anomalies.containsKey(Z_ANOMALY)) {
                 Layer lyr = context.getLayerManager().addLayer(StandardCategoryNames.RESULT,
-                        layer.getName() + "-" + Z_ANOMALY, getInversedEdges(fc));
+                        layer.getName() + "-" + Z_ANOMALY, anomalies.get(Z_ANOMALY));
                 setInversionStyle(lyr);
             }
-            if (findCycles) {
+            if (anomalies.containsKey(CYCLE_ANOMALY)) {
                 Layer lyr = context.getLayerManager().addLayer(StandardCategoryNames.RESULT,
-                        layer.getName() + "-" + CYCLE_ANOMALY, getCycles(graph));
+                        layer.getName() + "-" + CYCLE_ANOMALY, anomalies.get(CYCLE_ANOMALY));
                 setCycleStyle(lyr);
             }
-            if (findSources || findSinks) {
+            if (anomalies.containsKey(NODE_ANOMALY)) {
                 Layer lyr = context.getLayerManager().addLayer(StandardCategoryNames.RESULT,
-                        layer.getName() + "-" + NODE_ANOMALY, getSourcesAndSinks(graph));
+                        layer.getName() + "-" + NODE_ANOMALY, anomalies.get(NODE_ANOMALY));
                 setNodeStyle(lyr);
             }
         }
 
         if (repair) {
-            Set<Integer> set = new HashSet<>();
-            if (useZ) {
-                repairDownwardEdges(graph, set);
-            }
-            if (findSources) {
-                repairSources(graph, set);
-            }
-            if (findSinks) {
-                repairSinks(graph, set);
-            }
-            if (findCycles) {
-                repairCycles(graph, set);
-            }
+            Set<Integer> set = repair(monitor, graph);
+            // a cancelled repair is not applied to the layer
+            if (monitor.isCancelRequested()) return;
             FeatureCollection reversedFeatures =
                     new FeatureDataset(layer.getFeatureCollectionWrapper().getFeatureSchema());
 
@@ -216,6 +241,88 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
         }
     }
 
+    /**
+     * Analyzes dataset according to the plugin parameters. The result map
+     * contains the anomaly datasets (detection mode) and, in repair mode, the
+     * reversed edges and a repaired copy of dataset ("repaired"), as dataset
+     * itself cannot be edited without a layer. The map is empty if monitor
+     * has been cancelled.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) {
+        monitor.allowCancellationRequests();
+        monitor.report(GRAPH_COMPUTATION + "...");
+        readParameters();
+
+        DirectedPseudograph<INode,FeatureAsEdge> graph =
+                GraphFactory.createDirectedGraph(dataset.getFeatures(), false);
+
+        Map<String,FeatureCollection> result = detect ? detect(monitor, dataset, graph) : new LinkedHashMap<>();
+        if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+        if (repair) {
+            Set<Integer> set = repair(monitor, graph);
+            if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+            FeatureCollection reversedFeatures = new FeatureDataset(dataset.getFeatureSchema());
+            FeatureCollection repairedFeatures = new FeatureDataset(dataset.getFeatureSchema());
+            for (Feature feature : dataset.getFeatures()) {
+                Feature copy = feature.clone(true, true);
+                if (set.contains(feature.getID())) {
+                    reversedFeatures.add(feature.clone(true, true));
+                    copy.setGeometry(feature.getGeometry().reverse());
+                }
+                repairedFeatures.add(copy);
+            }
+            result.put(REVERSED_EDGES, reversedFeatures);
+            result.put("repaired", repairedFeatures);
+        }
+        return result;
+    }
+
+    private void readParameters() {
+        detect      = getBooleanParam(P_DETECT);
+        repair      = getBooleanParam(P_REPAIR);
+        findCycles  = getBooleanParam(P_FIND_CYCLES);
+        findSources = getBooleanParam(P_FIND_SOURCES);
+        findSinks   = getBooleanParam(P_FIND_SINKS);
+        useZ        = getBooleanParam(P_USE_Z);
+        tolZ        = getDoubleParam(P_TOL_Z);
+    }
+
+    // Returns the anomalies found in fc, by type (incomplete if monitor is
+    // cancelled)
+    private Map<String,FeatureCollection> detect(TaskMonitor monitor, FeatureCollection fc,
+                                                 DirectedPseudograph<INode,FeatureAsEdge> graph) {
+        Map<String,FeatureCollection> anomalies = new LinkedHashMap<>();
+        if (useZ) {
+            anomalies.put(Z_ANOMALY, getInversedEdges(fc));
+        }
+        if (findCycles) {
+            anomalies.put(CYCLE_ANOMALY, getCycles(monitor, graph));
+        }
+        if (findSources || findSinks) {
+            anomalies.put(NODE_ANOMALY, getSourcesAndSinks(graph));
+        }
+        return anomalies;
+    }
+
+    // Returns the ids of the features to reverse (incomplete if monitor is
+    // cancelled)
+    private Set<Integer> repair(TaskMonitor monitor, DirectedPseudograph<INode,FeatureAsEdge> graph) {
+        Set<Integer> set = new HashSet<>();
+        if (useZ) {
+            repairDownwardEdges(graph, set);
+        }
+        if (findSources) {
+            repairSources(monitor, graph, set);
+        }
+        if (findSinks) {
+            repairSinks(monitor, graph, set);
+        }
+        if (findCycles) {
+            repairCycles(monitor, graph, set);
+        }
+        return set;
+    }
+
     private FeatureCollection getInversedEdges(FeatureCollection fc) {
 
         FeatureSchema anomalySchema = getAnomalySchema();
@@ -243,11 +350,28 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
         return dataset;
     }
 
-    private FeatureCollection getCycles(DirectedPseudograph<INode,FeatureAsEdge> graph) {
+    // Simple cycles of graph. A cycle never leaves its strongly connected
+    // component, so that cycles are searched component by component, and the
+    // search stops at the first component following a cancellation.
+    private List<List<INode>> findSimpleCycles(TaskMonitor monitor,
+                                               DirectedPseudograph<INode,FeatureAsEdge> graph) {
+        List<List<INode>> cycles = new ArrayList<>();
+        for (Set<INode> component : new KosarajuStrongConnectivityInspector<>(graph).stronglyConnectedSets()) {
+            if (monitor.isCancelRequested()) break;
+            if (component.size() == 1) {
+                INode node = component.iterator().next();
+                if (!graph.containsEdge(node, node)) continue;
+            }
+            cycles.addAll(new HawickJamesSimpleCycles<>(new AsSubgraph<>(graph, component)).findSimpleCycles());
+        }
+        return cycles;
+    }
+
+    private FeatureCollection getCycles(TaskMonitor monitor, DirectedPseudograph<INode,FeatureAsEdge> graph) {
         FeatureSchema anomalySchema = getAnomalySchema();
         FeatureCollection dataset = new FeatureDataset(anomalySchema);
 
-        List<List<INode>> cycles = new HawickJamesSimpleCycles<>(graph).findSimpleCycles();
+        List<List<INode>> cycles = findSimpleCycles(monitor, graph);
         for (List<INode> cycle : cycles) {
             Set<FeatureAsEdge> edgeSet = new AsSubgraph<>(
                     graph, new HashSet<>(cycle), null).edgeSet();
@@ -303,9 +427,11 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
         }
     }
 
-    private void repairCycles(DirectedPseudograph<INode,FeatureAsEdge> graph, Set<Integer> set) {
-        List<List<INode>> cycles = new HawickJamesSimpleCycles<>(graph).findSimpleCycles();
+    private void repairCycles(TaskMonitor monitor, DirectedPseudograph<INode,FeatureAsEdge> graph,
+                              Set<Integer> set) {
+        List<List<INode>> cycles = findSimpleCycles(monitor, graph);
         for (List<INode> cycle : cycles) {
+            if (monitor.isCancelRequested()) return;
             Set<FeatureAsEdge> edgeSet =
                     new AsSubgraph<>(graph, new HashSet<>(cycle), null).edgeSet();
             double max = 0;
@@ -324,8 +450,10 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
         }
     }
 
-    private void repairSources(DirectedPseudograph<INode,FeatureAsEdge> graph, Set<Integer> set) {
+    private void repairSources(TaskMonitor monitor, DirectedPseudograph<INode,FeatureAsEdge> graph,
+                               Set<Integer> set) {
         for (INode node : graph.vertexSet()) {
+            if (monitor.isCancelRequested()) return;
             if (findSources && isSource(graph, node)) {
                 BreadthFirstIterator<INode,FeatureAsEdge> it =
                         new BreadthFirstIterator<>(graph, node);
@@ -354,9 +482,10 @@ public class HydrographicNetworkAnalysisPlugIn extends ThreadedBasePlugIn {
         //return new ArrayList<Integer>();
     }
 
-    private void repairSinks(Graph<INode,FeatureAsEdge> graph, Set<Integer> set) {
+    private void repairSinks(TaskMonitor monitor, Graph<INode,FeatureAsEdge> graph, Set<Integer> set) {
         graph = new EdgeReversedGraph<>(graph);
         for (INode node : graph.vertexSet()) {
+            if (monitor.isCancelRequested()) return;
             if (findSources && isSource(graph, node)) {
                 BreadthFirstIterator<INode,FeatureAsEdge> it =
                         new BreadthFirstIterator<>(graph, node);
@@ -0,0 +1,341 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Shortest paths on a CompactGraph, whose nodes are the nodes GraphFactory
+ * creates for the same features. Each edge has a cost (its length or an
+ * attribute value) and is followed in its direction only (directed network)
+ * or in both directions.
+ * <p>Point to point queries use A* with a Euclidean heuristic : the
+ * straight line distance to the destination multiplied by the smallest
+ * cost per unit of length of the network, which never overestimates the
+ * remaining cost whatever the cost attribute. Service areas are computed by
+ * a Dijkstra search bounded by a maximum cost.</p>
+ * <p>Searches work on primitive arrays and a NodeHeap held by a
+ * Search object, which is reused from one query to the next without being
+ * cleared. The router is immutable and can be shared by threads, each
+ * thread using its own Search.</p>
+ */
+class NetworkRouter {
+
+    private final CompactGraph graph;
+    private final double[] cost;
+    private final boolean directed;
+    // smallest cost / straight line length ratio of the edges
+    private final double heuristicFactor;
+    private volatile STRtree nodeIndex;
+
+    /**
+     * Creates a router on graph, using cost as edge costs (null to use edge
+     * lengths).
+     * @throws IllegalArgumentException if a cost is negative or NaN
+     */
+    NetworkRouter(CompactGraph graph, double[] cost, boolean directed) {
+        this.graph = graph;
+        int edgeCount = graph.getEdgeCount();
+        if (cost == null) {
+            cost = new double[edgeCount];
+            for (int e = 0 ; e < edgeCount ; e++) cost[e] = graph.getLength(e);
+        } else if (cost.length < edgeCount) {
+            throw new IllegalArgumentException("Array cost has " + cost.length +
+                    " values instead of " + edgeCount);
+        }
+        double factor = Double.POSITIVE_INFINITY;
+        for (int e = 0 ; e < edgeCount ; e++) {
+            if (!(cost[e] >= 0)) throw new IllegalArgumentException("Edge " + e + " has an invalid cost : " + cost[e]);
+            double d = straightDistance(graph.getSource(e), graph.getTarget(e));
+            if (d > 0) factor = Math.min(factor, cost[e] / d);
+        }
+        this.cost = cost;
+        this.directed = directed;
+        this.heuristicFactor = Double.isInfinite(factor) ? 0 : factor;
+    }
+
+    CompactGraph getGraph() {
+        return graph;
+    }
+
+    boolean isDirected() {
+        return directed;
+    }
+
+    double getCost(int edge) {
+        return cost[edge];
+    }
+
+    private double straightDistance(int node1, int node2) {
+        return Math.hypot(graph.getX(node1) - graph.getX(node2), graph.getY(node1) - graph.getY(node2));
+    }
+
+    /**
+     * Returns the node nearest to c (in 2D), or -1 if the graph has no node.
+     */
+    int getNearestNode(Coordinate c) {
+        if (graph.getNodeCount() == 0) return -1;
+        STRtree index = nodeIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = nodeIndex;
+                if (index == null) {
+                    index = new STRtree();
+                    for (int node = 0 ; node < graph.getNodeCount() ; node++) {
+                        index.insert(new Envelope(graph.getX(node), graph.getX(node),
+                                graph.getY(node), graph.getY(node)), node);
+                    }
+                    index.build();
+                    nodeIndex = index;
+                }
+            }
+        }
+        return (Integer)index.nearestNeighbour(new Envelope(c), -1,
+                (item1, item2) -> {
+                    int node = (Integer)(item1.getItem().equals(-1) ? item2.getItem() : item1.getItem());
+                    return Math.hypot(graph.getX(node) - c.x, graph.getY(node) - c.y);
+                });
+    }
+
+    /**
+     * Creates the state of a search, to be used by a single thread.
+     */
+    Search newSearch() {
+        return new Search();
+    }
+
+    /**
+     * Computes the cost of the shortest path from origins[i] to
+     * destinations[i] for each i, with threads threads. The cost is
+     * infinite if the destination cannot be reached. Remaining costs are
+     * NaN if monitor (which may be null) is cancelled.
+     */
+    double[] route(int[] origins, int[] destinations, int threads, TaskMonitor monitor)
+            throws InterruptedException, ExecutionException {
+        if (origins.length != destinations.length) {
+            throw new IllegalArgumentException("Origins and destinations have different sizes");
+        }
+        double[] costs = new double[origins.length];
+        Arrays.fill(costs, Double.NaN);
+        forEach(origins.length, threads, monitor, () -> {
+            Search search = newSearch();
+            return i -> costs[i] = search.route(origins[i], destinations[i]);
+        });
+        return costs;
+    }
+
+    /**
+     * Runs a job for each i in [0, count) with threads threads. Each thread
+     * gets its job from factory (so that a job can allocate its own Search
+     * and arrays once) and runs it for every threads-th index. Remaining
+     * indices are skipped if monitor (which may be null) is cancelled.
+     */
+    static void forEach(int count, int threads, TaskMonitor monitor, Supplier<IntConsumer> factory)
+            throws InterruptedException, ExecutionException {
+        int tasks = Math.max(1, Math.min(threads, count));
+        ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0 ; t < tasks ; t++) {
+                final int first = t;
+                // indices are interleaved, so that threads finish together
+                futures.add(executor.submit(() -> {
+                    IntConsumer job = factory.get();
+                    for (int i = first ; i < count ; i += tasks) {
+                        if (monitor != null && monitor.isCancelRequested()) return;
+                        job.accept(i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * State of the searches of a thread : node costs and predecessor edges,
+     * and an indexed binary heap. Values of the previous search are
+     * invalidated by incrementing a search number rather than by clearing
+     * the arrays.
+     */
+    final class Search {
+
+        private final double[] distance;
+        private final int[] predecessor;    // edge used to reach the node, -1 for the origin
+        private final int[] searchNumber;   // search in which distance is valid
+        private final int[] settled;        // search in which the node has been settled
+        private int current;
+
+        // nodes ordered by cost (+ heuristic)
+        private final NodeHeap heap;
+
+        // nodes reached by the last search, in the order they were settled
+        private int[] reached = new int[64];
+        private int reachedCount;
+
+        // search in which the node is a target, and number of targets left
+        private int[] target;
+        private int remainingTargets;
+
+        private Search() {
+            int nodeCount = graph.getNodeCount();
+            distance = new double[nodeCount];
+            predecessor = new int[nodeCount];
+            searchNumber = new int[nodeCount];
+            settled = new int[nodeCount];
+            heap = new NodeHeap(nodeCount);
+        }
+
+        /**
+         * Returns the cost of the shortest path from origin to destination
+         * (A* search), or an infinite cost if destination cannot be reached.
+         */
+        double route(int origin, int destination) {
+            search(origin, destination, Double.POSITIVE_INFINITY, null);
+            return getDistance(destination);
+        }
+
+        /**
+         * Computes the cost of the shortest paths from origin to all the
+         * nodes which can be reached with a cost lower or equal to maxCost
+         * (Dijkstra search).
+         */
+        void expand(int origin, double maxCost) {
+            search(origin, -1, maxCost, null);
+        }
+
+        /**
+         * Computes the cost of the shortest paths from origin to targets
+         * (Dijkstra search), stopping as soon as all the targets have been
+         * reached or the cost exceeds maxCost. Negative targets are ignored.
+         */
+        void expand(int origin, int[] targets, double maxCost) {
+            search(origin, -1, maxCost, targets);
+        }
+
+        private void search(int origin, int destination, double maxCost, int[] targets) {
+            if (++current == Integer.MAX_VALUE) {
+                Arrays.fill(searchNumber, 0);
+                Arrays.fill(settled, 0);
+                if (target != null) Arrays.fill(target, 0);
+                current = 1;
+            }
+            if (targets != null) {
+                if (target == null) target = new int[graph.getNodeCount()];
+                remainingTargets = 0;
+                for (int node : targets) {
+                    if (node >= 0 && target[node] != current) {
+                        target[node] = current;
+                        remainingTargets++;
+                    }
+                }
+            }
+            heap.clear();
+            reachedCount = 0;
+            double factor = destination < 0 ? 0 : heuristicFactor;
+            searchNumber[origin] = current;
+            distance[origin] = 0;
+            predecessor[origin] = -1;
+            if (targets != null && remainingTargets == 0) {
+                // no target to reach (e.g. no destination could be snapped) :
+                // only the origin is settled instead of expanding the whole graph
+                settled[origin] = current;
+                reached[reachedCount++] = origin;
+                return;
+            }
+            heap.push(origin, factor * heuristic(origin, destination));
+            while (!heap.isEmpty()) {
+                int node = heap.pop();
+                double d = distance[node];
+                if (d > maxCost) break;
+                settled[node] = current;
+                if (reachedCount == reached.length) reached = Arrays.copyOf(reached, 2 * reachedCount);
+                reached[reachedCount++] = node;
+                if (node == destination) break;
+                if (targets != null && target[node] == current && --remainingTargets == 0) break;
+                for (int i = graph.getOutEdgeStart(node) ; i < graph.getOutEdgeStart(node + 1) ; i++) {
+                    int edge = graph.getOutEdge(i);
+                    relax(graph.getTarget(edge), edge, d + cost[edge], factor, destination);
+                }
+                if (!directed) {
+                    for (int i = graph.getInEdgeStart(node) ; i < graph.getInEdgeStart(node + 1) ; i++) {
+                        int edge = graph.getInEdge(i);
+                        relax(graph.getSource(edge), edge, d + cost[edge], factor, destination);
+                    }
+                }
+            }
+        }
+
+        private double heuristic(int node, int destination) {
+            return destination < 0 ? 0 : straightDistance(node, destination);
+        }
+
+        private void relax(int node, int edge, double d, double factor, int destination) {
+            if (settled[node] == current) return;
+            if (searchNumber[node] != current) {
+                searchNumber[node] = current;
+                distance[node] = d;
+                predecessor[node] = edge;
+                heap.push(node, d + factor * heuristic(node, destination));
+            } else if (d < distance[node]) {
+                heap.update(node, heap.getKey(node) - (distance[node] - d));
+                distance[node] = d;
+                predecessor[node] = edge;
+            }
+        }
+
+        /**
+         * Returns the cost of the path to node found by the last search, or
+         * an infinite cost if node has not been reached.
+         */
+        double getDistance(int node) {
+            return settled[node] == current ? distance[node] : Double.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Returns the edges of the path from the origin of the last search to
+         * node, from the origin, or null if node has not been reached.
+         */
+        int[] getPath(int node) {
+            if (Double.isInfinite(getDistance(node))) return null;
+            int count = 0;
+            for (int n = node ; predecessor[n] >= 0 ; n = otherNode(predecessor[n], n)) count++;
+            int[] path = new int[count];
+            for (int n = node ; predecessor[n] >= 0 ; n = otherNode(predecessor[n], n)) {
+                path[--count] = predecessor[n];
+            }
+            return path;
+        }
+
+        private int otherNode(int edge, int node) {
+            return graph.getTarget(edge) == node ? graph.getSource(edge) : graph.getTarget(edge);
+        }
+
+        /**
+         * Returns the number of nodes reached by the last search.
+         */
+        int getReachedCount() {
+            return reachedCount;
+        }
+
+        /**
+         * Returns the i-th node reached by the last search, nodes being
+         * ordered by increasing cost.
+         */
+        int getReached(int i) {
+            return reached[i];
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package fr.michaelm.jump.plugin.graph;
+
+/**
+ * Indexed binary min-heap of graph nodes ordered by a double key, backed by
+ * arrays sized for the node count, so that the key of a node in the heap
+ * can be changed in O(log n). Used by the searches of NetworkRouter and
+ * ContractionHierarchy. Not thread-safe.
+ */
+final class NodeHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] key;
+    private int size;
+
+    NodeHeap(int nodeCount) {
+        heap = new int[nodeCount];
+        position = new int[nodeCount];
+        key = new double[nodeCount];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the smallest key of the heap, which must not be empty.
+     */
+    double peekKey() {
+        return key[heap[0]];
+    }
+
+    /**
+     * Returns the key of node, which must be in the heap.
+     */
+    double getKey(int node) {
+        return key[node];
+    }
+
+    /**
+     * Adds node, which must not be in the heap.
+     */
+    void push(int node, double k) {
+        key[node] = k;
+        heap[size] = node;
+        position[node] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Removes and returns the node with the smallest key.
+     */
+    int pop() {
+        int top = heap[0];
+        heap[0] = heap[--size];
+        position[heap[0]] = 0;
+        siftDown(0);
+        return top;
+    }
+
+    /**
+     * Changes the key of node, which must be in the heap.
+     */
+    void update(int node, double k) {
+        double previous = key[node];
+        key[node] = k;
+        if (k < previous) siftUp(position[node]);
+        else siftDown(position[node]);
+    }
+
+    private void siftUp(int i) {
+        int node = heap[i];
+        double k = key[node];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (key[heap[parent]] <= k) break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+
+    private void siftDown(int i) {
+        int node = heap[i];
+        double k = key[node];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) child++;
+            if (key[heap[child]] >= k) break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = node;
+        position[node] = i;
+    }
+}
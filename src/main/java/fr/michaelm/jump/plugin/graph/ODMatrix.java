@@ -0,0 +1,134 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Origin / destination cost matrix computed with a NetworkRouter : one
+ * Dijkstra search per origin, stopped as soon as all destinations are
+ * reached, origins being distributed among several threads. Each thread
+ * reuses its Search and its row array for all its origins, and rows are
+ * passed to a RowWriter as soon as they are computed, so that the matrix
+ * is never held in memory.
+ */
+class ODMatrix {
+
+    /**
+     * Receives the rows of the matrix. Rows are written by several threads,
+     * in any order, and the costs array is reused after write returns.
+     */
+    interface RowWriter {
+        void write(int origin, double[] costs) throws IOException;
+    }
+
+    private ODMatrix() {}
+
+    /**
+     * Computes the cost from each origin to each destination (infinite if
+     * the destination cannot be reached or costs more than maxCost, NaN if
+     * the origin or the destination is negative, i.e. has no node) and
+     * passes the rows to writer.
+     */
+    static void compute(NetworkRouter router, int[] origins, int[] destinations, double maxCost,
+                        int threads, TaskMonitor monitor, RowWriter writer)
+            throws IOException, InterruptedException, ExecutionException {
+        try {
+            computeRows(router, origins, destinations, maxCost, threads, monitor, writer);
+        } catch(ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException)e.getCause()).getCause();
+            throw e;
+        }
+    }
+
+    private static void computeRows(NetworkRouter router, int[] origins, int[] destinations, double maxCost,
+                                    int threads, TaskMonitor monitor, RowWriter writer)
+            throws InterruptedException, ExecutionException {
+        AtomicInteger done = new AtomicInteger();
+        ProgressReporter progress = new ProgressReporter(monitor, origins.length, "origins");
+        NetworkRouter.forEach(origins.length, threads, monitor, () -> {
+            NetworkRouter.Search search = router.newSearch();
+            double[] row = new double[destinations.length];
+            return i -> {
+                if (origins[i] < 0) {
+                    Arrays.fill(row, Double.NaN);
+                } else {
+                    search.expand(origins[i], destinations, maxCost);
+                    for (int j = 0 ; j < row.length ; j++) {
+                        row[j] = destinations[j] < 0 ? Double.NaN : search.getDistance(destinations[j]);
+                    }
+                }
+                try {
+                    writer.write(i, row);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                progress.report(done.incrementAndGet());
+            };
+        });
+    }
+
+    /**
+     * Writes the matrix to a binary file (little-endian) :
+     * <pre>
+     * 0   magic         8 bytes "OJGRAPHM"
+     * 8   version       int32 (1)
+     * 12  origins       int32 (rows)
+     * 16  destinations  int32 (columns)
+     * 20  (padding)     4 bytes
+     * 24  costs         float64, row-major
+     * </pre>
+     * Each row is written at its position in the file as soon as it is
+     * computed, through a direct buffer owned by the writing thread.
+     */
+    static final class BinaryFile implements RowWriter, Closeable {
+
+        private static final byte[] MAGIC = "OJGRAPHM".getBytes(StandardCharsets.US_ASCII);
+        private static final int VERSION = 1;
+        static final int HEADER_SIZE = 24;
+
+        private final FileChannel channel;
+        private final int columns;
+        private final ThreadLocal<ByteBuffer> buffers;
+
+        BinaryFile(File file, int rows, int columns) throws IOException {
+            this.columns = columns;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC).putInt(VERSION).putInt(rows).putInt(columns).putInt(0);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            buffers = ThreadLocal.withInitial(() ->
+                    ByteBuffer.allocateDirect(8 * columns).order(ByteOrder.LITTLE_ENDIAN));
+        }
+
+        @Override
+        public void write(int origin, double[] costs) throws IOException {
+            ByteBuffer buffer = buffers.get();
+            buffer.clear();
+            for (double cost : costs) buffer.putDouble(cost);
+            buffer.flip();
+            long position = HEADER_SIZE + 8L * columns * origin;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.StandardCategoryNames;
+import com.vividsolutions.jump.workbench.plugin.MultiEnableCheck;
+import com.vividsolutions.jump.workbench.plugin.PlugInContext;
+import com.vividsolutions.jump.workbench.plugin.ThreadedBasePlugIn;
+import com.vividsolutions.jump.workbench.ui.AttributeTypeFilter;
+import com.vividsolutions.jump.workbench.ui.GUIUtil;
+import com.vividsolutions.jump.workbench.ui.MenuNames;
+import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Computes the cost from each origin to each destination of a linear
+ * network (see ODMatrix). Origins and destinations are point features
+ * snapped to the nearest graph node.
+ * The matrix is either returned as a table with one row per origin /
+ * destination pair, or written to a binary file (see ODMatrix.BinaryFile)
+ * for large matrices.
+ */
+public class ODMatrixPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
+
+    private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
+
+    static final String P_LAYER               = "Layer";
+    static final String P_GRAPH_3D            = "Graph3D";
+    static final String P_DIRECTED            = "Directed";
+    static final String P_COST_ATTRIBUTE      = "CostAttribute";       // null for edge length
+    static final String P_ORIGIN_LAYER        = "OriginLayer";         // workbench only
+    static final String P_ORIGIN_DATASET      = "OriginDataset";       // headless only
+    static final String P_DESTINATION_LAYER   = "DestinationLayer";    // workbench only
+    static final String P_DESTINATION_DATASET = "DestinationDataset";  // headless only
+    static final String P_MAX_COST            = "MaxCost";             // 0 for no limit
+    static final String P_THREADS             = "Threads";
+    static final String P_OUTPUT_FILE         = "OutputFile";          // null for a table
+
+    private static final String ORIGIN = "Origin";
+    private static final String DESTINATION = "Destination";
+    private static final String COST = "Cost";
+
+    // maximum number of rows of a table (whose features are held in an array)
+    static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8;
+
+    private static final GeometryFactory DEFAULT_GEOMETRY_FACTORY = new GeometryFactory();
+
+    private static String LAYER;
+    private static String GRAPH;
+    private static String GRAPH_COMPUTATION;
+    private static String OD_MATRIX;
+    private static String DIM3;
+    private static String DIM3_TOOLTIP;
+    private static String DIRECTED;
+    private static String DIRECTED_TOOLTIP;
+    private static String COST_ATTRIBUTE;
+    private static String COST_ATTRIBUTE_TT;
+    private static String ORIGIN_LAYER;
+    private static String DESTINATION_LAYER;
+    private static String MAX_COST;
+    private static String MAX_COST_TOOLTIP;
+    private static String THREADS;
+    private static String OUTPUT_FILE;
+    private static String OUTPUT_FILE_TOOLTIP;
+    private static String UNREACHABLE;
+
+    {
+        addParameter(P_LAYER,               null);
+        addParameter(P_GRAPH_3D,            false);
+        addParameter(P_DIRECTED,            false);
+        addParameter(P_COST_ATTRIBUTE,      null);
+        addParameter(P_ORIGIN_LAYER,        null);
+        addParameter(P_ORIGIN_DATASET,      null);
+        addParameter(P_DESTINATION_LAYER,   null);
+        addParameter(P_DESTINATION_DATASET, null);
+        addParameter(P_MAX_COST,            0.0);
+        addParameter(P_THREADS,             Runtime.getRuntime().availableProcessors());
+        addParameter(P_OUTPUT_FILE,         null);
+
+        LAYER               = i18n.get("Layer");
+        GRAPH               = i18n.get("Graph");
+        GRAPH_COMPUTATION   = i18n.get("Graph-computation");
+        OD_MATRIX           = i18n.get("ODMatrixPlugIn");
+        DIM3                = i18n.get("dim3");
+        DIM3_TOOLTIP        = i18n.get("dim3-tooltip");
+        DIRECTED            = i18n.get("ShortestPathPlugIn.directed");
+        DIRECTED_TOOLTIP    = i18n.get("ShortestPathPlugIn.directed-tooltip");
+        COST_ATTRIBUTE      = i18n.get("ShortestPathPlugIn.cost-attribute");
+        COST_ATTRIBUTE_TT   = i18n.get("ShortestPathPlugIn.cost-attribute-tooltip");
+        ORIGIN_LAYER        = i18n.get("ShortestPathPlugIn.origin-layer");
+        DESTINATION_LAYER   = i18n.get("ShortestPathPlugIn.destination-layer");
+        MAX_COST            = i18n.get("ShortestPathPlugIn.max-cost");
+        MAX_COST_TOOLTIP    = i18n.get("ODMatrixPlugIn.max-cost-tooltip");
+        THREADS             = i18n.get("ShortestPathPlugIn.threads");
+        OUTPUT_FILE         = i18n.get("ODMatrixPlugIn.output-file");
+        OUTPUT_FILE_TOOLTIP = i18n.get("ODMatrixPlugIn.output-file-tooltip");
+        UNREACHABLE         = i18n.get("ODMatrixPlugIn.unreachable");
+    }
+
+    @Override
+    public void initialize(final PlugInContext context) {
+        context.getFeatureInstaller().addMainMenuPlugin(
+                this, new String[]{MenuNames.PLUGINS, GRAPH},
+                OD_MATRIX + "...",
+                false, null, new MultiEnableCheck()
+                        .add(context.getCheckFactory().createTaskWindowMustBeActiveCheck())
+                        .add(context.getCheckFactory().createAtLeastNLayersMustExistCheck(2)));
+    }
+
+    @Override
+    public boolean execute(PlugInContext context) {
+        final MultiInputDialog dialog = new MultiInputDialog(
+                context.getWorkbenchFrame(), OD_MATRIX, true);
+        dialog.setSideBarDescription(i18n.get("ODMatrixPlugIn.description"));
+        dialog.addLayerComboBox(LAYER, context.getCandidateLayer(0), null, context.getLayerManager());
+        dialog.addCheckBox(DIM3, getBooleanParam(P_GRAPH_3D), DIM3_TOOLTIP);
+        dialog.addCheckBox(DIRECTED, getBooleanParam(P_DIRECTED), DIRECTED_TOOLTIP);
+        dialog.addAttributeComboBox(COST_ATTRIBUTE, LAYER,
+                new AttributeTypeFilter(AttributeTypeFilter.GEOMETRY + AttributeTypeFilter.DOUBLE +
+                        AttributeTypeFilter.INTEGER), COST_ATTRIBUTE_TT);
+
+        dialog.addSeparator();
+        dialog.addLayerComboBox(ORIGIN_LAYER, context.getCandidateLayer(1), null, context.getLayerManager());
+        dialog.addLayerComboBox(DESTINATION_LAYER, context.getCandidateLayer(1), null, context.getLayerManager());
+        dialog.addDoubleField(MAX_COST, getDoubleParam(P_MAX_COST), 12, MAX_COST_TOOLTIP);
+        dialog.addIntegerField(THREADS, getIntegerParam(P_THREADS), 12, null);
+        dialog.addTextField(OUTPUT_FILE, getStringParam(P_OUTPUT_FILE), 24, null, OUTPUT_FILE_TOOLTIP);
+
+        GUIUtil.centreOnWindow(dialog);
+        dialog.setVisible(true);
+        if (dialog.wasOKPressed()) {
+            Layer layer = dialog.getLayer(LAYER);
+            String cost = dialog.getText(COST_ATTRIBUTE);
+            boolean costIsGeometry = layer.getFeatureCollectionWrapper().getFeatureSchema()
+                    .getAttributeType(cost) == AttributeType.GEOMETRY;
+            String outputFile = dialog.getText(OUTPUT_FILE).trim();
+            addParameter(P_LAYER,             layer.getName());
+            addParameter(P_GRAPH_3D,          dialog.getBoolean(DIM3));
+            addParameter(P_DIRECTED,          dialog.getBoolean(DIRECTED));
+            addParameter(P_COST_ATTRIBUTE,    costIsGeometry ? null : cost);
+            addParameter(P_ORIGIN_LAYER,      dialog.getLayer(ORIGIN_LAYER).getName());
+            addParameter(P_DESTINATION_LAYER, dialog.getLayer(DESTINATION_LAYER).getName());
+            addParameter(P_MAX_COST,          dialog.getDouble(MAX_COST));
+            addParameter(P_THREADS,           dialog.getInteger(THREADS));
+            addParameter(P_OUTPUT_FILE,       outputFile.isEmpty() ? null : outputFile);
+            return true;
+        }
+        else return false;
+    }
+
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        Layer layer = getLayer(context, P_LAYER);
+        monitor.report(GRAPH_COMPUTATION + "...");
+        CompactGraph graph = GraphExtension.getGraphRegistry()
+                .getCompactGraph(layer, null, false, getBooleanParam(P_GRAPH_3D));
+        Map<String,FeatureCollection> result = run(monitor, layer.getFeatureCollectionWrapper(), graph,
+                getLayer(context, P_ORIGIN_LAYER).getFeatureCollectionWrapper(),
+                getLayer(context, P_DESTINATION_LAYER).getFeatureCollectionWrapper(),
+                context.getWorkbenchFrame()::warnUser);
+        for (Map.Entry<String,FeatureCollection> entry : result.entrySet()) {
+            context.getLayerManager().addLayer(StandardCategoryNames.RESULT,
+                    layer.getName() + "-" + entry.getKey(), entry.getValue());
+        }
+    }
+
+    private Layer getLayer(PlugInContext context, String parameter) throws Exception {
+        Layer layer = context.getLayerManager().getLayer(getStringParam(parameter));
+        if (layer == null) throw new Exception("Layer " + getStringParam(parameter) + " has not been found");
+        return layer;
+    }
+
+    /**
+     * Computes the cost from each feature of P_ORIGIN_DATASET to each
+     * feature of P_DESTINATION_DATASET on the network of dataset.
+     * The result map contains an "od-matrix" dataset, or is empty if the
+     * matrix has been written to P_OUTPUT_FILE or if monitor has been
+     * cancelled. P_OUTPUT_FILE is deleted if the computation is cancelled
+     * or fails, so that an incomplete matrix is never left on disk.
+     * The rows of the table are not sorted (they are added as soon as they
+     * are computed), and matrices of more than MAX_TABLE_SIZE costs must be
+     * written to P_OUTPUT_FILE.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) throws Exception {
+        monitor.report(GRAPH_COMPUTATION + "...");
+        CompactGraph graph = GraphCache.getGraph(dataset.getFeatures(), null, false, getBooleanParam(P_GRAPH_3D));
+        return run(monitor, dataset, graph, (FeatureCollection)getParameter(P_ORIGIN_DATASET),
+                (FeatureCollection)getParameter(P_DESTINATION_DATASET), Logger::warn);
+    }
+
+    private Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset, CompactGraph graph,
+                                              FeatureCollection origins, FeatureCollection destinations,
+                                              Consumer<String> warning) throws Exception {
+        if (origins == null) throw new IllegalArgumentException("No origin dataset");
+        if (destinations == null) throw new IllegalArgumentException("No destination dataset");
+        String outputFile = getStringParam(P_OUTPUT_FILE);
+        if (outputFile == null && (long)origins.size() * destinations.size() > MAX_TABLE_SIZE) {
+            throw new IllegalArgumentException("OD matrix of " + origins.size() + " x " + destinations.size() +
+                    " costs is too large for a table, write it to a binary file (" + P_OUTPUT_FILE + ")");
+        }
+        monitor.allowCancellationRequests();
+        monitor.report(OD_MATRIX + "...");
+        String costAttribute = getStringParam(P_COST_ATTRIBUTE);
+        double[] cost = costAttribute == null ? null : FlowAccumulationPlugIn.getEdgeValues(
+                graph, dataset.getFeatures(), dataset.getFeatureSchema(), costAttribute);
+        NetworkRouter router = new NetworkRouter(graph, cost, getBooleanParam(P_DIRECTED));
+        int[] originNodes = ShortestPathPlugIn.snap(router, origins);
+        int[] destinationNodes = ShortestPathPlugIn.snap(router, destinations);
+        double maxCost = getDoubleParam(P_MAX_COST) > 0 ? getDoubleParam(P_MAX_COST) : Double.POSITIVE_INFINITY;
+        int threads = getIntegerParam(P_THREADS);
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        if (outputFile != null) {
+            File file = new File(outputFile);
+            boolean complete = false;
+            try (ODMatrix.BinaryFile matrix =
+                         new ODMatrix.BinaryFile(file, originNodes.length, destinationNodes.length)) {
+                ODMatrix.compute(router, originNodes, destinationNodes, maxCost, threads, monitor, matrix);
+                complete = !monitor.isCancelRequested();
+            } finally {
+                // rows which have not been computed would be read as zeros
+                if (!complete) Files.deleteIfExists(file.toPath());
+            }
+            return result;
+        }
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        schema.addAttribute(ORIGIN, AttributeType.INTEGER);
+        schema.addAttribute(DESTINATION, AttributeType.INTEGER);
+        schema.addAttribute(COST, AttributeType.DOUBLE);
+        int columns = destinationNodes.length;
+        FeatureCollection fc = new FeatureDataset(schema);
+        AtomicInteger unreachable = new AtomicInteger();
+        // rows are added as soon as they are computed, in any order
+        ODMatrix.compute(router, originNodes, destinationNodes, maxCost, threads, monitor, (origin, costs) -> {
+            Feature[] row = new Feature[columns];
+            int unreachableInRow = 0;
+            for (int j = 0 ; j < columns ; j++) {
+                Feature feature = new BasicFeature(schema);
+                feature.setGeometry(DEFAULT_GEOMETRY_FACTORY.createPoint());
+                feature.setAttribute(ORIGIN, origin);
+                feature.setAttribute(DESTINATION, j);
+                if (!Double.isNaN(costs[j]) && !Double.isInfinite(costs[j])) feature.setAttribute(COST, costs[j]);
+                else unreachableInRow++;
+                row[j] = feature;
+            }
+            unreachable.addAndGet(unreachableInRow);
+            synchronized (fc) {
+                for (Feature feature : row) fc.add(feature);
+            }
+        });
+        if (monitor.isCancelRequested()) return result;
+        if (unreachable.get() > 0) warning.accept(UNREACHABLE + " : " + unreachable.get());
+        result.put("od-matrix", fc);
+        return result;
+    }
+}
@@ -0,0 +1,73 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.TaskMonitor;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the progress of a loop to a TaskMonitor at most once per PERIOD,
+ * whatever the number of calls, so that loops can report every item without
+ * formatting a message and updating the dialog for each of them. Messages
+ * contain the number of items done, the throughput and the estimated
+ * remaining time, e.g. "12000/50000 edges (35000/s, 0:02 left)".
+ * <p>Can be called by several threads : a single one reports each period.
+ * </p>
+ */
+final class ProgressReporter {
+
+    // minimum time between two reports, in nanoseconds
+    static final long PERIOD = 100_000_000L;
+
+    private final TaskMonitor monitor;
+    private final long total;
+    private final String description;
+    private final long start;
+    private final AtomicLong next;
+
+    /**
+     * Creates a reporter of total items (0 if unknown) described by
+     * description. monitor may be null.
+     */
+    ProgressReporter(TaskMonitor monitor, long total, String description) {
+        this.monitor = monitor;
+        this.total = total;
+        this.description = description;
+        this.start = System.nanoTime();
+        this.next = new AtomicLong(start + PERIOD);
+    }
+
+    /**
+     * Reports that done items are processed if the previous report is older
+     * than PERIOD.
+     */
+    void report(long done) {
+        if (monitor == null) return;
+        long now = System.nanoTime();
+        long n = next.get();
+        if (now - n < 0 || !next.compareAndSet(n, now + PERIOD)) return;
+        monitor.report(getMessage(done, now - start));
+    }
+
+    // Message of done items processed in elapsed nanoseconds
+    String getMessage(long done, long elapsed) {
+        StringBuilder sb = new StringBuilder().append(done);
+        if (total > 0) sb.append('/').append(total);
+        sb.append(' ').append(description);
+        if (done > 0 && elapsed > 0) {
+            double rate = done * 1e9 / elapsed;
+            sb.append(" (").append(Math.round(rate)).append("/s");
+            if (total > done) sb.append(", ").append(formatDuration((long)((total - done) / rate))).append(" left");
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    // Formats seconds as h:mm:ss or m:ss
+    static String formatDuration(long seconds) {
+        long h = seconds / 3600;
+        long m = seconds / 60 % 60;
+        long s = seconds % 60;
+        return h > 0 ? String.format(Locale.US, "%d:%02d:%02d", h, m, s) : String.format(Locale.US, "%d:%02d", m, s);
+    }
+}
@@ -0,0 +1,441 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Upstream / downstream reachability index of a directed CompactGraph.
+ * <p>Strongly connected components (cycles) are condensed into single nodes
+ * (iterative Tarjan), then each node of the condensed DAG is labelled, in
+ * each direction, with the intervals of post-order numbers it can reach
+ * (tree cover labelling, Agrawal et al. 1989) : the post-order numbers of a
+ * spanning tree subtree are contiguous, so that a node only needs one
+ * interval for its subtree plus the intervals of the other nodes it reaches
+ * through non-tree edges, merged. Upstream labels of a dendritic network
+ * have a single interval per node, downstream labels have one interval per
+ * confluence met on the way to the outlet.</p>
+ * <p>Queries are answered from the labels : a reachability test is a binary
+ * search, and the nodes reached by a node are read from its intervals
+ * without traversing the graph. If the labels of a direction get too large
+ * (e.g. on a dense grid), this direction falls back to a breadth first
+ * search on the condensed graph.</p>
+ * <p>The index is immutable and can be shared by threads.</p>
+ */
+class ReachabilityIndex {
+
+    // labels are dropped for a direction if they need more intervals than
+    // MAX_INTERVALS_PER_NODE * componentCount + MIN_MAX_INTERVALS
+    private static final int MAX_INTERVALS_PER_NODE = 16;
+    private static final int MIN_MAX_INTERVALS = 1 << 16;
+
+    private final CompactGraph graph;
+
+    // strongly connected components, numbered sinks first (reverse
+    // topological order) : nodes of component c are
+    // members[memberOffset[c]] to members[memberOffset[c+1]-1]
+    private final int[] component;
+    private final int componentCount;
+    private final int[] memberOffset;
+    private final int[] members;
+
+    // condensed graph, downstream and upstream adjacency
+    private final int[] downOffset, down, upOffset, up;
+
+    private final Labels downstreamLabels;
+    private final Labels upstreamLabels;
+
+    // feature ID of each edge, sorted, to find the edge of a feature
+    private final long[] featureIdEdges;
+
+    /**
+     * Builds the index of graph, whose edges refer to features. features may
+     * be null if edges are not searched from their feature (getEdge then
+     * always returns -1).
+     */
+    ReachabilityIndex(CompactGraph graph, List<Feature> features) {
+        this.graph = graph;
+        int nodeCount = graph.getNodeCount();
+        component = new int[nodeCount];
+        componentCount = computeComponents();
+
+        memberOffset = new int[componentCount + 1];
+        for (int node = 0 ; node < nodeCount ; node++) memberOffset[component[node] + 1]++;
+        for (int c = 0 ; c < componentCount ; c++) memberOffset[c + 1] += memberOffset[c];
+        members = new int[nodeCount];
+        int[] fill = Arrays.copyOf(memberOffset, componentCount);
+        for (int node = 0 ; node < nodeCount ; node++) members[fill[component[node]]++] = node;
+
+        int edgeCount = graph.getEdgeCount();
+        downOffset = new int[componentCount + 1];
+        upOffset = new int[componentCount + 1];
+        for (int e = 0 ; e < edgeCount ; e++) {
+            int cs = component[graph.getSource(e)];
+            int ct = component[graph.getTarget(e)];
+            if (cs != ct) {
+                downOffset[cs + 1]++;
+                upOffset[ct + 1]++;
+            }
+        }
+        for (int c = 0 ; c < componentCount ; c++) {
+            downOffset[c + 1] += downOffset[c];
+            upOffset[c + 1] += upOffset[c];
+        }
+        down = new int[downOffset[componentCount]];
+        up = new int[upOffset[componentCount]];
+        int[] downFill = Arrays.copyOf(downOffset, componentCount);
+        int[] upFill = Arrays.copyOf(upOffset, componentCount);
+        for (int e = 0 ; e < edgeCount ; e++) {
+            int cs = component[graph.getSource(e)];
+            int ct = component[graph.getTarget(e)];
+            if (cs != ct) {
+                down[downFill[cs]++] = ct;
+                up[upFill[ct]++] = cs;
+            }
+        }
+
+        // spanning trees are rooted at sources (downstream) or at sinks
+        // (upstream), so that dendritic networks only need one interval
+        downstreamLabels = Labels.create(componentCount, downOffset, down, true);
+        upstreamLabels = Labels.create(componentCount, upOffset, up, false);
+
+        featureIdEdges = new long[features == null ? 0 : edgeCount];
+        for (int e = 0 ; e < featureIdEdges.length ; e++) {
+            featureIdEdges[e] = ((long)features.get(graph.getFeatureIndex(e)).getID() << 32) | e;
+        }
+        Arrays.sort(featureIdEdges);
+    }
+
+    // Computes strongly connected components with an iterative version of
+    // Tarjan algorithm and returns the number of components
+    private int computeComponents() {
+        int nodeCount = graph.getNodeCount();
+        int[] index = new int[nodeCount];
+        int[] low = new int[nodeCount];
+        Arrays.fill(index, -1);
+        boolean[] onStack = new boolean[nodeCount];
+        int[] stack = new int[nodeCount];
+        int sp = 0;
+        int[] callNode = new int[nodeCount];
+        int[] callPosition = new int[nodeCount];
+        int cp = 0;
+        int counter = 0;
+        int count = 0;
+        for (int root = 0 ; root < nodeCount ; root++) {
+            if (index[root] >= 0) continue;
+            index[root] = low[root] = counter++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            callNode[cp] = root;
+            callPosition[cp++] = graph.getOutEdgeStart(root);
+            while (cp > 0) {
+                int v = callNode[cp - 1];
+                int i = callPosition[cp - 1];
+                if (i < graph.getOutEdgeStart(v + 1)) {
+                    callPosition[cp - 1]++;
+                    int w = graph.getTarget(graph.getOutEdge(i));
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        stack[sp++] = w;
+                        onStack[w] = true;
+                        callNode[cp] = w;
+                        callPosition[cp++] = graph.getOutEdgeStart(w);
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                } else {
+                    cp--;
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--sp];
+                            onStack[w] = false;
+                            component[w] = count;
+                        } while (w != v);
+                        count++;
+                    }
+                    if (cp > 0) {
+                        int u = callNode[cp - 1];
+                        low[u] = Math.min(low[u], low[v]);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    CompactGraph getGraph() {
+        return graph;
+    }
+
+    int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Returns true if the labels of the given direction are used (false if
+     * queries in this direction fall back to a graph traversal).
+     */
+    boolean isLabelled(boolean downstream) {
+        return (downstream ? downstreamLabels : upstreamLabels) != null;
+    }
+
+    /**
+     * Returns the edge of feature, or -1 if the feature has no edge.
+     */
+    int getEdge(Feature feature) {
+        int i = Arrays.binarySearch(featureIdEdges, (long)feature.getID() << 32);
+        if (i < 0) i = -i - 1;
+        if (i < featureIdEdges.length && (int)(featureIdEdges[i] >>> 32) == feature.getID()) {
+            return (int)featureIdEdges[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if node to can be reached from node from, following
+     * edges (downstream) or edges reversed (upstream). A node reaches
+     * itself.
+     */
+    boolean reaches(int from, int to, boolean downstream) {
+        int cf = component[from];
+        int ct = component[to];
+        if (cf == ct) return true;
+        // components are numbered in reverse topological order
+        if (downstream ? ct > cf : ct < cf) return false;
+        Labels labels = downstream ? downstreamLabels : upstreamLabels;
+        if (labels != null) return labels.contains(cf, ct);
+        for (int c : search(new int[]{cf}, downstream)) {
+            if (c == ct) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the sorted indices of the edges downstream (or upstream) of
+     * the given edges, the given edges included.
+     */
+    int[] trace(int[] edges, boolean downstream) {
+        int[] seeds = new int[edges.length];
+        for (int i = 0 ; i < edges.length ; i++) {
+            seeds[i] = component[downstream ? graph.getTarget(edges[i]) : graph.getSource(edges[i])];
+        }
+        Labels labels = downstream ? downstreamLabels : upstreamLabels;
+        int[] reached = labels != null ? labels.getReached(seeds) : search(seeds, downstream);
+        int[] result = Arrays.copyOf(edges, Math.max(64, edges.length));
+        int count = edges.length;
+        for (int c : reached) {
+            for (int m = memberOffset[c] ; m < memberOffset[c + 1] ; m++) {
+                int node = members[m];
+                int start = downstream ? graph.getOutEdgeStart(node) : graph.getInEdgeStart(node);
+                int end = downstream ? graph.getOutEdgeStart(node + 1) : graph.getInEdgeStart(node + 1);
+                for (int i = start ; i < end ; i++) {
+                    if (count == result.length) result = Arrays.copyOf(result, 2 * count);
+                    result[count++] = downstream ? graph.getOutEdge(i) : graph.getInEdge(i);
+                }
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        int unique = 0;
+        for (int i = 0 ; i < count ; i++) {
+            if (unique == 0 || result[i] != result[unique - 1]) result[unique++] = result[i];
+        }
+        return unique == count ? result : Arrays.copyOf(result, unique);
+    }
+
+    // Breadth first search on the condensed graph, used if a direction has
+    // no labels
+    private int[] search(int[] seeds, boolean downstream) {
+        int[] offset = downstream ? downOffset : upOffset;
+        int[] adjacency = downstream ? down : up;
+        BitSet reached = new BitSet(componentCount);
+        int[] queue = new int[Math.max(16, seeds.length)];
+        int head = 0, tail = 0;
+        for (int c : seeds) {
+            if (reached.get(c)) continue;
+            reached.set(c);
+            queue[tail++] = c;
+        }
+        while (head < tail) {
+            int u = queue[head++];
+            for (int i = offset[u] ; i < offset[u + 1] ; i++) {
+                int v = adjacency[i];
+                if (reached.get(v)) continue;
+                reached.set(v);
+                if (tail == queue.length) queue = Arrays.copyOf(queue, 2 * tail);
+                queue[tail++] = v;
+            }
+        }
+        return Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Returns an estimate of the memory used by the index, graph excluded.
+     */
+    long getMemorySize() {
+        long size = 4L * (component.length + memberOffset.length + members.length);
+        size += 4L * (downOffset.length + down.length + upOffset.length + up.length);
+        size += 8L * featureIdEdges.length;
+        if (downstreamLabels != null) size += downstreamLabels.getMemorySize();
+        if (upstreamLabels != null) size += upstreamLabels.getMemorySize();
+        return size;
+    }
+
+    /**
+     * Interval labels of the condensed graph in one direction.
+     */
+    private static final class Labels {
+
+        // post-order number of each component, and component of each number
+        private final int[] post;
+        private final int[] byPost;
+        // intervals of the component numbered p are
+        // [low[i], high[i]] for i in [offset[p], offset[p+1])
+        private final int[] offset;
+        private final int[] low;
+        private final int[] high;
+
+        private Labels(int[] post, int[] byPost, int[] offset, int[] low, int[] high) {
+            this.post = post;
+            this.byPost = byPost;
+            this.offset = offset;
+            this.low = low;
+            this.high = high;
+        }
+
+        // Labels the DAG defined by adjacency offsets, or returns null if
+        // labels are too large. Spanning trees are rooted at the first
+        // unvisited components in decreasing order if reverse is true.
+        static Labels create(int count, int[] adjacencyOffset, int[] adjacency, boolean reverse) {
+            int[] post = new int[count];
+            int[] byPost = new int[count];
+            int[] subtreeStart = new int[count];
+            Arrays.fill(post, -1);
+            boolean[] visited = new boolean[count];
+            int[] stack = new int[count];
+            int[] position = new int[count];
+            int counter = 0;
+            for (int r = 0 ; r < count ; r++) {
+                int root = reverse ? count - 1 - r : r;
+                if (visited[root]) continue;
+                int sp = 0;
+                visited[root] = true;
+                subtreeStart[root] = counter;
+                stack[sp] = root;
+                position[sp++] = adjacencyOffset[root];
+                while (sp > 0) {
+                    int u = stack[sp - 1];
+                    int i = position[sp - 1];
+                    if (i < adjacencyOffset[u + 1]) {
+                        position[sp - 1]++;
+                        int v = adjacency[i];
+                        if (!visited[v]) {
+                            visited[v] = true;
+                            subtreeStart[v] = counter;
+                            stack[sp] = v;
+                            position[sp++] = adjacencyOffset[v];
+                        }
+                    } else {
+                        sp--;
+                        post[u] = counter;
+                        byPost[counter++] = u;
+                    }
+                }
+            }
+
+            // in a DAG, the successors of a node have smaller post-order
+            // numbers : labels are computed in post-order
+            long maxIntervals = (long)MAX_INTERVALS_PER_NODE * count + MIN_MAX_INTERVALS;
+            int[] offset = new int[count + 1];
+            int[] low = new int[Math.max(16, count)];
+            int[] high = new int[low.length];
+            long[] buffer = new long[16];
+            int total = 0;
+            for (int p = 0 ; p < count ; p++) {
+                int u = byPost[p];
+                int size = 0;
+                buffer[size++] = interval(subtreeStart[u], p);
+                for (int i = adjacencyOffset[u] ; i < adjacencyOffset[u + 1] ; i++) {
+                    int q = post[adjacency[i]];
+                    for (int j = offset[q] ; j < offset[q + 1] ; j++) {
+                        if (size == buffer.length) buffer = Arrays.copyOf(buffer, 2 * size);
+                        buffer[size++] = interval(low[j], high[j]);
+                    }
+                }
+                Arrays.sort(buffer, 0, size);
+                int first = total;
+                for (int i = 0 ; i < size ; i++) {
+                    int lo = (int)(buffer[i] >>> 32);
+                    int hi = (int)buffer[i];
+                    if (total > first && lo <= high[total - 1] + 1) {
+                        high[total - 1] = Math.max(high[total - 1], hi);
+                    } else {
+                        if (total == low.length) {
+                            if (total >= maxIntervals) return null;
+                            low = Arrays.copyOf(low, (int)Math.min(2L * total, Integer.MAX_VALUE - 8));
+                            high = Arrays.copyOf(high, low.length);
+                        }
+                        low[total] = lo;
+                        high[total++] = hi;
+                    }
+                }
+                offset[p + 1] = total;
+            }
+            if (total > maxIntervals) return null;
+            return new Labels(post, byPost, offset,
+                    Arrays.copyOf(low, total), Arrays.copyOf(high, total));
+        }
+
+        private static long interval(int low, int high) {
+            return ((long)low << 32) | high;
+        }
+
+        // Returns true if component from reaches component to
+        boolean contains(int from, int to) {
+            int p = post[from];
+            int q = post[to];
+            int lo = offset[p], hi = offset[p + 1] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (high[mid] < q) lo = mid + 1;
+                else if (low[mid] > q) hi = mid - 1;
+                else return true;
+            }
+            return false;
+        }
+
+        // Returns the components reached by the given components (without
+        // duplicates), reading their merged intervals
+        int[] getReached(int[] components) {
+            long[] intervals = new long[16];
+            int size = 0;
+            for (int c : components) {
+                int p = post[c];
+                for (int i = offset[p] ; i < offset[p + 1] ; i++) {
+                    if (size == intervals.length) intervals = Arrays.copyOf(intervals, 2 * size);
+                    intervals[size++] = interval(low[i], high[i]);
+                }
+            }
+            Arrays.sort(intervals, 0, size);
+            int[] reached = new int[16];
+            int count = 0;
+            int next = 0;  // first post-order number not read yet
+            for (int i = 0 ; i < size ; i++) {
+                int hi = (int)intervals[i];
+                for (int q = Math.max(next, (int)(intervals[i] >>> 32)) ; q <= hi ; q++) {
+                    if (count == reached.length) reached = Arrays.copyOf(reached, 2 * count);
+                    reached[count++] = byPost[q];
+                }
+                next = Math.max(next, hi + 1);
+            }
+            return Arrays.copyOf(reached, count);
+        }
+
+        long getMemorySize() {
+            return 4L * (post.length + byPost.length + offset.length + low.length + high.length);
+        }
+    }
+}
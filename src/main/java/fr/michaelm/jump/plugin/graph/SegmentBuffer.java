@@ -0,0 +1,245 @@
+package fr.michaelm.jump.plugin.graph;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Primitive buffer of line segments used by SkeletonPlugIn to collect the
+ * edges of a Voronoi diagram without creating a geometry for each segment.
+ * <p>Vertices are stored as x/y pairs in a double array and deduplicated on
+ * their exact coordinates. Segments are stored as pairs of vertex indices and
+ * deduplicated with a long key made of both indices. JTS geometries are only
+ * created for the merged lines.</p>
+ */
+class SegmentBuffer {
+
+    private static final long EMPTY = -1L;
+
+    // vertices
+    private double[] xy = new double[2048];
+    private int vertexCount;
+    private int[] vertexTable = new int[2048];   // open addressing, -1 = empty
+
+    // segments
+    private int[] segments = new int[2048];      // vertex index pairs
+    private int segmentCount;
+    private long[] segmentTable = new long[2048]; // open addressing, EMPTY = empty
+
+    SegmentBuffer() {
+        Arrays.fill(vertexTable, -1);
+        Arrays.fill(segmentTable, EMPTY);
+    }
+
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    int getSegmentStart(int segment) {
+        return segments[2*segment];
+    }
+
+    int getSegmentEnd(int segment) {
+        return segments[2*segment+1];
+    }
+
+    double getX(int vertex) {
+        return xy[2*vertex];
+    }
+
+    double getY(int vertex) {
+        return xy[2*vertex+1];
+    }
+
+    /**
+     * Adds every single segment of the sequence to the buffer.
+     */
+    void addSegments(CoordinateSequence seq) {
+        if (seq.size() == 0) return;
+        int previous = addVertex(seq.getX(0), seq.getY(0));
+        for (int i = 1 ; i < seq.size() ; i++) {
+            int current = addVertex(seq.getX(i), seq.getY(i));
+            addSegment(previous, current);
+            previous = current;
+        }
+    }
+
+    /**
+     * Adds segment c0-c1 to the buffer.
+     */
+    void addSegment(Coordinate c0, Coordinate c1) {
+        addSegment(addVertex(c0.x, c0.y), addVertex(c1.x, c1.y));
+    }
+
+    private int addVertex(double x, double y) {
+        // -0.0 and 0.0 must be considered as the same coordinate
+        if (x == 0.0) x = 0.0;
+        if (y == 0.0) y = 0.0;
+        int mask = vertexTable.length - 1;
+        int slot = hash(x, y) & mask;
+        while (vertexTable[slot] >= 0) {
+            int v = vertexTable[slot];
+            if (xy[2*v] == x && xy[2*v+1] == y) return v;
+            slot = (slot + 1) & mask;
+        }
+        if (2*vertexCount+2 > xy.length) xy = Arrays.copyOf(xy, 2*xy.length);
+        xy[2*vertexCount] = x;
+        xy[2*vertexCount+1] = y;
+        vertexTable[slot] = vertexCount;
+        if (++vertexCount * 2 > vertexTable.length) rehashVertices();
+        return vertexCount - 1;
+    }
+
+    private void addSegment(int a, int b) {
+        if (a == b) return;
+        long key = a < b ? ((long)a << 32) | b : ((long)b << 32) | a;
+        int mask = segmentTable.length - 1;
+        int slot = mix(key) & mask;
+        while (segmentTable[slot] != EMPTY) {
+            if (segmentTable[slot] == key) return;
+            slot = (slot + 1) & mask;
+        }
+        segmentTable[slot] = key;
+        if (2*segmentCount+2 > segments.length) segments = Arrays.copyOf(segments, 2*segments.length);
+        segments[2*segmentCount] = a;
+        segments[2*segmentCount+1] = b;
+        if (++segmentCount * 2 > segmentTable.length) rehashSegments();
+    }
+
+    private void rehashVertices() {
+        vertexTable = new int[vertexTable.length * 2];
+        Arrays.fill(vertexTable, -1);
+        int mask = vertexTable.length - 1;
+        for (int v = 0 ; v < vertexCount ; v++) {
+            int slot = hash(xy[2*v], xy[2*v+1]) & mask;
+            while (vertexTable[slot] >= 0) slot = (slot + 1) & mask;
+            vertexTable[slot] = v;
+        }
+    }
+
+    private void rehashSegments() {
+        segmentTable = new long[segmentTable.length * 2];
+        Arrays.fill(segmentTable, EMPTY);
+        for (int s = 0 ; s < segmentCount ; s++) insertSegmentKey(segments[2*s], segments[2*s+1]);
+    }
+
+    private void insertSegmentKey(int a, int b) {
+        long key = a < b ? ((long)a << 32) | b : ((long)b << 32) | a;
+        int mask = segmentTable.length - 1;
+        int slot = mix(key) & mask;
+        while (segmentTable[slot] != EMPTY) slot = (slot + 1) & mask;
+        segmentTable[slot] = key;
+    }
+
+    private static int hash(double x, double y) {
+        return mix(Double.doubleToLongBits(x) * 31 + Double.doubleToLongBits(y));
+    }
+
+    private static int mix(long h) {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return (int)h;
+    }
+
+    /**
+     * Keeps only the segments whose both ends satisfy the predicate.
+     * The predicate is evaluated at most once per vertex.
+     */
+    void retainSegments(IntPredicate vertexPredicate) {
+        byte[] status = new byte[vertexCount]; // 0 = unknown, 1 = true, 2 = false
+        int count = 0;
+        for (int s = 0 ; s < segmentCount ; s++) {
+            int a = segments[2*s];
+            int b = segments[2*s+1];
+            if (test(a, status, vertexPredicate) && test(b, status, vertexPredicate)) {
+                segments[2*count] = a;
+                segments[2*count+1] = b;
+                count++;
+            }
+        }
+        segmentCount = count;
+        segmentTable = new long[Math.max(16, Integer.highestOneBit(Math.max(1, count)) * 4)];
+        Arrays.fill(segmentTable, EMPTY);
+        for (int s = 0 ; s < segmentCount ; s++) insertSegmentKey(segments[2*s], segments[2*s+1]);
+    }
+
+    private static boolean test(int vertex, byte[] status, IntPredicate predicate) {
+        if (status[vertex] == 0) status[vertex] = predicate.test(vertex) ? (byte)1 : (byte)2;
+        return status[vertex] == 1;
+    }
+
+    /**
+     * Merges segments into maximal lines, breaking lines at nodes which do not
+     * have exactly two incident segments (as LineMerger does), and returns
+     * them as LineStrings.
+     */
+    List<LineString> getMergedLines(GeometryFactory factory) {
+        // compressed adjacency : incident segments of vertex v are
+        // incidence[offset[v]] to incidence[offset[v+1]-1]
+        int[] offset = new int[vertexCount + 1];
+        for (int i = 0 ; i < 2*segmentCount ; i++) offset[segments[i] + 1]++;
+        for (int v = 0 ; v < vertexCount ; v++) offset[v+1] += offset[v];
+        int[] fill = Arrays.copyOf(offset, vertexCount);
+        int[] incidence = new int[2*segmentCount];
+        for (int i = 0 ; i < 2*segmentCount ; i++) incidence[fill[segments[i]]++] = i/2;
+
+        Coordinate[] coordinates = new Coordinate[vertexCount];
+        boolean[] visited = new boolean[segmentCount];
+        List<LineString> lines = new ArrayList<>();
+        // lines starting from a node
+        for (int v = 0 ; v < vertexCount ; v++) {
+            int degree = offset[v+1] - offset[v];
+            if (degree == 0 || degree == 2) continue;
+            for (int i = offset[v] ; i < offset[v+1] ; i++) {
+                if (!visited[incidence[i]]) {
+                    lines.add(walk(factory, v, incidence[i], offset, incidence, visited, coordinates));
+                }
+            }
+        }
+        // isolated rings
+        for (int s = 0 ; s < segmentCount ; s++) {
+            if (!visited[s]) {
+                lines.add(walk(factory, segments[2*s], s, offset, incidence, visited, coordinates));
+            }
+        }
+        return lines;
+    }
+
+    // Follows the chain starting at vertex start through segment until a node
+    // which is not of degree 2 (or the start vertex) is reached
+    private LineString walk(GeometryFactory factory, int start, int segment,
+                            int[] offset, int[] incidence, boolean[] visited, Coordinate[] coordinates) {
+        List<Coordinate> list = new ArrayList<>();
+        list.add(getCoordinate(start, coordinates));
+        int current = start;
+        while (true) {
+            visited[segment] = true;
+            current = segments[2*segment] == current ? segments[2*segment+1] : segments[2*segment];
+            list.add(getCoordinate(current, coordinates));
+            if (current == start || offset[current+1] - offset[current] != 2) break;
+            int next = incidence[offset[current]];
+            if (next == segment) next = incidence[offset[current] + 1];
+            if (visited[next]) break;
+            segment = next;
+        }
+        return factory.createLineString(list.toArray(new Coordinate[0]));
+    }
+
+    private Coordinate getCoordinate(int vertex, Coordinate[] coordinates) {
+        if (coordinates[vertex] == null) {
+            coordinates[vertex] = new Coordinate(xy[2*vertex], xy[2*vertex+1]);
+        }
+        return coordinates[vertex];
+    }
+}
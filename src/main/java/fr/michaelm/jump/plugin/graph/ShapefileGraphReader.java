@@ -0,0 +1,373 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reads the graph of a linear shapefile without loading its features.
+ * <p>readGraph streams the .shp file record by record (and the .dbf file if a
+ * grouping attribute is used), and keeps only end points, length, record
+ * index and group of each record in a CompactGraph, so that the memory used
+ * does not depend on the number of vertices of the network. Complete features
+ * are read on demand from their record index, with the .shx index, so that
+ * plugins returning a few features of a large network (e.g. TracePlugIn) only
+ * read these features.</p>
+ * <p>Only PolyLine, PolyLineZ and PolyLineM shapefiles are supported. Feature
+ * indices are 0-based record indices.</p>
+ */
+class ShapefileGraphReader implements Closeable {
+
+    private static final int HEADER_LENGTH = 100;
+    private static final int NULL_SHAPE = 0;
+    private static final int POLYLINE   = 3;
+    private static final int POLYLINE_Z = 13;
+    private static final int POLYLINE_M = 23;
+
+    private static final GeometryFactory DEFAULT_GEOMETRY_FACTORY = new GeometryFactory();
+
+    private final File shp;
+    private final File dbf;
+    private final FileChannel shpChannel;
+    private final FileChannel shxChannel;
+    private final FileChannel dbfChannel;   // null if there is no dbf file
+    private final long shpLength;
+    private final int recordCount;
+    private final Charset charset;
+
+    // dbf layout
+    private int dbfHeaderLength;
+    private int dbfRecordLength;
+    private final List<DbfField> fields = new ArrayList<>();
+    private final FeatureSchema schema = new FeatureSchema();
+
+    private static class DbfField {
+        String name;
+        char type;
+        int offset;
+        int length;
+        int decimals;
+    }
+
+    ShapefileGraphReader(File shp) throws IOException {
+        this.shp = shp;
+        File shx = sibling(shp, "shx");
+        if (!shx.exists()) throw new IOException("Index file " + shx + " has not been found");
+        this.dbf = sibling(shp, "dbf");
+        File cpg = sibling(shp, "cpg");
+        this.charset = cpg.exists() ?
+                Charset.forName(new String(Files.readAllBytes(cpg.toPath()), StandardCharsets.US_ASCII).trim()) :
+                StandardCharsets.ISO_8859_1;
+        // channels already opened are closed if a file cannot be opened or
+        // read, so that they are not kept locked
+        try {
+            shpChannel = FileChannel.open(shp.toPath(), StandardOpenOption.READ);
+            shxChannel = FileChannel.open(shx.toPath(), StandardOpenOption.READ);
+            dbfChannel = dbf.exists() ? FileChannel.open(dbf.toPath(), StandardOpenOption.READ) : null;
+            ByteBuffer header = read(shpChannel, 0, HEADER_LENGTH);
+            if (header.getInt(0) != 9994) throw new IOException(shp + " is not a shapefile");
+            shpLength = 2L * header.getInt(24);
+            int shapeType = header.order(ByteOrder.LITTLE_ENDIAN).getInt(32);
+            if (shapeType != POLYLINE && shapeType != POLYLINE_Z && shapeType != POLYLINE_M) {
+                throw new IOException(shp + " is not a linear shapefile (shape type " + shapeType + ")");
+            }
+            recordCount = (int)((shxChannel.size() - HEADER_LENGTH) / 8);
+            schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+            if (dbfChannel != null) readDbfHeader();
+        } catch(IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    static File sibling(File file, String extension) {
+        String name = file.getName();
+        String base = name.lastIndexOf('.') > 0 ? name.substring(0, name.lastIndexOf('.')) : name;
+        File lowerCase = new File(file.getAbsoluteFile().getParentFile(), base + "." + extension);
+        File upperCase = new File(file.getAbsoluteFile().getParentFile(), base + "." + extension.toUpperCase());
+        return !lowerCase.exists() && upperCase.exists() ? upperCase : lowerCase;
+    }
+
+    private void readDbfHeader() throws IOException {
+        ByteBuffer header = read(dbfChannel, 0, 32).order(ByteOrder.LITTLE_ENDIAN);
+        dbfHeaderLength = header.getShort(8) & 0xFFFF;
+        dbfRecordLength = header.getShort(10) & 0xFFFF;
+        ByteBuffer descriptors = read(dbfChannel, 32, dbfHeaderLength - 32);
+        int offset = 1; // deletion flag
+        for (int i = 0 ; i + 32 <= descriptors.limit() && descriptors.get(i) != 0x0D ; i += 32) {
+            DbfField field = new DbfField();
+            int nameLength = 0;
+            while (nameLength < 11 && descriptors.get(i + nameLength) != 0) nameLength++;
+            byte[] name = new byte[nameLength];
+            for (int j = 0 ; j < nameLength ; j++) name[j] = descriptors.get(i + j);
+            field.name = new String(name, charset).trim();
+            field.type = (char)descriptors.get(i + 11);
+            field.length = descriptors.get(i + 16) & 0xFF;
+            field.decimals = descriptors.get(i + 17) & 0xFF;
+            field.offset = offset;
+            offset += field.length;
+            fields.add(field);
+            schema.addAttribute(field.name, getAttributeType(field));
+        }
+    }
+
+    private static AttributeType getAttributeType(DbfField field) {
+        switch (field.type) {
+            case 'N' :
+            case 'F' :
+                if (field.decimals > 0) return AttributeType.DOUBLE;
+                return field.length < 10 ? AttributeType.INTEGER : AttributeType.LONG;
+            case 'L' : return AttributeType.BOOLEAN;
+            case 'D' : return AttributeType.DATE;
+            default  : return AttributeType.STRING;
+        }
+    }
+
+    /**
+     * Returns the schema of the features returned by getFeature.
+     */
+    FeatureSchema getFeatureSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the number of records of the shapefile.
+     */
+    int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Reads the graph of the shapefile. If attribute is not null, records
+     * are grouped by attribute value and records with a null or blank value
+     * are ignored if ignoreEmpty is true. Null shapes are ignored.
+     * Throws a CancellationException if monitor is cancelled, so that a
+     * truncated graph is never returned (and cached).
+     */
+    CompactGraph readGraph(TaskMonitor monitor, String attribute, boolean ignoreEmpty, boolean dim3)
+            throws IOException {
+        DbfField field = attribute == null ? null : getField(attribute);
+        CompactGraph graph = new CompactGraph(dim3);
+        try (DataInputStream shpIn = new DataInputStream(new BufferedInputStream(new FileInputStream(shp), 1 << 16));
+             DataInputStream dbfIn = field == null ? null :
+                     new DataInputStream(new BufferedInputStream(new FileInputStream(dbf), 1 << 16))) {
+            skip(shpIn, HEADER_LENGTH);
+            if (dbfIn != null) skip(dbfIn, dbfHeaderLength);
+            byte[] content = new byte[4096];
+            byte[] dbfRecord = field == null ? null : new byte[dbfRecordLength];
+            long position = HEADER_LENGTH;
+            int index = 0;
+            ProgressReporter progress = new ProgressReporter(monitor, recordCount, "records");
+            while (position < shpLength) {
+                if (index % 10000 == 0 && monitor.isCancelRequested()) throw new CancellationException();
+                shpIn.readInt(); // record number
+                int contentLength = 2 * shpIn.readInt();
+                if (contentLength > content.length) content = new byte[Math.max(contentLength, 2*content.length)];
+                shpIn.readFully(content, 0, contentLength);
+                position += 8 + contentLength;
+                Object group = null;
+                if (dbfIn != null) {
+                    dbfIn.readFully(dbfRecord);
+                    group = parse(field, dbfRecord);
+                }
+                if (field == null || !ignoreEmpty || (group != null && !group.toString().trim().isEmpty())) {
+                    addEdge(graph, ByteBuffer.wrap(content, 0, contentLength).order(ByteOrder.LITTLE_ENDIAN),
+                            index, group);
+                }
+                index++;
+                progress.report(index);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the indices of the records whose attribute value is equal to
+     * value (compared as strings), streaming the .dbf file.
+     */
+    int[] findRecords(String attribute, String value) throws IOException {
+        DbfField field = getField(attribute);
+        int[] records = new int[16];
+        int count = 0;
+        try (DataInputStream dbfIn = new DataInputStream(new BufferedInputStream(new FileInputStream(dbf), 1 << 16))) {
+            skip(dbfIn, dbfHeaderLength);
+            byte[] dbfRecord = new byte[dbfRecordLength];
+            for (int index = 0 ; index < recordCount ; index++) {
+                dbfIn.readFully(dbfRecord);
+                Object v = parse(field, dbfRecord);
+                if (v != null && v.toString().equals(value)) {
+                    if (count == records.length) records = Arrays.copyOf(records, 2*count);
+                    records[count++] = index;
+                }
+            }
+        }
+        return Arrays.copyOf(records, count);
+    }
+
+    // Adds the edge of a polyline record to graph : only end points and length
+    // are extracted from the coordinates
+    private static void addEdge(CompactGraph graph, ByteBuffer record, int index, Object group) {
+        int shapeType = record.getInt(0);
+        if (shapeType == NULL_SHAPE) return;
+        int numParts = record.getInt(36);
+        int numPoints = record.getInt(40);
+        if (numPoints == 0) return;
+        int points = 44 + 4 * numParts;
+        double length = 0;
+        for (int p = 0 ; p < numParts ; p++) {
+            int start = record.getInt(44 + 4 * p);
+            int end = p + 1 < numParts ? record.getInt(44 + 4 * (p + 1)) : numPoints;
+            for (int i = start + 1 ; i < end ; i++) {
+                double dx = record.getDouble(points + 16 * i) - record.getDouble(points + 16 * (i - 1));
+                double dy = record.getDouble(points + 16 * i + 8) - record.getDouble(points + 16 * (i - 1) + 8);
+                length += Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        int last = points + 16 * (numPoints - 1);
+        double z0 = Double.NaN;
+        double z1 = Double.NaN;
+        if (shapeType == POLYLINE_Z) {
+            int zValues = points + 16 * numPoints + 16;
+            z0 = record.getDouble(zValues);
+            z1 = record.getDouble(zValues + 8 * (numPoints - 1));
+        }
+        graph.addEdge(record.getDouble(points), record.getDouble(points + 8), z0,
+                record.getDouble(last), record.getDouble(last + 8), z1, length, index, group);
+    }
+
+    /**
+     * Reads the complete feature of record index (0-based).
+     * <p>Can be called by several threads.</p>
+     */
+    Feature getFeature(int index) throws IOException {
+        Feature feature = new BasicFeature(schema);
+        feature.setGeometry(getGeometry(index));
+        if (dbfChannel != null) {
+            ByteBuffer record = read(dbfChannel, dbfHeaderLength + (long)index * dbfRecordLength, dbfRecordLength);
+            byte[] bytes = new byte[dbfRecordLength];
+            record.get(bytes);
+            for (DbfField field : fields) {
+                feature.setAttribute(field.name, parse(field, bytes));
+            }
+        }
+        return feature;
+    }
+
+    /**
+     * Reads the geometry of record index (0-based). Null shapes are returned as
+     * empty LineStrings.
+     */
+    Geometry getGeometry(int index) throws IOException {
+        if (index < 0 || index >= recordCount) throw new IndexOutOfBoundsException("Record " + index);
+        ByteBuffer entry = read(shxChannel, HEADER_LENGTH + 8L * index, 8);
+        long offset = 2L * entry.getInt(0);
+        int contentLength = 2 * entry.getInt(4);
+        ByteBuffer record = read(shpChannel, offset + 8, contentLength).order(ByteOrder.LITTLE_ENDIAN);
+        int shapeType = record.getInt(0);
+        if (shapeType == NULL_SHAPE) return DEFAULT_GEOMETRY_FACTORY.createLineString();
+        int numParts = record.getInt(36);
+        int numPoints = record.getInt(40);
+        int points = 44 + 4 * numParts;
+        int zValues = points + 16 * numPoints + 16;
+        LineString[] lines = new LineString[numParts];
+        for (int p = 0 ; p < numParts ; p++) {
+            int start = record.getInt(44 + 4 * p);
+            int end = p + 1 < numParts ? record.getInt(44 + 4 * (p + 1)) : numPoints;
+            Coordinate[] cc = new Coordinate[end - start];
+            for (int i = start ; i < end ; i++) {
+                cc[i - start] = new Coordinate(record.getDouble(points + 16 * i), record.getDouble(points + 16 * i + 8),
+                        shapeType == POLYLINE_Z ? record.getDouble(zValues + 8 * i) : Coordinate.NULL_ORDINATE);
+            }
+            lines[p] = DEFAULT_GEOMETRY_FACTORY.createLineString(cc);
+        }
+        return lines.length == 1 ? lines[0] : DEFAULT_GEOMETRY_FACTORY.createMultiLineString(lines);
+    }
+
+    private DbfField getField(String name) {
+        for (DbfField field : fields) {
+            if (field.name.equals(name)) return field;
+        }
+        throw new IllegalArgumentException("Shapefile " + shp.getName() + " has no attribute named " + name);
+    }
+
+    private Object parse(DbfField field, byte[] record) {
+        String value = new String(record, field.offset, field.length, charset).trim();
+        switch (field.type) {
+            case 'N' :
+            case 'F' :
+                if (value.isEmpty() || value.startsWith("*")) return null;
+                try {
+                    if (field.decimals > 0) return Double.valueOf(value);
+                    return field.length < 10 ? (Object)Integer.valueOf(value) : (Object)Long.valueOf(value);
+                } catch(NumberFormatException e) {
+                    return null;
+                }
+            case 'L' :
+                if (value.isEmpty()) return null;
+                char c = Character.toUpperCase(value.charAt(0));
+                return c == 'T' || c == 'Y' ? Boolean.TRUE : c == 'F' || c == 'N' ? Boolean.FALSE : null;
+            case 'D' :
+                if (value.isEmpty()) return null;
+                try {
+                    return new SimpleDateFormat("yyyyMMdd").parse(value);
+                } catch(ParseException e) {
+                    return null;
+                }
+            default :
+                return value;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void skip(DataInputStream in, int length) throws IOException {
+        in.readFully(new byte[length]);
+    }
+
+    public void close() throws IOException {
+        // channels are null if the constructor failed to open them
+        try {
+            if (shpChannel != null) shpChannel.close();
+        } finally {
+            try {
+                if (shxChannel != null) shxChannel.close();
+            } finally {
+                if (dbfChannel != null) dbfChannel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.feature.*;
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.model.StandardCategoryNames;
+import com.vividsolutions.jump.workbench.plugin.MultiEnableCheck;
+import com.vividsolutions.jump.workbench.plugin.PlugInContext;
+import com.vividsolutions.jump.workbench.plugin.ThreadedBasePlugIn;
+import com.vividsolutions.jump.workbench.ui.AttributeTypeFilter;
+import com.vividsolutions.jump.workbench.ui.GUIUtil;
+import com.vividsolutions.jump.workbench.ui.MenuNames;
+import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateList;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Computes shortest paths or service areas on a linear network (see
+ * NetworkRouter). Origins and destinations are point features snapped to
+ * the nearest graph node.
+ * <ul>
+ *     <li>shortest paths : the path from the i-th origin to the i-th
+ *     destination, for each origin</li>
+ *     <li>service areas : the edges which can be reached from each origin
+ *     with a cost lower or equal to the maximum cost</li>
+ * </ul>
+ * Queries are distributed among several threads. Shortest paths can be
+ * computed with a ContractionHierarchy of the network, whose preprocessing
+ * is kept for the next queries on the same network (see GraphRegistry and
+ * GraphCache).
+ */
+public class ShortestPathPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
+
+    private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
+
+    static final String P_LAYER               = "Layer";
+    static final String P_GRAPH_3D            = "Graph3D";
+    static final String P_DIRECTED            = "Directed";
+    static final String P_COST_ATTRIBUTE      = "CostAttribute";       // null for edge length
+    static final String P_ORIGIN_LAYER        = "OriginLayer";         // workbench only
+    static final String P_ORIGIN_DATASET      = "OriginDataset";       // headless only
+    static final String P_DESTINATION_LAYER   = "DestinationLayer";    // workbench only
+    static final String P_DESTINATION_DATASET = "DestinationDataset";  // headless only
+    static final String P_SERVICE_AREA        = "ServiceArea";
+    static final String P_MAX_COST            = "MaxCost";
+    static final String P_THREADS             = "Threads";
+    static final String P_HIERARCHY           = "ContractionHierarchy";
+
+    private static final String ORIGIN = "Origin";
+    private static final String DESTINATION = "Destination";
+    private static final String COST = "Cost";
+
+    private static final GeometryFactory DEFAULT_GEOMETRY_FACTORY = new GeometryFactory();
+
+    private static String LAYER;
+    private static String GRAPH;
+    private static String GRAPH_COMPUTATION;
+    private static String SHORTEST_PATH;
+    private static String DIM3;
+    private static String DIM3_TOOLTIP;
+    private static String DIRECTED;
+    private static String DIRECTED_TOOLTIP;
+    private static String COST_ATTRIBUTE;
+    private static String COST_ATTRIBUTE_TT;
+    private static String ORIGIN_LAYER;
+    private static String DESTINATION_LAYER;
+    private static String SERVICE_AREA;
+    private static String MAX_COST;
+    private static String THREADS;
+    private static String UNREACHABLE;
+    private static String HIERARCHY;
+    private static String HIERARCHY_TOOLTIP;
+    private static String PREPROCESSING;
+
+    {
+        addParameter(P_LAYER,               null);
+        addParameter(P_GRAPH_3D,            false);
+        addParameter(P_DIRECTED,            false);
+        addParameter(P_COST_ATTRIBUTE,      null);
+        addParameter(P_ORIGIN_LAYER,        null);
+        addParameter(P_ORIGIN_DATASET,      null);
+        addParameter(P_DESTINATION_LAYER,   null);
+        addParameter(P_DESTINATION_DATASET, null);
+        addParameter(P_SERVICE_AREA,        false);
+        addParameter(P_MAX_COST,            1000.0);
+        addParameter(P_THREADS,             Runtime.getRuntime().availableProcessors());
+        addParameter(P_HIERARCHY,           false);
+
+        LAYER             = i18n.get("Layer");
+        GRAPH             = i18n.get("Graph");
+        GRAPH_COMPUTATION = i18n.get("Graph-computation");
+        SHORTEST_PATH     = i18n.get("ShortestPathPlugIn");
+        DIM3              = i18n.get("dim3");
+        DIM3_TOOLTIP      = i18n.get("dim3-tooltip");
+        DIRECTED          = i18n.get("ShortestPathPlugIn.directed");
+        DIRECTED_TOOLTIP  = i18n.get("ShortestPathPlugIn.directed-tooltip");
+        COST_ATTRIBUTE    = i18n.get("ShortestPathPlugIn.cost-attribute");
+        COST_ATTRIBUTE_TT = i18n.get("ShortestPathPlugIn.cost-attribute-tooltip");
+        ORIGIN_LAYER      = i18n.get("ShortestPathPlugIn.origin-layer");
+        DESTINATION_LAYER = i18n.get("ShortestPathPlugIn.destination-layer");
+        SERVICE_AREA      = i18n.get("ShortestPathPlugIn.service-area");
+        MAX_COST          = i18n.get("ShortestPathPlugIn.max-cost");
+        THREADS           = i18n.get("ShortestPathPlugIn.threads");
+        UNREACHABLE       = i18n.get("ShortestPathPlugIn.unreachable");
+        HIERARCHY         = i18n.get("ShortestPathPlugIn.hierarchy");
+        HIERARCHY_TOOLTIP = i18n.get("ShortestPathPlugIn.hierarchy-tooltip");
+        PREPROCESSING     = i18n.get("ShortestPathPlugIn.preprocessing");
+    }
+
+    @Override
+    public void initialize(final PlugInContext context) {
+        context.getFeatureInstaller().addMainMenuPlugin(
+                this, new String[]{MenuNames.PLUGINS, GRAPH},
+                SHORTEST_PATH + "...",
+                false, null, new MultiEnableCheck()
+                        .add(context.getCheckFactory().createTaskWindowMustBeActiveCheck())
+                        .add(context.getCheckFactory().createAtLeastNLayersMustExistCheck(2)));
+    }
+
+    @Override
+    public boolean execute(PlugInContext context) {
+        final MultiInputDialog dialog = new MultiInputDialog(
+                context.getWorkbenchFrame(), SHORTEST_PATH, true);
+        dialog.setSideBarDescription(i18n.get("ShortestPathPlugIn.description"));
+        dialog.addLayerComboBox(LAYER, context.getCandidateLayer(0), null, context.getLayerManager());
+        dialog.addCheckBox(DIM3, getBooleanParam(P_GRAPH_3D), DIM3_TOOLTIP);
+        dialog.addCheckBox(DIRECTED, getBooleanParam(P_DIRECTED), DIRECTED_TOOLTIP);
+        dialog.addAttributeComboBox(COST_ATTRIBUTE, LAYER,
+                new AttributeTypeFilter(AttributeTypeFilter.GEOMETRY + AttributeTypeFilter.DOUBLE +
+                        AttributeTypeFilter.INTEGER), COST_ATTRIBUTE_TT);
+
+        dialog.addSeparator();
+        dialog.addLayerComboBox(ORIGIN_LAYER, context.getCandidateLayer(1), null, context.getLayerManager());
+        final JComboBox<Layer> jcb_destination = dialog.addLayerComboBox(DESTINATION_LAYER,
+                context.getCandidateLayer(1), null, context.getLayerManager());
+        final JCheckBox jcb_service_area = dialog.addCheckBox(SERVICE_AREA, getBooleanParam(P_SERVICE_AREA));
+        final JTextField jtf_max_cost = dialog.addDoubleField(MAX_COST, getDoubleParam(P_MAX_COST), 12);
+        final JCheckBox jcb_hierarchy = dialog.addCheckBox(HIERARCHY, getBooleanParam(P_HIERARCHY), HIERARCHY_TOOLTIP);
+        jcb_destination.setEnabled(!getBooleanParam(P_SERVICE_AREA));
+        jtf_max_cost.setEnabled(getBooleanParam(P_SERVICE_AREA));
+        jcb_hierarchy.setEnabled(!getBooleanParam(P_SERVICE_AREA));
+        jcb_service_area.addActionListener(e -> {
+            jcb_destination.setEnabled(!jcb_service_area.isSelected());
+            jtf_max_cost.setEnabled(jcb_service_area.isSelected());
+            jcb_hierarchy.setEnabled(!jcb_service_area.isSelected());
+        });
+        dialog.addIntegerField(THREADS, getIntegerParam(P_THREADS), 12, null);
+
+        GUIUtil.centreOnWindow(dialog);
+        dialog.setVisible(true);
+        if (dialog.wasOKPressed()) {
+            Layer layer = dialog.getLayer(LAYER);
+            String cost = dialog.getText(COST_ATTRIBUTE);
+            boolean costIsGeometry = layer.getFeatureCollectionWrapper().getFeatureSchema()
+                    .getAttributeType(cost) == AttributeType.GEOMETRY;
+            boolean serviceArea = dialog.getBoolean(SERVICE_AREA);
+            addParameter(P_LAYER,             layer.getName());
+            addParameter(P_GRAPH_3D,          dialog.getBoolean(DIM3));
+            addParameter(P_DIRECTED,          dialog.getBoolean(DIRECTED));
+            addParameter(P_COST_ATTRIBUTE,    costIsGeometry ? null : cost);
+            addParameter(P_ORIGIN_LAYER,      dialog.getLayer(ORIGIN_LAYER).getName());
+            addParameter(P_DESTINATION_LAYER, serviceArea ? null : dialog.getLayer(DESTINATION_LAYER).getName());
+            addParameter(P_SERVICE_AREA,      serviceArea);
+            addParameter(P_MAX_COST,          dialog.getDouble(MAX_COST));
+            addParameter(P_THREADS,           dialog.getInteger(THREADS));
+            addParameter(P_HIERARCHY,         dialog.getBoolean(HIERARCHY));
+            return true;
+        }
+        else return false;
+    }
+
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        Layer layer = getLayer(context, P_LAYER);
+        FeatureCollection destinations = getBooleanParam(P_SERVICE_AREA) ? null :
+                getLayer(context, P_DESTINATION_LAYER).getFeatureCollectionWrapper();
+        monitor.report(GRAPH_COMPUTATION + "...");
+        CompactGraph graph = GraphExtension.getGraphRegistry()
+                .getCompactGraph(layer, null, false, getBooleanParam(P_GRAPH_3D));
+        Map<String,FeatureCollection> result = run(monitor, layer.getFeatureCollectionWrapper(), graph,
+                getLayer(context, P_ORIGIN_LAYER).getFeatureCollectionWrapper(), destinations,
+                router -> GraphExtension.getGraphRegistry().getContractionHierarchy(layer, router,
+                        getStringParam(P_COST_ATTRIBUTE), getBooleanParam(P_GRAPH_3D), monitor),
+                context.getWorkbenchFrame()::warnUser);
+        for (Map.Entry<String,FeatureCollection> entry : result.entrySet()) {
+            context.getLayerManager().addLayer(StandardCategoryNames.RESULT,
+                    layer.getName() + "-" + entry.getKey(), entry.getValue());
+        }
+    }
+
+    private Layer getLayer(PlugInContext context, String parameter) throws Exception {
+        Layer layer = context.getLayerManager().getLayer(getStringParam(parameter));
+        if (layer == null) throw new Exception("Layer " + getStringParam(parameter) + " has not been found");
+        return layer;
+    }
+
+    /**
+     * Computes the shortest paths from the features of P_ORIGIN_DATASET to
+     * the features of P_DESTINATION_DATASET, or the service areas of the
+     * origins if P_SERVICE_AREA is true, on the network of dataset.
+     * The result map contains a "shortest-paths" or a "service-areas"
+     * dataset, or nothing if the hierarchy preprocessing has been cancelled.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) throws Exception {
+        monitor.report(GRAPH_COMPUTATION + "...");
+        CompactGraph graph = GraphCache.getGraph(dataset.getFeatures(), null, false, getBooleanParam(P_GRAPH_3D));
+        return run(monitor, dataset, graph, (FeatureCollection)getParameter(P_ORIGIN_DATASET),
+                getBooleanParam(P_SERVICE_AREA) ? null : (FeatureCollection)getParameter(P_DESTINATION_DATASET),
+                router -> GraphCache.getContractionHierarchy(router, monitor), Logger::warn);
+    }
+
+    private Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset, CompactGraph graph,
+                                              FeatureCollection origins, FeatureCollection destinations,
+                                              Function<NetworkRouter,ContractionHierarchy> hierarchies,
+                                              Consumer<String> warning) throws Exception {
+        if (origins == null) throw new IllegalArgumentException("No origin dataset");
+        monitor.allowCancellationRequests();
+        monitor.report(SHORTEST_PATH + "...");
+        String costAttribute = getStringParam(P_COST_ATTRIBUTE);
+        double[] cost = costAttribute == null ? null : FlowAccumulationPlugIn.getEdgeValues(
+                graph, dataset.getFeatures(), dataset.getFeatureSchema(), costAttribute);
+        NetworkRouter router = new NetworkRouter(graph, cost, getBooleanParam(P_DIRECTED));
+        int[] originNodes = snap(router, origins);
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        if (destinations == null) {
+            result.put("service-areas", getServiceAreas(monitor, router, dataset, originNodes));
+        } else {
+            int[] destinationNodes = snap(router, destinations);
+            if (destinationNodes.length != originNodes.length) {
+                throw new IllegalArgumentException("Origin and destination datasets have different sizes");
+            }
+            ContractionHierarchy hierarchy = null;
+            if (getBooleanParam(P_HIERARCHY)) {
+                monitor.report(PREPROCESSING + "...");
+                try {
+                    hierarchy = hierarchies.apply(router);
+                } catch(CancellationException e) {
+                    return result;
+                }
+                monitor.report(SHORTEST_PATH + "...");
+            }
+            result.put("shortest-paths",
+                    getShortestPaths(monitor, router, hierarchy, dataset, originNodes, destinationNodes, warning));
+        }
+        return result;
+    }
+
+    // Returns the node nearest to each feature (-1 for empty geometries)
+    static int[] snap(NetworkRouter router, FeatureCollection points) {
+        List<Feature> features = points.getFeatures();
+        int[] nodes = new int[features.size()];
+        for (int i = 0 ; i < nodes.length ; i++) {
+            Geometry geometry = features.get(i).getGeometry();
+            nodes[i] = geometry.isEmpty() ? -1 : router.getNearestNode(geometry.getCoordinate());
+        }
+        return nodes;
+    }
+
+    // Computes the paths with hierarchy if it is not null, with A* otherwise
+    private FeatureCollection getShortestPaths(TaskMonitor monitor, NetworkRouter router,
+                                               ContractionHierarchy hierarchy, FeatureCollection dataset,
+                                               int[] origins, int[] destinations,
+                                               Consumer<String> warning) throws Exception {
+        FeatureSchema schema = new FeatureSchema();
+        schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        schema.addAttribute(ORIGIN, AttributeType.INTEGER);
+        schema.addAttribute(DESTINATION, AttributeType.INTEGER);
+        schema.addAttribute(COST, AttributeType.DOUBLE);
+        Feature[] features = new Feature[origins.length];
+        NetworkRouter.forEach(origins.length, getIntegerParam(P_THREADS), monitor, () -> {
+            NetworkRouter.Search search = hierarchy == null ? router.newSearch() : null;
+            ContractionHierarchy.Query query = hierarchy == null ? null : hierarchy.newQuery();
+            return i -> {
+                Feature feature = new BasicFeature(schema);
+                feature.setAttribute(ORIGIN, i);
+                feature.setAttribute(DESTINATION, i);
+                double cost = Double.POSITIVE_INFINITY;
+                int[] path = null;
+                if (origins[i] >= 0 && destinations[i] >= 0 && query != null) {
+                    cost = query.route(origins[i], destinations[i]);
+                    path = query.getPath();
+                } else if (origins[i] >= 0 && destinations[i] >= 0) {
+                    cost = search.route(origins[i], destinations[i]);
+                    path = search.getPath(destinations[i]);
+                }
+                if (path != null) {
+                    feature.setAttribute(COST, cost);
+                    feature.setGeometry(getPathGeometry(router, dataset.getFeatures(), origins[i], path));
+                } else {
+                    feature.setGeometry(DEFAULT_GEOMETRY_FACTORY.createLineString());
+                }
+                features[i] = feature;
+            };
+        });
+        FeatureCollection fc = new FeatureDataset(schema);
+        int unreachable = 0;
+        for (Feature feature : features) {
+            if (feature == null) continue;
+            if (feature.getAttribute(COST) == null) unreachable++;
+            fc.add(feature);
+        }
+        if (unreachable > 0) warning.accept(UNREACHABLE + " : " + unreachable);
+        return fc;
+    }
+
+    // Returns the geometry of a path starting at node origin, each edge
+    // geometry being reversed if the edge is followed backwards
+    private static Geometry getPathGeometry(NetworkRouter router, List<Feature> features, int origin, int[] path) {
+        CompactGraph graph = router.getGraph();
+        CoordinateList coordinates = new CoordinateList();
+        int node = origin;
+        for (int edge : path) {
+            Coordinate[] cc = features.get(graph.getFeatureIndex(edge)).getGeometry().getCoordinates();
+            boolean forward = graph.getSource(edge) == node;
+            for (int i = 0 ; i < cc.length ; i++) {
+                coordinates.add(cc[forward ? i : cc.length - 1 - i], false);
+            }
+            node = forward ? graph.getTarget(edge) : graph.getSource(edge);
+        }
+        if (coordinates.size() == 1) coordinates.add(coordinates.getCoordinate(0), true);
+        return coordinates.size() == 0 ?
+                DEFAULT_GEOMETRY_FACTORY.createPoint(graph.getCoordinate(origin)) :
+                DEFAULT_GEOMETRY_FACTORY.createLineString(coordinates.toCoordinateArray());
+    }
+
+    // Returns the edges reached from each origin within P_MAX_COST, with the
+    // index of the origin and the cost at the end of the edge
+    private FeatureCollection getServiceAreas(TaskMonitor monitor, NetworkRouter router,
+                                              FeatureCollection dataset, int[] origins) throws Exception {
+        FeatureSchema schema = dataset.getFeatureSchema().clone();
+        schema.addAttribute(ORIGIN, AttributeType.INTEGER);
+        schema.addAttribute(COST, AttributeType.DOUBLE);
+        double maxCost = getDoubleParam(P_MAX_COST);
+        CompactGraph graph = router.getGraph();
+        List<Feature> features = dataset.getFeatures();
+        List<List<Feature>> areas = new ArrayList<>();
+        for (int i = 0 ; i < origins.length ; i++) areas.add(null);
+        NetworkRouter.forEach(origins.length, getIntegerParam(P_THREADS), monitor, () -> {
+            NetworkRouter.Search search = router.newSearch();
+            // origin (+1) for which each edge has already been added
+            int[] added = new int[graph.getEdgeCount()];
+            return i -> {
+                List<Feature> area = new ArrayList<>();
+                if (origins[i] >= 0) {
+                    search.expand(origins[i], maxCost);
+                    for (int r = 0 ; r < search.getReachedCount() ; r++) {
+                        int node = search.getReached(r);
+                        double d = search.getDistance(node);
+                        for (int edge : getEdges(router, node)) {
+                            double end = d + router.getCost(edge);
+                            if (end > maxCost || added[edge] == i + 1) continue;
+                            added[edge] = i + 1;
+                            Feature f = features.get(graph.getFeatureIndex(edge));
+                            Feature bf = new BasicFeature(schema);
+                            for (int a = 0 ; a < f.getSchema().getAttributeCount() ; a++) {
+                                bf.setAttribute(a, f.getAttribute(a));
+                            }
+                            bf.setGeometry(f.getGeometry().copy());
+                            bf.setAttribute(ORIGIN, i);
+                            bf.setAttribute(COST, end);
+                            area.add(bf);
+                        }
+                    }
+                }
+                synchronized (areas) {
+                    areas.set(i, area);
+                }
+            };
+        });
+        FeatureCollection fc = new FeatureDataset(schema);
+        for (List<Feature> area : areas) {
+            if (area != null) fc.addAll(area);
+        }
+        return fc;
+    }
+
+    // Returns the edges which can be followed from node
+    private static int[] getEdges(NetworkRouter router, int node) {
+        CompactGraph graph = router.getGraph();
+        int outStart = graph.getOutEdgeStart(node);
+        int outCount = graph.getOutEdgeStart(node + 1) - outStart;
+        int inStart = graph.getInEdgeStart(node);
+        int inCount = router.isDirected() ? 0 : graph.getInEdgeStart(node + 1) - inStart;
+        int[] edges = new int[outCount + inCount];
+        for (int i = 0 ; i < outCount ; i++) edges[i] = graph.getOutEdge(outStart + i);
+        for (int i = 0 ; i < inCount ; i++) edges[outCount + i] = graph.getInEdge(inStart + i);
+        return edges;
+    }
+}
@@ -0,0 +1,158 @@
+package fr.michaelm.jump.plugin.graph;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+import java.util.*;
+
+/**
+ * Mutable undirected graph used by SkeletonPlugIn to prune a skeleton in place.
+ * <p>When an edge is removed, nodes which become degree 2 nodes are merged
+ * immediately, so that the graph always contains maximal chains, as if it had
+ * been merged with a LineMerger and rebuilt. Only nodes touched by a removal
+ * are impacted, which makes the whole pruning process nearly linear in the
+ * number of edges instead of rebuilding the graph at each iteration.</p>
+ */
+class SkeletonGraph {
+
+    static class Node {
+        final Coordinate coordinate;
+        // a loop appears twice in the list so that its size is the node degree
+        final List<Edge> edges = new ArrayList<>(3);
+        Node(Coordinate coordinate) {
+            this.coordinate = coordinate;
+        }
+        int degree() {
+            return edges.size();
+        }
+    }
+
+    static class Edge {
+        final Node src;
+        final Node tgt;
+        final Coordinate[] coordinates;
+        final double length;
+        Edge(Node src, Node tgt, Coordinate[] coordinates, double length) {
+            this.src = src;
+            this.tgt = tgt;
+            this.coordinates = coordinates;
+            this.length = length;
+        }
+        int nbOfDegree1() {
+            return (src.degree()==1?1:0) + (tgt.degree()==1?1:0);
+        }
+        int nbOfDegreeN() {
+            return (src.degree()>1?1:0) + (tgt.degree()>1?1:0);
+        }
+        Node getDegree1() {
+            if (src.degree() == 1) return src;
+            else if (tgt.degree() == 1) return tgt;
+            else return null;
+        }
+        Node opposite(Node node) {
+            return node == src ? tgt : src;
+        }
+    }
+
+    private final Map<Coordinate,Node> nodes = new HashMap<>();
+    private final Set<Edge> edges = new LinkedHashSet<>();
+
+    SkeletonGraph(Collection<LineString> lines) {
+        for (LineString line : lines) {
+            if (line.getNumPoints() < 2) continue;
+            Coordinate[] cc = line.getCoordinates();
+            addEdge(getNode(cc[0]), getNode(cc[cc.length-1]), cc, line.getLength());
+        }
+    }
+
+    private Node getNode(Coordinate c) {
+        return nodes.computeIfAbsent(c, Node::new);
+    }
+
+    private Edge addEdge(Node src, Node tgt, Coordinate[] cc, double length) {
+        Edge edge = new Edge(src, tgt, cc, length);
+        src.edges.add(edge);
+        tgt.edges.add(edge);
+        edges.add(edge);
+        return edge;
+    }
+
+    private void detach(Edge edge) {
+        edge.src.edges.remove(edge);
+        edge.tgt.edges.remove(edge);
+        edges.remove(edge);
+    }
+
+    int getEdgeCount() {
+        return edges.size();
+    }
+
+    /**
+     * Returns a copy of the current node collection.
+     */
+    Collection<Node> getNodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    /**
+     * Removes edges and merges the remaining edges of nodes which become
+     * degree 2 nodes.
+     * @return the nodes whose neighbourhood has been modified
+     */
+    Set<Node> removeEdges(Collection<Edge> toRemove) {
+        Set<Node> dirty = new LinkedHashSet<>();
+        for (Edge edge : toRemove) {
+            if (!edges.contains(edge)) continue;
+            detach(edge);
+            dirty.add(edge.src);
+            dirty.add(edge.tgt);
+        }
+        Deque<Node> queue = new ArrayDeque<>(dirty);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (node.degree() == 0) {
+                nodes.remove(node.coordinate);
+            } else if (node.degree() == 2 && node.edges.get(0) != node.edges.get(1)) {
+                Edge merged = merge(node);
+                dirty.add(merged.src);
+                dirty.add(merged.tgt);
+            }
+        }
+        return dirty;
+    }
+
+    // Merge the two edges incident to a degree 2 node
+    private Edge merge(Node node) {
+        Edge a = node.edges.get(0);
+        Edge b = node.edges.get(1);
+        // a is oriented to end at node, b to start from node
+        Coordinate[] ca = a.tgt == node ? a.coordinates : reverse(a.coordinates);
+        Coordinate[] cb = b.src == node ? b.coordinates : reverse(b.coordinates);
+        Coordinate[] cc = new Coordinate[ca.length + cb.length - 1];
+        System.arraycopy(ca, 0, cc, 0, ca.length);
+        System.arraycopy(cb, 1, cc, ca.length, cb.length - 1);
+        Node start = a.opposite(node);
+        Node end = b.opposite(node);
+        detach(a);
+        detach(b);
+        nodes.remove(node.coordinate);
+        return addEdge(start, end, cc, a.length + b.length);
+    }
+
+    private static Coordinate[] reverse(Coordinate[] cc) {
+        Coordinate[] reversed = new Coordinate[cc.length];
+        for (int i = 0 ; i < cc.length ; i++) {
+            reversed[i] = cc[cc.length-1-i];
+        }
+        return reversed;
+    }
+
+    List<LineString> getLines(GeometryFactory factory) {
+        List<LineString> lines = new ArrayList<>(edges.size());
+        for (Edge edge : edges) {
+            lines.add(factory.createLineString(edge.coordinates));
+        }
+        return lines;
+    }
+}
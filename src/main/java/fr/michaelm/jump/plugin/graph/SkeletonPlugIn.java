@@ -4,6 +4,7 @@ import com.vividsolutions.jump.I18N;
 import com.vividsolutions.jump.feature.*;
 import com.vividsolutions.jump.geom.Angle;
 import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.Logger;
 import com.vividsolutions.jump.workbench.model.LayerManager;
 import com.vividsolutions.jump.workbench.model.StandardCategoryNames;
 import com.vividsolutions.jump.workbench.plugin.EnableCheckFactory;
@@ -16,14 +17,14 @@ import fr.michaelm.jump.feature.jgrapht.GraphFactory;
 import org.jgrapht.graph.Pseudograph;
 import org.jgrapht.graph.WeightedPseudograph;
 import org.locationtech.jts.algorithm.MinimumDiameter;
-import org.locationtech.jts.algorithm.distance.DistanceToPoint;
-import org.locationtech.jts.algorithm.distance.PointPairDistance;
+import org.locationtech.jts.algorithm.construct.MaximumInscribedCircle;
 import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
 import org.locationtech.jts.densify.Densifier;
 import org.locationtech.jts.geom.*;
-import org.locationtech.jts.geom.util.LineStringExtracter;
 import org.locationtech.jts.operation.linemerge.LineMerger;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
 import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.locationtech.jts.triangulate.DelaunayTriangulationBuilder;
 import org.locationtech.jts.triangulate.VoronoiDiagramBuilder;
 import org.openjump.core.ui.plugin.AbstractThreadedUiPlugIn;
 
@@ -32,23 +33,40 @@ import fr.michaelm.jump.feature.jgrapht.INode;
 
 import javax.swing.*;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * PlugIn to skeletonize polygons
  * See https://github.com/orbisgis/h2gis/wiki/3.1-Extract-central-skeleton
  */
-public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
+public class SkeletonPlugIn extends AbstractThreadedUiPlugIn implements HeadlessPlugIn {
 
     private static final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
 
-    private static final String P_LAYER_NAME               = "LayerName";
-    private static final String P_AUTO_WIDTH               = "AutoWidth";
-    private static final String P_MIN_WIDTH                = "MinWidth";
-    private static final String P_MIN_FORK_LENGTH          = "MinForkLength";
-    private static final String P_RELATIVE_MIN_FORK_LENGTH = "MinForkLengthRelative";
-    private static final String P_SNAP_TO_BOUNDARY         = "SnapToBoundary";
-    private static final String P_MEAN_WIDTH               = "MeanWidth"; // Internal intermediate result
-    private static final String P_MAX_ITERATION            = "MaxIteration";
+    static final String P_LAYER_NAME               = "LayerName";
+    static final String P_AUTO_WIDTH               = "AutoWidth";
+    static final String P_MIN_WIDTH                = "MinWidth";
+    static final String P_MIN_FORK_LENGTH          = "MinForkLength";
+    static final String P_RELATIVE_MIN_FORK_LENGTH = "MinForkLengthRelative";
+    static final String P_SNAP_TO_BOUNDARY         = "SnapToBoundary";
+    static final String P_MAX_ITERATION            = "MaxIteration";
+    static final String P_THREADS                  = "Threads";
+    static final String P_DELAUNAY                 = "Delaunay";
+    static final String P_ADAPTIVE_DENSIFICATION   = "AdaptiveDensification";
+    // Tiled mode : tile size <= 0 means automatic tile size (about TILE_SITES sites per tile)
+    static final String P_TILED                    = "Tiled";
+    static final String P_TILE_SIZE                = "TileSize";
+    static final String P_METRICS                  = "Metrics";
+    static final String P_DISPLAY_VORONOI_EDGES    = "DisplayVoronoiEdges";
 
     private static final String GRAPH                   = i18n.get("Graph");
     private static final String CENTRAL_SKELETON        = i18n.get("SkeletonPlugIn");
@@ -65,10 +83,38 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
     private static final String SNAP_TO_BOUNDARY        = i18n.get("SkeletonPlugIn.snap-to_boundary");
     private static final String SNAP_TO_BOUNDARY_TT     = i18n.get("SkeletonPlugIn.snap-to_boundary-tooltip");
     private static final String DISPLAY_VORONOI_EDGES   = i18n.get("SkeletonPlugIn.display-voronoi-edges");
+    private static final String THREADS                 = i18n.get("SkeletonPlugIn.threads");
+    private static final String THREADS_TT              = i18n.get("SkeletonPlugIn.threads-tooltip");
+    private static final String DELAUNAY                = i18n.get("SkeletonPlugIn.delaunay");
+    private static final String DELAUNAY_TT             = i18n.get("SkeletonPlugIn.delaunay-tooltip");
+    private static final String ADAPTIVE_DENSIFICATION  = i18n.get("SkeletonPlugIn.adaptive-densification");
+    private static final String ADAPTIVE_DENSIFICATION_TT = i18n.get("SkeletonPlugIn.adaptive-densification-tooltip");
+    private static final String TILED                   = i18n.get("SkeletonPlugIn.tiled");
+    private static final String TILED_TT                = i18n.get("SkeletonPlugIn.tiled-tooltip");
+    private static final String TILE_SIZE               = i18n.get("SkeletonPlugIn.tile-size");
+    private static final String TILE_SIZE_TT            = i18n.get("SkeletonPlugIn.tile-size-tooltip");
+    private static final String METRICS                 = i18n.get("SkeletonPlugIn.metrics");
+    private static final String METRICS_TT              = i18n.get("SkeletonPlugIn.metrics-tooltip");
     private static final String DESCRIPTION             = i18n.get("SkeletonPlugIn.description");
 
     double SQRT2 = Math.sqrt(2.0);
 
+    // Number of voronoi sites per tile used to compute the automatic tile size
+    private static final int TILE_SITES = 50000;
+
+    // Period (in milliseconds) of the cancellation checks while waiting for
+    // the skeleton of a polygon
+    private static final long CANCEL_CHECK_PERIOD = 100;
+
+    // Per-stage durations (suffixed by _ms) and counters added to the output
+    // if P_METRICS is true
+    private static final String[] STAGE_METRICS = new String[]{
+            "params_ms", "preprocess_ms", "voronoi_ms", "extraction_ms", "filter_ms",
+            "merge_ms", "index_ms", "simplify_ms", "max_iteration_ms", "final_simplify_ms",
+            "snapping_ms", "output_ms",
+            "input_vertices", "voronoi_sites", "voronoi_edges", "filtered_edges",
+            "merged_edges", "final_edges"};
+
     // default external parameters
     {
       addParameter(P_LAYER_NAME, null);
@@ -78,14 +124,50 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
       addParameter(P_SNAP_TO_BOUNDARY, true);
       addParameter(P_RELATIVE_MIN_FORK_LENGTH, false);
       addParameter(P_MAX_ITERATION, 8192); // default value
+      addParameter(P_THREADS, Runtime.getRuntime().availableProcessors());
+      addParameter(P_DELAUNAY, false);
+      addParameter(P_ADAPTIVE_DENSIFICATION, false);
+      addParameter(P_TILED, false);
+      addParameter(P_TILE_SIZE, 0.0);
+      addParameter(P_METRICS, false);
+      addParameter(P_DISPLAY_VORONOI_EDGES, false);
     }
 
-    // internal parameters
-    private double  simplification        = 0.2;   // default simplification factor is minWidth/5
-    private double  densification         = 0.5;   // default densification factor is minWidth/2
-    //private double  meanWidth             = 2.0;   // mean width of the polygon
-    //private int     maxIterations         = 8192;  // maximum iteration to eliminate forks
-    private boolean displayVoronoiEdges   = false;
+    // Parameters computed for each polygon. Polygons are processed concurrently,
+    // so these values must not be stored in plugin parameters or fields.
+    private class SkeletonContext {
+        double minWidth       = getDoubleParam(P_MIN_WIDTH);
+        double meanWidth      = 2.0;
+        double simplification = minWidth/5.0;  // default simplification factor is minWidth/5
+        double densification  = minWidth/2.0;  // default densification factor is minWidth/2
+
+        // executor shared with the other polygons, used to compute tiles
+        // (may be null)
+        ExecutorService executor;
+
+        // per-stage metrics, see STAGE_METRICS
+        final Map<String,Number> metrics = new HashMap<>();
+        private long lapTime = System.nanoTime();
+
+        double getMinForkLength() {
+            return getBooleanParam(P_RELATIVE_MIN_FORK_LENGTH) ?
+                    getDoubleParam(P_MIN_FORK_LENGTH) * meanWidth
+                    : getDoubleParam(P_MIN_FORK_LENGTH);
+        }
+
+        // Adds the time elapsed since the previous lap to stage and returns it
+        double lap(String stage) {
+            long now = System.nanoTime();
+            double duration = (now - lapTime) / 1000000.0;
+            lapTime = now;
+            metrics.merge(stage, duration, (a, b) -> a.doubleValue() + b.doubleValue());
+            return duration;
+        }
+
+        void count(String counter, int value) {
+            metrics.put(counter, value);
+        }
+    }
 
     public void initialize(PlugInContext context) {
         context.getFeatureInstaller().addMainMenuPlugin(this,
@@ -144,9 +226,19 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
 
         dialog.addCheckBox(SNAP_TO_BOUNDARY,
                 getBooleanParam(P_SNAP_TO_BOUNDARY), SNAP_TO_BOUNDARY_TT);
-        dialog.addCheckBox(DISPLAY_VORONOI_EDGES, displayVoronoiEdges);
+        dialog.addCheckBox(ADAPTIVE_DENSIFICATION,
+                getBooleanParam(P_ADAPTIVE_DENSIFICATION), ADAPTIVE_DENSIFICATION_TT);
+        dialog.addCheckBox(DELAUNAY, getBooleanParam(P_DELAUNAY), DELAUNAY_TT);
+        final JCheckBox tiledJcb = dialog.addCheckBox(TILED, getBooleanParam(P_TILED), TILED_TT);
+        final JTextField tileSizeTF = dialog.addDoubleField(TILE_SIZE,
+                getDoubleParam(P_TILE_SIZE), 12, TILE_SIZE_TT);
+        tileSizeTF.setEnabled(getBooleanParam(P_TILED));
+        dialog.addCheckBox(DISPLAY_VORONOI_EDGES, getBooleanParam(P_DISPLAY_VORONOI_EDGES));
+        dialog.addCheckBox(METRICS, getBooleanParam(P_METRICS), METRICS_TT);
+        dialog.addIntegerField(THREADS, getIntegerParam(P_THREADS), 12, THREADS_TT);
 
         autoWidthJcb.addActionListener(e -> minWidthTF.setEnabled(!autoWidthJcb.isSelected()));
+        tiledJcb.addActionListener(e -> tileSizeTF.setEnabled(tiledJcb.isSelected()));
     }
 
     private void getDialogValues(MultiInputDialog dialog) {
@@ -156,19 +248,62 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
         addParameter(P_RELATIVE_MIN_FORK_LENGTH, dialog.getBoolean(MIN_FORK_LENGTH_FROM_MEAN_WIDTH));
         addParameter(P_MIN_FORK_LENGTH, dialog.getDouble(MIN_FORK_LENGTH));
         addParameter(P_SNAP_TO_BOUNDARY, dialog.getBoolean(SNAP_TO_BOUNDARY));
-        displayVoronoiEdges = dialog.getBoolean(DISPLAY_VORONOI_EDGES);
+        addParameter(P_ADAPTIVE_DENSIFICATION, dialog.getBoolean(ADAPTIVE_DENSIFICATION));
+        addParameter(P_DELAUNAY, dialog.getBoolean(DELAUNAY));
+        addParameter(P_TILED, dialog.getBoolean(TILED));
+        addParameter(P_TILE_SIZE, dialog.getDouble(TILE_SIZE));
+        addParameter(P_DISPLAY_VORONOI_EDGES, dialog.getBoolean(DISPLAY_VORONOI_EDGES));
+        addParameter(P_METRICS, dialog.getBoolean(METRICS));
+        addParameter(P_THREADS, dialog.getInteger(THREADS));
     }
 
-    private double getMinForkLength() {
-        return getBooleanParam(P_RELATIVE_MIN_FORK_LENGTH) ?
-                getDoubleParam(P_MIN_FORK_LENGTH) * getDoubleParam(P_MEAN_WIDTH)
-                : getDoubleParam(P_MIN_FORK_LENGTH);
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        LayerManager layerManager = context.getLayerManager();
+        FeatureCollection inputFC = layerManager.getLayer(getStringParam(P_LAYER_NAME)).getFeatureCollectionWrapper();
+        Map<String,FeatureCollection> result = run(monitor, inputFC, context.getWorkbenchFrame()::warnUser);
+        for (Map.Entry<String,FeatureCollection> entry : result.entrySet()) {
+            layerManager.addLayer(StandardCategoryNames.RESULT,
+                    getStringParam(P_LAYER_NAME) + " - " + entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Skeletonizes polygons of dataset. The result map contains the skeletons
+     * ("skeletonized") and, if P_DISPLAY_VORONOI_EDGES is set, the Voronoi
+     * edges ("voronoi-edges"), or nothing if monitor has been cancelled.
+     * Warnings are logged.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) throws Exception {
+        return run(monitor, dataset, Logger::warn);
     }
 
-    public void run(TaskMonitor monitor, PlugInContext context) {
+    private Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset,
+                                              Consumer<String> warning) throws Exception {
         monitor.report(SKELETONIZE);
-        LayerManager layerManager = context.getLayerManager();
-        FeatureCollection inputFC = layerManager.getLayer(getStringParam(P_LAYER_NAME)).getFeatureCollectionWrapper();
+        // edges = list to collect original edges from the voronoi diagram
+        List<Geometry> edges = Collections.synchronizedList(new ArrayList<>());
+        FeatureCollection outputFC = skeletonize(monitor, dataset, edges, warning);
+        if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+        if (getBooleanParam(P_METRICS)) logMetrics(outputFC);
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        result.put("skeletonized", outputFC);
+        if (edges.size() > 0) {
+            result.put("voronoi-edges", FeatureDatasetFactory.createFromGeometry(edges));
+        }
+        return result;
+    }
+
+    /**
+     * Skeletonizes polygons of inputFC and returns the skeletons with the
+     * attributes of the source features. If Voronoi edges are displayed,
+     * they are added to edges, which must be synchronized.
+     * <p>If monitor is cancelled, the features skeletonized so far are
+     * returned and the pending tasks are interrupted.</p>
+     * <p>Does not need a PlugInContext (used by benchmarks) : messages are
+     * sent to warning.</p>
+     */
+    FeatureCollection skeletonize(TaskMonitor monitor, FeatureCollection inputFC,
+                                  List<Geometry> edges, Consumer<String> warning) throws Exception {
         FeatureSchema schema = inputFC.getFeatureSchema().clone();
         schema.addAttribute("mean_width", AttributeType.DOUBLE);
         schema.addAttribute("min_width", AttributeType.DOUBLE);
@@ -177,57 +312,109 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
         schema.addAttribute("duration_ms", AttributeType.INTEGER);
         schema.addAttribute("comment", AttributeType.STRING);
         //schema.addAttribute("snap_ends", AttributeType.BOOLEAN);
+        if (getBooleanParam(P_METRICS)) {
+            for (String metric : STAGE_METRICS) {
+                schema.addAttribute(metric, metric.endsWith("_ms") ? AttributeType.DOUBLE : AttributeType.INTEGER);
+            }
+        }
         FeatureCollection outputFC = new FeatureDataset(schema);
-        int count = 0;
-        // edges = list to collect original edges from the voronoi diagram
-        List<Geometry> edges = new ArrayList<>();
+        // Each polygon part is skeletonized in a separate task
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, getIntegerParam(P_THREADS)));
+        List<Future<Feature>> futures = new ArrayList<>();
         for (Feature feature : inputFC.getFeatures()) {
-            monitor.report(count++, inputFC.size(), "Feature");
             if (feature.getGeometry().getDimension() == 2) {
                 Geometry geom = feature.getGeometry();
                 if (!geom.isValid()) geom = geom.buffer(0);
                 for (int i = 0 ; i < geom.getNumGeometries() ; i++) {
-                    //Feature newFeature = feature.clone(false, false);
-                    long t0 = System.currentTimeMillis();
-                    Feature newFeature = new BasicFeature(schema);
-                    Object[] objects = new Object[schema.getAttributeCount()];
-                    System.arraycopy(feature.getAttributes(), 0, objects, 0, feature.getSchema().getAttributeCount());
-                    newFeature.setAttributes(objects);
                     Geometry g = geom.getGeometryN(i);
-                    try {
-                        g = computeParams(g);
-                    } catch (Exception e) {
-                        context.getWorkbenchFrame().warnUser(e.getMessage());
-                    }
-                    newFeature.setAttribute("mean_width", getDoubleParam(P_MEAN_WIDTH));
-                    newFeature.setAttribute("min_width",  getDoubleParam(P_MIN_WIDTH));
-                    newFeature.setAttribute("min_fork_length", getMinForkLength());
-                    g = skeletonize(g, edges);
-                    newFeature.setGeometry(g);
-                    newFeature.setAttribute("iteration_number", ((Object[])g.getUserData())[0]);
-                    newFeature.setAttribute("duration_ms", (int)(System.currentTimeMillis()-t0));
-                    newFeature.setAttribute("comment", ((Object[])g.getUserData())[1]);
-                    g.setUserData(null);
-                    outputFC.add(newFeature);
+                    futures.add(executor.submit(() -> skeletonize(feature, g, schema, edges, warning, executor)));
                 }
             } else {
                 Feature newFeature = feature.clone(false, false);
                 newFeature.setGeometry(feature.getGeometry());
-                outputFC.add(newFeature);
+                futures.add(executor.submit(() -> newFeature));
             }
         }
-        layerManager.addLayer(StandardCategoryNames.RESULT, getStringParam(P_LAYER_NAME) + " - skeletonized", outputFC);
-        if (edges.size() > 0) {
-            layerManager.addLayer(StandardCategoryNames.RESULT, getStringParam(P_LAYER_NAME) + " - voronoi-edges",
-                    FeatureDatasetFactory.createFromGeometry(edges));
+        try {
+            ProgressReporter progress = new ProgressReporter(monitor, futures.size(), "features");
+            int count = 0;
+            for (Future<Feature> future : futures) {
+                progress.report(count++);
+                Feature feature = null;
+                while (feature == null) {
+                    if (monitor.isCancelRequested()) return outputFC;
+                    try {
+                        feature = future.get(CANCEL_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+                    } catch(TimeoutException e) {
+                        // check cancellation again
+                    }
+                }
+                outputFC.add(feature);
+            }
+        } finally {
+            executor.shutdownNow();
         }
+        return outputFC;
+    }
+
+    // Skeletonize a single polygon and return it as a new feature with
+    // the attributes of the source feature
+    private Feature skeletonize(Feature feature, Geometry g, FeatureSchema schema,
+                                List<Geometry> edges, Consumer<String> warning, ExecutorService executor) {
+        long t0 = System.currentTimeMillis();
+        Feature newFeature = new BasicFeature(schema);
+        Object[] objects = new Object[schema.getAttributeCount()];
+        System.arraycopy(feature.getAttributes(), 0, objects, 0, feature.getSchema().getAttributeCount());
+        newFeature.setAttributes(objects);
+        SkeletonContext ctx = new SkeletonContext();
+        ctx.executor = executor;
+        try {
+            g = computeParams(g, ctx);
+        } catch (Exception e) {
+            warning.accept(e.getMessage());
+        }
+        ctx.lap("params_ms");
+        newFeature.setAttribute("mean_width", ctx.meanWidth);
+        newFeature.setAttribute("min_width",  ctx.minWidth);
+        newFeature.setAttribute("min_fork_length", ctx.getMinForkLength());
+        g = skeletonize(g, edges, ctx);
+        newFeature.setGeometry(g);
+        newFeature.setAttribute("iteration_number", ((Object[])g.getUserData())[0]);
+        newFeature.setAttribute("duration_ms", (int)(System.currentTimeMillis()-t0));
+        newFeature.setAttribute("comment", ((Object[])g.getUserData())[1]);
+        g.setUserData(null);
+        if (getBooleanParam(P_METRICS)) {
+            for (String metric : STAGE_METRICS) {
+                newFeature.setAttribute(metric, ctx.metrics.get(metric));
+            }
+        }
+        return newFeature;
+    }
+
+    // Log a summary of stage metrics (total and maximum over all features)
+    private void logMetrics(FeatureCollection fc) {
+        StringBuilder sb = new StringBuilder(getName()).append(" metrics (" + fc.size() + " features)");
+        for (String metric : STAGE_METRICS) {
+            double total = 0;
+            double max = 0;
+            for (Feature f : fc.getFeatures()) {
+                if (!f.getSchema().hasAttribute(metric)) continue;
+                Object value = f.getAttribute(metric);
+                if (value instanceof Number) {
+                    total += ((Number)value).doubleValue();
+                    max = Math.max(max, ((Number)value).doubleValue());
+                }
+            }
+            sb.append(String.format(Locale.US, "%n  %-18s total=%.1f max=%.1f", metric, total, max));
+        }
+        Logger.info(sb.toString());
     }
 
     // Compute meanWidth from the geometry
     // Compute minWidth from meanWidth if autoWidth = true
     // Compute minForkLength if fromMeanWidth = true
     // This method must be called only once per object
-    private Geometry computeParams(Geometry geometry) {
+    private Geometry computeParams(Geometry geometry, SkeletonContext ctx) {
         double meanWidth = getMeanWidth(geometry);
         if (meanWidth==0) meanWidth = geometry.getLength()/geometry.getNumPoints()/5;
         if (getBooleanParam(P_AUTO_WIDTH)) {
@@ -249,22 +436,72 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
                 geometry = geometry.buffer(meanWidth/32);
                 semiMinWidth = meanWidth/32;
             } else {
-                while (buffer.getNumGeometries() == numGeometries && buffer.getLength() / originalLength > 0.9) {
-                    semiMinWidth = semiMinWidth * SQRT2;
-                    buffer = geometry.buffer(-semiMinWidth);
-                }
+                semiMinWidth = estimateSemiMinWidth(geometry, semiMinWidth);
             }
-            addParameter(P_MIN_WIDTH, semiMinWidth);
-        }
-        addParameter(P_MEAN_WIDTH, meanWidth);
-        //if (getBooleanParam(P_RELATIVE_MIN_FORK_LENGTH)) {
-        //    addParameter(P_MIN_FORK_LENGTH, getDoubleParam(P_MIN_FORK_LENGTH)*meanWidth);
-        //}
-        simplification = getDoubleParam(P_MIN_WIDTH)/5.0;
-        densification = getDoubleParam(P_MIN_WIDTH)/2.0;
+            ctx.minWidth = semiMinWidth;
+        }
+        ctx.meanWidth = meanWidth;
+        ctx.simplification = ctx.minWidth/5.0;
+        ctx.densification = ctx.minWidth/2.0;
         return geometry;
     }
 
+    // The semi minimal width is the first value of the sequence start * SQRT2^n
+    // for which a negative buffer splits the geometry or reduces its boundary
+    // length by more than 10% (start itself is known not to).
+    // Instead of computing a full buffer for each value of the sequence, the
+    // first two values are tested directly, then the solution is bracketed
+    // with coarse steps (factor 4) on a simplified copy of the geometry and
+    // bisected with full resolution buffers. Bisection assumes that the test
+    // does not fail again once it has succeeded, which is true unless a larger
+    // buffer makes the geometry whole again.
+    double estimateSemiMinWidth(Geometry geometry, double start) {
+        int lo = 0;
+        for ( ; lo < 2 ; lo++) {
+            if (isNarrowerThan(geometry, step(start, lo + 1))) return step(start, lo + 1);
+        }
+        Geometry simplified = DouglasPeuckerSimplifier.simplify(geometry, start);
+        int upper = lo;
+        do {
+            upper += 4;
+        } while (!isNarrowerThan(simplified, step(start, upper)));
+        lo = upper - 4;
+        // the simplified copy may have lost a narrow notch : if the geometry
+        // is already narrower than the lower bound, scan the sequence from the
+        // last value tested at full resolution
+        if (lo > 2 && isNarrowerThan(geometry, step(start, lo))) {
+            int n = 3;
+            while (!isNarrowerThan(geometry, step(start, n))) n++;
+            return step(start, n);
+        }
+        int hi = upper;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) / 2;
+            if (isNarrowerThan(geometry, step(start, mid))) hi = mid;
+            else lo = mid;
+        }
+        // upper has only been tested on the simplified geometry
+        if (hi == upper) {
+            while (!isNarrowerThan(geometry, step(start, hi))) hi++;
+        }
+        return step(start, hi);
+    }
+
+    // Returns start * SQRT2^n, computed exactly as in the former iterative
+    // estimation, which multiplied semiMinWidth by SQRT2 at each step
+    private double step(double start, int n) {
+        for (int i = 0 ; i < n ; i++) start = start * SQRT2;
+        return start;
+    }
+
+    // Returns true if a negative buffer of semiWidth splits the geometry or
+    // reduces its boundary length by more than 10%
+    private boolean isNarrowerThan(Geometry geometry, double semiWidth) {
+        Geometry buffer = geometry.buffer(-semiWidth);
+        return buffer.getNumGeometries() != geometry.getNumGeometries() ||
+                buffer.getLength() / geometry.getLength() <= 0.9;
+    }
+
     // Computes the mean width of a polygon
     private Double getMeanWidth(Geometry g) {
         if (g.getDimension() == 2) {
@@ -287,22 +524,81 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
     }
 
     // Simplification/densification of input geometry
-    private Geometry preprocess(Geometry geometry, int iteration) {
+    private Geometry preprocess(Geometry geometry, int iteration, SkeletonContext ctx) {
         if (iteration > 0) {
-            geometry = geometry.buffer(getDoubleParam(P_MIN_WIDTH)/2);
-            simplification = getDoubleParam(P_MIN_WIDTH)/5.0;
-            densification = getDoubleParam(P_MIN_WIDTH)/2.0;
+            geometry = geometry.buffer(ctx.minWidth/2);
+            ctx.simplification = ctx.minWidth/5.0;
+            ctx.densification = ctx.minWidth/2.0;
         }
-        geometry = TopologyPreservingSimplifier.simplify(geometry, simplification);
-        if (!geometry.isEmpty() && !Double.isNaN(getDoubleParam(P_MIN_WIDTH))) {
-            geometry = Densifier.densify(geometry, densification);
+        geometry = TopologyPreservingSimplifier.simplify(geometry, ctx.simplification);
+        if (!geometry.isEmpty() && !Double.isNaN(ctx.minWidth)) {
+            geometry = getBooleanParam(P_ADAPTIVE_DENSIFICATION) ?
+                    densifyAdaptively(geometry, ctx.densification)
+                    : Densifier.densify(geometry, ctx.densification);
         }
         return geometry;
     }
 
+    // Densify the geometry according to its local width instead of using a
+    // uniform distance : wide parts of a polygon do not need the densification
+    // required by its narrowest parts.
+    // The maximum distance between two vertices is half the local half-width
+    // (radius of the largest inscribed disc tangent to the boundary), but
+    // never less than minSpacing.
+    Geometry densifyAdaptively(Geometry geometry, double minSpacing) {
+        // shells are clockwise and holes counter-clockwise : interior is on the right
+        geometry = geometry.norm();
+        // closer vertices are merged by the voronoi builder anyway, and a
+        // positive spacing bounds the recursion of densifySegment even if
+        // minSpacing is 0 and the inscribed radius vanishes (sharp angles)
+        minSpacing = Math.max(minSpacing, Math.sqrt(geometry.getArea())/1000000);
+        BoundaryIndex index = new BoundaryIndex(geometry.getBoundary());
+        GeometryFactory factory = geometry.getFactory();
+        List<Polygon> polygons = new ArrayList<>();
+        for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
+            Polygon polygon = (Polygon)geometry.getGeometryN(i);
+            LinearRing shell = densifyRing(polygon.getExteriorRing(), index, minSpacing);
+            LinearRing[] holes = new LinearRing[polygon.getNumInteriorRing()];
+            for (int j = 0 ; j < holes.length ; j++) {
+                holes[j] = densifyRing(polygon.getInteriorRingN(j), index, minSpacing);
+            }
+            polygons.add(factory.createPolygon(shell, holes));
+        }
+        return factory.buildGeometry(polygons);
+    }
+
+    private LinearRing densifyRing(LinearRing ring, BoundaryIndex index, double minSpacing) {
+        Coordinate[] cc = ring.getCoordinates();
+        CoordinateList list = new CoordinateList();
+        list.add(cc[0], true);
+        for (int i = 1 ; i < cc.length ; i++) {
+            densifySegment(cc[i-1], cc[i], index, minSpacing, list);
+        }
+        return ring.getFactory().createLinearRing(list.toCoordinateArray());
+    }
+
+    // Add vertices between a (excluded) and b (included) to list
+    private void densifySegment(Coordinate a, Coordinate b, BoundaryIndex index,
+                                double minSpacing, CoordinateList list) {
+        double length = a.distance(b);
+        double spacing = Math.max(minSpacing, index.inscribedRadius(a, b)/2);
+        if (length > 4 * spacing) {
+            // local width may change along a long segment
+            Coordinate m = new Coordinate((a.x + b.x)/2, (a.y + b.y)/2);
+            densifySegment(a, m, index, minSpacing, list);
+            densifySegment(m, b, index, minSpacing, list);
+        } else {
+            int n = (int)Math.ceil(length / spacing);
+            for (int j = 1 ; j < n ; j++) {
+                list.add(new Coordinate(a.x + (b.x - a.x)*j/n, a.y + (b.y - a.y)*j/n), true);
+            }
+            list.add(b, true);
+        }
+    }
+
     // Build a voronoi diagram based on geometry vertices
     // (geometry must have been densified before)
-    private Geometry getVoronoiDiagram(Geometry geometry, int iteration) {
+    private Geometry getVoronoiDiagram(Geometry geometry, int iteration, SkeletonContext ctx) {
         if (geometry.isEmpty()) return geometry;
         if (iteration > 32) return geometry.getFactory().createMultiPolygon(new Polygon[0]);
         VoronoiDiagramBuilder voronoiBuilder = new VoronoiDiagramBuilder();
@@ -318,43 +614,243 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
             }
             return voronoi;
         } catch(Exception e) {
-            Geometry newGeometry = preprocess(geometry, iteration);
-            return getVoronoiDiagram(newGeometry, ++iteration);
+            Geometry newGeometry = preprocess(geometry, iteration, ctx);
+            return getVoronoiDiagram(newGeometry, ++iteration, ctx);
         }
     }
 
+    // Build the chordal axis of the geometry from a delaunay triangulation of
+    // its vertices. Inside each inner triangle, the midpoints of edges shared
+    // with other inner triangles are linked together (sleeve triangles) or to
+    // the triangle centroid (terminal and junction triangles).
+    // As the boundary has been densified (segments shorter than minWidth/2),
+    // the triangulation conforms to the boundary nearly everywhere, and
+    // enforcing the constraints with a ConformingDelaunayTriangulationBuilder
+    // is much more expensive than the whole triangulation.
+    // Returns false if the triangulation could not be computed.
+    private boolean getChordalAxis(Geometry geometry, SegmentBuffer edges) {
+        if (geometry.isEmpty()) return true;
+        Geometry triangles;
+        try {
+            DelaunayTriangulationBuilder builder = new DelaunayTriangulationBuilder();
+            builder.setSites(geometry);
+            builder.setTolerance(Math.sqrt(geometry.getArea())/1000000);
+            triangles = builder.getTriangles(geometry.getFactory());
+        } catch(Exception e) {
+            return false;
+        }
+        // keep inner triangles and count how many of them share each edge
+        IndexedPointInAreaLocator locator = new IndexedPointInAreaLocator(geometry);
+        List<Coordinate[]> inner = new ArrayList<>();
+        Map<LineSegment,Integer> edgeCount = new HashMap<>();
+        for (int i = 0 ; i < triangles.getNumGeometries() ; i++) {
+            Coordinate[] cc = triangles.getGeometryN(i).getCoordinates();
+            if (locator.locate(centroid(cc)) != Location.INTERIOR) continue;
+            inner.add(cc);
+            for (int j = 0 ; j < 3 ; j++) {
+                edgeCount.merge(normalizedSegment(cc[j], cc[j+1]), 1, Integer::sum);
+            }
+        }
+        for (Coordinate[] cc : inner) {
+            List<Coordinate> midpoints = new ArrayList<>(3);
+            for (int j = 0 ; j < 3 ; j++) {
+                if (edgeCount.get(normalizedSegment(cc[j], cc[j+1])) > 1) {
+                    midpoints.add(new Coordinate((cc[j].x+cc[j+1].x)/2, (cc[j].y+cc[j+1].y)/2));
+                }
+            }
+            if (midpoints.size() == 2) {
+                edges.addSegment(midpoints.get(0), midpoints.get(1));
+            } else {
+                Coordinate centroid = centroid(cc);
+                for (Coordinate midpoint : midpoints) edges.addSegment(midpoint, centroid);
+            }
+        }
+        return true;
+    }
+
+    private Coordinate centroid(Coordinate[] triangle) {
+        return new Coordinate(
+                (triangle[0].x + triangle[1].x + triangle[2].x)/3,
+                (triangle[0].y + triangle[1].y + triangle[2].y)/3);
+    }
+
+    private LineSegment normalizedSegment(Coordinate c0, Coordinate c1) {
+        LineSegment segment = new LineSegment(c0, c1);
+        segment.normalize();
+        return segment;
+    }
+
+    // Compute voronoi edges tile by tile, so that very large polygons never
+    // need a single voronoi diagram of all their vertices.
+    // Each tile uses the sites of the preprocessed geometry located in the tile
+    // extended by twice the radius of the maximum inscribed circle. Voronoi
+    // vertices located inside the geometry are then the same in the tile
+    // diagram and in the global diagram. Each tile only keeps segments whose
+    // middle is in the tile, and partial skeletons are stitched together
+    // through their common vertices by the segment buffer.
+    // Tiles are submitted to the executor computing polygons, and the calling
+    // thread computes the tiles which are not started yet, so that the number
+    // of threads never exceeds P_THREADS, and waiting polygons never wait for
+    // a thread.
+    // Returns false if the geometry does not need to be tiled or if a tile
+    // diagram could not be computed.
+    private boolean getTiledVoronoiEdges(Geometry geometry, Geometry preprocessed,
+                                         SegmentBuffer edges, SkeletonContext ctx) {
+        if (!(geometry instanceof Polygon) || preprocessed.isEmpty()) return false;
+        double tolerance = Math.max(ctx.minWidth, ctx.meanWidth/10);
+        double radius = new MaximumInscribedCircle(geometry, tolerance).getRadiusLine().getLength();
+        double margin = 2 * (radius + tolerance);
+        Coordinate[] sites = preprocessed.getCoordinates();
+        Envelope extent = preprocessed.getEnvelopeInternal();
+        double tileSize = getDoubleParam(P_TILE_SIZE) > 0 ? getDoubleParam(P_TILE_SIZE) :
+                Math.sqrt(extent.getArea() * TILE_SITES / sites.length);
+        tileSize = Math.max(tileSize, margin);
+        final int cols = Math.max(1, (int)Math.ceil(extent.getWidth()/tileSize));
+        final int rows = Math.max(1, (int)Math.ceil(extent.getHeight()/tileSize));
+        if (cols * rows == 1) return false;
+        // dispatch sites to extended tiles
+        List<List<Coordinate>> tileSites = new ArrayList<>(cols*rows);
+        for (int k = 0 ; k < cols*rows ; k++) tileSites.add(new ArrayList<>());
+        for (Coordinate c : sites) {
+            int i0 = tileIndex(c.x - margin, extent.getMinX(), tileSize, cols);
+            int i1 = tileIndex(c.x + margin, extent.getMinX(), tileSize, cols);
+            int j0 = tileIndex(c.y - margin, extent.getMinY(), tileSize, rows);
+            int j1 = tileIndex(c.y + margin, extent.getMinY(), tileSize, rows);
+            for (int i = i0 ; i <= i1 ; i++) {
+                for (int j = j0 ; j <= j1 ; j++) tileSites.get(i*rows+j).add(c);
+            }
+        }
+        final double size = tileSize;
+        final double voronoiTolerance = Math.sqrt(preprocessed.getArea())/1000000;
+        List<FutureTask<double[]>> tasks = new ArrayList<>();
+        for (int i = 0 ; i < cols ; i++) {
+            for (int j = 0 ; j < rows ; j++) {
+                final int col = i, row = j;
+                final List<Coordinate> s = tileSites.get(i*rows+j);
+                if (s.size() < 3) continue;
+                tasks.add(new FutureTask<>(() -> {
+                    VoronoiDiagramBuilder voronoiBuilder = new VoronoiDiagramBuilder();
+                    voronoiBuilder.setTolerance(voronoiTolerance);
+                    voronoiBuilder.setSites(s);
+                    Envelope env = new Envelope(
+                            extent.getMinX() + col*size, extent.getMinX() + (col+1)*size,
+                            extent.getMinY() + row*size, extent.getMinY() + (row+1)*size);
+                    env.expandBy(2*margin);
+                    voronoiBuilder.setClipEnvelope(env);
+                    SegmentBuffer tileEdges = new SegmentBuffer();
+                    getEdges(voronoiBuilder.getDiagram(geometry.getFactory()), tileEdges);
+                    // keep segments whose middle is in this tile as x0,y0,x1,y1 quadruples
+                    double[] kept = new double[4*tileEdges.getSegmentCount()];
+                    int count = 0;
+                    for (int k = 0 ; k < tileEdges.getSegmentCount() ; k++) {
+                        int a = tileEdges.getSegmentStart(k);
+                        int b = tileEdges.getSegmentEnd(k);
+                        double mx = (tileEdges.getX(a) + tileEdges.getX(b))/2;
+                        double my = (tileEdges.getY(a) + tileEdges.getY(b))/2;
+                        if (tileIndex(mx, extent.getMinX(), size, cols) == col &&
+                                tileIndex(my, extent.getMinY(), size, rows) == row) {
+                            kept[count++] = tileEdges.getX(a);
+                            kept[count++] = tileEdges.getY(a);
+                            kept[count++] = tileEdges.getX(b);
+                            kept[count++] = tileEdges.getY(b);
+                        }
+                    }
+                    return Arrays.copyOf(kept, count);
+                }));
+            }
+        }
+        if (ctx.executor != null) {
+            try {
+                for (FutureTask<double[]> task : tasks) ctx.executor.execute(task);
+            } catch(RejectedExecutionException e) {
+                // executor is shut down : remaining tiles are computed below
+            }
+        }
+        List<double[]> tileSegments = new ArrayList<>();
+        try {
+            for (FutureTask<double[]> task : tasks) {
+                // does nothing if the task is already started by the executor
+                task.run();
+                tileSegments.add(task.get());
+            }
+        } catch(InterruptedException e) {
+            throw new CancellationException();
+        } catch(ExecutionException e) {
+            return false;
+        } finally {
+            for (FutureTask<double[]> task : tasks) task.cancel(false);
+        }
+        // a voronoi vertex shared by segments of two tiles is computed in each
+        // tile diagram, with possible rounding differences : vertices closer
+        // than voronoiTolerance are snapped together, so that partial
+        // skeletons are connected
+        VertexSnapper snapper = new VertexSnapper(voronoiTolerance);
+        for (double[] xy : tileSegments) {
+            for (int k = 0 ; k < xy.length ; k += 4) {
+                edges.addSegment(snapper.snap(xy[k], xy[k+1]), snapper.snap(xy[k+2], xy[k+3]));
+            }
+        }
+        return true;
+    }
+
+    // Returns the first snapped coordinate within tolerance of each new
+    // coordinate, using a grid of tolerance cells
+    private static class VertexSnapper {
+
+        private final double tolerance;
+        private final Map<Long,List<Coordinate>> cells = new HashMap<>();
+
+        VertexSnapper(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        Coordinate snap(double x, double y) {
+            Coordinate c = new Coordinate(x, y);
+            long i = (long)Math.floor(x / tolerance);
+            long j = (long)Math.floor(y / tolerance);
+            for (long di = -1 ; di <= 1 ; di++) {
+                for (long dj = -1 ; dj <= 1 ; dj++) {
+                    List<Coordinate> cell = cells.get(key(i + di, j + dj));
+                    if (cell == null) continue;
+                    for (Coordinate other : cell) {
+                        if (other.distance(c) <= tolerance) return other;
+                    }
+                }
+            }
+            cells.computeIfAbsent(key(i, j), k -> new ArrayList<>(1)).add(c);
+            return c;
+        }
+
+        private static long key(long i, long j) {
+            return i * 0x9E3779B97F4A7C15L + j;
+        }
+    }
+
+    private static int tileIndex(double value, double min, double tileSize, int count) {
+        return Math.max(0, Math.min(count - 1, (int)Math.floor((value - min)/tileSize)));
+    }
+
     // Get single line segments from the voronoi diagram
-    private void getEdges(Geometry geometry, Set<LineString> edges) {
+    private void getEdges(Geometry geometry, SegmentBuffer edges) {
         for (int i = 0 ; i < geometry.getNumGeometries() ; i++) {
             Geometry g = geometry.getGeometryN(i);
             if (g instanceof GeometryCollection) {
                 getEdges(g, edges);
             }
             else if (g.getDimension() == 1) {
-                addSegments((LineString)g, edges);
+                edges.addSegments(((LineString)g).getCoordinateSequence());
             }
             else if (g.getDimension() == 2){
                 Polygon p = (Polygon)g;
-                addSegments(p.getExteriorRing(), edges);
+                edges.addSegments(p.getExteriorRing().getCoordinateSequence());
                 for (int j = 0 ; j < p.getNumInteriorRing() ; j++) {
-                    addSegments(p.getInteriorRingN(j), edges);
+                    edges.addSegments(p.getInteriorRingN(j).getCoordinateSequence());
                 }
             }
             // do nothing for geometries of dimension 0 (points)
         }
     }
 
-    // Add every single segment of lineString to the set
-    private void addSegments(LineString lineString, Set<LineString> set) {
-        Coordinate[] cc = lineString.getCoordinates();
-        for (int i = 1 ; i < cc.length ; i++) {
-            LineString s = lineString.getFactory().createLineString(new Coordinate[]{cc[i-1], cc[i]});
-            s = (LineString)s.copy();
-            s.normalize();
-            set.add(s);
-        }
-    }
-
     // Keep only segments entirely located inside the geometry
     // This method is faster than a simple geometry.contains test.
     // We consider that edges issued from the voronoi diagram are simple line segments
@@ -363,78 +859,111 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
     // From this consideration, we can replace contains by pointInRing tests
     // On complex polygons (2800 pts) filter is by far the longest operation of
     // skeletisation and this method save up to 75% time.
-    private Set<LineString> filter(Geometry geometry, Set<LineString> list) {
-        Set<LineString> result = new HashSet<>();
+    // Ring locators are built once per polygon, and as each voronoi vertex is
+    // shared by several edges, the location of each vertex is computed once.
+    private void filter(Geometry geometry, SegmentBuffer edges) {
         if (geometry instanceof Polygon) {
             Polygon poly = (Polygon)geometry;
-            for (LineString line : list) {
-                Coordinate start = line.getCoordinateN(0);
-                Coordinate end = line.getCoordinateN(line.getNumPoints()-1);
-                IndexedPointInAreaLocator ipial =
-                        new IndexedPointInAreaLocator(poly.getExteriorRing());
-                //MCPointInRing mcpir = new MCPointInRing((LinearRing)poly.getExteriorRing());
-                if (ipial.locate(start) == Location.INTERIOR && ipial.locate(end) == Location.INTERIOR) {
-                    boolean inside = true;
-                    for (int i = 0 ; i < poly.getNumInteriorRing() ; i++) {
-                        ipial = new IndexedPointInAreaLocator(poly.getInteriorRingN(i));
-                        if (ipial.locate(start) == Location.INTERIOR || ipial.locate(end) == Location.INTERIOR) {
-                            inside = false;
-                            break;
-                        }
-                    }
-                    if (inside) result.add(line);
-                }
+            IndexedPointInAreaLocator shell = new IndexedPointInAreaLocator(poly.getExteriorRing());
+            IndexedPointInAreaLocator[] holes = new IndexedPointInAreaLocator[poly.getNumInteriorRing()];
+            for (int i = 0 ; i < holes.length ; i++) {
+                holes[i] = new IndexedPointInAreaLocator(poly.getInteriorRingN(i));
             }
-            return result;
+            Coordinate c = new Coordinate();
+            edges.retainSegments(v -> {
+                c.x = edges.getX(v);
+                c.y = edges.getY(v);
+                return isInside(c, shell, holes);
+            });
         } else throw new IllegalArgumentException(geometry.getGeometryType() + " argument is not authorized");
     }
 
+    // Returns true if c is in the interior of the shell and not in the interior of a hole
+    private boolean isInside(Coordinate c, IndexedPointInAreaLocator shell, IndexedPointInAreaLocator[] holes) {
+        if (shell.locate(c) != Location.INTERIOR) return false;
+        for (IndexedPointInAreaLocator hole : holes) {
+            if (hole.locate(c) == Location.INTERIOR) return false;
+        }
+        return true;
+    }
 
-    private Geometry skeletonize(Geometry geometry, List<Geometry> list) {
+
+    private Geometry skeletonize(Geometry geometry, List<Geometry> list, SkeletonContext ctx) {
 
         Object[] userData = new Object[2];
         int maxIterations = getIntegerParam(P_MAX_ITERATION);
 
         // 1 - Build voronoi diagram and extract the edges
-        Set<LineString> edges = new HashSet<>();
-        Geometry voronoi = getVoronoiDiagram(preprocess(geometry, 0), 0);
-        userData[1] = voronoi.getUserData();
-        getEdges(voronoi, edges);
+        SegmentBuffer segments = new SegmentBuffer();
+        // (or the chordal axis of a delaunay triangulation, which only contains
+        // edges located inside the preprocessed geometry)
+        Geometry preprocessed = preprocess(geometry, 0, ctx);
+        ctx.count("input_vertices", geometry.getNumPoints());
+        ctx.count("voronoi_sites", preprocessed.getNumPoints());
+        ctx.lap("preprocess_ms");
+        boolean chordalAxis = getBooleanParam(P_DELAUNAY) && getChordalAxis(preprocessed, segments);
+        // (or the voronoi diagram computed tile by tile for very large polygons)
+        boolean tiled = !chordalAxis && getBooleanParam(P_TILED) &&
+                getTiledVoronoiEdges(geometry, preprocessed, segments, ctx);
+        if (!chordalAxis && !tiled) {
+            Geometry voronoi = getVoronoiDiagram(preprocessed, 0, ctx);
+            userData[1] = getBooleanParam(P_DELAUNAY) ? "Delaunay calculation problem" : voronoi.getUserData();
+            ctx.lap("voronoi_ms");
+            getEdges(voronoi, segments);
+            ctx.lap("extraction_ms");
+        } else {
+            // edges are extracted while the chordal axis or the tiles are computed
+            ctx.lap("voronoi_ms");
+            ctx.lap("extraction_ms");
+        }
+        ctx.count("voronoi_edges", segments.getSegmentCount());
 
-        // 2 - Filter voronoi edges strictly included in the geometry
-        edges = filter(geometry, edges);
+        // 2 - Filter edges strictly included in the geometry
+        filter(geometry, segments);
+        ctx.count("filtered_edges", segments.getSegmentCount());
+        ctx.lap("filter_ms");
 
         // 3 - Merge filtered edges
-        LineMerger merger = new LineMerger();
-        merger.add(edges);
-        edges = new HashSet<LineString>(merger.getMergedLineStrings());
+        List<LineString> edges = segments.getMergedLines(geometry.getFactory());
+        ctx.count("merged_edges", edges.size());
+        ctx.lap("merge_ms");
 
-        if (displayVoronoiEdges) list.addAll(edges);
+        if (getBooleanParam(P_DISPLAY_VORONOI_EDGES)) list.addAll(edges);
 
-        // 4 - Compute the graph and iterate to eliminate edges
-        Pseudograph<INode,FeatureAsEdge> graph = getGraph(edges);
+        // 4 - Compute a mutable graph and iterate to eliminate edges
+        SkeletonGraph skeletonGraph = new SkeletonGraph(edges);
 
         // 5 - Simplify the graph iteratively
         // In each loop, the method eliminates the shortest branch of each fork
+        // Only nodes impacted by the previous loop are analyzed again
         int i;
-        Geometry boundary = geometry.getBoundary();
+        // boundary index is built once and reused for every distance query
+        BoundaryIndex boundary = new BoundaryIndex(geometry.getBoundary());
+        Collection<SkeletonGraph.Node> dirty = skeletonGraph.getNodes();
+        ctx.lap("index_ms");
         for (i = 0; i < maxIterations ; i++) {
-            int edgeNumber = graph.edgeSet().size();
-            graph = simplify(graph, boundary, true);
+            // the task is interrupted if the skeletonization is cancelled
+            if (Thread.currentThread().isInterrupted()) throw new CancellationException();
+            dirty = simplify(skeletonGraph, dirty, boundary, true, ctx);
+            ctx.metrics.merge("max_iteration_ms", ctx.lap("simplify_ms"),
+                    (a, b) -> Math.max(a.doubleValue(), b.doubleValue()));
             // if simplify() does not remove edges any more, break the loop
-            if (graph.edgeSet().size() == edgeNumber) break;
+            if (dirty.isEmpty()) break;
         }
-        graph = simplify(graph, boundary, false);
+        simplify(skeletonGraph, skeletonGraph.getNodes(), boundary, false, ctx);
         i++;
+        ctx.count("final_edges", skeletonGraph.getEdgeCount());
+        Pseudograph<INode,FeatureAsEdge> graph = getGraph(skeletonGraph.getLines(geometry.getFactory()));
+        ctx.lap("final_simplify_ms");
 
         // 6 - Beautify ends
         List<FeatureAsEdge> finalEdges = new ArrayList<>(graph.edgeSet());
         for (FeatureAsEdge f : finalEdges) {
-            f.setGeometry(TopologyPreservingSimplifier.simplify(f.getGeometry(), getDoubleParam(P_MIN_WIDTH)/5));
+            f.setGeometry(TopologyPreservingSimplifier.simplify(f.getGeometry(), ctx.minWidth/5));
             EdgeNodes nodes = new EdgeNodes(graph, f);
             if (nodes.srcDegree == 1) {
                 try {
-                    f.setGeometry(snapStart(f.getGeometry(), geometry.getBoundary(),
+                    f.setGeometry(snapStart(f.getGeometry(), boundary,
                             getBooleanParam(P_SNAP_TO_BOUNDARY)));
                 } catch(Exception e) {
                     userData[1] = "Snapping error";
@@ -442,7 +971,7 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
             }
             if (nodes.tgtDegree == 1) {
                 try {
-                    f.setGeometry(snapEnd(f.getGeometry(), geometry.getBoundary(),
+                    f.setGeometry(snapEnd(f.getGeometry(), boundary,
                             getBooleanParam(P_SNAP_TO_BOUNDARY)));
                 } catch(Exception e) {
                     userData[1] = "Snapping error";
@@ -450,26 +979,25 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
             }
         }
 
-        //System.out.println(String.format("simplify graph : %d", (System.currentTimeMillis() - t0) / 1000));
+        ctx.lap("snapping_ms");
 
         // 7 - Retourner une geometrie
         Geometry geom = graph2geometry(graph);
-        geom = TopologyPreservingSimplifier.simplify(geom, getDoubleParam(P_MIN_WIDTH)/5);
+        geom = TopologyPreservingSimplifier.simplify(geom, ctx.minWidth/5);
         userData[0] = i;
         if (geom.isEmpty()) userData[1] = "Empty";
         geom.setUserData(userData); // set the number of iteration used
+        ctx.lap("output_ms");
         return geom;
     }
 
-    private Geometry snapStart(Geometry edge, Geometry boundary, boolean snap) throws Exception {
+    private Geometry snapStart(Geometry edge, BoundaryIndex boundary, boolean snap) throws Exception {
         CoordinateList cl = new CoordinateList(edge.getCoordinates());
         Coordinate c0 = cl.getCoordinate(0);
         Coordinate c1 = cl.getCoordinate(1);
         double segmentLength = c0.distance(c1);
 
-        PointPairDistance ppd = new PointPairDistance();
-        DistanceToPoint.computeDistance(boundary, c1, ppd);
-        double localWidth = ppd.getDistance();
+        double localWidth = boundary.distance(c1);
 
         // Last segment c0-c1 is short compared to local mean width (distance between c1 and the boundary)
         if (segmentLength < localWidth*2 && edge.getNumPoints() > 2) {
@@ -478,37 +1006,35 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
             double angle = Angle.toDegrees(Angle.angleBetween(c2, c1, c0));
             // angle between two last segments on a square buffer is typically 135°
             if (snap && angle < 145) {
-                cl.set(0, extendTo(c2, c1, boundary, ppd.getDistance()/3));
+                cl.set(0, extendTo(c2, c1, boundary, localWidth/3));
             } else if (angle < 145) {
                 cl.remove(0);
             }
         } else if (snap){
-            cl.add(0, extendTo(c1, c0, boundary, ppd.getDistance()/3));
+            cl.add(0, extendTo(c1, c0, boundary, localWidth/3));
         }
         return edge.getFactory().createLineString(cl.toCoordinateArray());
     }
 
-    private Geometry snapEnd(Geometry edge, Geometry boundary, boolean snap) throws Exception {
+    private Geometry snapEnd(Geometry edge, BoundaryIndex boundary, boolean snap) throws Exception {
         CoordinateList cl = new CoordinateList(edge.getCoordinates());
         Coordinate c_0 = cl.getCoordinate(cl.size()-1);
         Coordinate c_1 = cl.getCoordinate(cl.size()-2);
         double segmentLength = c_0.distance(c_1);
 
-        PointPairDistance ppd = new PointPairDistance();
-        DistanceToPoint.computeDistance(boundary, c_1, ppd);
-        double localWidth = ppd.getDistance();
+        double localWidth = boundary.distance(c_1);
         // Last segment c_0-c_1 is short compared to local mean width (distance between c1 and the boundary)
         if (segmentLength < localWidth*2 && edge.getNumPoints() > 2) {
             Coordinate c_2 = cl.getCoordinate(cl.size()-3);
             double angle = Angle.toDegrees(Angle.angleBetween(c_2, c_1, c_0));
             // angle between two last segments on a square buffer is typically 135°
             if (snap && angle < 145) {
-                cl.set(cl.size()-1, extendTo(c_2, c_1, boundary, ppd.getDistance()/3));
+                cl.set(cl.size()-1, extendTo(c_2, c_1, boundary, localWidth/3));
             } else if (angle < 145){
                 cl.remove(cl.size()-1);
             }
         } else if (snap) {
-            cl.add(extendTo(c_1, c_0, boundary, ppd.getDistance()/3), false);
+            cl.add(extendTo(c_1, c_0, boundary, localWidth/3), false);
         }
         return edge.getFactory().createLineString(cl.toCoordinateArray());
     }
@@ -516,43 +1042,12 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
     // Extends c0-c1 segment until it crosses boundary.
     // Returns the first intersection or a coordinate of the boundary close to this intersection
     // if distance to the intersection is  < tol
-    private Coordinate extendTo(Coordinate c0, Coordinate c1, Geometry boundary, double tol) throws Exception {
-        Envelope env = boundary.getEnvelopeInternal();
-        double length = Math.max(env.getWidth(), env.getHeight());
-        double segmentLength = c0.distance(c1);
-        Coordinate c2 = new Coordinate(
-                c1.x + (c1.x-c0.x)*length/segmentLength,
-                c1.y + (c1.y-c0.y)*length/segmentLength);
-        Geometry intersection = boundary.getFactory().createLineString(new Coordinate[]{c1, c2}).intersection(boundary);
-        if (intersection.isEmpty()) {
+    private Coordinate extendTo(Coordinate c0, Coordinate c1, BoundaryIndex boundary, double tol) throws Exception {
+        Coordinate c3 = boundary.extend(c0, c1);
+        if (c3 == null) {
             throw new Exception("Extension of segment " + c0 + " - " + c1 + " does not intersect the geometry boundary");
         }
-        Coordinate c3 = intersection.getCoordinate();
-        if (intersection.getNumPoints() > 1) {
-            double min = c1.distance(c3);
-            for (Coordinate c : intersection.getCoordinates()) {
-                double d = c1.distance(c);
-                if (d < min) {
-                    min = d;
-                    c3 = c;
-                }
-            }
-        }
-        return snap(c3, boundary.getCoordinates(), tol);
-    }
-
-    // Snap c to one of cc if one of cc is close enough
-    private Coordinate snap(Coordinate c, Coordinate[] cc, double tol) {
-        double max2 = tol*tol;
-        Coordinate result = c;
-        for (Coordinate v : cc) {
-            double d2 = (c.x-v.x)*(c.x-v.x) + (c.y-v.y)*(c.y-v.y);
-            if (d2 < max2) {
-                max2 = d2;
-                result = v;
-            }
-        }
-        return result;
+        return boundary.snap(c3, tol);
     }
 
     private Geometry graph2geometry(Pseudograph<INode,FeatureAsEdge> graph) {
@@ -585,50 +1080,43 @@ public class SkeletonPlugIn extends AbstractThreadedUiPlugIn {
 
 
     // Main method for simplification of the skeleton
-    private Pseudograph<INode,FeatureAsEdge> simplify(
-            Pseudograph<INode,FeatureAsEdge> graph, Geometry boundary, boolean iterative) {
-        if (graph.edgeSet().size()==1) return graph;
-        Set<FeatureAsEdge> featuresToremove = new HashSet<>();
-        // Traverse all nodes but skip nodes with at least two incident edges linked
+    // The graph is pruned in place : removed branches are detached and the
+    // remaining edges of their fork are merged, without rebuilding the graph.
+    // Returns the nodes impacted by the simplification, which are the only
+    // ones to be analyzed in the next iteration (empty if no edge was removed)
+    private Set<SkeletonGraph.Node> simplify(SkeletonGraph graph, Collection<SkeletonGraph.Node> nodes,
+                                             BoundaryIndex boundary, boolean iterative, SkeletonContext ctx) {
+        if (graph.getEdgeCount()==1) return Collections.emptySet();
+        Set<SkeletonGraph.Edge> edgesToRemove = new LinkedHashSet<>();
+        // Traverse nodes but skip nodes with at least two incident edges linked
         // to another edges
-        for (INode node : graph.vertexSet()) {
-            if (graph.degreeOf(node) > 2) { // skip nodes of degree 1
-                FeatureAsEdge candidateForRemoval = null;
+        for (SkeletonGraph.Node node : nodes) {
+            if (node.degree() > 2) { // skip nodes of degree 1
+                SkeletonGraph.Edge candidateForRemoval = null;
                 // We'll analyze terminal segments and try to eliminate the one with the worst coefficient
                 double worst = 0;
                 // We need to count nonTerminal adjacent segments to skip nodes
                 // located in the middle of the graph
                 int nonTerminalSegmentNumber = 0;
                 // Iterates through incident edges
-                for (FeatureAsEdge e : graph.edgesOf(node)) {
-                    EdgeNodes nodes = new EdgeNodes(graph, e);
-                    if (nodes.nbOfDegreeN()==2) nonTerminalSegmentNumber++;
+                for (SkeletonGraph.Edge e : node.edges) {
+                    if (e.nbOfDegreeN()==2) nonTerminalSegmentNumber++;
                     if (nonTerminalSegmentNumber>1 && iterative) break;
-                    if (nodes.nbOfDegree1() != 1) continue;
-                    if (e.getGeometry().getLength() > getMinForkLength()) continue;
-                    PointPairDistance ppd = new PointPairDistance();
-                    DistanceToPoint.computeDistance(boundary, nodes.getDegree1().getCoordinate(), ppd);
-                    double coeff = ppd.getDistance() / e.getGeometry().getLength();
+                    if (e.nbOfDegree1() != 1) continue;
+                    if (e.length > ctx.getMinForkLength()) continue;
+                    double coeff = boundary.distance(e.getDegree1().coordinate) / e.length;
                     if (coeff > worst) {
                         worst = coeff;
                         candidateForRemoval = e;
                     }
                 }
                 if (candidateForRemoval != null && (!iterative || nonTerminalSegmentNumber < 2)) {
-                    featuresToremove.add(candidateForRemoval);
-                    //debugGeometries.add(candidateForRemoval.getGeometry());
+                    edgesToRemove.add(candidateForRemoval);
                 }
             }
         }
-        graph.removeAllEdges(featuresToremove);
-
-        // merge lines after simplification
-        Geometry geom = graph2geometry(graph);
-        List<LineString> edges = LineStringExtracter.getLines(geom);
-        LineMerger merger = new LineMerger();
-        merger.add(edges);
-        edges = (List<LineString>)merger.getMergedLineStrings();
-        return getGraph(edges);
+        if (edgesToRemove.isEmpty()) return Collections.emptySet();
+        return graph.removeEdges(edgesToRemove);
     }
 
     // A class wrapping both nodes of a edge with their degree
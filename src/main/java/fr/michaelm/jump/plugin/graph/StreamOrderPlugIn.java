@@ -19,16 +19,30 @@ import org.jgrapht.graph.DirectedWeightedPseudograph;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * Compute <a href="http://en.wikipedia.org/wiki/Strahler_number">Strahler Numbers</a>
  * on a graph edges.
  */
-public class StreamOrderPlugIn extends ThreadedBasePlugIn {
+public class StreamOrderPlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
 
     private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
 
+    static final String P_LAYER            = "Layer";
+    static final String P_OLD_ALGO         = "OldAlgorithm";
+    static final String P_SHREVE           = "Shreve";
+    static final String P_METRICS          = "Metrics";
+    static final String P_LENGTH_ATTRIBUTE = "LengthAttribute"; // null for geometry length
+    static final String P_HORTON           = "Horton";
+    static final String P_HACK             = "Hack";
+    static final String P_EXPORT_FILE      = "ExportFile";  // headless only, null for no export
+    static final String P_EXPORT_ONLY      = "ExportOnly";  // headless only
+
     private static String LAYER;
 
     private static String STREAM_ORDER;
@@ -69,13 +83,16 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
     int lengthAttributeIndex;
     boolean lengthAttributeIsGeometry;
 
-
-    public String getName() {return "Graph nodes PlugIn";}
-
-    @Override
-    public void initialize(final PlugInContext context) {
-
-        String GRAPH            = i18n.get("Graph");
+    {
+        addParameter(P_LAYER,            null);
+        addParameter(P_OLD_ALGO,         false);
+        addParameter(P_SHREVE,           false);
+        addParameter(P_METRICS,          false);
+        addParameter(P_LENGTH_ATTRIBUTE, null);
+        addParameter(P_HORTON,           false);
+        addParameter(P_HACK,             false);
+        addParameter(P_EXPORT_FILE,      null);
+        addParameter(P_EXPORT_ONLY,      false);
 
         LAYER                   = I18N.getInstance().get("ui.GenericNames.LAYER");
         GRAPH_COMPUTATION       = i18n.get("Graph-computation");
@@ -88,6 +105,13 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
         LENGTH_ATTRIBUTE        = i18n.get("StreamOrderPlugIn.length-attribute");
         HORTON_TT               = i18n.get("StreamOrderPlugIn.horton-tt");
         HACK_TT                 = i18n.get("StreamOrderPlugIn.hack-tt");
+    }
+
+    public String getName() {return "Graph nodes PlugIn";}
+
+    @Override
+    public void initialize(final PlugInContext context) {
+        String GRAPH            = i18n.get("Graph");
 
         context.getFeatureInstaller().addMainMenuPlugin(
                 this, new String[]{MenuNames.PLUGINS, GRAPH},
@@ -116,16 +140,99 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
                     layer.getFeatureCollectionWrapper().getFeatureSchema().getGeometryIndex();
             hack = dialog.getBoolean(HACK);
             horton = dialog.getBoolean(HORTON);
+
+            addParameter(P_LAYER,            layer.getName());
+            addParameter(P_OLD_ALGO,         old_algo);
+            addParameter(P_SHREVE,           shreve);
+            addParameter(P_METRICS,          metrics);
+            addParameter(P_LENGTH_ATTRIBUTE, lengthAttributeIsGeometry ? null : lengthAttribute);
+            addParameter(P_HORTON,           horton);
+            addParameter(P_HACK,             hack);
             return true;
         }
         else return false;
     }
 
-    public void run(TaskMonitor monitor, PlugInContext context) {
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
+        FeatureCollection resultFC = run(monitor, layer.getFeatureCollectionWrapper()).get("strahler");
+        if (resultFC == null) return;
+
+        context.getLayerManager().addLayer(StandardCategoryNames.RESULT, layer.getName()+"-strahler",resultFC);
+        Layer resultLayer = context.getLayerManager().getLayer(layer.getName() + "-strahler");
+        // Styling
+        layer.setVisible(false);
+        resultLayer.getBasicStyle().setEnabled(false);
+        resultLayer.addStyle(getColorThemingStyle());
+    }
+
+    /**
+     * Computes stream orders of dataset edges according to the plugin
+     * parameters. The result map contains a copy of dataset with the computed
+     * attributes, keyed by the result layer suffix ("strahler").
+     * <p>If P_EXPORT_FILE is set, the computed orders and metrics are also
+     * written to this file (see ColumnarExport), record i being the edge
+     * of feature i of dataset, whose FID is written in the first column.
+     * If P_EXPORT_ONLY is true, the result map is empty, as it is if monitor
+     * has been cancelled. The export is not offered by the dialog : it is
+     * meant for headless runs on large networks.</p>
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) throws IOException {
         monitor.allowCancellationRequests();
         monitor.report(GRAPH_COMPUTATION + "...");
 
-        FeatureCollection sourceFC = layer.getFeatureCollectionWrapper();
+        FeatureSchema schema = dataset.getFeatureSchema();
+        old_algo = getBooleanParam(P_OLD_ALGO);
+        shreve   = getBooleanParam(P_SHREVE);
+        metrics  = getBooleanParam(P_METRICS);
+        horton   = getBooleanParam(P_HORTON);
+        hack     = getBooleanParam(P_HACK);
+        lengthAttribute = getStringParam(P_LENGTH_ATTRIBUTE);
+        if (lengthAttribute != null && !schema.hasAttribute(lengthAttribute)) {
+            throw new IllegalArgumentException("Dataset has no attribute named " + lengthAttribute);
+        }
+        lengthAttributeIndex = lengthAttribute == null ?
+                schema.getGeometryIndex() : schema.getAttributeIndex(lengthAttribute);
+        lengthAttributeIsGeometry = lengthAttributeIndex == schema.getGeometryIndex();
+
+        FeatureCollection resultFC = computeStreamOrders(monitor, dataset);
+        if (monitor.isCancelRequested()) return new LinkedHashMap<>();
+        String exportFile = getStringParam(P_EXPORT_FILE);
+        if (exportFile != null) {
+            List<Feature> features = dataset.getFeatures();
+            int[] ids = new int[features.size()];
+            for (int i = 0 ; i < ids.length ; i++) ids[i] = features.get(i).getID();
+            exportStreamOrders(resultFC, ids, new File(exportFile));
+        }
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        if (exportFile == null || !getBooleanParam(P_EXPORT_ONLY)) {
+            result.put("strahler", resultFC);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the orders and metrics computed in resultFC (the result of
+     * computeStreamOrders) to a columnar binary file, ids being the FIDs of
+     * the source features.
+     */
+    void exportStreamOrders(FeatureCollection resultFC, int[] ids, File file) throws IOException {
+        List<String> columns = new ArrayList<>();
+        for (String name : new String[]{STRAHLER, SHREVE, HORTON, HACK_DIST_ORDER, HACK_FLOW_ORDER,
+                HACK_DF_ORDER, MAX_DIST, FLOW_ACC, HACK_DIST, HACK_FLOW, HACK_DF, MOUTH_DISTANCE}) {
+            if (resultFC.getFeatureSchema().hasAttribute(name)) columns.add(name);
+        }
+        ColumnarExport.write(file, resultFC, ids, columns);
+    }
+
+    /**
+     * Computes stream orders of sourceFC edges according to the plugin fields
+     * (old_algo, shreve, metrics, horton, hack and length attribute) and
+     * returns a copy of sourceFC with the computed attributes (incomplete if
+     * monitor has been cancelled).
+     * <p>Does not need a PlugInContext (used by benchmarks).</p>
+     */
+    FeatureCollection computeStreamOrders(TaskMonitor monitor, FeatureCollection sourceFC) {
 
         // Creates the schema for the output dataset (nodes)
         final FeatureSchema newSchema = sourceFC.getFeatureSchema().clone();
@@ -156,51 +263,61 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
         DirectedWeightedPseudograph<INode,FeatureAsEdge> graph =
                 GraphFactory.createDirectedGraph(resultFC.getFeatures(), false);
 
-        int count = 0;
-        int total = resultFC.size();
-        for (FeatureAsEdge arc : graph.edgeSet()) {
-            if (arc.getAttribute(STRAHLER) != null) continue;
-            if (old_algo) computeLegacyStrahlerOrder(graph, arc);
-            else computeNewStrahlerOrder(graph, arc);
-            monitor.report(count++, total, " features processed (Strahler)");
-        }
-        // Change -1 (cycles or cycle successors) to null
-        for (FeatureAsEdge arc : graph.edgeSet()) {
-            Object order = arc.getAttribute(STRAHLER);
-            if (order != null && (Integer)order == -1) {
-                arc.setAttribute(STRAHLER,null);
-            }
-        }
-        if (metrics) {
-            int maxDistIdx = newSchema.getAttributeIndex(MAX_DIST);
-            int flowAccIdx = newSchema.getAttributeIndex(FLOW_ACC);
+        try {
+            int total = graph.edgeSet().size();
+            ProgressReporter progress = new ProgressReporter(monitor, total, "features processed (Strahler)");
+            int count = 0;
             for (FeatureAsEdge arc : graph.edgeSet()) {
-                if (arc.getAttribute(MAX_DIST) != null) continue;
-                computeMaxLengthAndFlowAcc(graph, arc, maxDistIdx, flowAccIdx);
-                monitor.report(count++, total, " features processed (max dist /flow accumulation)");
+                if (monitor.isCancelRequested()) return resultFC;
+                progress.report(count++);
+                if (arc.getAttribute(STRAHLER) != null) continue;
+                if (old_algo) computeLegacyStrahlerOrder(monitor, graph, arc);
+                else computeNewStrahlerOrder(monitor, graph, arc);
             }
-            if (horton) {
-                for (FeatureAsEdge arc : graph.edgeSet()) {
-                    if (arc.getAttribute(HORTON) != null) continue;
-                    computeHortonStreamOrder(graph, arc);
-                    monitor.report(count++, total, " features processed (Horton)");
+            // Change -1 (cycles or cycle successors) to null
+            for (FeatureAsEdge arc : graph.edgeSet()) {
+                Object order = arc.getAttribute(STRAHLER);
+                if (order != null && (Integer)order == -1) {
+                    arc.setAttribute(STRAHLER,null);
                 }
             }
-            if (hack) {
+            if (metrics) {
+                int maxDistIdx = newSchema.getAttributeIndex(MAX_DIST);
+                int flowAccIdx = newSchema.getAttributeIndex(FLOW_ACC);
+                progress = new ProgressReporter(monitor, total, "features processed (max dist /flow accumulation)");
+                count = 0;
                 for (FeatureAsEdge arc : graph.edgeSet()) {
-                    if (arc.getAttribute(HACK_DIST_ORDER) != null) continue;
-                    computeHackStreamOrder(graph, arc);
-                    monitor.report(count++, total, " features processed (Hack)");
+                    if (monitor.isCancelRequested()) return resultFC;
+                    progress.report(count++);
+                    if (arc.getAttribute(MAX_DIST) != null) continue;
+                    computeMaxLengthAndFlowAcc(monitor, graph, arc, maxDistIdx, flowAccIdx);
+                }
+                if (horton) {
+                    progress = new ProgressReporter(monitor, total, "features processed (Horton)");
+                    count = 0;
+                    for (FeatureAsEdge arc : graph.edgeSet()) {
+                        if (monitor.isCancelRequested()) return resultFC;
+                        progress.report(count++);
+                        if (arc.getAttribute(HORTON) != null) continue;
+                        computeHortonStreamOrder(monitor, graph, arc);
+                    }
+                }
+                if (hack) {
+                    progress = new ProgressReporter(monitor, total, "features processed (Hack)");
+                    count = 0;
+                    for (FeatureAsEdge arc : graph.edgeSet()) {
+                        if (monitor.isCancelRequested()) return resultFC;
+                        progress.report(count++);
+                        if (arc.getAttribute(HACK_DIST_ORDER) != null) continue;
+                        computeHackStreamOrder(monitor, graph, arc);
+                    }
                 }
             }
+        } catch(CancellationException e) {
+            // monitor has been cancelled in the middle of a recursive computation
+            return resultFC;
         }
-
-        context.getLayerManager().addLayer(StandardCategoryNames.RESULT, layer.getName()+"-strahler",resultFC);
-        Layer resultLayer = context.getLayerManager().getLayer(layer.getName() + "-strahler");
-        // Styling
-        layer.setVisible(false);
-        resultLayer.getBasicStyle().setEnabled(false);
-        resultLayer.addStyle(getColorThemingStyle());
+        return resultFC;
     }
 
 
@@ -216,10 +333,13 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
      * stream order of the downstream edge will not be incremented.
      * In computeStreamOrder3, the downstream edge will not be incremented only if a and
      * b have the same segment head (see comments in computeStreamOrder3 method).
+     * Downstream edges are not computed any more once monitor is cancelled.
+     * @param monitor task monitor
      * @param graph base graph
      * @param arc edge to compute
      */
-    private void computeLegacyStrahlerOrder(DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
+    private void computeLegacyStrahlerOrder(TaskMonitor monitor,
+                                   DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
                                    FeatureAsEdge arc) {
 
         int maxOrder = 0;
@@ -261,12 +381,14 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
             //if (metrics) arc.setAttribute(FLOW_ACC, calculateFlowAccumulation(graph, arc));
         }
         // Try to compute stream order recursively on all downstream edges
+        // (unless monitor has been cancelled)
+        if (monitor.isCancelRequested()) return;
         Set<FeatureAsEdge> downStreams = graph.outgoingEdgesOf(graph.getEdgeTarget(arc));
 
         for (FeatureAsEdge downStream : downStreams) {
             // In case of anastomosis, compute the downstream edge only once
             if (downStream.getAttribute(STRAHLER) == null) {
-                computeLegacyStrahlerOrder(graph, downStream);
+                computeLegacyStrahlerOrder(monitor, graph, downStream);
             }
         }
     }
@@ -307,8 +429,12 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
     // A FAST RECURSIVE GIS ALGORITHM FOR COMPUTING STRAHLER STREAM ORDER
     // IN BRAIDED AND NON BRAIDED NETWORKS
     // Alexander Gleyzer, Michael Denisyuk, Alon Rimmer, and Yigal Salingar (2004)
-    private void computeNewStrahlerOrder(DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
+    // Throws a CancellationException once monitor has been cancelled (as do the
+    // metrics, Horton and Hack recursions)
+    private void computeNewStrahlerOrder(TaskMonitor monitor,
+                                     DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
                                      FeatureAsEdge arc) {
+        if (monitor.isCancelRequested()) throw new CancellationException();
 
         Object strahlerOrder = arc.getAttribute(STRAHLER);
         // If arc already has a positive stream order, don't process it again
@@ -326,7 +452,7 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
         boolean cycle = false;
         for (FeatureAsEdge upStream : upStreams) {
             // Visit/compute ancestors recursively
-            computeNewStrahlerOrder(graph, upStream);
+            computeNewStrahlerOrder(monitor, graph, upStream);
             // Post order : check that current stream is not part of a cycle
             // if upstream == -1, it means it has already been initialized in the context
             // of this recursive process (cycle)
@@ -387,8 +513,10 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
 
     }
 
-    private void computeMaxLengthAndFlowAcc(DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
+    private void computeMaxLengthAndFlowAcc(TaskMonitor monitor,
+                                            DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
                                             FeatureAsEdge arc, int maxDistIdx, int flowAccIdx) {
+        if (monitor.isCancelRequested()) throw new CancellationException();
         // Interrupt infinite recursion in case of cycle
         if (arc.getAttribute(MAX_DIST) != null) return;
         arc.setAttribute(MAX_DIST, getLength(arc));
@@ -397,7 +525,7 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
         Set<FeatureAsEdge> upStreams = graph.incomingEdgesOf(graph.getEdgeSource(arc));
         // Visit/compute ancestors recursively
         for (FeatureAsEdge upStream : upStreams) {
-            computeMaxLengthAndFlowAcc(graph, upStream, maxDistIdx, flowAccIdx);
+            computeMaxLengthAndFlowAcc(monitor, graph, upStream, maxDistIdx, flowAccIdx);
         }
         // We are now in the normal situation of an edge whith all its ancestors computed
         double maxMaxDist = 0;
@@ -428,8 +556,10 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
                 s / graph.outDegreeOf(graph.getEdgeSource(arc));
     }
 
-    private void computeHortonStreamOrder(DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
+    private void computeHortonStreamOrder(TaskMonitor monitor,
+                                       DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
                                        FeatureAsEdge arc) {
+        if (monitor.isCancelRequested()) throw new CancellationException();
         // Horton's computation needs Strahler order
         if (arc.getAttribute(STRAHLER) == null) return;
         if (graph.outDegreeOf(graph.getEdgeTarget(arc)) == 0) {
@@ -440,7 +570,7 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
             for (FeatureAsEdge d : downStreams) {
                 // Calculate Horton order of successors first
                 if (d.getAttribute(HORTON) == null) {
-                    computeHortonStreamOrder(graph, d);
+                    computeHortonStreamOrder(monitor, graph, d);
                 }
                 Object h = d.getAttribute(HORTON);
                 if (h == null) continue;
@@ -474,8 +604,10 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
         }
     }
 
-    private void computeHackStreamOrder(DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
+    private void computeHackStreamOrder(TaskMonitor monitor,
+                                          DirectedWeightedPseudograph<INode,FeatureAsEdge> graph,
                                           FeatureAsEdge arc) {
+        if (monitor.isCancelRequested()) throw new CancellationException();
         arc.setAttribute(HACK_DIST_ORDER, Integer.MAX_VALUE);
         arc.setAttribute(HACK_FLOW_ORDER, Integer.MAX_VALUE);
         if (graph.outDegreeOf(graph.getEdgeTarget(arc)) == 0) {
@@ -492,7 +624,7 @@ public class StreamOrderPlugIn extends ThreadedBasePlugIn {
             for (FeatureAsEdge d : downStreams) {
                 // Calculate Hack order of successors first
                 if (d.getAttribute(HACK_DIST_ORDER) == null || d.getAttribute(HACK_FLOW_ORDER) == null) {
-                    computeHackStreamOrder(graph, d);
+                    computeHackStreamOrder(monitor, graph, d);
                 }
                 // cycle detection
                 Object hdo = d.getAttribute(HACK_DIST_ORDER);
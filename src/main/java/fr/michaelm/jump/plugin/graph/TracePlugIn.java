@@ -0,0 +1,236 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.I18N;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.TaskMonitor;
+import com.vividsolutions.jump.workbench.model.Layer;
+import com.vividsolutions.jump.workbench.plugin.MultiEnableCheck;
+import com.vividsolutions.jump.workbench.plugin.PlugInContext;
+import com.vividsolutions.jump.workbench.plugin.ThreadedBasePlugIn;
+import com.vividsolutions.jump.workbench.ui.GUIUtil;
+import com.vividsolutions.jump.workbench.ui.MenuNames;
+import com.vividsolutions.jump.workbench.ui.MultiInputDialog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntFunction;
+
+/**
+ * Selects the edges upstream and/or downstream of the selected edges of a
+ * directed linear network. Queries are answered by the ReachabilityIndex of
+ * the layer, built once and shared through the graph registry until the
+ * layer changes : tracing from another edge (selected with the selection
+ * tool) does not traverse the network again.
+ */
+public class TracePlugIn extends ThreadedBasePlugIn implements HeadlessPlugIn {
+
+    private final I18N i18n = I18N.getInstance("fr.michaelm.jump.plugin.graph");
+
+    static final String P_LAYER          = "Layer";
+    static final String P_GRAPH_3D       = "Graph3D";
+    static final String P_UPSTREAM       = "Upstream";
+    static final String P_DOWNSTREAM     = "Downstream";
+    static final String P_SEED_ATTRIBUTE = "SeedAttribute";  // headless only
+    static final String P_SEED_VALUE     = "SeedValue";      // headless only
+
+    private static String LAYER;
+    private static String GRAPH;
+    private static String GRAPH_COMPUTATION;
+    private static String TRACE;
+    private static String DIM3;
+    private static String DIM3_TOOLTIP;
+    private static String UPSTREAM;
+    private static String DOWNSTREAM;
+    private static String NO_SELECTED_EDGE;
+
+    {
+        addParameter(P_LAYER,          null);
+        addParameter(P_GRAPH_3D,       false);
+        addParameter(P_UPSTREAM,       true);
+        addParameter(P_DOWNSTREAM,     false);
+        addParameter(P_SEED_ATTRIBUTE, null);
+        addParameter(P_SEED_VALUE,     null);
+
+        LAYER             = i18n.get("Layer");
+        GRAPH             = i18n.get("Graph");
+        GRAPH_COMPUTATION = i18n.get("Graph-computation");
+        TRACE             = i18n.get("TracePlugIn");
+        DIM3              = i18n.get("dim3");
+        DIM3_TOOLTIP      = i18n.get("dim3-tooltip");
+        UPSTREAM          = i18n.get("TracePlugIn.upstream");
+        DOWNSTREAM        = i18n.get("TracePlugIn.downstream");
+        NO_SELECTED_EDGE  = i18n.get("TracePlugIn.no-selected-edge");
+    }
+
+    @Override
+    public void initialize(final PlugInContext context) {
+        context.getFeatureInstaller().addMainMenuPlugin(
+                this, new String[]{MenuNames.PLUGINS, GRAPH},
+                TRACE + "...",
+                false, null, new MultiEnableCheck()
+                        .add(context.getCheckFactory().createWindowWithAssociatedTaskFrameMustBeActiveCheck())
+                        .add(context.getCheckFactory().createAtLeastNFeaturesMustBeSelectedCheck(1)));
+    }
+
+    @Override
+    public boolean execute(PlugInContext context) {
+        final MultiInputDialog dialog = new MultiInputDialog(
+                context.getWorkbenchFrame(), TRACE, true);
+        dialog.setSideBarDescription(i18n.get("TracePlugIn.description"));
+        Layer candidate = context.getLayerViewPanel().getSelectionManager()
+                .getLayersWithSelectedItems().iterator().next();
+        dialog.addLayerComboBox(LAYER, candidate, null, context.getLayerManager());
+        dialog.addCheckBox(DIM3, getBooleanParam(P_GRAPH_3D), DIM3_TOOLTIP);
+        dialog.addCheckBox(UPSTREAM, getBooleanParam(P_UPSTREAM));
+        dialog.addCheckBox(DOWNSTREAM, getBooleanParam(P_DOWNSTREAM));
+        GUIUtil.centreOnWindow(dialog);
+        dialog.setVisible(true);
+        if (dialog.wasOKPressed()) {
+            addParameter(P_LAYER,      dialog.getLayer(LAYER).getName());
+            addParameter(P_GRAPH_3D,   dialog.getBoolean(DIM3));
+            addParameter(P_UPSTREAM,   dialog.getBoolean(UPSTREAM));
+            addParameter(P_DOWNSTREAM, dialog.getBoolean(DOWNSTREAM));
+            return true;
+        }
+        else return false;
+    }
+
+    public void run(TaskMonitor monitor, PlugInContext context) throws Exception {
+        Layer layer = context.getLayerManager().getLayer(getStringParam(P_LAYER));
+        if (layer == null) throw new Exception("Layer " + getStringParam(P_LAYER) + " has not been found");
+        Collection<Feature> selection = context.getLayerViewPanel().getSelectionManager()
+                .getFeaturesWithSelectedItems(layer);
+        monitor.report(GRAPH_COMPUTATION + "...");
+        ReachabilityIndex index = GraphExtension.getGraphRegistry()
+                .getReachabilityIndex(layer, getBooleanParam(P_GRAPH_3D));
+        int[] seeds = getEdges(index, selection);
+        if (seeds.length == 0) {
+            context.getWorkbenchFrame().warnUser(NO_SELECTED_EDGE);
+            return;
+        }
+        FeatureCollection dataset = layer.getFeatureCollectionWrapper();
+        List<Feature> features = dataset.getFeatures();
+        Set<Feature> traced = new LinkedHashSet<>();
+        for (FeatureCollection fc : trace(index, dataset.getFeatureSchema(), features::get, seeds).values()) {
+            traced.addAll(fc.getFeatures());
+        }
+        context.getLayerViewPanel().getSelectionManager().getFeatureSelection().unselectItems();
+        context.getLayerViewPanel().getSelectionManager().getFeatureSelection().selectItems(layer, traced);
+    }
+
+    /**
+     * Traces the edges upstream and/or downstream of the features of dataset
+     * whose P_SEED_ATTRIBUTE value is equal to P_SEED_VALUE (compared as
+     * strings). The result map contains the "upstream" and/or "downstream"
+     * features of dataset, seeds included.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, FeatureCollection dataset) {
+        String attribute = getStringParam(P_SEED_ATTRIBUTE);
+        if (attribute == null || !dataset.getFeatureSchema().hasAttribute(attribute)) {
+            throw new IllegalArgumentException("Dataset has no attribute named " + attribute);
+        }
+        String value = getStringParam(P_SEED_VALUE);
+        List<Feature> features = dataset.getFeatures();
+        List<Feature> selection = new ArrayList<>();
+        for (Feature feature : features) {
+            Object v = feature.getAttribute(attribute);
+            if (v != null && v.toString().equals(value)) selection.add(feature);
+        }
+        monitor.report(GRAPH_COMPUTATION + "...");
+        boolean dim3 = getBooleanParam(P_GRAPH_3D);
+        ReachabilityIndex index = new ReachabilityIndex(
+                GraphCache.getGraph(features, null, false, dim3), features);
+        return trace(index, dataset.getFeatureSchema(), features::get, getEdges(index, selection));
+    }
+
+    /**
+     * Traces the edges upstream and/or downstream of the records of a linear
+     * shapefile whose P_SEED_ATTRIBUTE value is equal to P_SEED_VALUE, as
+     * run(TaskMonitor, FeatureCollection). The graph is streamed from the
+     * file (see ShapefileGraphReader) and only the traced records are read.
+     * The result map is empty if monitor has been cancelled.
+     */
+    public Map<String,FeatureCollection> run(TaskMonitor monitor, File shapefile) throws IOException {
+        String attribute = getStringParam(P_SEED_ATTRIBUTE);
+        try (ShapefileGraphReader reader = new ShapefileGraphReader(shapefile)) {
+            if (attribute == null || !reader.getFeatureSchema().hasAttribute(attribute)) {
+                throw new IllegalArgumentException("Shapefile has no attribute named " + attribute);
+            }
+            monitor.report(GRAPH_COMPUTATION + "...");
+            boolean dim3 = getBooleanParam(P_GRAPH_3D);
+            GraphCache cache = GraphCache.getDefault();
+            CompactGraph graph = cache == null ?
+                    reader.readGraph(monitor, null, false, dim3) :
+                    cache.get(GraphCache.key(shapefile, null, false, dim3),
+                            () -> reader.readGraph(monitor, null, false, dim3));
+            ReachabilityIndex index = new ReachabilityIndex(graph, null);
+            // edge of each record (null shapes have no edge)
+            int[] recordEdges = new int[reader.getRecordCount()];
+            Arrays.fill(recordEdges, -1);
+            for (int e = 0 ; e < graph.getEdgeCount() ; e++) recordEdges[graph.getFeatureIndex(e)] = e;
+            int[] records = reader.findRecords(attribute, getStringParam(P_SEED_VALUE));
+            int[] seeds = new int[records.length];
+            int count = 0;
+            for (int record : records) {
+                if (recordEdges[record] >= 0) seeds[count++] = recordEdges[record];
+            }
+            return trace(index, reader.getFeatureSchema(), record -> {
+                try {
+                    return reader.getFeature(record);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, Arrays.copyOf(seeds, count));
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        } catch(CancellationException e) {
+            // the truncated graph has not been cached
+            return new LinkedHashMap<>();
+        }
+    }
+
+    private static int[] getEdges(ReachabilityIndex index, Collection<Feature> selection) {
+        int[] edges = new int[selection.size()];
+        int count = 0;
+        for (Feature feature : selection) {
+            int edge = index.getEdge(feature);
+            if (edge >= 0) edges[count++] = edge;
+        }
+        return Arrays.copyOf(edges, count);
+    }
+
+    // features returns the feature of a feature index of the graph
+    private Map<String,FeatureCollection> trace(ReachabilityIndex index, FeatureSchema schema,
+                                                IntFunction<Feature> features, int[] seeds) {
+        Map<String,FeatureCollection> result = new LinkedHashMap<>();
+        if (getBooleanParam(P_UPSTREAM)) {
+            result.put("upstream", getFeatures(index, schema, features, index.trace(seeds, false)));
+        }
+        if (getBooleanParam(P_DOWNSTREAM)) {
+            result.put("downstream", getFeatures(index, schema, features, index.trace(seeds, true)));
+        }
+        return result;
+    }
+
+    private static FeatureCollection getFeatures(ReachabilityIndex index, FeatureSchema schema,
+                                                 IntFunction<Feature> features, int[] edges) {
+        FeatureCollection fc = new FeatureDataset(schema);
+        for (int edge : edges) {
+            fc.add(features.apply(index.getGraph().getFeatureIndex(edge)));
+        }
+        return fc;
+    }
+}
@@ -0,0 +1,56 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.FeatureCollection;
+import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
+import fr.michaelm.jump.feature.jgrapht.GraphFactory;
+import fr.michaelm.jump.feature.jgrapht.INode;
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactGraphTest {
+
+  @Test
+  public void testSameTopologyAsGraphFactory() {
+    FeatureCollection fc = NetworkGenerator.roadGrid(8, 9, 20, 1L);
+    CompactGraph graph = CompactGraph.create(fc.getFeatures(), null, false, false);
+    DirectedWeightedPseudograph<INode,FeatureAsEdge> jgraph =
+        GraphFactory.createDirectedGraph(fc.getFeatures(), false);
+    Assert.assertEquals(jgraph.vertexSet().size(), graph.getNodeCount());
+    Assert.assertEquals(jgraph.edgeSet().size(), graph.getEdgeCount());
+    int dangles = 0;
+    for (int n = 0 ; n < graph.getNodeCount() ; n++) {
+      if (graph.getInDegree(n) + graph.getOutDegree(n) == 1) dangles++;
+    }
+    Assert.assertEquals(20, dangles);
+  }
+
+  @Test
+  public void testAdjacency() {
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    CompactGraph graph = CompactGraph.create(fc.getFeatures(), null, false, false);
+    for (int n = 0 ; n < graph.getNodeCount() ; n++) {
+      Assert.assertEquals(graph.getOutDegree(n), graph.getOutEdgeStart(n+1) - graph.getOutEdgeStart(n));
+      for (int i = graph.getOutEdgeStart(n) ; i < graph.getOutEdgeStart(n+1) ; i++) {
+        Assert.assertEquals(n, graph.getSource(graph.getOutEdge(i)));
+      }
+      for (int i = graph.getInEdgeStart(n) ; i < graph.getInEdgeStart(n+1) ; i++) {
+        Assert.assertEquals(n, graph.getTarget(graph.getInEdge(i)));
+      }
+    }
+  }
+
+  @Test
+  public void testGroupsDoNotShareNodes() {
+    // dendritic edges are named by stream order : streams of different orders
+    // do not share nodes when grouped by name
+    FeatureCollection fc = NetworkGenerator.dendritic(4, 1L);
+    CompactGraph graph = CompactGraph.create(fc.getFeatures(), NetworkGenerator.NAME, false, false);
+    Assert.assertEquals(4, graph.getGroupCount());
+    for (int e = 0 ; e < graph.getEdgeCount() ; e++) {
+      Assert.assertEquals(graph.getNodeGroup(graph.getSource(e)), graph.getNodeGroup(graph.getTarget(e)));
+    }
+    Assert.assertTrue(graph.getNodeCount() >
+        CompactGraph.create(fc.getFeatures(), null, false, false).getNodeCount());
+  }
+}
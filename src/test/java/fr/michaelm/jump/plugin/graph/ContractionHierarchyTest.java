@@ -0,0 +1,104 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+public class ContractionHierarchyTest {
+
+  // Checks the hierarchy queries against A* queries of the router
+  private static void checkQueries(ContractionHierarchy hierarchy, long seed) {
+    NetworkRouter router = hierarchy.getRouter();
+    CompactGraph graph = router.getGraph();
+    NetworkRouter.Search search = router.newSearch();
+    ContractionHierarchy.Query query = hierarchy.newQuery();
+    Random random = new Random(seed);
+    for (int q = 0 ; q < 200 ; q++) {
+      int origin = random.nextInt(graph.getNodeCount());
+      int destination = random.nextInt(graph.getNodeCount());
+      double expected = search.route(origin, destination);
+      double cost = query.route(origin, destination);
+      Assert.assertEquals(expected, cost, 1e-9);
+      int[] path = query.getPath();
+      if (Double.isInfinite(cost)) {
+        Assert.assertNull(path);
+        continue;
+      }
+      // the path is a chain of edges from origin to destination
+      double sum = 0;
+      int node = origin;
+      for (int edge : path) {
+        Assert.assertTrue(graph.getSource(edge) == node || !router.isDirected() && graph.getTarget(edge) == node);
+        node = graph.getSource(edge) == node ? graph.getTarget(edge) : graph.getSource(edge);
+        sum += router.getCost(edge);
+      }
+      Assert.assertEquals(destination, node);
+      Assert.assertEquals(cost, sum, 1e-9);
+    }
+  }
+
+  @Test
+  public void testQueriesMatchDijkstra() {
+    for (String network : new String[]{"grid", "dendritic", "delta"}) {
+      List<Feature> features = NetworkGenerator.create(network, 3000, 3L).getFeatures();
+      CompactGraph graph = CompactGraph.create(features, null, false, false);
+      Random random = new Random(1L);
+      double[] cost = new double[graph.getEdgeCount()];
+      for (int e = 0 ; e < cost.length ; e++) cost[e] = graph.getLength(e) * (0.5 + random.nextDouble());
+      for (boolean directed : new boolean[]{false, true}) {
+        checkQueries(new ContractionHierarchy(new NetworkRouter(graph, cost, directed), null), 2L);
+      }
+    }
+  }
+
+  @Test(expected = CancellationException.class)
+  public void testCancelledPreprocessing() {
+    CompactGraph graph = CompactGraph.create(NetworkGenerator.create("delta", 10000, 1L).getFeatures(),
+        null, false, false);
+    new ContractionHierarchy(new NetworkRouter(graph, null, false), new DummyTaskMonitor() {
+      @Override
+      public boolean isCancelRequested() {
+        return true;
+      }
+    });
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    CompactGraph graph = CompactGraph.create(NetworkGenerator.roadGrid(20, 20, 15, 4L).getFeatures(),
+        null, false, false);
+    NetworkRouter router = new NetworkRouter(graph, null, true);
+    ContractionHierarchy hierarchy = new ContractionHierarchy(router, null);
+    File file = File.createTempFile("hierarchy", ".ch");
+    try {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+        hierarchy.write(channel);
+      }
+      ContractionHierarchy copy;
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        copy = ContractionHierarchy.read(channel, router);
+      }
+      Assert.assertEquals(hierarchy.getShortcutCount(), copy.getShortcutCount());
+      Assert.assertEquals(hierarchy.getMemorySize(), copy.getMemorySize());
+      checkQueries(copy, 5L);
+      // a hierarchy cannot be read for another network
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        ContractionHierarchy.read(channel, new NetworkRouter(graph, null, false));
+        Assert.fail("Hierarchy of a directed network read for an undirected one");
+      } catch(IOException e) {
+        // expected
+      }
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -1,12 +1,16 @@
 package fr.michaelm.jump.plugin.graph;
 
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
 import com.vividsolutions.jump.feature.FeatureCollection;
 import com.vividsolutions.jump.feature.FeatureDataset;
 import com.vividsolutions.jump.task.DummyTaskMonitor;
 import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
 import fr.michaelm.jump.feature.jgrapht.INode;
 import org.jgrapht.Graph;
+import org.junit.Assert;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
 
 import java.util.Map;
 import java.util.function.BiConsumer;
@@ -46,4 +50,44 @@ public class CycleFinderPlugInTest extends GraphToolboxTest {
     }
   }
 
+  // Grid of 10 x 10 square cells
+  private FeatureCollection createGrid() {
+    FeatureCollection fc = new FeatureDataset(SCHEMA);
+    for (int i = 0 ; i <= 10 ; i++) {
+      for (int j = 0 ; j < 10 ; j++) {
+        Feature h = new BasicFeature(SCHEMA);
+        h.setGeometry(FACTORY.createLineString(new Coordinate[]{
+            new Coordinate(j, i), new Coordinate(j+1, i)}));
+        fc.add(h);
+        Feature v = new BasicFeature(SCHEMA);
+        v.setGeometry(FACTORY.createLineString(new Coordinate[]{
+            new Coordinate(i, j), new Coordinate(i, j+1)}));
+        fc.add(v);
+      }
+    }
+    return fc;
+  }
+
+  private Map<String,FeatureCollection> findCycles(FeatureCollection fc, boolean tiled) {
+    CycleFinderPlugIn pi = new CycleFinderPlugIn();
+    pi.addParameter(CycleFinderPlugIn.P_DATASET_NAME,"grid");
+    pi.addParameter(CycleFinderPlugIn.P_DATASET,            fc);
+    pi.addParameter(CycleFinderPlugIn.P_MAX_FEATURE,      10);
+    pi.addParameter(CycleFinderPlugIn.P_MAX_LENGTH,       4.0);
+    pi.addParameter(CycleFinderPlugIn.P_TILED,            tiled);
+    pi.addParameter(CycleFinderPlugIn.P_TILE_SIZE,        3.0);
+    return pi.run(new DummyTaskMonitor());
+  }
+
+  @Test
+  public void testTiledCycles() {
+    FeatureCollection grid = createGrid();
+    Map<String,FeatureCollection> map = findCycles(grid, false);
+    Map<String,FeatureCollection> tiledMap = findCycles(grid, true);
+    for (String key : map.keySet()) {
+      Assert.assertEquals(map.get(key).size(), tiledMap.get(key).size());
+    }
+    Assert.assertEquals(100, tiledMap.values().iterator().next().size());
+  }
+
 }
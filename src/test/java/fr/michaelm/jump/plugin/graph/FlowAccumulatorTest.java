@@ -0,0 +1,111 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.Map;
+
+public class FlowAccumulatorTest {
+
+  private static final GeometryFactory FACTORY = new GeometryFactory();
+
+  // a -> b -> c, then c -> d and c -> e (bifurcation), edges of length 1 or 2
+  private static CompactGraph bifurcation() {
+    CompactGraph graph = new CompactGraph(false);
+    graph.addEdge(0, 0, 0, 1, 0, 0, 1.0, 0, null);
+    graph.addEdge(1, 0, 0, 2, 0, 0, 1.0, 1, null);
+    graph.addEdge(2, 0, 0, 3, 1, 0, 2.0, 2, null);
+    graph.addEdge(2, 0, 0, 3, -1, 0, 2.0, 3, null);
+    return graph;
+  }
+
+  @Test
+  public void testLengthAccumulation() {
+    double[] flow = new FlowAccumulator(bifurcation()).accumulate(null);
+    Assert.assertArrayEquals(new double[]{1, 2, 3, 3}, flow, 1e-12);
+  }
+
+  @Test
+  public void testRunoffRatioAndInflow() {
+    CompactGraph graph = bifurcation();
+    double[] inflow = new double[graph.getNodeCount()];
+    inflow[graph.getSource(1)] = 10;
+    FlowAccumulator accumulator = new FlowAccumulator(graph)
+        .setRunoff(new double[]{1, 1, 0, 0})
+        .setRatio(new double[]{1, 1, 3, 1})
+        .setInflow(inflow);
+    double[] flow = accumulator.accumulate(null);
+    Assert.assertArrayEquals(new double[]{1, 12, 9, 3}, flow, 1e-12);
+    Assert.assertEquals(0, accumulator.getUnresolvedEdges());
+  }
+
+  @Test
+  public void testCycle() {
+    CompactGraph graph = new CompactGraph(false);
+    graph.addEdge(0, 0, 0, 1, 0, 0, 1.0, 0, null);
+    graph.addEdge(1, 0, 0, 2, 0, 0, 1.0, 1, null);
+    graph.addEdge(2, 0, 0, 1, 0, 0, 1.0, 2, null);
+    graph.addEdge(2, 0, 0, 3, 0, 0, 1.0, 3, null);
+    FlowAccumulator accumulator = new FlowAccumulator(graph);
+    double[] flow = accumulator.accumulate(null);
+    Assert.assertEquals(1.0, flow[0], 0.0);
+    Assert.assertTrue(Double.isNaN(flow[1]) && Double.isNaN(flow[2]) && Double.isNaN(flow[3]));
+    Assert.assertEquals(3, accumulator.getUnresolvedEdges());
+  }
+
+  @Test
+  public void testSameFlowAsStreamOrder() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(6, 1L);
+    StreamOrderPlugIn so = new StreamOrderPlugIn();
+    so.addParameter(StreamOrderPlugIn.P_METRICS, true);
+    FeatureCollection expected = so.run(new DummyTaskMonitor(), fc).get("strahler");
+    FeatureCollection result = new FlowAccumulationPlugIn().run(new DummyTaskMonitor(), fc).get("flow-accumulation");
+    for (int i = 0 ; i < fc.size() ; i++) {
+      Assert.assertEquals((Double)expected.getFeatures().get(i).getAttribute("FlowAcc"),
+          (Double)result.getFeatures().get(i).getAttribute("FlowAcc"), 1e-9);
+    }
+  }
+
+  @Test
+  public void testInflowPoints() {
+    FeatureCollection fc = NetworkGenerator.chain(5);
+    CompactGraph graph = CompactGraph.create(fc.getFeatures(), null, false, false);
+    FeatureSchema schema = new FeatureSchema();
+    schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+    schema.addAttribute("Q", AttributeType.DOUBLE);
+    FeatureCollection inflows = new FeatureDataset(schema);
+    // one point near the source of the second edge, one far from the network
+    Coordinate c = graph.getCoordinate(graph.getSource(1));
+    for (Coordinate p : new Coordinate[]{new Coordinate(c.x + 0.1, c.y), new Coordinate(c.x + 1000, c.y)}) {
+      Feature f = new BasicFeature(schema);
+      f.setGeometry(FACTORY.createPoint(p));
+      f.setAttribute("Q", 100.0);
+      inflows.add(f);
+    }
+    FlowAccumulationPlugIn pi = new FlowAccumulationPlugIn();
+    pi.addParameter(FlowAccumulationPlugIn.P_INFLOW_DATASET, inflows);
+    pi.addParameter(FlowAccumulationPlugIn.P_INFLOW_ATTRIBUTE, "Q");
+    pi.addParameter(FlowAccumulationPlugIn.P_SNAP_TOLERANCE, 0.5);
+    Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+    Assert.assertEquals(1, result.get("unmatched-inflow").size());
+    // the layer of unmatched inflows must not share its features with the inflow layer
+    Feature unmatched = result.get("unmatched-inflow").getFeatures().get(0);
+    Assert.assertNotSame(inflows.getFeatures().get(1), unmatched);
+    Assert.assertEquals(100.0, unmatched.getAttribute("Q"));
+    double length = 0;
+    for (int i = 0 ; i < fc.size() ; i++) {
+      length += fc.getFeatures().get(i).getGeometry().getLength();
+      double flow = (Double)result.get("flow-accumulation").getFeatures().get(i).getAttribute("FlowAcc");
+      Assert.assertEquals(i == 0 ? length : length + 100.0, flow, 1e-9);
+    }
+  }
+}
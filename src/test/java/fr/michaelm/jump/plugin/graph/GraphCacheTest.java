@@ -0,0 +1,137 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.util.AffineTransformation;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Map;
+
+public class GraphCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCachedGraphIsReadBack() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    GraphCache cache = new GraphCache(folder.getRoot());
+    String key = GraphCache.key(fc.getFeatures(), NetworkGenerator.NAME, false, false);
+    CompactGraph graph = cache.get(key,
+        () -> CompactGraph.create(fc.getFeatures(), NetworkGenerator.NAME, false, false));
+    Assert.assertEquals(1, folder.getRoot().listFiles().length);
+    CompactGraph cached = cache.get(key, () -> {
+      throw new AssertionError("graph should be read from the cache");
+    });
+    assertSameGraph(graph, cached);
+  }
+
+  @Test
+  public void testKeyDependsOnGeometriesAndSettings() {
+    FeatureCollection fc = NetworkGenerator.roadGrid(5, 5, 10, 1L);
+    String key = GraphCache.key(fc.getFeatures(), null, false, false);
+    Assert.assertEquals(key, GraphCache.key(NetworkGenerator.roadGrid(5, 5, 10, 1L).getFeatures(), null, false, false));
+    Assert.assertNotEquals(key, GraphCache.key(fc.getFeatures(), null, false, true));
+    Assert.assertNotEquals(key, GraphCache.key(fc.getFeatures(), NetworkGenerator.NAME, false, false));
+    Feature feature = fc.getFeatures().get(3);
+    feature.setGeometry(AffineTransformation.translationInstance(1e-9, 0).transform(feature.getGeometry()));
+    Assert.assertNotEquals(key, GraphCache.key(fc.getFeatures(), null, false, false));
+  }
+
+  @Test
+  public void testCorruptedFileIsRebuilt() throws Exception {
+    FeatureCollection fc = NetworkGenerator.braided(4, 3, 1L);
+    GraphCache cache = new GraphCache(folder.getRoot());
+    String key = GraphCache.key(fc.getFeatures(), null, false, false);
+    File file = new File(folder.getRoot(), key + ".graph");
+    Files.write(file.toPath(), new byte[]{1, 2, 3});
+    CompactGraph graph = cache.get(key, () -> CompactGraph.create(fc.getFeatures(), null, false, false));
+    Assert.assertEquals(CompactGraph.create(fc.getFeatures(), null, false, false).getEdgeCount(),
+        graph.getEdgeCount());
+    try (FileChannel channel = FileChannel.open(file.toPath())) {
+      assertSameGraph(graph, CompactGraph.read(channel));
+    }
+  }
+
+  @Test
+  public void testHierarchyIsCachedPerCosts() {
+    CompactGraph graph = CompactGraph.create(NetworkGenerator.roadGrid(8, 8, 5, 1L).getFeatures(),
+        null, false, false);
+    NetworkRouter router = new NetworkRouter(graph, null, false);
+    String key = GraphCache.key(router);
+    Assert.assertEquals(key, GraphCache.key(new NetworkRouter(graph, null, false)));
+    Assert.assertNotEquals(key, GraphCache.key(new NetworkRouter(graph, null, true)));
+    double[] cost = new double[graph.getEdgeCount()];
+    for (int e = 0 ; e < cost.length ; e++) cost[e] = graph.getLength(e);
+    cost[7] *= 2;
+    Assert.assertNotEquals(key, GraphCache.key(new NetworkRouter(graph, cost, false)));
+
+    GraphCache cache = new GraphCache(folder.getRoot());
+    ContractionHierarchy hierarchy = cache.getContractionHierarchy(key, router, null);
+    File file = new File(folder.getRoot(), key + ".ch");
+    Assert.assertTrue(file.isFile());
+    long modified = file.lastModified();
+    ContractionHierarchy cached = cache.getContractionHierarchy(key, router, null);
+    Assert.assertEquals(modified, file.lastModified());
+    Assert.assertEquals(hierarchy.getShortcutCount(), cached.getShortcutCount());
+    Assert.assertEquals(hierarchy.newQuery().route(0, graph.getNodeCount() - 1),
+        cached.newQuery().route(0, graph.getNodeCount() - 1), 0.0);
+  }
+
+  @Test
+  public void testComponentsWithCache() {
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    GraphComponentsPlugIn pi = new GraphComponentsPlugIn();
+    pi.addParameter(GraphComponentsPlugIn.P_ATTRIBUTE, NetworkGenerator.NAME);
+    pi.addParameter(GraphComponentsPlugIn.P_RETURNED_GEOM_TYPE, "MULTILINESTRING");
+    Map<String,FeatureCollection> expected = pi.run(new DummyTaskMonitor(), fc);
+    System.setProperty(GraphCache.CACHE_DIRECTORY_PROPERTY, folder.getRoot().getPath());
+    try {
+      for (int i = 0 ; i < 2 ; i++) {
+        Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+        for (String name : expected.keySet()) {
+          Assert.assertEquals(expected.get(name).size(), result.get(name).size());
+          for (int f = 0 ; f < expected.get(name).size() ; f++) {
+            Feature f0 = expected.get(name).getFeatures().get(f);
+            Feature f1 = result.get(name).getFeatures().get(f);
+            for (int a = 1 ; a < f0.getSchema().getAttributeCount() ; a++) {
+              Assert.assertEquals(f0.getAttribute(a), f1.getAttribute(a));
+            }
+          }
+        }
+      }
+    } finally {
+      System.clearProperty(GraphCache.CACHE_DIRECTORY_PROPERTY);
+    }
+    Assert.assertEquals(1, folder.getRoot().listFiles().length);
+  }
+
+  private static void assertSameGraph(CompactGraph expected, CompactGraph actual) {
+    Assert.assertEquals(expected.isDim3(), actual.isDim3());
+    Assert.assertEquals(expected.getNodeCount(), actual.getNodeCount());
+    Assert.assertEquals(expected.getEdgeCount(), actual.getEdgeCount());
+    Assert.assertEquals(expected.getGroupCount(), actual.getGroupCount());
+    for (int g = 0 ; g < expected.getGroupCount() ; g++) {
+      Assert.assertEquals(expected.getGroup(g), actual.getGroup(g));
+    }
+    for (int n = 0 ; n < expected.getNodeCount() ; n++) {
+      Assert.assertEquals(expected.getCoordinate(n), actual.getCoordinate(n));
+      Assert.assertEquals(expected.getNodeGroup(n), actual.getNodeGroup(n));
+      Assert.assertEquals(expected.getInDegree(n), actual.getInDegree(n));
+      Assert.assertEquals(expected.getOutDegree(n), actual.getOutDegree(n));
+    }
+    for (int e = 0 ; e < expected.getEdgeCount() ; e++) {
+      Assert.assertEquals(expected.getSource(e), actual.getSource(e));
+      Assert.assertEquals(expected.getTarget(e), actual.getTarget(e));
+      Assert.assertEquals(expected.getLength(e), actual.getLength(e), 0.0);
+      Assert.assertEquals(expected.getFeatureIndex(e), actual.getFeatureIndex(e));
+    }
+  }
+}
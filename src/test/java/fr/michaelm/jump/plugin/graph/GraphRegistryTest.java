@@ -0,0 +1,65 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.workbench.model.Layer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GraphRegistryTest {
+
+  private final AtomicInteger builds = new AtomicInteger();
+
+  private Object get(GraphRegistry registry, Layer layer, String attribute, long size) {
+    return registry.get(layer, new GraphRegistry.Key(layer, "test", attribute, false, false),
+        () -> "graph-" + builds.incrementAndGet(), graph -> size);
+  }
+
+  @Test
+  public void testGraphsAreSharedPerLayerAndConfiguration() {
+    GraphRegistry registry = new GraphRegistry(1000);
+    Layer layer1 = new Layer();
+    Layer layer2 = new Layer();
+    Object graph = get(registry, layer1, null, 10);
+    Assert.assertSame(graph, get(registry, layer1, null, 10));
+    Assert.assertNotSame(graph, get(registry, layer1, "NAME", 10));
+    Assert.assertNotSame(graph, get(registry, layer2, null, 10));
+    Assert.assertEquals(3, builds.get());
+    Assert.assertEquals(30, registry.getMemory());
+  }
+
+  @Test
+  public void testInvalidation() {
+    GraphRegistry registry = new GraphRegistry(1000);
+    Layer layer = new Layer();
+    Object graph = get(registry, layer, null, 10);
+    Object grouped = get(registry, layer, "NAME", 10);
+    // attribute changes only affect graphs grouped by an attribute
+    registry.invalidate(layer, true);
+    Assert.assertSame(graph, get(registry, layer, null, 10));
+    Assert.assertNotSame(grouped, get(registry, layer, "NAME", 10));
+    registry.invalidate(layer, false);
+    Assert.assertEquals(0, registry.size());
+    Assert.assertEquals(0, registry.getMemory());
+    Assert.assertNotSame(graph, get(registry, layer, null, 10));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() {
+    GraphRegistry registry = new GraphRegistry(100);
+    Layer layer1 = new Layer();
+    Layer layer2 = new Layer();
+    Layer layer3 = new Layer();
+    Object graph1 = get(registry, layer1, null, 40);
+    Object graph2 = get(registry, layer2, null, 40);
+    Assert.assertSame(graph1, get(registry, layer1, null, 40));
+    get(registry, layer3, null, 40);
+    Assert.assertEquals(2, registry.size());
+    Assert.assertEquals(80, registry.getMemory());
+    Assert.assertSame(graph1, get(registry, layer1, null, 40));
+    Assert.assertNotSame(graph2, get(registry, layer2, null, 40));
+    // graphs larger than the registry are never kept
+    get(registry, layer1, "NAME", 101);
+    Assert.assertEquals(2, registry.size());
+  }
+}
@@ -32,34 +32,50 @@ public class GraphToolboxTest {
 
     /**
      * Creates an undirected 2D graph where each edge is a simple segment
-     * made of two points
+     * made of two points, coords containing 4 ordinates per edge
      */
     public static Graph<INode, FeatureAsEdge> createUndirected2dGraph(double...coords) {
-        return GraphFactory.createUndirectedGraph(Collections.emptyList(), false);
+        Graph<INode, FeatureAsEdge> graph = GraphFactory.createUndirectedGraph(Collections.emptyList(), false);
+        for (int i = 0 ; i + 3 < coords.length ; i += 4) {
+            add2d(graph, coords[i+0], coords[i+1], coords[i+2], coords[i+3]);
+        }
+        return graph;
     }
 
     /**
      * Creates an undirected 3D graph where each edge is a simple segment
-     * made of two points
+     * made of two points, coords containing 6 ordinates per edge
      */
     public static Graph<INode, FeatureAsEdge> createUndirected3dGraph(double...coords) {
-        return GraphFactory.createUndirectedGraph(Collections.emptyList(), true);
+        Graph<INode, FeatureAsEdge> graph = GraphFactory.createUndirectedGraph(Collections.emptyList(), true);
+        for (int i = 0 ; i + 5 < coords.length ; i += 6) {
+            add3d(graph, coords[i+0], coords[i+1], coords[i+2], coords[i+3], coords[i+4], coords[i+5]);
+        }
+        return graph;
     }
 
     /**
      * Creates a directed 2D graph where each edge is a simple segment
-     * made of two points
+     * made of two points, coords containing 4 ordinates per edge
      */
     public static Graph<INode, FeatureAsEdge> createDirected2dGraph(double...coords) {
-        return GraphFactory.createDirectedGraph(Collections.emptyList(), false);
+        Graph<INode, FeatureAsEdge> graph = GraphFactory.createDirectedGraph(Collections.emptyList(), false);
+        for (int i = 0 ; i + 3 < coords.length ; i += 4) {
+            add2d(graph, coords[i+0], coords[i+1], coords[i+2], coords[i+3]);
+        }
+        return graph;
     }
 
     /**
      * Creates a directed 3D graph where each edge is a simple segment
-     * made of two points
+     * made of two points, coords containing 6 ordinates per edge
      */
     public static Graph<INode, FeatureAsEdge> createDirected3dGraph(double...coords) {
-        return GraphFactory.createDirectedGraph(Collections.emptyList(), true);
+        Graph<INode, FeatureAsEdge> graph = GraphFactory.createDirectedGraph(Collections.emptyList(), true);
+        for (int i = 0 ; i + 5 < coords.length ; i += 6) {
+            add3d(graph, coords[i+0], coords[i+1], coords[i+2], coords[i+3], coords[i+4], coords[i+5]);
+        }
+        return graph;
     }
 
     static Graph<INode, FeatureAsEdge> add2d(Graph<INode, FeatureAsEdge> graph,
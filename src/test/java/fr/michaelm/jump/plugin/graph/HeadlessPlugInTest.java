@@ -0,0 +1,246 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.task.TaskMonitor;
+import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
+import fr.michaelm.jump.feature.jgrapht.GraphFactory;
+import fr.michaelm.jump.feature.jgrapht.INode;
+import org.jgrapht.alg.cycle.HawickJamesSimpleCycles;
+import org.jgrapht.graph.AsSubgraph;
+import org.jgrapht.graph.DirectedPseudograph;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class HeadlessPlugInTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testGraphNodes() throws Exception {
+    FeatureCollection fc = NetworkGenerator.roadGrid(10, 12, 30, 1L);
+    Map<String,FeatureCollection> result = new GraphNodesPlugIn().run(new DummyTaskMonitor(), fc);
+    Assert.assertEquals(1, result.size());
+    Assert.assertEquals(30, result.values().iterator().next().size());
+  }
+
+  @Test
+  public void testGraphComponents() {
+    FeatureCollection fc = NetworkGenerator.roadGrid(10, 12, 30, 1L);
+    GraphComponentsPlugIn pi = new GraphComponentsPlugIn();
+    pi.addParameter(GraphComponentsPlugIn.P_RETURNED_GEOM_TYPE, "MULTILINESTRING");
+    Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+    Assert.assertEquals(2, result.size());
+    double length = 0;
+    for (Feature f : fc.getFeatures()) length += f.getGeometry().getLength();
+    for (FeatureCollection components : result.values()) {
+      Assert.assertEquals(1, components.size());
+      Assert.assertEquals(length, components.getFeatures().get(0).getGeometry().getLength(), 1e-6);
+    }
+  }
+
+  @Test
+  public void testStreamOrder() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    StreamOrderPlugIn pi = new StreamOrderPlugIn();
+    pi.addParameter(StreamOrderPlugIn.P_METRICS, true);
+    pi.addParameter(StreamOrderPlugIn.P_HORTON, true);
+    FeatureCollection result = pi.run(new DummyTaskMonitor(), fc).get("strahler");
+    Assert.assertEquals(fc.size(), result.size());
+    for (Feature f : result.getFeatures()) {
+      Assert.assertEquals(f.getAttribute(NetworkGenerator.EXPECTED_ORDER), f.getAttribute("Strahler"));
+      Assert.assertNotNull(f.getAttribute("Horton"));
+    }
+  }
+
+  @Test
+  public void testStreamOrderExport() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    File file = folder.newFile("orders.bin");
+    StreamOrderPlugIn pi = new StreamOrderPlugIn();
+    pi.addParameter(StreamOrderPlugIn.P_METRICS, true);
+    pi.addParameter(StreamOrderPlugIn.P_EXPORT_FILE, file.getPath());
+    pi.addParameter(StreamOrderPlugIn.P_EXPORT_ONLY, true);
+    Assert.assertTrue(pi.run(new DummyTaskMonitor(), fc).isEmpty());
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    Assert.assertEquals("OJGRAPHC", new String(buffer.array(), 0, 8, StandardCharsets.US_ASCII));
+    Assert.assertEquals(4, buffer.getInt(12));
+    Assert.assertEquals(fc.size(), buffer.getLong(16));
+    // first column : FID (int32), then Strahler (int32), MaxDist and FlowAcc (float64)
+    Assert.assertEquals("FID", new String(buffer.array(), 24, 3, StandardCharsets.US_ASCII));
+    Assert.assertEquals('i', buffer.get(40));
+    Assert.assertEquals("Strahler", new String(buffer.array(), 56, 8, StandardCharsets.US_ASCII));
+    Assert.assertEquals('i', buffer.get(72));
+    Assert.assertEquals('d', buffer.get(104));
+    int fid = (int)buffer.getLong(48);
+    int strahler = (int)buffer.getLong(80);
+    int flowAcc = (int)buffer.getLong(144);
+    for (int i = 0 ; i < fc.size() ; i++) {
+      Feature f = fc.getFeatures().get(i);
+      Assert.assertEquals(f.getID(), buffer.getInt(fid + 4*i));
+      Assert.assertEquals(f.getAttribute(NetworkGenerator.EXPECTED_ORDER), buffer.getInt(strahler + 4*i));
+      Assert.assertTrue(buffer.getDouble(flowAcc + 8*i) >= f.getGeometry().getLength() - 1e-9);
+    }
+  }
+
+  @Test
+  public void testHydrographicRepairDoesNotModifyDataset() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(4, 1L);
+    // reverse the first edge to create an anomaly
+    Feature reversed = fc.getFeatures().get(0);
+    reversed.setGeometry(reversed.getGeometry().reverse());
+    HydrographicNetworkAnalysisPlugIn pi = new HydrographicNetworkAnalysisPlugIn();
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_DETECT, false);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_REPAIR, true);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_USE_Z, false);
+    Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+    FeatureCollection repaired = result.get("repaired");
+    Assert.assertEquals(fc.size(), repaired.size());
+    Assert.assertTrue(fc.getFeatures().get(0).getGeometry().equalsExact(reversed.getGeometry()));
+    StreamOrderPlugIn so = new StreamOrderPlugIn();
+    for (Feature f : so.run(new DummyTaskMonitor(), repaired).get("strahler").getFeatures()) {
+      Assert.assertEquals(f.getAttribute(NetworkGenerator.EXPECTED_ORDER), f.getAttribute("Strahler"));
+    }
+  }
+
+  @Test
+  public void testHydrographicCycles() {
+    // reversing one lattice edge out of three makes many directed cycles
+    FeatureCollection fc = NetworkGenerator.roadGrid(4, 5, 3, 1L);
+    for (int i = 0 ; i < fc.size() ; i += 3) {
+      Feature f = fc.getFeatures().get(i);
+      f.setGeometry(f.getGeometry().reverse());
+    }
+    DirectedPseudograph<INode,FeatureAsEdge> graph = GraphFactory.createDirectedGraph(fc.getFeatures(), false);
+    int expected = 0;
+    for (List<INode> cycle : new HawickJamesSimpleCycles<>(graph).findSimpleCycles()) {
+      expected += new AsSubgraph<>(graph, new HashSet<>(cycle), null).edgeSet().size();
+    }
+    Assert.assertTrue(expected > 0);
+    HydrographicNetworkAnalysisPlugIn pi = new HydrographicNetworkAnalysisPlugIn();
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_DETECT, true);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_REPAIR, false);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_FIND_CYCLES, true);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_FIND_SOURCES, false);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_FIND_SINKS, false);
+    pi.addParameter(HydrographicNetworkAnalysisPlugIn.P_USE_Z, false);
+    Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+    Assert.assertEquals(1, result.size());
+    Assert.assertEquals(expected, result.values().iterator().next().size());
+  }
+
+  @Test
+  public void testCancelledRuns() throws Exception {
+    TaskMonitor cancelled = new DummyTaskMonitor() {
+      @Override
+      public boolean isCancelRequested() {
+        return true;
+      }
+    };
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    Assert.assertTrue(new GraphComponentsPlugIn().run(cancelled, fc).isEmpty());
+    Assert.assertTrue(new CycleFinderPlugIn().run(cancelled, fc).isEmpty());
+    Assert.assertTrue(new StreamOrderPlugIn().run(cancelled, fc).isEmpty());
+    Assert.assertTrue(new HydrographicNetworkAnalysisPlugIn().run(cancelled, fc).isEmpty());
+    FeatureCollection polygons = NetworkGenerator.asDataset(NetworkGenerator.riverPolygon(10, 200, 100, 1L));
+    Assert.assertTrue(new SkeletonPlugIn().run(cancelled, polygons).isEmpty());
+  }
+
+  @Test
+  public void testCancelledStreamOrderRecursions() {
+    // outlet first : the Strahler and metrics recursions go up the whole chain
+    FeatureCollection upward = new FeatureDataset(NetworkGenerator.SCHEMA);
+    List<Feature> features = NetworkGenerator.chain(500).getFeatures();
+    for (int i = features.size() - 1 ; i >= 0 ; i--) upward.add(features.get(i));
+    // source first : the Horton and Hack recursions go down the whole chain
+    FeatureCollection downward = NetworkGenerator.chain(500);
+
+    // cancelled at the first recursive call of each pass
+    int strahler = countChecks(upward, false);
+    int metrics = countChecks(downward, true);
+    Assert.assertEquals(0, countComputed(streamOrder(false, false, false)
+        .computeStreamOrders(new CountingMonitor(2), upward), "Strahler"));
+    Assert.assertEquals(0, countComputed(streamOrder(true, false, false)
+        .computeStreamOrders(new CountingMonitor(strahler + 2), upward), "MaxDist"));
+    Assert.assertEquals(0, countComputed(streamOrder(true, true, false)
+        .computeStreamOrders(new CountingMonitor(metrics + 2), downward), "Horton"));
+    Assert.assertEquals(0, countComputed(streamOrder(true, false, true)
+        .computeStreamOrders(new CountingMonitor(metrics + 2), downward), "HackDistO"));
+  }
+
+  // Task monitor cancelled from its cancelAt-th check on
+  private static class CountingMonitor extends DummyTaskMonitor {
+    final int cancelAt;
+    int checks;
+    CountingMonitor(int cancelAt) {
+      this.cancelAt = cancelAt;
+    }
+    @Override
+    public boolean isCancelRequested() {
+      return ++checks >= cancelAt;
+    }
+  }
+
+  private static StreamOrderPlugIn streamOrder(boolean metrics, boolean horton, boolean hack) {
+    StreamOrderPlugIn pi = new StreamOrderPlugIn();
+    pi.metrics = metrics;
+    pi.horton = horton;
+    pi.hack = hack;
+    pi.lengthAttributeIsGeometry = true;
+    return pi;
+  }
+
+  // Number of cancellation checks of a complete computation
+  private static int countChecks(FeatureCollection fc, boolean metrics) {
+    CountingMonitor monitor = new CountingMonitor(Integer.MAX_VALUE);
+    streamOrder(metrics, false, false).computeStreamOrders(monitor, fc);
+    return monitor.checks;
+  }
+
+  // Number of features with a computed value (cycle flags excluded)
+  private static long countComputed(FeatureCollection fc, String attribute) {
+    return fc.getFeatures().stream()
+        .map(f -> f.getAttribute(attribute))
+        .filter(value -> value != null && !value.equals(-1))
+        .count();
+  }
+
+  @Test
+  public void testCli() throws Exception {
+    File input = folder.newFile("chain.wkt");
+    try (PrintWriter writer = new PrintWriter(input)) {
+      for (Feature f : NetworkGenerator.chain(10).getFeatures()) {
+        writer.println(f.getGeometry().toText());
+      }
+    }
+    File output = folder.newFolder("output");
+    Assert.assertTrue(new GraphToolboxCli(new String[]{
+        "nodes", "-PDegree2=true", "-threads", "2", "-output", output.getPath(), input.getPath()}).run());
+    File[] files = output.listFiles();
+    Assert.assertNotNull(files);
+    Assert.assertEquals(1, files.length);
+    Assert.assertTrue(files[0].getName().startsWith("chain-"));
+    Assert.assertEquals(11, Files.readAllLines(files[0].toPath()).stream()
+        .filter(line -> line.contains("POINT")).count());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCliUnknownParameter() {
+    new GraphToolboxCli(new String[]{"nodes", "-PDegree4=true", "network.shp"});
+  }
+}
@@ -0,0 +1,302 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic datasets for tests and benchmarks. The same
+ * parameters and seed always return the same dataset.
+ * <p>Linear networks are made of two-point features sharing their end
+ * coordinates, digitized downstream for hydrographic networks. Generators
+ * only keep the coordinates they still need, so that networks of about ten
+ * million edges can be generated in a few GB of heap.</p>
+ * <p>Generated features have an id, a name and, for dendritic networks, the
+ * expected Strahler order of the edge (null for other networks).</p>
+ */
+public final class NetworkGenerator {
+
+    public static final GeometryFactory FACTORY = new GeometryFactory();
+    public static final String ID = "id";
+    public static final String NAME = "name";
+    public static final String EXPECTED_ORDER = "expected_order";
+    public static final FeatureSchema SCHEMA = new FeatureSchema();
+    static {
+        SCHEMA.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+        SCHEMA.addAttribute(ID, AttributeType.INTEGER);
+        SCHEMA.addAttribute(NAME, AttributeType.STRING);
+        SCHEMA.addAttribute(EXPECTED_ORDER, AttributeType.INTEGER);
+    }
+
+    // probability for an intermediate node of a dendritic stream to receive a tributary
+    private static final double TRIBUTARY_RATE = 0.3;
+
+    private final Random random;
+    private final FeatureCollection dataset = new FeatureDataset(SCHEMA);
+
+    private NetworkGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Returns a network of type grid, tree, dendritic, delta or chain with
+     * about edges edges (at least edges for dendritic networks).
+     */
+    public static FeatureCollection create(String network, int edges, long seed) {
+        switch (network) {
+            case "grid" :
+                // about 10% of edges are dangles
+                int n = Math.max(1, (int)Math.sqrt(edges / 2.2));
+                int dangles = Math.max(0, Math.min((n+1)*(n+1), edges - 2*n*(n+1)));
+                return roadGrid(n, n, dangles, seed);
+            case "tree" :
+                return randomTree(edges, seed);
+            case "dendritic" :
+                for (int order = 1 ; ; order++) {
+                    FeatureCollection fc = dendritic(order, seed);
+                    if (fc.size() >= edges) return fc;
+                }
+            case "delta" :
+                return braided(Math.max(1, edges / 11), 4, seed);
+            case "chain" :
+                return chain(edges);
+            default :
+                throw new IllegalArgumentException("Unknown network " + network);
+        }
+    }
+
+    /**
+     * Planar road grid of rows x cols cells with slightly jittered nodes,
+     * plus dangles dead-ends starting from distinct nodes.
+     * <p>The network has exactly rows x cols cycles of 4 edges and dangles
+     * degree 1 nodes.</p>
+     */
+    public static FeatureCollection roadGrid(int rows, int cols, int dangles, long seed) {
+        NetworkGenerator generator = new NetworkGenerator(seed);
+        Random random = generator.random;
+        int nodeCount = (rows + 1) * (cols + 1);
+        if (dangles > nodeCount) {
+            throw new IllegalArgumentException("Cannot create " + dangles + " dangles on " + nodeCount + " nodes");
+        }
+        // nodes are jittered by less than 0.1, so that grid edges never cross
+        Coordinate[] nodes = new Coordinate[nodeCount];
+        for (int j = 0 ; j <= rows ; j++) {
+            for (int i = 0 ; i <= cols ; i++) {
+                int node = j * (cols + 1) + i;
+                nodes[node] = new Coordinate(i + 0.2*random.nextDouble() - 0.1, j + 0.2*random.nextDouble() - 0.1);
+                if (i > 0) generator.add(nodes[node - 1], nodes[node], "h" + j, null);
+                if (j > 0) generator.add(nodes[node - cols - 1], nodes[node], "v" + i, null);
+            }
+        }
+        // dangles go into the upper right cell of their node (or outside the grid)
+        // nodes are drawn without replacement by a partial Fisher-Yates shuffle
+        for (int d = 0 ; d < dangles ; d++) {
+            int k = d + random.nextInt(nodeCount - d);
+            Coordinate c = nodes[k];
+            nodes[k] = nodes[d];
+            nodes[d] = c;
+            generator.add(c, new Coordinate(c.x + 0.3 + 0.1*random.nextDouble(), c.y + 0.3 + 0.1*random.nextDouble()),
+                    "dangle", null);
+        }
+        return generator.dataset;
+    }
+
+    /**
+     * Random tree of edges edges flowing to a single outlet in (0,0), each new
+     * node being connected to a random existing node.
+     */
+    public static FeatureCollection randomTree(int edges, long seed) {
+        NetworkGenerator generator = new NetworkGenerator(seed);
+        Random random = generator.random;
+        List<Coordinate> nodes = new ArrayList<>(edges + 1);
+        nodes.add(new Coordinate(0, 0));
+        for (int i = 0 ; i < edges ; i++) {
+            Coordinate parent = nodes.get(random.nextInt(nodes.size()));
+            Coordinate child = new Coordinate(
+                    parent.x + random.nextDouble() - 0.5,
+                    parent.y + random.nextDouble());
+            nodes.add(child);
+            generator.add(child, parent, "t" + (i % 8), null);
+        }
+        return generator.dataset;
+    }
+
+    /**
+     * Dendritic river network whose outlet edge has Strahler order order.
+     * <p>A stream of order k is a short chain whose source is the confluence
+     * of two streams of order k-1, and which receives random tributaries of
+     * lower order. Each edge has its expected Strahler order in the
+     * EXPECTED_ORDER attribute. The number of edges is multiplied by about
+     * 2.1 when order is incremented (about 1 million edges for order 18 and
+     * 10 million for order 21).</p>
+     */
+    public static FeatureCollection dendritic(int order, long seed) {
+        if (order < 1) throw new IllegalArgumentException("Strahler order must be >= 1");
+        NetworkGenerator generator = new NetworkGenerator(seed);
+        generator.stream(order, new Coordinate(0, 0), Math.PI / 2);
+        return generator.dataset;
+    }
+
+    // Creates a stream of order order flowing to outlet, heading upstream to angle
+    private void stream(int order, Coordinate outlet, double angle) {
+        int length = 1 + random.nextInt(3);
+        Coordinate downstream = outlet;
+        for (int i = 0 ; i < length ; i++) {
+            if (i > 0 && order > 1 && random.nextDouble() < TRIBUTARY_RATE) {
+                double side = random.nextBoolean() ? 1 : -1;
+                stream(1 + random.nextInt(order - 1), downstream, angle + side * Math.PI / 3);
+            }
+            double a = angle + (random.nextDouble() - 0.5) * 0.5;
+            Coordinate upstream = new Coordinate(
+                    downstream.x + order * Math.cos(a), downstream.y + order * Math.sin(a));
+            add(upstream, downstream, "order" + order, order);
+            downstream = upstream;
+        }
+        if (order > 1) {
+            stream(order - 1, downstream, angle + 0.4);
+            stream(order - 1, downstream, angle - 0.4);
+        }
+    }
+
+    /**
+     * Braided river flowing along the x axis, with exactly cycles braids
+     * (the channel splits into two branches joining again 2 to 5 edges
+     * downstream) separated by spacing edges of the main channel.
+     * <p>Braids do not overlap, so that the network is planar and has
+     * exactly cycles cycles, each made of 4 to 10 edges and shorter than 14
+     * units.</p>
+     */
+    public static FeatureCollection braided(int cycles, int spacing, long seed) {
+        NetworkGenerator generator = new NetworkGenerator(seed);
+        Random random = generator.random;
+        Coordinate current = new Coordinate(0, 0);
+        int x = 0;
+        for (int c = 0 ; c <= cycles ; c++) {
+            for (int i = 0 ; i < spacing ; i++) {
+                x++;
+                Coordinate next = new Coordinate(x, 0.3*random.nextDouble() - 0.15);
+                generator.add(current, next, "main", null);
+                current = next;
+            }
+            if (c == cycles) break;
+            int length = 2 + random.nextInt(4);
+            double width = 0.3 + random.nextDouble();
+            Coordinate left = current;
+            Coordinate right = current;
+            for (int i = 1 ; i < length ; i++) {
+                Coordinate l = new Coordinate(x + i, current.y + width);
+                Coordinate r = new Coordinate(x + i, current.y - width);
+                generator.add(left, l, "left", null);
+                generator.add(right, r, "right", null);
+                left = l;
+                right = r;
+            }
+            x += length;
+            Coordinate confluence = new Coordinate(x, current.y);
+            generator.add(left, confluence, "left", null);
+            generator.add(right, confluence, "right", null);
+            current = confluence;
+        }
+        return generator.dataset;
+    }
+
+    /**
+     * Single chain of edges edges flowing along the x axis.
+     */
+    public static FeatureCollection chain(int edges) {
+        NetworkGenerator generator = new NetworkGenerator(0L);
+        Coordinate current = new Coordinate(0, 0);
+        for (int i = 0 ; i < edges ; i++) {
+            Coordinate next = new Coordinate(i + 1, (i + 1) % 2);
+            generator.add(current, next, "chain", null);
+            current = next;
+        }
+        return generator.dataset;
+    }
+
+    /**
+     * Sinuous river polygon of constant width, whose centerline goes from
+     * (0,0) to (length,0), with vertices vertices on each bank.
+     * <p>The centerline is a sine wave of wavelength 10 x width, and its
+     * curvature radius is always larger than width, so that the polygon is
+     * valid and its width is width everywhere (except near both ends).</p>
+     */
+    public static Polygon riverPolygon(double width, double length, int vertices, long seed) {
+        Random random = new Random(seed);
+        double amplitude = width * (0.5 + 0.7 * random.nextDouble());
+        double k = 2 * Math.PI / (10 * width);
+        double phase = 2 * Math.PI * random.nextDouble();
+        Coordinate[] ring = new Coordinate[2 * vertices + 1];
+        for (int i = 0 ; i < vertices ; i++) {
+            double x = length * i / (vertices - 1);
+            double y = amplitude * Math.sin(k * x + phase);
+            double slope = amplitude * k * Math.cos(k * x + phase);
+            double norm = Math.sqrt(1 + slope * slope);
+            double nx = -slope / norm * width / 2;
+            double ny = 1 / norm * width / 2;
+            ring[i] = new Coordinate(x + nx, y + ny);
+            ring[2 * vertices - 1 - i] = new Coordinate(x - nx, y - ny);
+        }
+        ring[2 * vertices] = ring[0];
+        return FACTORY.createPolygon(ring);
+    }
+
+    /**
+     * Star-shaped polygon of vertices vertices, with a radius varying
+     * smoothly between 20 and 180 units, so that its width varies along
+     * the boundary.
+     */
+    public static Polygon starPolygon(int vertices, long seed) {
+        Random random = new Random(seed);
+        int harmonics = 8;
+        double[] amplitude = new double[harmonics];
+        double[] phase = new double[harmonics];
+        for (int k = 0 ; k < harmonics ; k++) {
+            amplitude[k] = 60.0 / (k + 1) * random.nextDouble();
+            phase[k] = 2 * Math.PI * random.nextDouble();
+        }
+        Coordinate[] ring = new Coordinate[vertices + 1];
+        for (int i = 0 ; i < vertices ; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 100;
+            for (int k = 0 ; k < harmonics ; k++) {
+                radius += amplitude[k] * Math.sin((k + 2) * angle + phase[k]);
+            }
+            radius = Math.max(20, Math.min(180, radius));
+            ring[i] = new Coordinate(radius * Math.cos(angle), radius * Math.sin(angle));
+        }
+        ring[vertices] = ring[0];
+        return FACTORY.createPolygon(ring);
+    }
+
+    /**
+     * Returns a dataset containing polygon as a single feature.
+     */
+    public static FeatureCollection asDataset(Polygon polygon) {
+        NetworkGenerator generator = new NetworkGenerator(0L);
+        Feature feature = new BasicFeature(SCHEMA);
+        feature.setGeometry(polygon);
+        feature.setAttribute(ID, 0);
+        generator.dataset.add(feature);
+        return generator.dataset;
+    }
+
+    private void add(Coordinate c0, Coordinate c1, String name, Integer expectedOrder) {
+        Feature feature = new BasicFeature(SCHEMA);
+        feature.setGeometry(FACTORY.createLineString(new Coordinate[]{c0, c1}));
+        feature.setAttribute(ID, dataset.size());
+        feature.setAttribute(NAME, name);
+        feature.setAttribute(EXPECTED_ORDER, expectedOrder);
+        dataset.add(feature);
+    }
+}
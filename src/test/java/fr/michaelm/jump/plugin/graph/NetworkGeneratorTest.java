@@ -0,0 +1,77 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import fr.michaelm.jump.feature.jgrapht.FeatureAsEdge;
+import fr.michaelm.jump.feature.jgrapht.GraphFactory;
+import fr.michaelm.jump.feature.jgrapht.INode;
+import org.jgrapht.graph.Pseudograph;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.algorithm.construct.MaximumInscribedCircle;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.List;
+import java.util.Map;
+
+public class NetworkGeneratorTest {
+
+  private int countCycles(FeatureCollection fc, double maxLength) {
+    CycleFinderPlugIn pi = new CycleFinderPlugIn();
+    pi.addParameter(CycleFinderPlugIn.P_DATASET_NAME, "network");
+    pi.addParameter(CycleFinderPlugIn.P_DATASET, fc);
+    pi.addParameter(CycleFinderPlugIn.P_MAX_FEATURE, 12);
+    pi.addParameter(CycleFinderPlugIn.P_MAX_LENGTH, maxLength);
+    Map<String,FeatureCollection> map = pi.run(new DummyTaskMonitor());
+    return map.values().stream().mapToInt(FeatureCollection::size).sum();
+  }
+
+  @Test
+  public void testDendriticStrahlerOrders() {
+    for (boolean oldAlgo : new boolean[]{false, true}) {
+      FeatureCollection fc = NetworkGenerator.dendritic(6, 1L);
+      StreamOrderPlugIn pi = new StreamOrderPlugIn();
+      pi.old_algo = oldAlgo;
+      pi.lengthAttributeIsGeometry = true;
+      FeatureCollection result = pi.computeStreamOrders(new DummyTaskMonitor(), fc);
+      Assert.assertEquals(fc.size(), result.size());
+      for (Feature f : result.getFeatures()) {
+        Assert.assertEquals(f.getAttribute(NetworkGenerator.EXPECTED_ORDER), f.getAttribute("Strahler"));
+      }
+    }
+  }
+
+  @Test
+  public void testBraidedCycles() {
+    FeatureCollection fc = NetworkGenerator.braided(25, 3, 1L);
+    Assert.assertEquals(25, countCycles(fc, 20.0));
+  }
+
+  @Test
+  public void testRoadGridCyclesAndDangles() {
+    FeatureCollection fc = NetworkGenerator.roadGrid(10, 12, 30, 1L);
+    Assert.assertEquals(11*12 + 13*10 + 30, fc.size());
+    Pseudograph<INode,FeatureAsEdge> graph = GraphFactory.createUndirectedGraph(fc.getFeatures(), false);
+    Assert.assertEquals(30, graph.vertexSet().stream().filter(n -> graph.degreeOf(n) == 1).count());
+    Assert.assertEquals(120, countCycles(fc, 5.0));
+  }
+
+  @Test
+  public void testSameSeedSameNetwork() {
+    List<Feature> list1 = NetworkGenerator.create("dendritic", 1000, 7L).getFeatures();
+    List<Feature> list2 = NetworkGenerator.create("dendritic", 1000, 7L).getFeatures();
+    Assert.assertEquals(list1.size(), list2.size());
+    for (int i = 0 ; i < list1.size() ; i++) {
+      Assert.assertTrue(list1.get(i).getGeometry().equalsExact(list2.get(i).getGeometry()));
+    }
+  }
+
+  @Test
+  public void testRiverPolygonWidth() {
+    Polygon polygon = NetworkGenerator.riverPolygon(10.0, 500.0, 400, 1L);
+    Assert.assertTrue(polygon.isValid());
+    double radius = new MaximumInscribedCircle(polygon, 0.01).getRadiusLine().getLength();
+    Assert.assertEquals(5.0, radius, 0.1);
+  }
+}
@@ -0,0 +1,139 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class NetworkRouterTest {
+
+  private static final GeometryFactory FACTORY = new GeometryFactory();
+
+  // Costs from origin to every node (Bellman-Ford)
+  private static double[] bruteForceCosts(CompactGraph graph, double[] cost, boolean directed, int origin) {
+    double[] d = new double[graph.getNodeCount()];
+    Arrays.fill(d, Double.POSITIVE_INFINITY);
+    d[origin] = 0;
+    for (boolean changed = true ; changed ; ) {
+      changed = false;
+      for (int e = 0 ; e < graph.getEdgeCount() ; e++) {
+        int s = graph.getSource(e), t = graph.getTarget(e);
+        if (d[s] + cost[e] < d[t]) { d[t] = d[s] + cost[e]; changed = true; }
+        if (!directed && d[t] + cost[e] < d[s]) { d[s] = d[t] + cost[e]; changed = true; }
+      }
+    }
+    return d;
+  }
+
+  @Test
+  public void testRouteAndExpand() throws Exception {
+    List<Feature> features = NetworkGenerator.roadGrid(15, 15, 10, 1L).getFeatures();
+    CompactGraph graph = CompactGraph.create(features, null, false, false);
+    Random random = new Random(0L);
+    double[] cost = new double[graph.getEdgeCount()];
+    for (int e = 0 ; e < cost.length ; e++) cost[e] = graph.getLength(e) * (0.5 + random.nextDouble());
+    for (boolean directed : new boolean[]{false, true}) {
+      NetworkRouter router = new NetworkRouter(graph, cost, directed);
+      NetworkRouter.Search search = router.newSearch();
+      int[] origins = new int[50];
+      int[] destinations = new int[50];
+      for (int q = 0 ; q < origins.length ; q++) {
+        origins[q] = random.nextInt(graph.getNodeCount());
+        destinations[q] = random.nextInt(graph.getNodeCount());
+        double[] expected = bruteForceCosts(graph, cost, directed, origins[q]);
+        double c = search.route(origins[q], destinations[q]);
+        Assert.assertEquals(expected[destinations[q]], c, 1e-9);
+        if (!Double.isInfinite(c)) {
+          double sum = 0;
+          for (int e : search.getPath(destinations[q])) sum += cost[e];
+          Assert.assertEquals(c, sum, 1e-9);
+        }
+        search.expand(origins[q], 20.0);
+        for (int node = 0 ; node < graph.getNodeCount() ; node++) {
+          double d = expected[node] <= 20.0 ? expected[node] : Double.POSITIVE_INFINITY;
+          Assert.assertEquals(d, search.getDistance(node), 1e-9);
+        }
+      }
+      double[] batch = router.route(origins, destinations, 4, null);
+      for (int q = 0 ; q < origins.length ; q++) {
+        Assert.assertEquals(search.route(origins[q], destinations[q]), batch[q], 0.0);
+      }
+    }
+  }
+
+  private static FeatureCollection points(Coordinate... coordinates) {
+    FeatureSchema schema = new FeatureSchema();
+    schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+    FeatureCollection fc = new FeatureDataset(schema);
+    for (Coordinate c : coordinates) {
+      Feature f = new BasicFeature(schema);
+      f.setGeometry(FACTORY.createPoint(c));
+      fc.add(f);
+    }
+    return fc;
+  }
+
+  @Test
+  public void testHeadlessShortestPathsAndServiceAreas() throws Exception {
+    // chain of 10 edges from (0,0) to (10,0), edge i having a length of sqrt(2)
+    FeatureCollection fc = NetworkGenerator.chain(10);
+    ShortestPathPlugIn pi = new ShortestPathPlugIn();
+    pi.addParameter(ShortestPathPlugIn.P_ORIGIN_DATASET, points(new Coordinate(8.1, 0.1), new Coordinate(0, 0)));
+    pi.addParameter(ShortestPathPlugIn.P_DESTINATION_DATASET, points(new Coordinate(2, 0), new Coordinate(3, 1)));
+    pi.addParameter(ShortestPathPlugIn.P_THREADS, 2);
+    Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+    List<Feature> paths = result.get("shortest-paths").getFeatures();
+    Assert.assertEquals(2, paths.size());
+    Assert.assertEquals(6 * Math.sqrt(2), (Double)paths.get(0).getAttribute("Cost"), 1e-9);
+    Assert.assertEquals(new Coordinate(8, 0), paths.get(0).getGeometry().getCoordinates()[0]);
+    Assert.assertEquals(7, paths.get(0).getGeometry().getNumPoints());
+    Assert.assertEquals(3 * Math.sqrt(2), (Double)paths.get(1).getAttribute("Cost"), 1e-9);
+
+    // edges are only followed forward
+    pi.addParameter(ShortestPathPlugIn.P_DIRECTED, true);
+    paths = pi.run(new DummyTaskMonitor(), fc).get("shortest-paths").getFeatures();
+    Assert.assertNull(paths.get(0).getAttribute("Cost"));
+    Assert.assertTrue(paths.get(0).getGeometry().isEmpty());
+
+    // same paths with a contraction hierarchy
+    pi.addParameter(ShortestPathPlugIn.P_DIRECTED, false);
+    pi.addParameter(ShortestPathPlugIn.P_HIERARCHY, true);
+    paths = pi.run(new DummyTaskMonitor(), fc).get("shortest-paths").getFeatures();
+    Assert.assertEquals(6 * Math.sqrt(2), (Double)paths.get(0).getAttribute("Cost"), 1e-9);
+    Assert.assertEquals(new Coordinate(8, 0), paths.get(0).getGeometry().getCoordinates()[0]);
+    Assert.assertEquals(7, paths.get(0).getGeometry().getNumPoints());
+    Assert.assertEquals(3 * Math.sqrt(2), (Double)paths.get(1).getAttribute("Cost"), 1e-9);
+
+    pi.addParameter(ShortestPathPlugIn.P_SERVICE_AREA, true);
+    pi.addParameter(ShortestPathPlugIn.P_MAX_COST, 3.0);
+    List<Feature> area = pi.run(new DummyTaskMonitor(), fc).get("service-areas").getFeatures();
+    // 2 edges on both sides of the first origin, 2 edges after the second one
+    Assert.assertEquals(6, area.size());
+    Assert.assertEquals(0, area.get(0).getAttribute("Origin"));
+    Assert.assertEquals(1, area.get(5).getAttribute("Origin"));
+  }
+
+  @Test
+  public void testExpandWithoutTarget() {
+    List<Feature> features = NetworkGenerator.roadGrid(15, 15, 10, 1L).getFeatures();
+    CompactGraph graph = CompactGraph.create(features, null, false, false);
+    NetworkRouter.Search search = new NetworkRouter(graph, null, false).newSearch();
+    // targets which could not be snapped : only the origin is settled
+    search.expand(0, new int[]{-1, -1}, Double.POSITIVE_INFINITY);
+    Assert.assertEquals(1, search.getReachedCount());
+    Assert.assertEquals(0.0, search.getDistance(0), 0.0);
+    Assert.assertEquals(Double.POSITIVE_INFINITY, search.getDistance(1), 0.0);
+  }
+}
@@ -0,0 +1,153 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.AttributeType;
+import com.vividsolutions.jump.feature.BasicFeature;
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.feature.FeatureSchema;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class ODMatrixTest {
+
+  private static final GeometryFactory FACTORY = new GeometryFactory();
+
+  @Test
+  public void testMatrixMatchesSingleRoutes() throws Exception {
+    List<Feature> features = NetworkGenerator.roadGrid(15, 15, 10, 2L).getFeatures();
+    CompactGraph graph = CompactGraph.create(features, null, false, false);
+    Random random = new Random(0L);
+    for (boolean directed : new boolean[]{false, true}) {
+      NetworkRouter router = new NetworkRouter(graph, null, directed);
+      int[] origins = new int[30];
+      int[] destinations = new int[40];
+      for (int i = 0 ; i < origins.length ; i++) origins[i] = random.nextInt(graph.getNodeCount());
+      for (int j = 0 ; j < destinations.length ; j++) destinations[j] = random.nextInt(graph.getNodeCount());
+      origins[3] = -1;
+      destinations[5] = -1;
+      double[][] matrix = new double[origins.length][];
+      ODMatrix.compute(router, origins, destinations, Double.POSITIVE_INFINITY, 3, null,
+          (origin, costs) -> matrix[origin] = costs.clone());
+      NetworkRouter.Search search = router.newSearch();
+      for (int i = 0 ; i < origins.length ; i++) {
+        for (int j = 0 ; j < destinations.length ; j++) {
+          double expected = origins[i] < 0 || destinations[j] < 0 ?
+              Double.NaN : search.route(origins[i], destinations[j]);
+          Assert.assertEquals(expected, matrix[i][j], 1e-9);
+        }
+      }
+    }
+  }
+
+  private static FeatureCollection points(Coordinate... coordinates) {
+    FeatureSchema schema = new FeatureSchema();
+    schema.addAttribute("GEOMETRY", AttributeType.GEOMETRY);
+    FeatureCollection fc = new FeatureDataset(schema);
+    for (Coordinate c : coordinates) {
+      Feature f = new BasicFeature(schema);
+      f.setGeometry(FACTORY.createPoint(c));
+      fc.add(f);
+    }
+    return fc;
+  }
+
+  // Cost attribute of the row origin / destination of an od-matrix table
+  private static Object getCost(List<Feature> table, int origin, int destination) {
+    Feature row = table.stream()
+        .filter(f -> f.getAttribute("Origin").equals(origin) && f.getAttribute("Destination").equals(destination))
+        .findFirst().orElseThrow(AssertionError::new);
+    return row.getAttribute("Cost");
+  }
+
+  @Test
+  public void testHeadlessTableAndBinaryFile() throws Exception {
+    // chain of 10 edges from (0,0) to (10,0), edge i having a length of sqrt(2)
+    FeatureCollection fc = NetworkGenerator.chain(10);
+    ODMatrixPlugIn pi = new ODMatrixPlugIn();
+    pi.addParameter(ODMatrixPlugIn.P_ORIGIN_DATASET, points(new Coordinate(0, 0), new Coordinate(8, 0)));
+    pi.addParameter(ODMatrixPlugIn.P_DESTINATION_DATASET,
+        points(new Coordinate(2, 0), new Coordinate(3, 1), new Coordinate(10, 0)));
+    pi.addParameter(ODMatrixPlugIn.P_DIRECTED, true);
+    List<Feature> table = pi.run(new DummyTaskMonitor(), fc).get("od-matrix").getFeatures();
+    Assert.assertEquals(6, table.size());
+    Assert.assertEquals(2 * Math.sqrt(2), (Double)getCost(table, 0, 0), 1e-9);
+    // edges are only followed forward
+    Assert.assertNull(getCost(table, 1, 0));
+    Assert.assertEquals(2 * Math.sqrt(2), (Double)getCost(table, 1, 2), 1e-9);
+
+    File file = File.createTempFile("od-matrix", ".bin");
+    try {
+      pi.addParameter(ODMatrixPlugIn.P_OUTPUT_FILE, file.getPath());
+      pi.addParameter(ODMatrixPlugIn.P_MAX_COST, 5.0);
+      Assert.assertTrue(pi.run(new DummyTaskMonitor(), fc).isEmpty());
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+      Assert.assertEquals(ODMatrix.BinaryFile.HEADER_SIZE + 2 * 3 * 8, buffer.capacity());
+      byte[] magic = new byte[8];
+      buffer.get(magic);
+      Assert.assertEquals("OJGRAPHM", new String(magic, StandardCharsets.US_ASCII));
+      Assert.assertEquals(1, buffer.getInt());
+      Assert.assertEquals(2, buffer.getInt());
+      Assert.assertEquals(3, buffer.getInt());
+      buffer.position(ODMatrix.BinaryFile.HEADER_SIZE);
+      Assert.assertEquals(2 * Math.sqrt(2), buffer.getDouble(), 1e-9);
+      Assert.assertEquals(3 * Math.sqrt(2), buffer.getDouble(), 1e-9);
+      // 10 * sqrt(2) is more than the maximum cost
+      Assert.assertEquals(Double.POSITIVE_INFINITY, buffer.getDouble(), 0.0);
+      Assert.assertEquals(Double.POSITIVE_INFINITY, buffer.getDouble(), 0.0);
+      Assert.assertEquals(Double.POSITIVE_INFINITY, buffer.getDouble(), 0.0);
+      Assert.assertEquals(2 * Math.sqrt(2), buffer.getDouble(), 1e-9);
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testCancelledBinaryFileIsDeleted() throws Exception {
+    TaskMonitor cancelled = new DummyTaskMonitor() {
+      @Override
+      public boolean isCancelRequested() {
+        return true;
+      }
+    };
+    ODMatrixPlugIn pi = new ODMatrixPlugIn();
+    pi.addParameter(ODMatrixPlugIn.P_ORIGIN_DATASET, points(new Coordinate(0, 0), new Coordinate(8, 0)));
+    pi.addParameter(ODMatrixPlugIn.P_DESTINATION_DATASET, points(new Coordinate(2, 0)));
+    File file = File.createTempFile("od-matrix", ".bin");
+    try {
+      pi.addParameter(ODMatrixPlugIn.P_OUTPUT_FILE, file.getPath());
+      Assert.assertTrue(pi.run(cancelled, NetworkGenerator.chain(10)).isEmpty());
+      // an incomplete matrix would contain rows of zeros
+      Assert.assertFalse(file.exists());
+      pi.addParameter(ODMatrixPlugIn.P_OUTPUT_FILE, null);
+      Assert.assertTrue(pi.run(cancelled, NetworkGenerator.chain(10)).isEmpty());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooLargeTableIsRejected() throws Exception {
+    // 46341 x 46341 costs overflow an int
+    Coordinate[] coordinates = new Coordinate[46341];
+    Arrays.fill(coordinates, new Coordinate(0, 0));
+    FeatureCollection points = points(coordinates);
+    ODMatrixPlugIn pi = new ODMatrixPlugIn();
+    pi.addParameter(ODMatrixPlugIn.P_ORIGIN_DATASET, points);
+    pi.addParameter(ODMatrixPlugIn.P_DESTINATION_DATASET, points);
+    pi.run(new DummyTaskMonitor(), NetworkGenerator.chain(10));
+  }
+}
@@ -0,0 +1,43 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProgressReporterTest {
+
+  @Test
+  public void testMessage() {
+    ProgressReporter progress = new ProgressReporter(null, 50000, "edges");
+    // 12000 edges in 2 s : 6000/s, 38000 left in 6.3 s
+    Assert.assertEquals("12000/50000 edges (6000/s, 0:06 left)", progress.getMessage(12000, 2_000_000_000L));
+    Assert.assertEquals("0/50000 edges", progress.getMessage(0, 2_000_000_000L));
+    Assert.assertEquals("50000/50000 edges (25000/s)", progress.getMessage(50000, 2_000_000_000L));
+    Assert.assertEquals("7 records (7/s)", new ProgressReporter(null, 0, "records").getMessage(7, 1_000_000_000L));
+    Assert.assertEquals("1:01:05", ProgressReporter.formatDuration(3665));
+  }
+
+  @Test
+  public void testReportsAreThrottled() throws Exception {
+    List<String> messages = new ArrayList<>();
+    DummyTaskMonitor monitor = new DummyTaskMonitor() {
+      @Override
+      public void report(String description) {
+        messages.add(description);
+      }
+    };
+    ProgressReporter progress = new ProgressReporter(monitor, 1000, "items");
+    for (int i = 0 ; i < 1000 ; i++) progress.report(i);
+    // the first report is sent once a period has elapsed
+    Assert.assertTrue(messages.size() <= 1);
+    Thread.sleep(ProgressReporter.PERIOD / 1_000_000 + 10);
+    int count = messages.size();
+    progress.report(500);
+    progress.report(501);
+    Assert.assertEquals(count + 1, messages.size());
+    Assert.assertTrue(messages.get(count).startsWith("500/1000 items ("));
+  }
+}
@@ -0,0 +1,94 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class ReachabilityIndexTest {
+
+  // Edges reached from edge by a plain breadth first search
+  private static int[] bruteForceTrace(CompactGraph graph, int edge, boolean downstream) {
+    boolean[] visited = new boolean[graph.getEdgeCount()];
+    Deque<Integer> queue = new ArrayDeque<>();
+    visited[edge] = true;
+    queue.add(edge);
+    while (!queue.isEmpty()) {
+      int e = queue.poll();
+      int node = downstream ? graph.getTarget(e) : graph.getSource(e);
+      int start = downstream ? graph.getOutEdgeStart(node) : graph.getInEdgeStart(node);
+      int end = downstream ? graph.getOutEdgeStart(node + 1) : graph.getInEdgeStart(node + 1);
+      for (int i = start ; i < end ; i++) {
+        int next = downstream ? graph.getOutEdge(i) : graph.getInEdge(i);
+        if (!visited[next]) {
+          visited[next] = true;
+          queue.add(next);
+        }
+      }
+    }
+    int[] result = new int[graph.getEdgeCount()];
+    int count = 0;
+    for (int e = 0 ; e < visited.length ; e++) if (visited[e]) result[count++] = e;
+    return Arrays.copyOf(result, count);
+  }
+
+  private static void assertSameTraces(FeatureCollection fc, int queries) {
+    List<Feature> features = fc.getFeatures();
+    CompactGraph graph = CompactGraph.create(features, null, false, false);
+    ReachabilityIndex index = new ReachabilityIndex(graph, features);
+    Random random = new Random(0L);
+    for (int q = 0 ; q < queries ; q++) {
+      int edge = random.nextInt(graph.getEdgeCount());
+      for (boolean downstream : new boolean[]{false, true}) {
+        Assert.assertArrayEquals(bruteForceTrace(graph, edge, downstream),
+            index.trace(new int[]{edge}, downstream));
+        int node = random.nextInt(graph.getNodeCount());
+        int from = downstream ? graph.getTarget(edge) : graph.getSource(edge);
+        boolean expected = from == node;
+        for (int e : bruteForceTrace(graph, edge, downstream)) {
+          expected |= (downstream ? graph.getTarget(e) : graph.getSource(e)) == node;
+        }
+        Assert.assertEquals(expected, index.reaches(from, node, downstream));
+      }
+    }
+  }
+
+  @Test
+  public void testDendriticNetwork() {
+    FeatureCollection fc = NetworkGenerator.dendritic(6, 1L);
+    assertSameTraces(fc, 200);
+    // the whole network is upstream of the outlet edge (the first one)
+    List<Feature> features = fc.getFeatures();
+    ReachabilityIndex index = new ReachabilityIndex(CompactGraph.create(features, null, false, false), features);
+    Assert.assertTrue(index.isLabelled(false));
+    Assert.assertEquals(features.size(), index.trace(new int[]{index.getEdge(features.get(0))}, false).length);
+  }
+
+  @Test
+  public void testNetworksWithCycles() {
+    assertSameTraces(NetworkGenerator.braided(20, 3, 2L), 200);
+    assertSameTraces(NetworkGenerator.roadGrid(20, 20, 10, 3L), 200);
+  }
+
+  @Test
+  public void testHeadlessTrace() {
+    FeatureCollection fc = NetworkGenerator.chain(10);
+    fc.getFeatures().get(4).setAttribute(NetworkGenerator.NAME, "gauge");
+    TracePlugIn pi = new TracePlugIn();
+    pi.addParameter(TracePlugIn.P_SEED_ATTRIBUTE, NetworkGenerator.NAME);
+    pi.addParameter(TracePlugIn.P_SEED_VALUE, "gauge");
+    pi.addParameter(TracePlugIn.P_DOWNSTREAM, true);
+    Map<String,FeatureCollection> result = pi.run(new DummyTaskMonitor(), fc);
+    Assert.assertEquals(5, result.get("upstream").size());
+    Assert.assertEquals(6, result.get("downstream").size());
+    Assert.assertSame(fc.getFeatures().get(4), result.get("upstream").getFeatures().get(4));
+  }
+}
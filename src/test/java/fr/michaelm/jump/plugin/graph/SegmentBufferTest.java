@@ -0,0 +1,47 @@
+package fr.michaelm.jump.plugin.graph;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+import java.util.List;
+
+public class SegmentBufferTest {
+
+  private static final GeometryFactory FACTORY = new GeometryFactory();
+
+  private LineString line(double... coords) {
+    Coordinate[] cc = new Coordinate[coords.length/2];
+    for (int i = 0 ; i < cc.length ; i++) cc[i] = new Coordinate(coords[2*i], coords[2*i+1]);
+    return FACTORY.createLineString(cc);
+  }
+
+  @Test
+  public void testSharedSegmentsAreDeduplicated() {
+    SegmentBuffer buffer = new SegmentBuffer();
+    // two adjacent squares sharing segment (1,0)-(1,1)
+    buffer.addSegments(line(0, 0, 1, 0, 1, 1, 0, 1, 0, 0).getCoordinateSequence());
+    buffer.addSegments(line(1, 0, 2, 0, 2, 1, 1, 1, 1, 0).getCoordinateSequence());
+    Assert.assertEquals(6, buffer.getVertexCount());
+    Assert.assertEquals(7, buffer.getSegmentCount());
+    // 3 lines between the two degree 3 nodes
+    List<LineString> lines = buffer.getMergedLines(FACTORY);
+    Assert.assertEquals(3, lines.size());
+    Assert.assertEquals(7.0, lines.stream().mapToDouble(LineString::getLength).sum(), 1e-12);
+  }
+
+  @Test
+  public void testRetainAndMerge() {
+    SegmentBuffer buffer = new SegmentBuffer();
+    buffer.addSegments(line(0, 0, 1, 0, 2, 0, 3, 0, 4, 0).getCoordinateSequence());
+    buffer.addSegments(line(0, 5, 1, 5, 1, 6, 0, 5).getCoordinateSequence());
+    // remove segments touching vertex (2,0)
+    buffer.retainSegments(v -> buffer.getX(v) != 2 || buffer.getY(v) != 0);
+    Assert.assertEquals(5, buffer.getSegmentCount());
+    List<LineString> lines = buffer.getMergedLines(FACTORY);
+    Assert.assertEquals(3, lines.size());
+    Assert.assertEquals(1, lines.stream().filter(LineString::isClosed).count());
+  }
+}
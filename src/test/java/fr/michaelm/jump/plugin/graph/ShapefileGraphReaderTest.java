@@ -0,0 +1,126 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.io.DriverProperties;
+import com.vividsolutions.jump.io.ShapefileWriter;
+import com.vividsolutions.jump.io.datasource.DataSource;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import com.vividsolutions.jump.task.TaskMonitor;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class ShapefileGraphReaderTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(FeatureCollection fc) throws Exception {
+    File file = new File(folder.getRoot(), "network.shp");
+    DriverProperties properties = new DriverProperties();
+    properties.set(DataSource.FILE_KEY, file.getPath());
+    new ShapefileWriter().write(fc, properties);
+    return file;
+  }
+
+  private Set<String> nodes(FeatureCollection nodes) {
+    Set<String> set = new TreeSet<>();
+    for (Feature f : nodes.getFeatures()) {
+      StringBuilder sb = new StringBuilder(f.getGeometry().toText());
+      for (int i = 0 ; i < f.getSchema().getAttributeCount() ; i++) {
+        if (i != f.getSchema().getGeometryIndex()) sb.append(';').append(f.getAttribute(i));
+      }
+      set.add(sb.toString());
+    }
+    return set;
+  }
+
+  @Test
+  public void testStreamedNodesEqualLoadedNodes() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(6, 1L);
+    File file = write(fc);
+    for (String attribute : new String[]{null, NetworkGenerator.NAME}) {
+      GraphNodesPlugIn pi = new GraphNodesPlugIn();
+      pi.addParameter(GraphNodesPlugIn.P_ATTRIBUTE, attribute);
+      pi.addParameter(GraphNodesPlugIn.P_DEGREE_3P, true);
+      FeatureCollection loaded = pi.run(new DummyTaskMonitor(), fc).values().iterator().next();
+      FeatureCollection streamed = pi.run(new DummyTaskMonitor(), file).values().iterator().next();
+      Assert.assertTrue(loaded.size() > 0);
+      Assert.assertEquals(nodes(loaded), nodes(streamed));
+    }
+  }
+
+  @Test
+  public void testCancelledRunIsNotCached() throws Exception {
+    File file = write(NetworkGenerator.dendritic(5, 1L));
+    File cache = folder.newFolder("cache");
+    TaskMonitor cancelled = new DummyTaskMonitor() {
+      @Override
+      public boolean isCancelRequested() {
+        return true;
+      }
+    };
+    System.setProperty(GraphCache.CACHE_DIRECTORY_PROPERTY, cache.getPath());
+    try {
+      Assert.assertTrue(new GraphNodesPlugIn().run(cancelled, file).isEmpty());
+      TracePlugIn trace = new TracePlugIn();
+      trace.addParameter(TracePlugIn.P_SEED_ATTRIBUTE, NetworkGenerator.NAME);
+      trace.addParameter(TracePlugIn.P_SEED_VALUE, "gauge");
+      Assert.assertTrue(trace.run(cancelled, file).isEmpty());
+    } finally {
+      System.clearProperty(GraphCache.CACHE_DIRECTORY_PROPERTY);
+    }
+    // a truncated graph would be read back by the next runs
+    Assert.assertArrayEquals(new String[0], cache.list());
+  }
+
+  @Test
+  public void testLazyFeatures() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(5, 1L);
+    try (ShapefileGraphReader reader = new ShapefileGraphReader(write(fc))) {
+      Assert.assertEquals(fc.size(), reader.getRecordCount());
+      CompactGraph graph = reader.readGraph(new DummyTaskMonitor(), null, false, false);
+      Assert.assertEquals(fc.size(), graph.getEdgeCount());
+      for (int e = 0 ; e < graph.getEdgeCount() ; e += 7) {
+        Feature source = fc.getFeatures().get(graph.getFeatureIndex(e));
+        Feature feature = reader.getFeature(graph.getFeatureIndex(e));
+        Assert.assertTrue(source.getGeometry().equalsExact(feature.getGeometry()));
+        Assert.assertEquals(source.getGeometry().getLength(), graph.getLength(e), 1e-9);
+        Assert.assertEquals(source.getAttribute(NetworkGenerator.NAME), feature.getAttribute(NetworkGenerator.NAME));
+      }
+    }
+  }
+
+  @Test
+  public void testStreamedTraceEqualsLoadedTrace() throws Exception {
+    FeatureCollection fc = NetworkGenerator.dendritic(6, 1L);
+    fc.getFeatures().get(fc.size() / 2).setAttribute(NetworkGenerator.NAME, "gauge");
+    File file = write(fc);
+    TracePlugIn pi = new TracePlugIn();
+    pi.addParameter(TracePlugIn.P_SEED_ATTRIBUTE, NetworkGenerator.NAME);
+    pi.addParameter(TracePlugIn.P_SEED_VALUE, "gauge");
+    pi.addParameter(TracePlugIn.P_DOWNSTREAM, true);
+    Map<String,FeatureCollection> loaded = pi.run(new DummyTaskMonitor(), fc);
+    Map<String,FeatureCollection> streamed = pi.run(new DummyTaskMonitor(), file);
+    Assert.assertEquals(loaded.keySet(), streamed.keySet());
+    for (String key : loaded.keySet()) {
+      Assert.assertTrue(loaded.get(key).size() > 0);
+      Assert.assertEquals(features(loaded.get(key)), features(streamed.get(key)));
+    }
+  }
+
+  private Set<String> features(FeatureCollection fc) {
+    Set<String> set = new TreeSet<>();
+    for (Feature f : fc.getFeatures()) {
+      set.add(f.getGeometry().toText() + ";" + f.getAttribute(NetworkGenerator.NAME));
+    }
+    return set;
+  }
+}
@@ -0,0 +1,58 @@
+package fr.michaelm.jump.plugin.graph;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class SkeletonGraphTest {
+
+  private static final GeometryFactory FACTORY = new GeometryFactory();
+
+  private LineString line(double... coords) {
+    Coordinate[] cc = new Coordinate[coords.length/2];
+    for (int i = 0 ; i < cc.length ; i++) cc[i] = new Coordinate(coords[2*i], coords[2*i+1]);
+    return FACTORY.createLineString(cc);
+  }
+
+  @Test
+  public void testRemoveEdgeMergesDegree2Node() {
+    // a fork at (10,0) with a short branch to (10,1)
+    SkeletonGraph graph = new SkeletonGraph(Arrays.asList(
+        line(0, 0, 10, 0),
+        line(10, 0, 20, 0),
+        line(10, 0, 10, 1)));
+    Assert.assertEquals(3, graph.getEdgeCount());
+    SkeletonGraph.Edge branch = null;
+    for (SkeletonGraph.Node node : graph.getNodes()) {
+      if (node.coordinate.equals2D(new Coordinate(10, 1))) branch = node.edges.get(0);
+    }
+    Set<SkeletonGraph.Node> dirty = graph.removeEdges(Collections.singleton(branch));
+    Assert.assertFalse(dirty.isEmpty());
+    Assert.assertEquals(1, graph.getEdgeCount());
+    Assert.assertEquals(2, graph.getNodes().size());
+    List<LineString> lines = graph.getLines(FACTORY);
+    Assert.assertEquals(20.0, lines.get(0).getLength(), 0.0);
+    Assert.assertEquals(3, lines.get(0).getNumPoints());
+  }
+
+  @Test
+  public void testIsolatedRingIsKept() {
+    SkeletonGraph graph = new SkeletonGraph(Arrays.asList(
+        line(0, 0, 10, 0, 10, 10, 0, 0),
+        line(0, 0, -5, 0)));
+    SkeletonGraph.Edge dangle = null;
+    for (SkeletonGraph.Node node : graph.getNodes()) {
+      if (node.degree() == 1) dangle = node.edges.get(0);
+    }
+    graph.removeEdges(Collections.singleton(dangle));
+    Assert.assertEquals(1, graph.getEdgeCount());
+    Assert.assertTrue(graph.getLines(FACTORY).get(0).isClosed());
+  }
+}
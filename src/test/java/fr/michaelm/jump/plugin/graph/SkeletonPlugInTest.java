@@ -0,0 +1,154 @@
+package fr.michaelm.jump.plugin.graph;
+
+import com.vividsolutions.jump.feature.Feature;
+import com.vividsolutions.jump.feature.FeatureCollection;
+import com.vividsolutions.jump.feature.FeatureDataset;
+import com.vividsolutions.jump.task.DummyTaskMonitor;
+import org.junit.Assert;
+import org.junit.Test;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SkeletonPlugInTest {
+
+  // Former estimation of the semi minimal width : start is multiplied by
+  // sqrt(2) until a negative buffer splits geometry or reduces its boundary
+  // length by more than 10%
+  private static double scanSemiMinWidth(Geometry geometry, double start) {
+    double semiMinWidth = start;
+    Geometry buffer = geometry.buffer(-semiMinWidth);
+    while (buffer.getNumGeometries() == geometry.getNumGeometries() &&
+        buffer.getLength() / geometry.getLength() > 0.9) {
+      semiMinWidth = semiMinWidth * Math.sqrt(2.0);
+      buffer = geometry.buffer(-semiMinWidth);
+    }
+    return semiMinWidth;
+  }
+
+  @Test
+  public void testMinWidthEstimationMatchesScan() {
+    SkeletonPlugIn pi = new SkeletonPlugIn();
+    for (long seed = 1 ; seed <= 3 ; seed++) {
+      Geometry river = NetworkGenerator.riverPolygon(10.0, 300.0, 200, seed);
+      Assert.assertEquals(scanSemiMinWidth(river, 10.0/128), pi.estimateSemiMinWidth(river, 10.0/128), 0.0);
+      Geometry star = NetworkGenerator.starPolygon(500, seed);
+      Assert.assertEquals(scanSemiMinWidth(star, 0.1), pi.estimateSemiMinWidth(star, 0.1), 0.0);
+    }
+  }
+
+  // Skeletonizes dataset with parameters given as name, value pairs
+  static List<Feature> skeletonize(FeatureCollection dataset, Object... parameters) throws Exception {
+    SkeletonPlugIn pi = new SkeletonPlugIn();
+    for (int i = 0 ; i < parameters.length ; i += 2) pi.addParameter((String)parameters[i], parameters[i+1]);
+    return pi.run(new DummyTaskMonitor(), dataset).get("skeletonized").getFeatures();
+  }
+
+  // Returns true if the lines of skeleton make a single connected network
+  static boolean isConnected(Geometry skeleton) {
+    return skeleton.getLength() > 0 && skeleton.buffer(1e-6).getNumGeometries() == 1;
+  }
+
+  @Test
+  public void testDelaunayAndVoronoiSkeletons() throws Exception {
+    for (long seed = 1 ; seed <= 3 ; seed++) {
+      FeatureCollection river = NetworkGenerator.asDataset(NetworkGenerator.riverPolygon(10.0, 500.0, 400, seed));
+      Geometry voronoi = skeletonize(river).get(0).getGeometry();
+      Geometry delaunay = skeletonize(river, SkeletonPlugIn.P_DELAUNAY, true).get(0).getGeometry();
+      // the skeleton of a river is a single line following its centerline
+      Assert.assertEquals(1, voronoi.getNumGeometries());
+      Assert.assertEquals(1, delaunay.getNumGeometries());
+      Assert.assertEquals(voronoi.getLength(), delaunay.getLength(), 0.01 * voronoi.getLength());
+      FeatureCollection star = NetworkGenerator.asDataset(NetworkGenerator.starPolygon(500, seed));
+      voronoi = skeletonize(star).get(0).getGeometry();
+      delaunay = skeletonize(star, SkeletonPlugIn.P_DELAUNAY, true).get(0).getGeometry();
+      Assert.assertTrue(isConnected(voronoi));
+      Assert.assertTrue(isConnected(delaunay));
+      Assert.assertEquals(voronoi.getLength(), delaunay.getLength(), 0.1 * voronoi.getLength());
+    }
+  }
+
+  @Test
+  public void testSkeletonEndsAreSnappedToBoundary() throws Exception {
+    Polygon river = NetworkGenerator.riverPolygon(10.0, 500.0, 400, 1L);
+    LineString skeleton = (LineString)skeletonize(NetworkGenerator.asDataset(river),
+        SkeletonPlugIn.P_SNAP_TO_BOUNDARY, true).get(0).getGeometry();
+    Assert.assertEquals(0.0, river.getBoundary().distance(skeleton.getStartPoint()), 1e-6);
+    Assert.assertEquals(0.0, river.getBoundary().distance(skeleton.getEndPoint()), 1e-6);
+  }
+
+  @Test
+  public void testThreadsDoNotChangeOutput() throws Exception {
+    FeatureCollection dataset = new FeatureDataset(NetworkGenerator.SCHEMA);
+    for (long seed = 1 ; seed <= 4 ; seed++) {
+      dataset.add(NetworkGenerator.asDataset(NetworkGenerator.riverPolygon(10.0, 300.0, 200, seed)).getFeatures().get(0));
+      dataset.add(NetworkGenerator.asDataset(NetworkGenerator.starPolygon(300, seed)).getFeatures().get(0));
+    }
+    List<Feature> sequential = skeletonize(dataset, SkeletonPlugIn.P_THREADS, 1);
+    List<Feature> parallel = skeletonize(dataset, SkeletonPlugIn.P_THREADS, 4);
+    Assert.assertEquals(dataset.size(), parallel.size());
+    for (int i = 0 ; i < dataset.size() ; i++) {
+      Assert.assertTrue(sequential.get(i).getGeometry().equalsExact(parallel.get(i).getGeometry()));
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testAdaptiveDensificationOfSliverWithZeroSpacing() throws Exception {
+    // a 100 x 100 square with a 1e-9 wide spike : the inscribed radius along
+    // the spike is negligible and minimal spacing is 0
+    Geometry polygon = new WKTReader().read(
+        "POLYGON((0 0, 100 0, 100 50, 101 50, 101 50.000000001, 100 50.000000001, 100 100, 0 100, 0 0))");
+    Geometry densified = new SkeletonPlugIn().densifyAdaptively(polygon, 0.0);
+    Assert.assertTrue(densified.isValid());
+    Assert.assertTrue(densified.getNumPoints() < 100000);
+  }
+
+  @Test
+  public void testTiledSkeletonIsConnected() throws Exception {
+    for (long seed = 1 ; seed <= 3 ; seed++) {
+      FeatureCollection river = NetworkGenerator.asDataset(NetworkGenerator.riverPolygon(10.0, 500.0, 400, seed));
+      Geometry untiled = skeletonize(river).get(0).getGeometry();
+      Geometry tiled = skeletonize(river, SkeletonPlugIn.P_TILED, true, SkeletonPlugIn.P_TILE_SIZE, 50.0).get(0).getGeometry();
+      Assert.assertEquals(1, tiled.getNumGeometries());
+      Assert.assertEquals(untiled.getLength(), tiled.getLength(), 1e-6 * untiled.getLength());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testTilesShareThreadsWithParts() throws Exception {
+    FeatureCollection dataset = new FeatureDataset(NetworkGenerator.SCHEMA);
+    for (long seed = 1 ; seed <= 3 ; seed++) {
+      dataset.add(NetworkGenerator.asDataset(NetworkGenerator.riverPolygon(10.0, 500.0, 400, seed)).getFeatures().get(0));
+    }
+    // tiles are computed by the thread of their polygon if no other thread is free
+    List<Feature> sequential = skeletonize(dataset, SkeletonPlugIn.P_TILED, true,
+        SkeletonPlugIn.P_TILE_SIZE, 50.0, SkeletonPlugIn.P_THREADS, 1);
+    List<Feature> parallel = skeletonize(dataset, SkeletonPlugIn.P_TILED, true,
+        SkeletonPlugIn.P_TILE_SIZE, 50.0, SkeletonPlugIn.P_THREADS, 4);
+    for (int i = 0 ; i < dataset.size() ; i++) {
+      Assert.assertTrue(sequential.get(i).getGeometry().equalsExact(parallel.get(i).getGeometry()));
+    }
+  }
+
+  @Test
+  public void testMetricsOfEveryEngine() throws Exception {
+    FeatureCollection river = NetworkGenerator.asDataset(NetworkGenerator.riverPolygon(10.0, 500.0, 400, 1L));
+    Object[][] engines = new Object[][]{
+        {},
+        {SkeletonPlugIn.P_DELAUNAY, true},
+        {SkeletonPlugIn.P_TILED, true, SkeletonPlugIn.P_TILE_SIZE, 50.0}};
+    for (Object[] engine : engines) {
+      Object[] parameters = Arrays.copyOf(engine, engine.length + 2);
+      parameters[engine.length] = SkeletonPlugIn.P_METRICS;
+      parameters[engine.length + 1] = true;
+      Feature feature = skeletonize(river, parameters).get(0);
+      for (String metric : new String[]{"voronoi_ms", "extraction_ms", "filter_ms", "voronoi_edges", "final_edges"}) {
+        Assert.assertNotNull(metric, feature.getAttribute(metric));
+      }
+    }
+  }
+}